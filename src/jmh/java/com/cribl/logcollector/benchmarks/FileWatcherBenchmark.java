@@ -0,0 +1,190 @@
+package com.cribl.logcollector.benchmarks;
+
+import com.cribl.logcollector.services.ICriblFileWatcher;
+import com.cribl.logcollector.services.filewatchers.ByteSeekerFileWatcherCallable;
+import com.cribl.logcollector.services.filewatchers.MappedFileWatcherCallable;
+import com.cribl.logcollector.services.filewatchers.StreamsFileWatcherCallable;
+import com.cribl.logcollector.services.matchers.ILineMatcher;
+import com.cribl.logcollector.services.matchers.LineMatchers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the file watcher implementations tailing synthetic log files.
+ * <p>
+ * Files are generated once into java.io.tmpdir (or -Dbenchmark.dir in the forked JVM) and reused by later runs, since writing several GB takes a while.
+ * Every parameter can be narrowed or widened from the command line, ie. -p fileSize=4GB -p impl=BYTE_SEEKER.
+ * Run with -prof gc to get allocation rates along with throughput and latency percentiles.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class FileWatcherBenchmark {
+
+    /**
+     * File watcher implementations under test. Add new readers here to benchmark them against the existing ones
+     */
+    public enum Impl {
+        BYTE_SEEKER {
+            @Override
+            ICriblFileWatcher create(String fileName, int numEntries, ILineMatcher lineMatcher) {
+                return new ByteSeekerFileWatcherCallable(fileName, numEntries, lineMatcher);
+            }
+        },
+        MAPPED {
+            @Override
+            ICriblFileWatcher create(String fileName, int numEntries, ILineMatcher lineMatcher) {
+                return new MappedFileWatcherCallable(fileName, numEntries, lineMatcher);
+            }
+        },
+        STREAMS {
+            @Override
+            ICriblFileWatcher create(String fileName, int numEntries, ILineMatcher lineMatcher) {
+                return new StreamsFileWatcherCallable(fileName, numEntries, lineMatcher);
+            }
+        };
+
+        abstract ICriblFileWatcher create(String fileName, int numEntries, ILineMatcher lineMatcher);
+    }
+
+    /**
+     * How many lines a filter matches
+     */
+    public enum Filter {
+        NONE(null),
+        // Every line
+        COMMON("info"),
+        // One in every RARE_TERM_INTERVAL lines
+        RARE("needle"),
+        // No line, so the whole file is scanned
+        ABSENT("no such term");
+
+        private final String term;
+
+        Filter(String term) {
+            this.term = term;
+        }
+    }
+
+    private static final int RARE_TERM_INTERVAL = 10_000;
+
+    @Param({"1MB", "256MB"})
+    public String fileSize;
+
+    @Param({"1", "100", "100000"})
+    public int numEntries;
+
+    @Param({"LF", "CRLF"})
+    public String lineEnding;
+
+    // Short lines are ~60 bytes, long ones ~2KB, half the byte seeker's 4KB first read, so about every other long line straddles two reads
+    @Param({"SHORT", "LONG"})
+    public String lineLength;
+
+    @Param({"NONE", "COMMON", "RARE", "ABSENT"})
+    public Filter filter;
+
+    @Param({"BYTE_SEEKER", "MAPPED", "STREAMS"})
+    public Impl impl;
+
+    private String fileName;
+    private ILineMatcher lineMatcher;
+    private ICriblFileWatcher warmWatcher;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Path file = generateFile(parseSize(fileSize), "CRLF".equals(lineEnding) ? "\r\n" : "\n", "LONG".equals(lineLength) ? 2048 : 0);
+        fileName = file.toString();
+        lineMatcher = filter.term == null ? null : LineMatchers.containsIgnoreCase(filter.term);
+        warmWatcher = impl.create(fileName, numEntries, lineMatcher);
+    }
+
+    /**
+     * First read of a file, ie. a cache miss
+     */
+    @Benchmark
+    public List<String> coldTail() throws Exception {
+        return impl.create(fileName, numEntries, lineMatcher).call();
+    }
+
+    /**
+     * Drops the lines the warm watcher kept from its last read, so every implementation reads the tail again rather than some of them
+     * answering from their cache
+     */
+    @Setup(Level.Invocation)
+    public void invalidateWarmWatcher() {
+        warmWatcher.releaseCachedLines();
+    }
+
+    /**
+     * Repeated read of an unchanged file by the same watcher once its cached lines have been dropped, ie. after a cache eviction.
+     * Unlike {@link #coldTail()} the watcher keeps its open file and what it learned about the file's line lengths
+     */
+    @Benchmark
+    public List<String> warmTail() throws Exception {
+        return warmWatcher.call();
+    }
+
+    private static long parseSize(String size) {
+        String value = size.toUpperCase(Locale.ROOT);
+        if (value.endsWith("GB")) {
+            return Long.parseLong(value.substring(0, value.length() - 2)) << 30;
+        } else if (value.endsWith("MB")) {
+            return Long.parseLong(value.substring(0, value.length() - 2)) << 20;
+        } else if (value.endsWith("KB")) {
+            return Long.parseLong(value.substring(0, value.length() - 2)) << 10;
+        }
+        return Long.parseLong(value);
+    }
+
+    /**
+     * Writes a log file of roughly the requested size, or reuses the one a previous run wrote
+     */
+    private static Path generateFile(long size, String newLine, int padding) throws IOException {
+        Path dir = Paths.get(System.getProperty("benchmark.dir", System.getProperty("java.io.tmpdir")));
+        Path file = dir.resolve(String.format("cribl-benchmark-%d-%s-%d.log", size, newLine.length() == 2 ? "crlf" : "lf", padding));
+        if (Files.exists(file)) {
+            return file;
+        }
+
+        String pad = "x".repeat(padding);
+        Path tmpFile = Files.createTempFile(dir, "cribl-benchmark", ".tmp");
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmpFile), 1 << 20)) {
+            long written = 0;
+            for (long line = 0; written < size; line++) {
+                String term = line % RARE_TERM_INTERVAL == 0 ? " needle" : "";
+                byte[] bytes = String.format("2024-01-15 10:%02d:%02d INFO [worker-%d] Handled request %d%s %s%s",
+                        (line / 60) % 60, line % 60, line % 16, line, term, pad, newLine).getBytes(StandardCharsets.UTF_8);
+                out.write(bytes);
+                written += bytes.length;
+            }
+        }
+        // Only publish complete files, so an interrupted run doesn't leave a short file behind for the next one
+        return Files.move(tmpFile, file, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
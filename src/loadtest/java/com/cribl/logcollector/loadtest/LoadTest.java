@@ -0,0 +1,357 @@
+package com.cribl.logcollector.loadtest;
+
+import com.cribl.logcollector.SpringBootApplication;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * End to end load test of the tail endpoint. Generates log files, starts the app on them and has concurrent clients hammer
+ * /cribl/log/tail with a weighted mix of scenarios, then reports throughput and latency percentiles per scenario as JSON.
+ * <p>
+ * Scenarios:
+ * <ul>
+ *     <li>hot: short tails of a few hot files, mostly answered from the caches. Live writers keep appending to some of them</li>
+ *     <li>filter: filtered tails of the hot files, from a list of queries</li>
+ *     <li>cold: tails of the other files under a query no line fails (NOT a random token), so each one misses every cache</li>
+ *     <li>deep: tails of a large number of entries</li>
+ * </ul>
+ * Clients are closed loop, each sends its next request once the last one is answered. Options are passed as --name=value arguments,
+ * see {@link #DEFAULTS}. Arguments with a dot in their name, ie. --com.cribl.logcollector.io.maxConcurrentReads=20, configure the app.
+ * Run with: mvn -Ploadtest test-compile exec:exec -Dloadtest.args="--fileSize=2GB --clients=64"
+ */
+public class LoadTest {
+
+    enum Scenario {
+        HOT,
+        FILTER,
+        COLD,
+        DEEP;
+
+        final String tag = name().toLowerCase(Locale.ROOT);
+    }
+
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+    static {
+        // Files
+        DEFAULTS.put("dir", "target/loadtest/logs");
+        DEFAULTS.put("files", "8");
+        DEFAULTS.put("fileSize", "256MB");
+        DEFAULTS.put("hotFiles", "2");
+        DEFAULTS.put("regenerate", "false");
+        DEFAULTS.put("levels", "INFO:80,WARN:12,ERROR:5,DEBUG:3");
+        DEFAULTS.put("lineMedianBytes", "120");
+        DEFAULTS.put("lineSigma", "0.6");
+        DEFAULTS.put("lineMaxBytes", "8192");
+        DEFAULTS.put("stackTraceRatio", "0.3");
+        DEFAULTS.put("timeSpanHours", "24");
+        DEFAULTS.put("seed", "42");
+        // Live writers, appending to the first hot files
+        DEFAULTS.put("liveFiles", "1");
+        DEFAULTS.put("appendLinesPerSecond", "200");
+        // Clients
+        DEFAULTS.put("clients", "32");
+        DEFAULTS.put("warmupSeconds", "10");
+        DEFAULTS.put("durationSeconds", "60");
+        DEFAULTS.put("mix", "HOT:70,FILTER:15,COLD:10,DEEP:5");
+        DEFAULTS.put("hotEntries", "100");
+        DEFAULTS.put("filterEntries", "1000");
+        DEFAULTS.put("coldEntries", "1000");
+        DEFAULTS.put("deepEntries", "100000");
+        DEFAULTS.put("filters", "error;status=503;timeout AND db-3;re:/took=19\\d\\dms/");
+        DEFAULTS.put("acceptEncoding", "gzip");
+        // Target, the app is started in this JVM unless a url is given
+        DEFAULTS.put("url", "");
+        DEFAULTS.put("username", "cribl");
+        DEFAULTS.put("password", "password");
+        // Results
+        DEFAULTS.put("results", "");
+        DEFAULTS.put("baseline", "");
+    }
+
+    private final Map<String, String> options;
+    private final List<String> appArgs;
+    private final AtomicLong coldQueries = new AtomicLong();
+    private final AtomicBoolean failurePrinted = new AtomicBoolean();
+
+    private LoadTest(Map<String, String> options, List<String> appArgs) {
+        this.options = options;
+        this.appArgs = appArgs;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>(DEFAULTS);
+        List<String> appArgs = new ArrayList<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --name=value, got: " + arg);
+            }
+            String name = arg.substring(2, arg.indexOf('='));
+            if (name.contains(".")) {
+                appArgs.add(arg);
+            } else if (DEFAULTS.containsKey(name)) {
+                options.put(name, arg.substring(arg.indexOf('=') + 1));
+            } else {
+                throw new IllegalArgumentException("Unknown option --" + name + ", known ones are " + DEFAULTS.keySet());
+            }
+        }
+        new LoadTest(options, appArgs).run();
+    }
+
+    private void run() throws Exception {
+        List<Path> files = generateFiles();
+        int hotFiles = Math.clamp(getInt("hotFiles"), 1, files.size());
+        List<Path> hot = files.subList(0, hotFiles);
+        // Without cold files, cold reads go to the hot ones
+        List<Path> cold = hotFiles < files.size() ? files.subList(hotFiles, files.size()) : hot;
+
+        ScheduledExecutorService writers = Executors.newScheduledThreadPool(1);
+        ConfigurableApplicationContext app = null;
+        try {
+            String baseUrl = options.get("url");
+            String username = options.get("username");
+            String password = options.get("password");
+            if (baseUrl.isEmpty()) {
+                app = startApp(files.get(0).toAbsolutePath().getParent());
+                baseUrl = "http://localhost:" + ((WebServerApplicationContext) app).getWebServer().getPort();
+                username = app.getEnvironment().getProperty("com.cribl.logcollector.ws.username");
+                password = app.getEnvironment().getProperty("com.cribl.logcollector.ws.password");
+            }
+
+            LogGenerator generator = createGenerator();
+            for (Path live : hot.subList(0, Math.min(getInt("liveFiles"), hot.size()))) {
+                generator.startAppending(live, getInt("appendLinesPerSecond"), writers);
+            }
+
+            String authorization = "Basic " + Base64.getEncoder().encodeToString((username + ":" + password).getBytes(StandardCharsets.UTF_8));
+            JsonNode results = drive(baseUrl, authorization, hot, cold);
+            report(results);
+        } finally {
+            writers.shutdownNow();
+            if (app != null) {
+                app.close();
+            }
+        }
+    }
+
+    /**
+     * Writes the log files, unless files of at least the requested size are there from an earlier run
+     */
+    private List<Path> generateFiles() throws IOException {
+        Path dir = Paths.get(options.get("dir"));
+        Files.createDirectories(dir);
+        long fileSize = parseSize(options.get("fileSize"));
+        LogGenerator generator = createGenerator();
+
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < getInt("files"); i++) {
+            Path file = dir.resolve(String.format(Locale.ROOT, "loadtest-%02d.log", i));
+            if (getBoolean("regenerate") || !Files.exists(file) || Files.size(file) < fileSize) {
+                long start = System.nanoTime();
+                generator.generate(file, fileSize);
+                System.out.printf(Locale.ROOT, "Generated %s (%,d bytes) in %d ms%n", file, Files.size(file),
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            }
+            files.add(file);
+        }
+        return files;
+    }
+
+    private LogGenerator createGenerator() {
+        LogGenerator generator = new LogGenerator(options.get("levels"));
+        generator.setLineLength(getInt("lineMedianBytes"), Double.parseDouble(options.get("lineSigma")), getInt("lineMaxBytes"));
+        generator.setStackTraceRatio(Double.parseDouble(options.get("stackTraceRatio")));
+        generator.setTimeSpanMillis(TimeUnit.HOURS.toMillis(getInt("timeSpanHours")));
+        generator.setSeed(Long.parseLong(options.get("seed")));
+        return generator;
+    }
+
+    private ConfigurableApplicationContext startApp(Path logDir) {
+        List<String> args = new ArrayList<>();
+        args.add("--server.port=0");
+        args.add("--com.cribl.logcollector.filepath=" + logDir + "/");
+        args.add("--logging.level.com.cribl=INFO");
+        // Allow the deep scenario's entries unless told otherwise
+        args.add("--com.cribl.logcollector.maxTailLines=" + Math.max(100_000, getInt("deepEntries")));
+        args.addAll(appArgs);
+        return new SpringApplicationBuilder(SpringBootApplication.class).run(args.toArray(new String[0]));
+    }
+
+    /**
+     * Runs the clients through the warmup and the measured run
+     *
+     * @return Results of the measured run
+     */
+    private JsonNode drive(String baseUrl, String authorization, List<Path> hot, List<Path> cold) throws Exception {
+        Map<String, Integer> mix = LogGenerator.parseWeights(options.get("mix"));
+        List<Scenario> weightedScenarios = new ArrayList<>();
+        mix.forEach((name, weight) -> {
+            for (int i = 0; i < weight; i++) {
+                weightedScenarios.add(Scenario.valueOf(name));
+            }
+        });
+        String[] filters = options.get("filters").split(";");
+        LoadTestResults results = new LoadTestResults(mix.keySet().stream().map(name -> Scenario.valueOf(name).tag).toList());
+
+        long warmupNanos = TimeUnit.SECONDS.toNanos(getInt("warmupSeconds"));
+        long durationNanos = TimeUnit.SECONDS.toNanos(getInt("durationSeconds"));
+        long measureStart = System.nanoTime() + warmupNanos;
+        long measureEnd = measureStart + durationNanos;
+        System.out.printf(Locale.ROOT, "Running %d clients against %s, %d s warmup and %d s measured%n", getInt("clients"), baseUrl,
+                getInt("warmupSeconds"), getInt("durationSeconds"));
+
+        // Closing the executor waits for the clients, so it has to be closed before the HTTP client
+        try (HttpClient http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).connectTimeout(Duration.ofSeconds(10)).build();
+             ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < getInt("clients"); i++) {
+                clients.submit(() -> {
+                    byte[] buffer = new byte[64 * 1024];
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (System.nanoTime() < measureEnd) {
+                        Scenario scenario = weightedScenarios.get(random.nextInt(weightedScenarios.size()));
+                        HttpRequest request = HttpRequest.newBuilder(buildUri(baseUrl, scenario, hot, cold, filters, random))
+                                .header("Authorization", authorization)
+                                .header("Accept", "application/json")
+                                .header("Accept-Encoding", options.get("acceptEncoding"))
+                                .timeout(Duration.ofMinutes(5))
+                                .build();
+
+                        long start = System.nanoTime();
+                        int status = 0;
+                        long bytes = 0;
+                        try {
+                            HttpResponse<InputStream> response = http.send(request, HttpResponse.BodyHandlers.ofInputStream());
+                            status = response.statusCode();
+                            try (InputStream body = response.body()) {
+                                for (int read; (read = body.read(buffer)) >= 0; ) {
+                                    bytes += read;
+                                }
+                            }
+                        } catch (IOException e) {
+                            // Recorded with status 0. Failures tend to come all at once, so only the first one is printed
+                            if (failurePrinted.compareAndSet(false, true)) {
+                                System.err.println("Request failed: " + e);
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return null;
+                        }
+                        long end = System.nanoTime();
+                        if (start >= measureStart && end <= measureEnd) {
+                            results.record(scenario.tag, status, bytes, end - start);
+                        }
+                    }
+                    return null;
+                });
+            }
+        }
+        return results.toJson(new ObjectMapper(), options, durationNanos);
+    }
+
+    private URI buildUri(String baseUrl, Scenario scenario, List<Path> hot, List<Path> cold, String[] filters, ThreadLocalRandom random) {
+        Path file;
+        int entries;
+        String filter = null;
+        switch (scenario) {
+            case HOT -> {
+                file = hot.get(random.nextInt(hot.size()));
+                entries = getInt("hotEntries");
+            }
+            case FILTER -> {
+                file = hot.get(random.nextInt(hot.size()));
+                entries = getInt("filterEntries");
+                filter = filters[random.nextInt(filters.length)];
+            }
+            case COLD -> {
+                file = cold.get(random.nextInt(cold.size()));
+                entries = getInt("coldEntries");
+                // Every line passes, but the query is new to the caches
+                filter = "NOT zzcold" + coldQueries.incrementAndGet();
+            }
+            case DEEP -> {
+                file = hot.get(random.nextInt(hot.size()));
+                entries = getInt("deepEntries");
+            }
+            default -> throw new IllegalStateException("Unknown scenario " + scenario);
+        }
+
+        StringBuilder uri = new StringBuilder(baseUrl).append("/cribl/log/tail?filename=").append(encode(file.getFileName().toString()))
+                .append("&numEntries=").append(entries);
+        if (filter != null) {
+            uri.append("&filter=").append(encode(filter));
+        }
+        return URI.create(uri.toString());
+    }
+
+    private void report(JsonNode results) throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        Path resultsFile = options.get("results").isEmpty()
+                ? Paths.get("target/loadtest", "results-" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ".json")
+                : Paths.get(options.get("results"));
+        LoadTestResults.write(mapper, results, resultsFile);
+
+        System.out.println();
+        LoadTestResults.print(results, System.out);
+        if (!options.get("baseline").isEmpty()) {
+            System.out.println();
+            LoadTestResults.printComparison(mapper.readTree(Paths.get(options.get("baseline")).toFile()), results, System.out);
+        }
+        System.out.println();
+        System.out.println("Results written to " + resultsFile.toAbsolutePath());
+    }
+
+    private int getInt(String name) {
+        return Integer.parseInt(options.get(name));
+    }
+
+    private boolean getBoolean(String name) {
+        return Boolean.parseBoolean(options.get(name));
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    private static long parseSize(String size) {
+        String value = size.toUpperCase(Locale.ROOT);
+        if (value.endsWith("GB")) {
+            return Long.parseLong(value.substring(0, value.length() - 2)) << 30;
+        } else if (value.endsWith("MB")) {
+            return Long.parseLong(value.substring(0, value.length() - 2)) << 20;
+        } else if (value.endsWith("KB")) {
+            return Long.parseLong(value.substring(0, value.length() - 2)) << 10;
+        }
+        return Long.parseLong(value);
+    }
+}
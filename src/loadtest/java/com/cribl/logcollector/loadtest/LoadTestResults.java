@@ -0,0 +1,167 @@
+package com.cribl.logcollector.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latencies, statuses and bytes of the requests of a load test run, per scenario and for all of them.
+ * <p>
+ * Latencies are recorded in microseconds into HdrHistograms, so p99.9 is as exact as p50 however many requests a run makes.
+ * Results are written as JSON, along with the options of the run, so runs can be compared with {@link #printComparison}.
+ */
+public class LoadTestResults {
+
+    static final String ALL = "all";
+
+    private static final long MAX_LATENCY_MICROS = TimeUnit.MINUTES.toMicros(10);
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final Map<String, ScenarioResults> scenarios = new LinkedHashMap<>();
+
+    /**
+     * Requests of one scenario. Recorded concurrently by every client
+     */
+    private static class ScenarioResults {
+        private final Histogram latencies = new ConcurrentHistogram(MAX_LATENCY_MICROS, 3);
+        private final Map<Integer, AtomicLong> statuses = new TreeMap<>();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+
+        private void record(int status, long responseBytes, long latencyNanos) {
+            latencies.recordValue(Math.min(MAX_LATENCY_MICROS, TimeUnit.NANOSECONDS.toMicros(latencyNanos)));
+            synchronized (statuses) {
+                statuses.computeIfAbsent(status, s -> new AtomicLong()).incrementAndGet();
+            }
+            bytes.addAndGet(responseBytes);
+            if (status < 200 || status >= 400) {
+                errors.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @param scenarios Names of the scenarios, in the order they're reported
+     */
+    public LoadTestResults(Iterable<String> scenarios) {
+        for (String scenario : scenarios) {
+            this.scenarios.put(scenario, new ScenarioResults());
+        }
+        this.scenarios.put(ALL, new ScenarioResults());
+    }
+
+    /**
+     * @param status HTTP status of the response, 0 when the request failed without one
+     */
+    public void record(String scenario, int status, long responseBytes, long latencyNanos) {
+        scenarios.get(scenario).record(status, responseBytes, latencyNanos);
+        scenarios.get(ALL).record(status, responseBytes, latencyNanos);
+    }
+
+    /**
+     * @param options Options of the run, kept in the results so runs can be told apart
+     * @param measuredNanos Time the requests were recorded over
+     */
+    public ObjectNode toJson(ObjectMapper mapper, Map<String, String> options, long measuredNanos) {
+        ObjectNode json = mapper.createObjectNode();
+        json.put("startedAt", Instant.now().minusNanos(measuredNanos).toString());
+        json.put("measuredSeconds", measuredNanos / 1e9);
+        ObjectNode optionsJson = json.putObject("options");
+        new TreeMap<>(options).forEach(optionsJson::put);
+
+        ObjectNode scenariosJson = json.putObject("scenarios");
+        double seconds = measuredNanos / 1e9;
+        scenarios.forEach((name, results) -> {
+            ObjectNode scenario = scenariosJson.putObject(name);
+            long requests = results.latencies.getTotalCount();
+            scenario.put("requests", requests);
+            scenario.put("errors", results.errors.get());
+            scenario.put("requestsPerSecond", round(requests / seconds));
+            scenario.put("bytesPerSecond", Math.round(results.bytes.get() / seconds));
+            ObjectNode statuses = scenario.putObject("statuses");
+            synchronized (results.statuses) {
+                results.statuses.forEach((status, count) -> statuses.put(Integer.toString(status), count.get()));
+            }
+            ObjectNode latency = scenario.putObject("latencyMillis");
+            latency.put("mean", round(results.latencies.getMean() / 1000));
+            for (double percentile : PERCENTILES) {
+                latency.put(percentileName(percentile), round(results.latencies.getValueAtPercentile(percentile) / 1000d));
+            }
+            latency.put("max", round(results.latencies.getMaxValue() / 1000d));
+        });
+        return json;
+    }
+
+    public static void write(ObjectMapper mapper, JsonNode results, Path file) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        mapper.writerWithDefaultPrettyPrinter().writeValue(file.toFile(), results);
+    }
+
+    /**
+     * Prints a table of the results, one scenario per row
+     */
+    public static void print(JsonNode results, PrintStream out) {
+        out.printf(Locale.ROOT, "%-8s %9s %7s %9s %10s %9s %9s %9s %9s %9s%n",
+                "scenario", "requests", "errors", "req/s", "MB/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        for (Iterator<Map.Entry<String, JsonNode>> it = results.get("scenarios").fields(); it.hasNext(); ) {
+            Map.Entry<String, JsonNode> entry = it.next();
+            JsonNode scenario = entry.getValue();
+            JsonNode latency = scenario.get("latencyMillis");
+            out.printf(Locale.ROOT, "%-8s %9d %7d %9.1f %10.2f %9.2f %9.2f %9.2f %9.2f %9.2f%n", entry.getKey(),
+                    scenario.get("requests").asLong(), scenario.get("errors").asLong(), scenario.get("requestsPerSecond").asDouble(),
+                    scenario.get("bytesPerSecond").asDouble() / (1 << 20), latency.get("p50").asDouble(), latency.get("p90").asDouble(),
+                    latency.get("p99").asDouble(), latency.get("p99.9").asDouble(), latency.get("max").asDouble());
+        }
+    }
+
+    /**
+     * Prints how throughput and tail latencies moved since a baseline run, per scenario both runs have.
+     * Positive throughput and negative latency changes are improvements
+     */
+    public static void printComparison(JsonNode baseline, JsonNode results, PrintStream out) {
+        out.printf(Locale.ROOT, "%-8s %10s %10s %10s %10s%n", "vs base", "req/s", "p50", "p99", "p99.9");
+        for (Iterator<Map.Entry<String, JsonNode>> it = results.get("scenarios").fields(); it.hasNext(); ) {
+            Map.Entry<String, JsonNode> entry = it.next();
+            JsonNode base = baseline.path("scenarios").path(entry.getKey());
+            if (base.isMissingNode()) {
+                continue;
+            }
+            JsonNode scenario = entry.getValue();
+            out.printf(Locale.ROOT, "%-8s %10s %10s %10s %10s%n", entry.getKey(),
+                    change(base.get("requestsPerSecond"), scenario.get("requestsPerSecond")),
+                    change(base.path("latencyMillis").get("p50"), scenario.path("latencyMillis").get("p50")),
+                    change(base.path("latencyMillis").get("p99"), scenario.path("latencyMillis").get("p99")),
+                    change(base.path("latencyMillis").get("p99.9"), scenario.path("latencyMillis").get("p99.9")));
+        }
+    }
+
+    private static String change(JsonNode before, JsonNode after) {
+        if (before == null || after == null || before.asDouble() == 0) {
+            return "n/a";
+        }
+        return String.format(Locale.ROOT, "%+.1f%%", (after.asDouble() / before.asDouble() - 1) * 100);
+    }
+
+    private static String percentileName(double percentile) {
+        return percentile == Math.rint(percentile) ? "p" + (int) percentile : "p" + percentile;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 1000) / 1000d;
+    }
+}
@@ -0,0 +1,275 @@
+package com.cribl.logcollector.loadtest;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes synthetic application logs that look like the real thing to the collector: timestamped lines with a level, a thread, a logger
+ * and a message with key=value fields, line lengths spread over a log-normal distribution and the odd stack trace after an error.
+ * <p>
+ * Files are written in one go for a given size, with timestamps spread evenly over a time span ending now, or appended to at a steady
+ * rate by live writers. Lines are built straight into a byte buffer, so multi GB files take seconds rather than minutes.
+ * Same seed, same file.
+ */
+public class LogGenerator {
+
+    private static final String[] THREADS = {"main", "http-nio-8080-exec-1", "http-nio-8080-exec-7", "scheduler-2", "kafka-consumer-0", "worker-13"};
+    private static final String[] LOGGERS = {"c.c.api.OrderController", "c.c.db.ConnectionPool", "c.c.auth.TokenService", "c.c.cache.RedisClient",
+            "c.c.jobs.ReportJob", "o.a.kafka.clients.NetworkClient"};
+    private static final String[] MESSAGES = {"Handled request", "Query finished", "Token refreshed", "Cache miss", "Job step completed",
+            "Connection timeout talking to upstream", "Retrying after failure", "Slow response"};
+    private static final String[] HOSTS = {"db-1", "db-2", "db-3", "cache-1", "api-gw"};
+    private static final int[] STATUSES = {200, 200, 200, 200, 201, 204, 302, 400, 404, 500, 503};
+    private static final String[] STACK_FRAMES = {"\tat com.cribl.api.OrderController.create(OrderController.java:88)",
+            "\tat com.cribl.db.ConnectionPool.borrow(ConnectionPool.java:212)",
+            "\tat java.base/java.util.concurrent.ThreadPoolExecutor.runWorker(ThreadPoolExecutor.java:1144)"};
+    private static final byte[] PADDING = "abcdefghijklmnopqrstuvwxyz0123456789 ".repeat(64).getBytes(StandardCharsets.US_ASCII);
+
+    private final Map<String, Integer> levelWeights;
+    private final int totalLevelWeight;
+    private int medianLineBytes = 120;
+    private double lineBytesSigma = 0.6;
+    private int maxLineBytes = 8192;
+    private double stackTraceRatio = 0.3;
+    private long timeSpanMillis = TimeUnit.DAYS.toMillis(1);
+    private long seed = 42;
+
+    /**
+     * @param levelMix Level weights, ie. "INFO:80,WARN:12,ERROR:5,DEBUG:3"
+     */
+    public LogGenerator(String levelMix) {
+        this.levelWeights = parseWeights(levelMix);
+        this.totalLevelWeight = levelWeights.values().stream().mapToInt(Integer::intValue).sum();
+        if (totalLevelWeight <= 0) {
+            throw new IllegalArgumentException("Level mix needs at least one level with a positive weight: " + levelMix);
+        }
+    }
+
+    /**
+     * Line lengths follow a log-normal distribution, most lines close to the median and a long tail of long ones
+     *
+     * @param medianLineBytes Median line length, before any stack trace
+     * @param sigma Spread of the distribution, 0 for lines of the median length only
+     * @param maxLineBytes Longest line written
+     */
+    public void setLineLength(int medianLineBytes, double sigma, int maxLineBytes) {
+        this.medianLineBytes = medianLineBytes;
+        this.lineBytesSigma = sigma;
+        this.maxLineBytes = maxLineBytes;
+    }
+
+    /**
+     * @param stackTraceRatio Share of ERROR lines followed by a stack trace
+     */
+    public void setStackTraceRatio(double stackTraceRatio) {
+        this.stackTraceRatio = stackTraceRatio;
+    }
+
+    /**
+     * @param timeSpanMillis Time span the lines of a generated file are spread over, ending now
+     */
+    public void setTimeSpanMillis(long timeSpanMillis) {
+        this.timeSpanMillis = timeSpanMillis;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Writes a file of about size bytes, replacing the file atomically so readers never see it half written
+     */
+    public void generate(Path file, long size) throws IOException {
+        Random random = new Random(seed ^ file.getFileName().toString().hashCode());
+        // Estimate the line count up front, so timestamps end close to now
+        long estimatedLines = Math.max(1, size / estimateAverageLineBytes());
+        long startMillis = System.currentTimeMillis() - timeSpanMillis;
+        LineBuilder line = new LineBuilder();
+
+        Path tmpFile = Files.createTempFile(file.toAbsolutePath().getParent(), "loadtest", ".tmp");
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmpFile), 1 << 20)) {
+            long written = 0;
+            for (long i = 0; written < size; i++) {
+                long timestamp = startMillis + Math.min(i, estimatedLines) * timeSpanMillis / estimatedLines;
+                written += writeEntry(out, line, random, timestamp);
+            }
+        }
+        Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Appends entries stamped with the current time to a file, linesPerSecond on average, spread over ticks of the scheduler
+     *
+     * @return Future to cancel the writer with
+     */
+    public ScheduledFuture<?> startAppending(Path file, int linesPerSecond, ScheduledExecutorService scheduler) {
+        Random random = new Random(seed ^ file.getFileName().toString().hashCode() ^ System.nanoTime());
+        LineBuilder line = new LineBuilder();
+        long tickMillis = 50;
+        double linesPerTick = linesPerSecond * tickMillis / 1000d;
+        double[] owed = {0};
+        return scheduler.scheduleAtFixedRate(() -> {
+            owed[0] += linesPerTick;
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.APPEND), 1 << 16)) {
+                for (; owed[0] >= 1; owed[0]--) {
+                    writeEntry(out, line, random, System.currentTimeMillis());
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Couldn't append to " + file, e);
+            }
+        }, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes one entry, a line plus its stack trace if it gets one
+     *
+     * @return Bytes written
+     */
+    private long writeEntry(OutputStream out, LineBuilder line, Random random, long timestampMillis) throws IOException {
+        line.reset();
+        String level = pickLevel(random);
+        line.appendTimestamp(timestampMillis).append(' ').append(level).append(" [").append(pick(THREADS, random)).append("] ")
+                .append(pick(LOGGERS, random)).append(" - ").append(pick(MESSAGES, random))
+                .append(" requestId=").append(Long.toHexString(random.nextLong() >>> 16))
+                .append(" host=").append(pick(HOSTS, random))
+                .append(" status=").append(Integer.toString(level.equals("ERROR") ? 500 + random.nextInt(4) : STATUSES[random.nextInt(STATUSES.length)]))
+                .append(" took=").append(Integer.toString(random.nextInt(2000))).append("ms ");
+        line.pad(sampleLineBytes(random));
+        line.append('\n');
+
+        if (level.equals("ERROR") && random.nextDouble() < stackTraceRatio) {
+            line.append("java.io.IOException: Connection reset by peer\n");
+            for (int i = 0, frames = 2 + random.nextInt(8); i < frames; i++) {
+                line.append(STACK_FRAMES[random.nextInt(STACK_FRAMES.length)]).append('\n');
+            }
+        }
+        line.writeTo(out);
+        return line.length;
+    }
+
+    private int sampleLineBytes(Random random) {
+        double sample = medianLineBytes * Math.exp(lineBytesSigma * random.nextGaussian());
+        return (int) Math.min(maxLineBytes, Math.max(1, sample));
+    }
+
+    private long estimateAverageLineBytes() {
+        // Mean of the log-normal distribution, ignoring the clamp and the stack traces
+        return Math.max(1, (long) (medianLineBytes * Math.exp(lineBytesSigma * lineBytesSigma / 2)));
+    }
+
+    private String pickLevel(Random random) {
+        int pick = random.nextInt(totalLevelWeight);
+        for (Map.Entry<String, Integer> level : levelWeights.entrySet()) {
+            pick -= level.getValue();
+            if (pick < 0) {
+                return level.getKey();
+            }
+        }
+        throw new IllegalStateException("Unreachable, weights add up to the total");
+    }
+
+    private static String pick(String[] values, Random random) {
+        return values[random.nextInt(values.length)];
+    }
+
+    /**
+     * Parses "NAME:weight,NAME:weight" into weights by name, in order
+     */
+    static Map<String, Integer> parseWeights(String weights) {
+        Map<String, Integer> parsed = new LinkedHashMap<>();
+        for (String entry : weights.split(",")) {
+            String[] nameAndWeight = entry.trim().split(":");
+            if (nameAndWeight.length != 2) {
+                throw new IllegalArgumentException("Expected NAME:weight, got: " + entry);
+            }
+            parsed.put(nameAndWeight[0].trim().toUpperCase(Locale.ROOT), Integer.parseInt(nameAndWeight[1].trim()));
+        }
+        return parsed;
+    }
+
+    /**
+     * Growable ASCII line buffer, reused for every line
+     */
+    private static class LineBuilder {
+        private byte[] bytes = new byte[1024];
+        private int length = 0;
+
+        private void reset() {
+            length = 0;
+        }
+
+        private LineBuilder append(char c) {
+            ensureCapacity(1);
+            bytes[length++] = (byte) c;
+            return this;
+        }
+
+        private LineBuilder append(String s) {
+            ensureCapacity(s.length());
+            for (int i = 0; i < s.length(); i++) {
+                bytes[length++] = (byte) s.charAt(i);
+            }
+            return this;
+        }
+
+        /**
+         * Pads the line out to lineBytes, if it isn't that long already
+         */
+        private void pad(int lineBytes) {
+            while (length < lineBytes) {
+                int padding = Math.min(lineBytes - length, PADDING.length);
+                ensureCapacity(padding);
+                System.arraycopy(PADDING, 0, bytes, length, padding);
+                length += padding;
+            }
+        }
+
+        /**
+         * Appends the timestamp in the collector's default pattern, yyyy-MM-dd HH:mm:ss
+         */
+        private LineBuilder appendTimestamp(long epochMillis) {
+            LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneOffset.UTC);
+            appendDigits(time.getYear(), 4).append('-').appendDigits(time.getMonthValue(), 2).append('-').appendDigits(time.getDayOfMonth(), 2)
+                    .append(' ').appendDigits(time.getHour(), 2).append(':').appendDigits(time.getMinute(), 2).append(':')
+                    .appendDigits(time.getSecond(), 2);
+            return this;
+        }
+
+        private LineBuilder appendDigits(int value, int digits) {
+            ensureCapacity(digits);
+            for (int i = digits - 1; i >= 0; i--) {
+                bytes[length + i] = (byte) ('0' + value % 10);
+                value /= 10;
+            }
+            length += digits;
+            return this;
+        }
+
+        private void ensureCapacity(int more) {
+            if (length + more > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + more));
+            }
+        }
+
+        private void writeTo(OutputStream out) throws IOException {
+            out.write(bytes, 0, length);
+        }
+    }
+}
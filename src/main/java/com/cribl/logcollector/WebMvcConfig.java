@@ -0,0 +1,21 @@
+package com.cribl.logcollector;
+
+import com.cribl.logcollector.controllers.SerializedTailConverter;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.List;
+
+/**
+ * Spring MVC configuration on top of Spring Boot's defaults
+ */
+@Configuration
+public class WebMvcConfig implements WebMvcConfigurer {
+
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        // Ahead of Jackson, so serialized tails are written as they are rather than serialized again
+        converters.add(0, new SerializedTailConverter());
+    }
+}
@@ -10,6 +10,10 @@ import org.springframework.security.core.userdetails.User;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.provisioning.InMemoryUserDetailsManager;
 import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.security.web.header.writers.CacheControlHeadersWriter;
+import org.springframework.security.web.header.writers.DelegatingRequestMatcherHeaderWriter;
+import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
+import org.springframework.security.web.util.matcher.NegatedRequestMatcher;
 
 import java.util.Objects;
 
@@ -36,7 +40,15 @@ public class WebSecurityConfig {
                         .anyRequest().authenticated()
                 )
                 .httpBasic(withDefaults())
-                .formLogin(withDefaults());
+                .formLogin(withDefaults())
+                // Peers register with basic auth from scripts and other nodes, not from a browser form
+                .csrf(csrf -> csrf.ignoringRequestMatchers("/primary/cluster/**"))
+                // Tail responses set their own Cache-Control, so clients can keep them and revalidate them with their ETag.
+                // Everything else keeps the default no-store headers
+                .headers(headers -> headers
+                        .cacheControl(cacheControl -> cacheControl.disable())
+                        .addHeaderWriter(new DelegatingRequestMatcherHeaderWriter(
+                                new NegatedRequestMatcher(new AntPathRequestMatcher("/cribl/log/tail")), new CacheControlHeadersWriter())));
         return http.build();
     }
 
@@ -0,0 +1,115 @@
+package com.cribl.logcollector.controllers;
+
+import com.github.luben.zstd.ZstdOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Content codings tail responses can be compressed with, negotiated with the Accept-Encoding header.
+ * <p>
+ * Log lines repeat a lot (timestamps, levels, class names), so compressing big tails takes far less time than sending them as they are.
+ * zstd compresses about as well as gzip at a fraction of the CPU, so it's preferred when a client accepts both equally
+ */
+public enum ContentCoding {
+    // Declared in order of preference
+    ZSTD("zstd"),
+    GZIP("gzip"),
+    IDENTITY("identity");
+
+    private final String token;
+
+    ContentCoding(String token) {
+        this.token = token;
+    }
+
+    /**
+     * @return Value of the Content-Encoding header
+     */
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * @param token Value of a Content-Encoding header, can be null
+     * @return Coding of the token, {@link #IDENTITY} for none or one we don't know
+     */
+    public static ContentCoding fromToken(String token) {
+        for (ContentCoding coding : values()) {
+            if (coding.token.equalsIgnoreCase(token)) {
+                return coding;
+            }
+        }
+        return IDENTITY;
+    }
+
+    /**
+     * Wraps a response body. Flushing the returned stream flushes what was compressed so far, so streamed lines aren't held back.
+     * Closing it finishes the compressed stream and closes the wrapped one
+     */
+    public OutputStream wrap(OutputStream body) throws IOException {
+        return switch (this) {
+            case ZSTD -> new ZstdOutputStream(body);
+            case GZIP -> new GZIPOutputStream(body, true);
+            case IDENTITY -> body;
+        };
+    }
+
+    /**
+     * Picks the coding with the highest q value in an Accept-Encoding header, ie. "gzip, deflate, br, zstd" or "gzip;q=1.0, *;q=0.5".
+     * Ties go to the preferred coding. Codings we don't support are ignored
+     *
+     * @param acceptEncoding Header value, can be null
+     * @return Coding to use, {@link #IDENTITY} if the client doesn't accept any compressed one
+     */
+    public static ContentCoding negotiate(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isBlank()) {
+            return IDENTITY;
+        }
+        Map<ContentCoding, Double> qualities = new EnumMap<>(ContentCoding.class);
+        double wildcardQuality = 0;
+        for (String element : acceptEncoding.split(",")) {
+            String[] parts = element.split(";");
+            String name = parts[0].trim().toLowerCase(Locale.ROOT);
+            double quality = parseQuality(parts);
+            switch (name) {
+                case "zstd" -> qualities.put(ZSTD, quality);
+                case "gzip", "x-gzip" -> qualities.put(GZIP, quality);
+                case "*" -> wildcardQuality = quality;
+                default -> {
+                    // Not one we compress with
+                }
+            }
+        }
+
+        ContentCoding best = IDENTITY;
+        double bestQuality = 0;
+        for (ContentCoding coding : new ContentCoding[]{ZSTD, GZIP}) {
+            double quality = qualities.getOrDefault(coding, wildcardQuality);
+            if (quality > bestQuality) {
+                best = coding;
+                bestQuality = quality;
+            }
+        }
+        return best;
+    }
+
+    private static double parseQuality(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String param = parts[i].trim();
+            if (param.startsWith("q=") || param.startsWith("Q=")) {
+                try {
+                    return Double.parseDouble(param.substring(2));
+                } catch (NumberFormatException e) {
+                    // Malformed, so we'd rather not use the coding
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+}
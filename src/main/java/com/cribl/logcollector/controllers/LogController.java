@@ -1,20 +1,45 @@
 package com.cribl.logcollector.controllers;
 
+import com.cribl.logcollector.models.CacheStatsApiResponse;
+import com.cribl.logcollector.models.LogStatsApiResponse;
 import com.cribl.logcollector.models.TailApiResponse;
 import com.cribl.logcollector.services.CriblFileWatcherService;
+import com.cribl.logcollector.services.LogFollowService;
+import com.cribl.logcollector.services.TailResponseCache;
+import com.cribl.logcollector.services.TimeRange;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import org.apache.commons.io.output.CountingOutputStream;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.env.Environment;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.StreamUtils;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.util.List;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.TemporalAccessor;
+import java.util.Locale;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 @RestController()
@@ -24,6 +49,22 @@ public class LogController {
     // Not allowed WS input characters. Pre-compiling a reg pattern once is much faster
     private static final Pattern NOT_ALLOWED_INPUT_CHARS = Pattern.compile("[/\\\\]");
 
+    private static final Pattern EPOCH_MILLIS = Pattern.compile("-?\\d+");
+
+    // Stats windows and buckets, ie. 90s, 15m or 1h
+    private static final Pattern DURATION = Pattern.compile("(\\d+)(ms|s|m|h|d)");
+
+    private static final Pattern LINE_COUNT = Pattern.compile("\\d+");
+
+    private static final Pattern FIELD_NAME = Pattern.compile("[\\w.@-]+");
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final SerializedString NDJSON_SEPARATOR = new SerializedString("\n");
+
+    // Smaller responses fit in a packet or two either way, compressing them isn't worth the CPU
+    private static final int DEFAULT_COMPRESSION_MIN_BYTES = 2048;
+
     @Autowired
     private Environment envProps;
 
@@ -31,23 +72,270 @@ public class LogController {
     @Autowired
     private CriblFileWatcherService fileWatcherService;
 
+    @Autowired
+    private LogFollowService logFollowService;
+
+    @Autowired
+    private TailResponseCache responseCache;
+
     /**
-     * Main entry for our WS tail endpoint
+     * Main entry for our WS tail endpoint.
+     * Returns a promise, so the servlet thread is released while the file is read and Spring writes the response once it completes.
+     * Responses carry a nextCursor which can be passed back as the before param to page further back through the file.
+     * since and until narrow the results down to a time range, ending at until.
+     * The file name can be a glob (ie. hdfs-*.log) to tail all matching files at once, merged by timestamp.
+     * <p>
+     * Responses carry a strong ETag of the files' versions and the params. A request whose If-None-Match holds it gets a 304 without any
+     * file being read, and repeated requests for unchanged files are served from the serialized response cache.
+     * Responses of at least com.cribl.logcollector.compression.minBytes are compressed with zstd or gzip when the Accept-Encoding header allows.
+     * Responses that can't be cached, or are too big to, are serialized straight into the compressor as they're written out
      */
     @GetMapping("/tail")
-    public TailApiResponse tail(@RequestParam(value = "filename", required = true) String fileName,
-                                @RequestParam(value = "numEntries", defaultValue = "10") Integer numEntries,
-                                @RequestParam(value = "filter", required = false) String filter) throws ExecutionException, InterruptedException {
+    public CompletableFuture<ResponseEntity<TailResponseCache.TailBody>> tail(@RequestParam(value = "filename", required = true) String fileName,
+                                                                                    @RequestParam(value = "numEntries", defaultValue = "10") Integer numEntries,
+                                                                                    @RequestParam(value = "filter", required = false) String filter,
+                                                                                    @RequestParam(value = "before", required = false) String before,
+                                                                                    @RequestParam(value = "since", required = false) String since,
+                                                                                    @RequestParam(value = "until", required = false) String until,
+                                                                                    @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+                                                                                    @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        return tail(TailResponseCache.TailFormat.JSON, fileName, numEntries, filter, before, since, until, ifNoneMatch, acceptEncoding);
+    }
+
+    /**
+     * Compact binary version of the tail endpoint, picked with an Accept: application/cbor header. Same schema as the JSON response,
+     * encoded as CBOR, so lines go out as length prefixed UTF-8 without any escaping. Can be compressed as well
+     */
+    @GetMapping(value = "/tail", produces = MediaType.APPLICATION_CBOR_VALUE)
+    public CompletableFuture<ResponseEntity<TailResponseCache.TailBody>> tailCbor(@RequestParam(value = "filename", required = true) String fileName,
+                                                                                        @RequestParam(value = "numEntries", defaultValue = "10") Integer numEntries,
+                                                                                        @RequestParam(value = "filter", required = false) String filter,
+                                                                                        @RequestParam(value = "before", required = false) String before,
+                                                                                        @RequestParam(value = "since", required = false) String since,
+                                                                                        @RequestParam(value = "until", required = false) String until,
+                                                                                        @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+                                                                                        @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        return tail(TailResponseCache.TailFormat.CBOR, fileName, numEntries, filter, before, since, until, ifNoneMatch, acceptEncoding);
+    }
+
+    private CompletableFuture<ResponseEntity<TailResponseCache.TailBody>> tail(TailResponseCache.TailFormat format, String fileName, Integer numEntries,
+                                                                                     String filter, String before, String since, String until,
+                                                                                     String ifNoneMatch, String acceptEncoding) {
 
         // Sanitize input strings. For filename this is important so to avoid slashes so a malicious user can't navigate to other directories using ../../ etc
         validateStringInput(fileName);
-        validateStringInput(filter);
+        validateFilter(filter);
+        validateStringInput(before);
         validateNumEntriesRequested(numEntries);
+        Optional<TimeRange> timeRange = parseTimeRange(since, until);
+        boolean glob = CriblFileWatcherService.isGlob(fileName);
+        // Merged tails of several files have no single file offset to page back from
+        if (glob && before != null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Cursors can't be used with file name globs");
+        }
+
+        Optional<String> filterValue = Optional.ofNullable(filter);
+        Optional<String> beforeCursor = Optional.ofNullable(before);
+        ContentCoding coding = ContentCoding.negotiate(acceptEncoding);
+        String version = fileWatcherService.getTailVersion(fileName, numEntries, filterValue, beforeCursor, timeRange);
+        if (version != null) {
+            String eTag = getETag(version, format, coding);
+            if (TailResponseCache.matches(ifNoneMatch, eTag)) {
+                fileWatcherService.getMetrics().recordNotModified();
+                return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).cacheControl(CacheControl.noCache())
+                        .varyBy(HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING).build());
+            }
+            TailResponseCache.SerializedTail cachedResponse = responseCache.get(version, format);
+            if (cachedResponse != null) {
+                return CompletableFuture.completedFuture(toResponse(cachedResponse, eTag, coding));
+            }
+        }
+
+        // Without a version the response can't be cached, so there's no point buffering it
+        boolean cacheable = version != null;
+        CompletableFuture<TailResponseCache.TailBody> response;
+        if (glob) {
+            response = fileWatcherService.getGlobLogEntriesAsync(fileName, numEntries, filterValue, timeRange)
+                    .thenApply(mergedTail -> responseCache.toBody(new TailApiResponse(mergedTail.lines(), filter, null, mergedTail.fileNames()), format, cacheable));
+        } else if (before != null || timeRange.isPresent()) {
+            response = fileWatcherService.getFilteredLogEntriesAsync(fileName, numEntries, filterValue, beforeCursor, timeRange)
+                    .thenApply(logEntries -> responseCache.toBody(new TailApiResponse(logEntries, filter, CriblFileWatcherService.getNextCursor(logEntries, numEntries)),
+                            format, cacheable));
+        } else {
+            // Call our singleton service which contains cached file watchers. Cached lines are written to JSON or CBOR without being decoded
+            response = fileWatcherService.readCachedLines(fileName, numEntries, filterValue,
+                    logEntries -> responseCache.toBody(logEntries, numEntries, filter, CriblFileWatcherService.getNextCursor(logEntries, numEntries), format, cacheable));
+        }
+
+        return response.thenApply(body -> {
+            // Only tag and cache the response if the files didn't change while they were read, so a version always stands for the same bytes
+            if (version == null || !version.equals(fileWatcherService.getTailVersion(fileName, numEntries, filterValue, beforeCursor, timeRange))) {
+                return toResponse(body, null, coding);
+            }
+            if (body instanceof TailResponseCache.SerializedTail serializedTail) {
+                responseCache.put(version, serializedTail);
+            }
+            return toResponse(body, getETag(version, format, coding), coding);
+        });
+    }
+
+    /**
+     * Streaming version of the tail endpoint, picked with an Accept: application/x-ndjson header.
+     * Writes one JSON string per line (NDJSON) as lines are read, so the first lines arrive right away and large tails aren't held in memory
+     */
+    @GetMapping(value = "/tail", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> tailStream(@RequestParam(value = "filename", required = true) String fileName,
+                                                            @RequestParam(value = "numEntries", defaultValue = "10") Integer numEntries,
+                                                            @RequestParam(value = "filter", required = false) String filter,
+                                                            @RequestParam(value = "since", required = false) String since,
+                                                            @RequestParam(value = "until", required = false) String until,
+                                                            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+
+        validateStringInput(fileName);
+        validateFilter(filter);
+        validateNumEntriesRequested(numEntries);
+        Optional<TimeRange> timeRange = parseTimeRange(since, until);
+
+        CriblFileWatcherService.TailStream tailStream = fileWatcherService.streamLogEntries(fileName, numEntries, Optional.ofNullable(filter), timeRange);
+
+        // Streams have no size up front, so they're compressed whenever the client accepts it
+        ContentCoding coding = ContentCoding.negotiate(acceptEncoding);
+        StreamingResponseBody body = outputStream -> {
+            // Counts the bytes before they're compressed, like the other formats. Flushes go through the coding, so the first line still goes out right away
+            CountingOutputStream countingStream = new CountingOutputStream(coding.wrap(StreamUtils.nonClosing(outputStream)));
+            try (JsonGenerator generator = JSON_FACTORY.createGenerator(countingStream)) {
+                generator.setRootValueSeparator(NDJSON_SEPARATOR);
+                boolean[] firstLine = {true};
+                long[] entries = {0};
+                tailStream.writeTo(line -> {
+                    generator.writeString(line);
+                    entries[0]++;
+                    if (firstLine[0]) {
+                        // Get the first line out right away, after that the generator and response buffers decide when to flush
+                        generator.flush();
+                        firstLine[0] = false;
+                    }
+                });
+                if (!firstLine[0]) {
+                    generator.writeRaw('\n');
+                }
+                generator.flush();
+                fileWatcherService.getMetrics().recordResponse("ndjson", entries[0], countingStream.getByteCount());
+            }
+        };
+        fileWatcherService.getMetrics().recordContentCoding(coding.getToken());
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).cacheControl(CacheControl.noStore())
+                .varyBy(HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING);
+        if (coding != ContentCoding.IDENTITY) {
+            response.header(HttpHeaders.CONTENT_ENCODING, coding.getToken());
+        }
+        return response.body(body);
+    }
+
+    /**
+     * Live follow (`tail -f`) endpoint. Streams every line appended to the file from now on as a Server-Sent Event
+     */
+    @GetMapping(value = "/follow", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter follow(@RequestParam(value = "filename", required = true) String fileName,
+                             @RequestParam(value = "filter", required = false) String filter) {
+
+        validateStringInput(fileName);
+        validateFilter(filter);
+        if (CriblFileWatcherService.isGlob(fileName)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "File name globs can't be followed");
+        }
+
+        return logFollowService.follow(fileName, Optional.ofNullable(filter));
+    }
+
+    /**
+     * Stats endpoint. Counts the lines of a window of the file per log level (groupBy=level) or per value of a key=value or JSON field
+     * (groupBy=field&field=status), and per time bucket when a bucket size is given, without sending any lines.
+     * The window is either a number of lines (window=100000) or a duration back from now (window=15m). Durations and bucket sizes are a
+     * number followed by ms, s, m, h or d
+     */
+    @GetMapping("/stats")
+    public CompletableFuture<LogStatsApiResponse> stats(@RequestParam(value = "filename", required = true) String fileName,
+                                                        @RequestParam(value = "window", required = true) String window,
+                                                        @RequestParam(value = "groupBy", defaultValue = "level") String groupBy,
+                                                        @RequestParam(value = "field", required = false) String field,
+                                                        @RequestParam(value = "bucket", required = false) String bucket,
+                                                        @RequestParam(value = "filter", required = false) String filter) {
+
+        validateStringInput(fileName);
+        validateFilter(filter);
+        Optional<String> groupByField = parseGroupBy(groupBy, field);
+        long bucketMillis = bucket != null ? parseDuration("bucket", bucket) : 0;
 
-        // Call our singleton service which contains cached file watchers
-        List<String> logEntries = fileWatcherService.getFilteredLogEntries(fileName, numEntries, Optional.ofNullable(filter));
+        int maxLines = Integer.MAX_VALUE;
+        Optional<TimeRange> timeRange = Optional.empty();
+        if (LINE_COUNT.matcher(window).matches()) {
+            maxLines = parseLineCount(window);
+        } else {
+            timeRange = Optional.of(new TimeRange(System.currentTimeMillis() - parseDuration("window", window), Long.MAX_VALUE));
+        }
+
+        return fileWatcherService.getLogStatsAsync(fileName, maxLines, timeRange, Optional.ofNullable(filter), groupByField, bucketMillis);
+    }
+
+    /**
+     * Hit, miss and eviction counters of the file watcher cache
+     */
+    @GetMapping("/cache/stats")
+    public CacheStatsApiResponse cacheStats() {
+        return fileWatcherService.getCacheStats();
+    }
+
+    /**
+     * @param coding Coding the client accepts. Responses under com.cribl.logcollector.compression.minBytes aren't compressed regardless
+     */
+    private ResponseEntity<TailResponseCache.TailBody> toResponse(TailResponseCache.TailBody body, String eTag, ContentCoding coding) {
+        String formatTag = body.format().getTag();
+        long length;
+        if (body instanceof TailResponseCache.SerializedTail serializedTail) {
+            length = serializedTail.body().length;
+            fileWatcherService.getMetrics().recordResponse(formatTag, body.entries(), length);
+        } else {
+            // Sized once it's written. Counts the bytes before they're compressed, like the other formats
+            TailResponseCache.StreamedTail streamedTail = (TailResponseCache.StreamedTail) body;
+            length = streamedTail.estimatedBytes();
+            body = new TailResponseCache.StreamedTail(streamedTail.format(), streamedTail.entries(), length, out -> {
+                CountingOutputStream countingStream = new CountingOutputStream(out);
+                streamedTail.writer().writeTo(countingStream);
+                fileWatcherService.getMetrics().recordResponse(formatTag, streamedTail.entries(), countingStream.getByteCount());
+            });
+        }
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(body.format() == TailResponseCache.TailFormat.CBOR ? MediaType.APPLICATION_CBOR : MediaType.APPLICATION_JSON)
+                .varyBy(HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING);
+        int compressionMinBytes = envProps != null
+                ? envProps.getProperty("com.cribl.logcollector.compression.minBytes", Integer.class, DEFAULT_COMPRESSION_MIN_BYTES)
+                : DEFAULT_COMPRESSION_MIN_BYTES;
+        if (coding != ContentCoding.IDENTITY && length >= compressionMinBytes) {
+            // Compressed by SerializedTailConverter as it's written out
+            response.header(HttpHeaders.CONTENT_ENCODING, coding.getToken());
+            fileWatcherService.getMetrics().recordContentCoding(coding.getToken());
+        } else {
+            if (body instanceof TailResponseCache.SerializedTail) {
+                response.contentLength(length);
+            }
+            fileWatcherService.getMetrics().recordContentCoding(ContentCoding.IDENTITY.getToken());
+        }
+        if (eTag != null) {
+            // Clients may keep the response, but have to check it's still current before using it
+            response.eTag(eTag).cacheControl(CacheControl.noCache());
+        } else {
+            response.cacheControl(CacheControl.noStore());
+        }
+        return response.body(body);
+    }
 
-        return new TailApiResponse(logEntries, filter);
+    /**
+     * Strong ETag of one representation of a version. Formats and codings are different bytes, so they need different ETags.
+     * Whether a response is compressed only depends on its size, which the version already fixes
+     */
+    private static String getETag(String version, TailResponseCache.TailFormat format, ContentCoding coding) {
+        return TailResponseCache.getETag(version + '\0' + format.getTag() + '\0' + coding.getToken());
     }
 
     /**
@@ -57,7 +345,19 @@ public class LogController {
      */
     protected void validateStringInput(String input) throws ResponseStatusException {
         if (input != null && NOT_ALLOWED_INPUT_CHARS.matcher(input).find()) {
-            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "File name or filter input is invalid. Forward and blackwards slashes aren't allowed in filenames for security reasons");
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "File name or cursor input is invalid. Forward and blackwards slashes aren't allowed in filenames for security reasons");
+        }
+    }
+
+    /**
+     * Checks the filter is a valid query up front, so a bad query is a 400 before anything is read or streamed.
+     * Filters never become part of a path, so unlike file names they may contain slashes (ie. regexes)
+     *
+     * @param filter Filter query to validate
+     */
+    protected void validateFilter(String filter) throws ResponseStatusException {
+        if (filter != null) {
+            CriblFileWatcherService.compileFilter(filter);
         }
     }
 
@@ -75,4 +375,98 @@ public class LogController {
         }
     }
 
+    /**
+     * Parses the since and until request params. Each is an ISO-8601 date time, with an offset or in the server's time zone
+     * (ie. 2024-01-15T02:10:00 or 2024-01-15T02:10:00Z), or epoch milliseconds
+     *
+     * @return Time range, or empty if neither param was given
+     */
+    protected Optional<TimeRange> parseTimeRange(String since, String until) {
+        if (since == null && until == null) {
+            return Optional.empty();
+        }
+
+        long sinceMillis = since != null ? parseTimeParam("since", since) : Long.MIN_VALUE;
+        long untilMillis = until != null ? parseTimeParam("until", until) : Long.MAX_VALUE;
+        if (sinceMillis >= untilMillis) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "since has to be before until");
+        }
+        return Optional.of(new TimeRange(sinceMillis, untilMillis));
+    }
+
+    /**
+     * @return Field to group stats by, or empty to group them by level
+     */
+    protected Optional<String> parseGroupBy(String groupBy, String field) {
+        switch (groupBy) {
+            case "level":
+                if (field != null) {
+                    throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "field is only used with groupBy=field");
+                }
+                return Optional.empty();
+            case "field":
+                if (field == null || !FIELD_NAME.matcher(field).matches()) {
+                    throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "groupBy=field needs a field name of letters, digits, _ . @ or -");
+                }
+                return Optional.of(field);
+            default:
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "groupBy has to be level or field");
+        }
+    }
+
+    /**
+     * Parses a duration param, ie. 15m
+     *
+     * @return Milliseconds
+     */
+    protected static long parseDuration(String name, String value) {
+        Matcher matcher = DURATION.matcher(value.toLowerCase(Locale.ROOT));
+        long millis = 0;
+        if (matcher.matches()) {
+            try {
+                long amount = Long.parseLong(matcher.group(1));
+                TimeUnit unit = switch (matcher.group(2)) {
+                    case "ms" -> TimeUnit.MILLISECONDS;
+                    case "s" -> TimeUnit.SECONDS;
+                    case "m" -> TimeUnit.MINUTES;
+                    case "h" -> TimeUnit.HOURS;
+                    default -> TimeUnit.DAYS;
+                };
+                millis = unit.toMillis(amount);
+            } catch (NumberFormatException e) {
+                // Too many digits, reported below
+            }
+        }
+        if (millis <= 0 || millis == Long.MAX_VALUE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, name + " has to be a positive duration, ie. 90s, 15m or 1h: " + value);
+        }
+        return millis;
+    }
+
+    private static int parseLineCount(String window) {
+        try {
+            int lines = Integer.parseInt(window);
+            if (lines > 0) {
+                return lines;
+            }
+        } catch (NumberFormatException e) {
+            // Too many digits, reported below
+        }
+        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "window has to be a positive number of lines or a duration: " + window);
+    }
+
+    private static long parseTimeParam(String name, String value) {
+        try {
+            if (EPOCH_MILLIS.matcher(value).matches()) {
+                return Long.parseLong(value);
+            }
+            TemporalAccessor parsed = DateTimeFormatter.ISO_DATE_TIME.parseBest(value, OffsetDateTime::from, LocalDateTime::from);
+            if (parsed instanceof OffsetDateTime offsetDateTime) {
+                return offsetDateTime.toInstant().toEpochMilli();
+            }
+            return ((LocalDateTime) parsed).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException | NumberFormatException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, name + " has to be an ISO-8601 date time or epoch milliseconds: " + value);
+        }
+    }
 }
@@ -0,0 +1,90 @@
+package com.cribl.logcollector.controllers;
+
+import com.cribl.logcollector.services.ClusterPeerRegistry;
+import com.cribl.logcollector.services.PrimaryLogService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Primary endpoints of the Primary/Secondary log proxy. Any node can act as the primary for the peers it knows about
+ */
+@RestController()
+@RequestMapping("/primary")
+public class PrimaryLogController {
+
+    @Autowired
+    private Environment envProps;
+
+    @Autowired
+    private PrimaryLogService primaryLogService;
+
+    @Autowired
+    private ClusterPeerRegistry peerRegistry;
+
+    // Reuse the tail endpoint's input validation
+    @Autowired
+    private LogController logController;
+
+    /**
+     * Tails a file on every registered peer. The response is streamed while the peers respond
+     */
+    @GetMapping("/cribl/log/tail")
+    public ResponseEntity<StreamingResponseBody> tail(@RequestParam(value = "filename", required = true) String fileName,
+                                                      @RequestParam(value = "numEntries", defaultValue = "10") Integer numEntries,
+                                                      @RequestParam(value = "filter", required = false) String filter,
+                                                      @RequestParam(value = "merge", defaultValue = "false") boolean mergeByTimestamp) {
+
+        logController.validateStringInput(fileName);
+        logController.validateFilter(filter);
+        logController.validateNumEntriesRequested(numEntries);
+
+        StreamingResponseBody body = outputStream -> primaryLogService.tail(fileName, numEntries, Optional.ofNullable(filter), mergeByTimestamp, outputStream);
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    @GetMapping("/cluster/peers")
+    public List<String> peers() {
+        return peerRegistry.getPeers();
+    }
+
+    /**
+     * Registers a secondary collector by its base URL, ie. http://collector-2:8080
+     */
+    @PostMapping("/cluster/peers")
+    public List<String> register(@RequestParam(value = "url", required = true) String peerUrl) {
+        validateRegistrationAllowed();
+        peerRegistry.register(peerUrl);
+        return peerRegistry.getPeers();
+    }
+
+    @DeleteMapping("/cluster/peers")
+    public List<String> deregister(@RequestParam(value = "url", required = true) String peerUrl) {
+        validateRegistrationAllowed();
+        peerRegistry.deregister(peerUrl);
+        return peerRegistry.getPeers();
+    }
+
+    /**
+     * Peer registration would let any user have this node send requests with the cluster credentials to a URL of their choosing,
+     * so it's off unless turned on for a trusted network. Peers are configured with com.cribl.logcollector.cluster.peers otherwise
+     */
+    private void validateRegistrationAllowed() {
+        if (!envProps.getProperty("com.cribl.logcollector.cluster.allowRegistration", Boolean.class, false)) {
+            throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Peer registration over HTTP is disabled");
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.cribl.logcollector.controllers;
+
+import com.cribl.logcollector.services.TailResponseCache;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes tail responses, compressed on the way out with the coding in the response's Content-Encoding header. Serialized bodies are written
+ * as they are, streamed ones are serialized as they go. Either way the body is compressed straight into the response stream rather than into
+ * another buffer first
+ */
+public class SerializedTailConverter extends AbstractHttpMessageConverter<TailResponseCache.TailBody> {
+
+    public SerializedTailConverter() {
+        super(MediaType.APPLICATION_JSON, MediaType.APPLICATION_CBOR);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return TailResponseCache.TailBody.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    public boolean canRead(Class<?> clazz, MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected TailResponseCache.TailBody readInternal(Class<? extends TailResponseCache.TailBody> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("Tail responses are only ever written", inputMessage);
+    }
+
+    @Override
+    protected void writeInternal(TailResponseCache.TailBody tailBody, HttpOutputMessage outputMessage) throws IOException {
+        ContentCoding coding = ContentCoding.fromToken(outputMessage.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        // Closing the coding's stream finishes it, the servlet container closes the response stream itself
+        try (OutputStream body = coding.wrap(StreamUtils.nonClosing(outputMessage.getBody()))) {
+            switch (tailBody) {
+                case TailResponseCache.SerializedTail serializedTail -> body.write(serializedTail.body());
+                case TailResponseCache.StreamedTail streamedTail -> streamedTail.writer().writeTo(body);
+            }
+        }
+    }
+}
@@ -1,8 +1,11 @@
 package com.cribl.logcollector.handlers;
 
 import com.cribl.logcollector.services.CriblFileWatcherService;
+import com.cribl.logcollector.services.ReadRejectedException;
+import com.cribl.logcollector.services.matchers.RegexTimeoutException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ProblemDetail;
 import org.springframework.web.ErrorResponse;
 import org.springframework.web.ErrorResponseException;
@@ -20,9 +23,27 @@ public class GlobalExceptionHandler {
     @ResponseBody
     public ErrorResponse handeAll(ResponseStatusException e) {
 
-        logger.error("Error processing web service response. Reason: " + e.getReason(), e);
+        if (e instanceof ReadRejectedException) {
+            // Expected under load, a stack trace per shed read would only add to it
+            logger.warn("Read rejected. Reason: " + e.getReason());
+        } else {
+            logger.error("Error processing web service response. Reason: " + e.getReason(), e);
+        }
 
-        return new ErrorResponseException(e.getStatusCode(), ProblemDetail.forStatusAndDetail(e.getStatusCode(), e.getReason()), e);
+        ErrorResponseException response = new ErrorResponseException(e.getStatusCode(), ProblemDetail.forStatusAndDetail(e.getStatusCode(), e.getReason()), e);
+        // Keeps headers such as Retry-After
+        response.getHeaders().putAll(e.getHeaders());
+        return response;
+    }
+
+    /**
+     * A filter regex that backtracks for too long is the client's query at fault, so it's a bad request like any other invalid filter
+     */
+    @ExceptionHandler(RegexTimeoutException.class)
+    @ResponseBody
+    public ErrorResponse handleRegexTimeout(RegexTimeoutException e) {
+        logger.warn("Filter rejected. Reason: " + e.getMessage());
+        return new ErrorResponseException(HttpStatus.BAD_REQUEST, ProblemDetail.forStatusAndDetail(HttpStatus.BAD_REQUEST, e.getMessage()), e);
     }
 
 }
\ No newline at end of file
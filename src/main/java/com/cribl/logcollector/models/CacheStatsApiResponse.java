@@ -0,0 +1,62 @@
+package com.cribl.logcollector.models;
+
+/**
+ * Used to define Cache Stats API response schema.
+ * Counters of the file watcher cache, serialized to JSON via the Jackson library
+ */
+public class CacheStatsApiResponse {
+    private final long hitCount;
+    private final long missCount;
+    private final long staleCount;
+    private final double hitRate;
+    private final long evictionCount;
+    private final long entryCount;
+    private final long cachedBytes;
+    private final long maxBytes;
+
+    public CacheStatsApiResponse(long hitCount, long missCount, long staleCount, double hitRate, long evictionCount, long entryCount, long cachedBytes, long maxBytes) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.staleCount = staleCount;
+        this.hitRate = hitRate;
+        this.evictionCount = evictionCount;
+        this.entryCount = entryCount;
+        this.cachedBytes = cachedBytes;
+        this.maxBytes = maxBytes;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return Reads of a cached watcher that had to read the file again, since it changed or more entries were asked for
+     */
+    public long getStaleCount() {
+        return staleCount;
+    }
+
+    public double getHitRate() {
+        return hitRate;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public long getEntryCount() {
+        return entryCount;
+    }
+
+    public long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+}
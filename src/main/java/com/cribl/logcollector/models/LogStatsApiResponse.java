@@ -0,0 +1,95 @@
+package com.cribl.logcollector.models;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Used to define Stats API response schema.
+ * Line counts of a tail window per log level or field value, serialized to JSON via the Jackson library
+ */
+public class LogStatsApiResponse {
+    // level or field
+    private final String groupBy;
+    // Field the lines were grouped by. Left out when grouped by level
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private final String field;
+    private final String filterUsed;
+    // Lines in the window, including the ones without a level or value for the field
+    private final long lines;
+    // Lines per level or field value, most frequent first
+    private final Map<String, Long> counts;
+    // Counts per time bucket, newest first. Left out unless a bucket size was asked for
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private final List<Bucket> buckets;
+    // True if the window was cut short or there were more values or buckets than we count
+    private final boolean truncated;
+
+    public LogStatsApiResponse(String groupBy, String field, String filterUsed, long lines, Map<String, Long> counts, List<Bucket> buckets,
+                               boolean truncated) {
+        this.groupBy = groupBy;
+        this.field = field;
+        this.filterUsed = filterUsed;
+        this.lines = lines;
+        this.counts = counts;
+        this.buckets = buckets;
+        this.truncated = truncated;
+    }
+
+    public String getGroupBy() {
+        return groupBy;
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    public String getFilterUsed() {
+        return filterUsed;
+    }
+
+    public long getLines() {
+        return lines;
+    }
+
+    public Map<String, Long> getCounts() {
+        return counts;
+    }
+
+    public List<Bucket> getBuckets() {
+        return buckets;
+    }
+
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * Counts of the lines whose timestamp falls within [start, start + bucket size)
+     */
+    public static class Bucket {
+        // Epoch milliseconds
+        private final long start;
+        private final long lines;
+        private final Map<String, Long> counts;
+
+        public Bucket(long start, long lines, Map<String, Long> counts) {
+            this.start = start;
+            this.lines = lines;
+            this.counts = counts;
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public long getLines() {
+            return lines;
+        }
+
+        public Map<String, Long> getCounts() {
+            return counts;
+        }
+    }
+}
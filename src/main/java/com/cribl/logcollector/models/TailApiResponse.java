@@ -1,5 +1,7 @@
 package com.cribl.logcollector.models;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import java.util.List;
 
 /**
@@ -9,11 +11,25 @@ import java.util.List;
 public class TailApiResponse {
     private final List<String> logEntries;
     private final String filterUsed;
-
+    // Pass back as the before param to get the page of older entries. Null when there are none
+    private final String nextCursor;
+    // File each entry came from, at the same index, when the file name is a glob. Left out of single file responses
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private final List<String> logFiles;
 
     public TailApiResponse(List<String> logEntries, String filterUsed) {
+        this(logEntries, filterUsed, null);
+    }
+
+    public TailApiResponse(List<String> logEntries, String filterUsed, String nextCursor) {
+        this(logEntries, filterUsed, nextCursor, null);
+    }
+
+    public TailApiResponse(List<String> logEntries, String filterUsed, String nextCursor, List<String> logFiles) {
         this.logEntries = logEntries;
         this.filterUsed = filterUsed;
+        this.nextCursor = nextCursor;
+        this.logFiles = logFiles;
     }
 
     public List<String> getLogEntries() {
@@ -23,4 +39,12 @@ public class TailApiResponse {
     public String getFilterUsed() {
         return filterUsed;
     }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public List<String> getLogFiles() {
+        return logFiles;
+    }
 }
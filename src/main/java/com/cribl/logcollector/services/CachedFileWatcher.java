@@ -0,0 +1,185 @@
+package com.cribl.logcollector.services;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+
+/**
+ * Cache entry wrapping a file watcher and the promise of its latest read.
+ * <p>
+ * Makes sure there is only ever one read in flight per watcher (single-flight). Concurrent requests that can be served by the
+ * in-flight read attach to its future instead of submitting their own disk scan. A request for more entries than the in-flight
+ * read covers is queued to run right after it, so watcher reads (and their mutable max lines) never race.
+ * <p>
+ * Lines are cached encoded in an arena, see {@link EncodedTailLines}. The cache holds a reference to the latest lines until the next read
+ * replaces them. Readers that use lines past that point take their own reference with {@link #acquire}. Lines that didn't fit within the
+ * arena's budget are cached all the same, partly on the heap. The entry is weighed by those heap pages like by any others, so the cache
+ * evicts colder entries to make room, handing their pages back to the arena for the next reads.
+ */
+public class CachedFileWatcher {
+
+    // Rough heap cost of an entry besides its lines: the cache node and key, this wrapper, the watcher with its matcher and read state
+    static final long ENTRY_OVERHEAD_BYTES = 2048;
+
+    private final ICriblFileWatcher fileWatcher;
+    // Executor of a read by the bytes it's estimated to scan
+    private final LongFunction<Executor> executors;
+    private final Consumer<CachedFileWatcher> onReadComplete;
+    private final FileWatcherMetrics metrics;
+    private final TailLineArena arena;
+
+    private CompletableFuture<EncodedTailLines> latestRead;
+    private int latestReadMaxLines;
+    // Lines of the latest successful read, which the cache holds a reference to
+    private EncodedTailLines cachedLines;
+    private volatile long cachedBytes = 0;
+
+    /**
+     * @param fileWatcher Watcher to read with
+     * @param executor Executor reads are run on
+     * @param onReadComplete Called after each successful read, before its future completes
+     */
+    public CachedFileWatcher(ICriblFileWatcher fileWatcher, Executor executor, Consumer<CachedFileWatcher> onReadComplete) {
+        this(fileWatcher, executor, onReadComplete, FileWatcherMetrics.NOOP);
+    }
+
+    /**
+     * @param metrics Records whether each read was served from the cache, attached to the read in flight or went to disk
+     */
+    public CachedFileWatcher(ICriblFileWatcher fileWatcher, Executor executor, Consumer<CachedFileWatcher> onReadComplete, FileWatcherMetrics metrics) {
+        this(fileWatcher, executor, onReadComplete, metrics, TailLineArena.HEAP);
+    }
+
+    /**
+     * @param arena Arena lines are encoded into, unless the watcher keeps them encoded itself
+     */
+    public CachedFileWatcher(ICriblFileWatcher fileWatcher, Executor executor, Consumer<CachedFileWatcher> onReadComplete, FileWatcherMetrics metrics,
+                             TailLineArena arena) {
+        this(fileWatcher, (long estimatedBytes) -> executor, onReadComplete, metrics, arena);
+    }
+
+    /**
+     * @param executors Executor to run a read on, by the bytes the watcher estimates it will scan, see {@link FairReadScheduler#forRead}.
+     *                  Looked up on the requesting thread
+     */
+    public CachedFileWatcher(ICriblFileWatcher fileWatcher, LongFunction<Executor> executors, Consumer<CachedFileWatcher> onReadComplete,
+                             FileWatcherMetrics metrics, TailLineArena arena) {
+        this.fileWatcher = fileWatcher;
+        this.executors = executors;
+        this.onReadComplete = onReadComplete;
+        this.metrics = metrics;
+        this.arena = arena;
+    }
+
+    /**
+     * Returns the promise of the latest numEntries lines of the file, reading from disk only when we have to
+     *
+     * @param requestedNumEntries Maximum number of log entries to retrieve
+     * @return Future of the log entries. Can hold more entries than requested. They stay valid until the next read replaces them
+     */
+    public synchronized CompletableFuture<EncodedTailLines> read(int requestedNumEntries) {
+        if (latestRead != null && !latestRead.isDone()) {
+            if (latestReadMaxLines >= requestedNumEntries) {
+                // Attach to the read in flight
+                metrics.recordCacheRead(FileWatcherMetrics.CacheRead.SHARED);
+                return latestRead;
+            }
+            // Queue a bigger read behind the one in flight, whether that one succeeds or not
+            metrics.recordCacheRead(FileWatcherMetrics.CacheRead.STALE);
+            Executor executor = executors.apply(fileWatcher.estimateScanBytes(requestedNumEntries));
+            latestRead = latestRead.handle((result, e) -> null).thenCompose(ignored -> FairReadScheduler.supplyAsync(() -> readFile(requestedNumEntries), executor));
+            latestReadMaxLines = requestedNumEntries;
+            return latestRead;
+        }
+
+        // Check file modified date against the last known modified date
+        // Only run expensive IO read if it's a new watcher, the last read failed, the file has been modified since or the last read asked
+        // for fewer entries than we need now. A smaller result from a read that asked for enough entries just means the file has no more (matching) lines
+        if (latestRead == null || latestRead.isCompletedExceptionally() || fileWatcher.hasFileBeenUpdated()
+                || latestReadMaxLines < requestedNumEntries) {
+            metrics.recordCacheRead(latestRead == null ? FileWatcherMetrics.CacheRead.MISS : FileWatcherMetrics.CacheRead.STALE);
+            latestRead = FairReadScheduler.supplyAsync(() -> readFile(requestedNumEntries), executors.apply(fileWatcher.estimateReadBytes(requestedNumEntries)));
+            latestReadMaxLines = requestedNumEntries;
+        } else {
+            metrics.recordCacheRead(FileWatcherMetrics.CacheRead.HIT);
+        }
+        return latestRead;
+    }
+
+    /**
+     * Same as {@link #read}, but hands the caller its own reference to the lines, which it has to release once done with them
+     */
+    public CompletableFuture<EncodedTailLines> acquire(int requestedNumEntries) {
+        // Lines that were replaced and released before we got to them mean there's a newer read to attach to
+        return read(requestedNumEntries).thenCompose(lines -> lines.tryRetain() ? CompletableFuture.completedFuture(lines) : acquire(requestedNumEntries));
+    }
+
+    /**
+     * Returns the latest read's lines if they are already in memory and still up-to-date, without starting a read
+     *
+     * @param requestedNumEntries Number of entries the lines have to cover
+     * @return Lines of the latest read, which can hold more entries than requested, or null if we would have to read the file.
+     * The caller gets its own reference to them and has to release it
+     */
+    public synchronized EncodedTailLines getIfFresh(int requestedNumEntries) {
+        if (latestRead == null || !latestRead.isDone() || latestRead.isCompletedExceptionally() || fileWatcher.hasFileBeenUpdated() || latestReadMaxLines < requestedNumEntries) {
+            return null;
+        }
+        EncodedTailLines lines = latestRead.join();
+        if (!lines.tryRetain()) {
+            return null;
+        }
+        metrics.recordCacheRead(FileWatcherMetrics.CacheRead.HIT);
+        return lines;
+    }
+
+    /**
+     * Releases the cached lines and the ones the watcher keeps, once the entry is evicted. Reads still in flight complete as usual
+     */
+    public synchronized void releaseCachedLines() {
+        latestRead = null;
+        if (cachedLines != null) {
+            cachedLines.release();
+            cachedLines = null;
+        }
+        cachedBytes = 0;
+        fileWatcher.releaseCachedLines();
+    }
+
+    /**
+     * @return Estimated memory the entry holds: the lines of the latest read, in their arena pages, whatever else the watcher keeps
+     * between reads (ie. rotated lines) and the entry's own objects. This is what the cache is weighed by
+     */
+    public long getCachedBytes() {
+        return ENTRY_OVERHEAD_BYTES + cachedBytes + fileWatcher.getKeptBytes();
+    }
+
+    public ICriblFileWatcher getFileWatcher() {
+        return fileWatcher;
+    }
+
+    /**
+     * Runs on the executor. Reads are chained, so this never runs concurrently for the same watcher
+     */
+    private EncodedTailLines readFile(int maxLines) {
+        try {
+            fileWatcher.setMaxLines(maxLines);
+            EncodedTailLines result = fileWatcher.callEncoded(arena);
+
+            synchronized (this) {
+                if (cachedLines != null) {
+                    cachedLines.release();
+                }
+                cachedLines = result;
+            }
+            cachedBytes = result.getRetainedBytes();
+            onReadComplete.accept(this);
+
+            return result;
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.cribl.logcollector.services;
+
+import jakarta.annotation.PostConstruct;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In memory list of the secondary log collectors a primary fans tail requests out to.
+ * <p>
+ * Peers come from the com.cribl.logcollector.cluster.peers property and can also register themselves over HTTP,
+ * so no external message broker is needed. Every node keeps its own list, so any of them can act as the primary.
+ */
+@Service("ClusterPeerRegistry")
+public class ClusterPeerRegistry {
+
+    @Autowired
+    private Environment envProps;
+
+    private static final Logger logger = LogManager.getLogger(ClusterPeerRegistry.class);
+
+    private final Set<String> peers = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    public void init() {
+        String configuredPeers = envProps.getProperty("com.cribl.logcollector.cluster.peers", "");
+        for (String peer : configuredPeers.split(",")) {
+            if (!peer.isBlank()) {
+                register(peer.trim());
+            }
+        }
+    }
+
+    /**
+     * Registers a peer by its base URL, ie. http://collector-2:8080
+     *
+     * @return Normalized peer URL
+     */
+    public String register(String peerUrl) {
+        String normalizedUrl = normalize(peerUrl);
+        if (peers.add(normalizedUrl)) {
+            logger.info("Registered cluster peer {}", normalizedUrl);
+        }
+        return normalizedUrl;
+    }
+
+    public boolean deregister(String peerUrl) {
+        return peers.remove(normalize(peerUrl));
+    }
+
+    public List<String> getPeers() {
+        List<String> sortedPeers = new ArrayList<>(peers);
+        sortedPeers.sort(null);
+        return sortedPeers;
+    }
+
+    private static String normalize(String peerUrl) {
+        try {
+            URI uri = URI.create(peerUrl.trim());
+            if (!("http".equals(uri.getScheme()) || "https".equals(uri.getScheme())) || uri.getHost() == null
+                    || (uri.getPath() != null && !uri.getPath().isEmpty() && !"/".equals(uri.getPath())) || uri.getQuery() != null) {
+                throw new IllegalArgumentException();
+            }
+            return uri.getScheme() + "://" + uri.getHost() + (uri.getPort() > 0 ? ":" + uri.getPort() : "");
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid peer URL, expected http(s)://host:port : " + peerUrl);
+        }
+    }
+}
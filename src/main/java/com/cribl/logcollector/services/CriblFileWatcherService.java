@@ -1,7 +1,28 @@
 package com.cribl.logcollector.services;
 
+import com.cribl.logcollector.models.CacheStatsApiResponse;
+import com.cribl.logcollector.models.LogStatsApiResponse;
+import com.cribl.logcollector.services.filewatchers.BlockTrigramIndex;
 import com.cribl.logcollector.services.filewatchers.ByteSeekerFileWatcherCallable;
-import org.apache.commons.lang3.tuple.MutablePair;
+import com.cribl.logcollector.services.filewatchers.FileChannelPool;
+import com.cribl.logcollector.services.filewatchers.GzipSpool;
+import com.cribl.logcollector.services.filewatchers.MappedFileWatcherCallable;
+import com.cribl.logcollector.services.filewatchers.ParallelReverseScanner;
+import com.cribl.logcollector.services.filewatchers.RotatedFilesWatcher;
+import com.cribl.logcollector.services.matchers.ILineMatcher;
+import com.cribl.logcollector.services.matchers.LineMatchers;
+import com.cribl.logcollector.services.matchers.LogQuery;
+import com.cribl.logcollector.services.stats.LogStatsAggregator;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.BaseUnits;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -10,20 +31,39 @@ import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.web.server.ResponseStatusException;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 /**
  * A singleton service, so we can cache all results of different file watcher threads and reuse them across all different web service requests.
- * This service starts a new file watcher when there is a cache miss and has a maximum number of watchers configurable to customize resource usage.
+ * This service starts a new file watcher when there is a cache miss. The cache is bounded by the estimated heap used by cached log lines
+ * rather than a fixed number of watchers, so we can watch thousands of files with predictable memory usage.
  *
  * In Spring services are a Singleton scope by default
  */
@@ -33,31 +73,835 @@ public class CriblFileWatcherService {
     @Autowired
     private Environment envProps;
 
+    // Provided by actuator. Left out when the service is created outside of Spring, ie. in tests
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
     private static final Logger logger = LogManager.getLogger(CriblFileWatcherService.class);
 
+    private static final int DEFAULT_MAX_CONCURRENT_READS = 10;
+    private static final int DEFAULT_MAX_CONCURRENT_BACKGROUND_READS = 1;
+    private static final long DEFAULT_MAX_BYTES_IN_FLIGHT = 256L * 1024 * 1024; // 256MB
+    private static final long DEFAULT_CHEAP_READ_MAX_BYTES = 1024 * 1024; // 1MB
+    private static final int DEFAULT_MAX_QUEUED_READS = 1000;
+    private static final int DEFAULT_MAX_QUEUED_READS_PER_CLIENT = 100;
+    private static final int DEFAULT_MAX_OPEN_FILES = 256;
+    private static final long DEFAULT_OPEN_FILE_IDLE_MILLIS = 60_000;
+
+    private static final long DEFAULT_REQUEST_TIMEOUT_MILLIS = 10_000;
+
+    // File watcher implementations selectable with com.cribl.logcollector.fileWatcher.impl
+    private static final String FILE_WATCHER_BYTE_SEEKER = "byteSeeker";
+    private static final String FILE_WATCHER_MAPPED = "mapped";
+
+    private static final char CURSOR_SEPARATOR = '-';
+
+    private static final long DEFAULT_CACHE_MAX_BYTES = 256L * 1024 * 1024; // 256MB
+
+    private static final long DEFAULT_INDEX_MAX_BYTES = 128L * 1024 * 1024; // 128MB
+
+    private static final int DEFAULT_ROTATION_MAX_FILES = 10;
+    private static final long DEFAULT_ROTATION_SPOOL_MAX_BYTES = 1024L * 1024 * 1024; // 1GB
+
+    private static final int DEFAULT_GLOB_MAX_FILES = 100;
+    // Lines read at a time from each file of a glob, and per scheduled read of a streamed tail
+    static final int TAIL_PAGE_LINES = 256;
+
+    private static final long DEFAULT_SCAN_SEGMENT_BYTES = 1024 * 1024; // 1MB
+
+    private static final char VERSION_SEPARATOR = '\0';
+
+    private static final int DEFAULT_STATS_MAX_LINES = 10_000_000;
+    private static final int DEFAULT_STATS_MAX_GROUPS = 100;
+    private static final int DEFAULT_STATS_MAX_BUCKETS = 1440;
+
+    // Rotated files, ie. app.log.1 or app.log.2.gz, are read through their live file rather than matched by globs
+    private static final Pattern ROTATED_FILE_NAME = Pattern.compile(".*\\.\\d+(\\.gz)?");
+
+    // We keep an in memory cache of our file watchers and it's promises of results returned. This is used to skip IO operations when modified date doesn't change since last run.
+    // Caffeine bounds it by weight (bytes of cached lines) and uses W-TinyLFU, so frequently read files are admitted and kept over one-off reads
+    private Cache<String, CachedFileWatcher> fileWatchers;
+    private long cacheMaxBytes;
+    // Off-heap pages cached lines are encoded into
+    private TailLineArena arena;
+
+    // Block Bloom filter indexes by file path, shared by all filtered watchers of a file. Null when disabled
+    private Cache<String, BlockTrigramIndex> blockIndexes;
+    // Decompressed copies of gzip rotated files. Null when reads don't carry on into rotated files
+    private GzipSpool gzipSpool;
+    private int rotationMaxFiles;
+    private int globMaxFiles;
+    private long requestTimeoutMillis;
+    private String fileWatcherImpl;
+    private int statsMaxLines;
+    private int statsMaxGroups;
+    private int statsMaxBuckets;
+
+    // Timestamp parsers by pattern, used to binary search time ranges
+    private final Map<String, LogTimestampParser> timestampParsers = new ConcurrentHashMap<>();
+
+    // Reads run on virtual threads, so a slow read on a cold file only parks a cheap virtual thread.
+    // Disk I/O is scheduled by estimated cost, fairly per client and per file, rather than by a fixed pool with an unbounded queue
+    private final ExecutorService virtualThreadExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    // Closes the files nobody reads any more, on a virtual thread so it never keeps the JVM alive
+    private final ScheduledExecutorService idleFileCloser = Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().name("idle-file-closer").factory());
+    private FairReadScheduler readScheduler;
+    // Files kept open between reads, shared by all watchers of a file
+    private FileChannelPool channelPool;
+
+    private FileWatcherMetrics metrics;
+
+    // Deep reads carry on over several threads. Null when com.cribl.logcollector.scan.parallelism is 1 or less
+    private ParallelReverseScanner parallelScanner;
+
+    @PostConstruct
+    public void init() {
+        cacheMaxBytes = envProps.getProperty("com.cribl.logcollector.cache.maxBytes", Long.class, DEFAULT_CACHE_MAX_BYTES);
+        // Cached entries are weighed by their arena pages, so by default the arena holds the whole cache. Reads past it are served but not cached
+        arena = new TailLineArena(envProps.getProperty("com.cribl.logcollector.cache.offHeapMaxBytes", Long.class, cacheMaxBytes),
+                TailLineArena.DEFAULT_PAGE_SIZE);
+        requestTimeoutMillis = envProps.getProperty("com.cribl.logcollector.requestTimeoutMillis", Long.class, DEFAULT_REQUEST_TIMEOUT_MILLIS);
+
+        fileWatcherImpl = envProps.getProperty("com.cribl.logcollector.fileWatcher.impl", FILE_WATCHER_BYTE_SEEKER);
+        if (!FILE_WATCHER_BYTE_SEEKER.equals(fileWatcherImpl) && !FILE_WATCHER_MAPPED.equals(fileWatcherImpl)) {
+            throw new IllegalStateException("Unknown com.cribl.logcollector.fileWatcher.impl: " + fileWatcherImpl + ". Use "
+                    + FILE_WATCHER_BYTE_SEEKER + " or " + FILE_WATCHER_MAPPED);
+        }
+
+        int maxConcurrentReads = envProps.getProperty("com.cribl.logcollector.io.maxConcurrentReads", Integer.class, DEFAULT_MAX_CONCURRENT_READS);
+        readScheduler = new FairReadScheduler(virtualThreadExecutor, maxConcurrentReads,
+                envProps.getProperty("com.cribl.logcollector.io.maxConcurrentDeepReads", Integer.class, Math.max(1, maxConcurrentReads / 2)),
+                envProps.getProperty("com.cribl.logcollector.io.maxConcurrentBackgroundReads", Integer.class, DEFAULT_MAX_CONCURRENT_BACKGROUND_READS),
+                envProps.getProperty("com.cribl.logcollector.io.maxBytesInFlight", Long.class, DEFAULT_MAX_BYTES_IN_FLIGHT),
+                envProps.getProperty("com.cribl.logcollector.io.cheapReadMaxBytes", Long.class, DEFAULT_CHEAP_READ_MAX_BYTES),
+                envProps.getProperty("com.cribl.logcollector.io.maxQueuedReads", Integer.class, DEFAULT_MAX_QUEUED_READS),
+                envProps.getProperty("com.cribl.logcollector.io.maxQueuedReadsPerClient", Integer.class, DEFAULT_MAX_QUEUED_READS_PER_CLIENT));
+        long openFileIdleMillis = envProps.getProperty("com.cribl.logcollector.io.openFileIdleMillis", Long.class, DEFAULT_OPEN_FILE_IDLE_MILLIS);
+        channelPool = new FileChannelPool(envProps.getProperty("com.cribl.logcollector.io.maxOpenFiles", Integer.class, DEFAULT_MAX_OPEN_FILES),
+                openFileIdleMillis);
+        // Leases close idle files too, this covers files nobody reads any more. Those are closed within twice the idle timeout
+        idleFileCloser.scheduleWithFixedDelay(channelPool::closeIdle, openFileIdleMillis, Math.max(openFileIdleMillis, 1), TimeUnit.MILLISECONDS);
+
+        if (envProps.getProperty("com.cribl.logcollector.index.enabled", Boolean.class, true)) {
+            // Weighed by the off-heap bytes of each index. Indexes are re-inserted after each catch up so they are re-weighed as they grow
+            blockIndexes = Caffeine.newBuilder()
+                    .maximumWeight(envProps.getProperty("com.cribl.logcollector.index.maxBytes", Long.class, DEFAULT_INDEX_MAX_BYTES))
+                    .weigher((String key, BlockTrigramIndex value) -> (int) Math.min(value.getSizeInBytes(), Integer.MAX_VALUE))
+                    .build();
+        }
+
+        rotationMaxFiles = envProps.getProperty("com.cribl.logcollector.rotation.maxFiles", Integer.class, DEFAULT_ROTATION_MAX_FILES);
+        if (rotationMaxFiles > 0) {
+            Path spoolDir = Paths.get(envProps.getProperty("com.cribl.logcollector.rotation.spoolDir",
+                    Paths.get(System.getProperty("java.io.tmpdir"), "cribl-log-collector-spool").toString()));
+            try {
+                gzipSpool = new GzipSpool(spoolDir, envProps.getProperty("com.cribl.logcollector.rotation.spoolMaxBytes", Long.class,
+                        DEFAULT_ROTATION_SPOOL_MAX_BYTES));
+            } catch (IOException e) {
+                throw new IllegalStateException("Couldn't create com.cribl.logcollector.rotation.spoolDir " + spoolDir, e);
+            }
+        }
+
+        globMaxFiles = envProps.getProperty("com.cribl.logcollector.glob.maxFiles", Integer.class, DEFAULT_GLOB_MAX_FILES);
+
+        statsMaxLines = envProps.getProperty("com.cribl.logcollector.stats.maxLines", Integer.class, DEFAULT_STATS_MAX_LINES);
+        statsMaxGroups = envProps.getProperty("com.cribl.logcollector.stats.maxGroups", Integer.class, DEFAULT_STATS_MAX_GROUPS);
+        statsMaxBuckets = envProps.getProperty("com.cribl.logcollector.stats.maxBuckets", Integer.class, DEFAULT_STATS_MAX_BUCKETS);
 
-    private static final int MAX_FILE_WATCHERS = 10;
+        int scanParallelism = envProps.getProperty("com.cribl.logcollector.scan.parallelism", Integer.class, Runtime.getRuntime().availableProcessors());
+        if (scanParallelism > 1) {
+            parallelScanner = new ParallelReverseScanner(new ForkJoinPool(scanParallelism),
+                    envProps.getProperty("com.cribl.logcollector.scan.segmentBytes", Long.class, DEFAULT_SCAN_SEGMENT_BYTES));
+        }
+
+        fileWatchers = Caffeine.newBuilder()
+                .maximumWeight(cacheMaxBytes)
+                .weigher((String key, CachedFileWatcher value) -> (int) Math.min(value.getCachedBytes(), Integer.MAX_VALUE))
+                .removalListener((String key, CachedFileWatcher value, RemovalCause cause) -> {
+                    if (cause.wasEvicted()) {
+                        logger.debug("Evicted file watcher {} ({})", key, cause);
+                    }
+                    // Entries are replaced with themselves to re-weigh them, those keep their lines
+                    if (cause != RemovalCause.REPLACED && value != null) {
+                        value.releaseCachedLines();
+                        // Files of watchers nobody reads any more go idle, don't wait for the next read to close them
+                        channelPool.closeIdle();
+                    }
+                })
+                .recordStats()
+                .build();
 
-    // We keep an in memory "cache" of our file watchers and it's promises of results returned. This is used to skip IO operations when modified date doesn't change since last run
-    private final Map<String, MutablePair<ICriblFileWatcher, Future<List<String>>>> fileWatchers = new HashMap<>(MAX_FILE_WATCHERS);
-    private final ExecutorService executorService = Executors.newFixedThreadPool(MAX_FILE_WATCHERS);
+        // Cache stats are read back from the meters, so they need a registry that counts even without actuator
+        metrics = new FileWatcherMetrics(meterRegistry != null ? meterRegistry : new SimpleMeterRegistry());
+        readScheduler.setMetrics(metrics);
+        MeterRegistry registry = metrics.getRegistry();
+        CaffeineCacheMetrics.monitor(registry, fileWatchers, "fileWatchers");
+        Gauge.builder("logcollector.reads.active", readScheduler, FairReadScheduler::getRunning)
+                .description("Disk reads of clients running")
+                .register(registry);
+        Gauge.builder("logcollector.reads.background", readScheduler, FairReadScheduler::getBackgroundRunning)
+                .description("Background disk reads running, ie. index catch ups")
+                .register(registry);
+        Gauge.builder("logcollector.reads.queued", readScheduler, FairReadScheduler::getQueued)
+                .description("Disk reads waiting for the scheduler to run them")
+                .register(registry);
+        Gauge.builder("logcollector.reads.inflight", readScheduler, FairReadScheduler::getBytesInFlight)
+                .description("Estimated bytes scanned by the running disk reads")
+                .baseUnit(BaseUnits.BYTES)
+                .register(registry);
+        Gauge.builder("logcollector.files.open", channelPool, FileChannelPool::getOpenFiles)
+                .description("Files kept open between reads")
+                .register(registry);
+        Gauge.builder("logcollector.arena.allocated", arena, TailLineArena::getAllocatedBytes)
+                .description("Off-heap memory allocated for cached lines")
+                .baseUnit(BaseUnits.BYTES)
+                .register(registry);
+        Gauge.builder("logcollector.arena.used", arena, TailLineArena::getUsedBytes)
+                .description("Bytes of the pages holding cached lines, including pages that went on the heap past the off-heap budget")
+                .baseUnit(BaseUnits.BYTES)
+                .register(registry);
+    }
 
     /**
-     * Retrieves logs and filters based on a case-insensitive search per log line.
+     * Stops closing idle files and deletes our spool files, the spool dir is shared with other instances
+     */
+    @PreDestroy
+    public void shutdown() {
+        idleFileCloser.shutdownNow();
+        if (gzipSpool != null) {
+            gzipSpool.close();
+        }
+    }
+
+    public FileWatcherMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Retrieves logs and filters them with a filter query, see {@link LogQuery}. A query of a single word is a case-insensitive substring search.
      * <p>
-     * Uses a simple Java 8 Stream filter pattern to find log line matches. If this needed to be more robust, could use a
-     * Filter design or Builder pattern to allow AND, OR conditions on groups of filter strings to build more complex queries
+     * The filter is pushed down into the file watcher, so we get back the last numEntries matching lines of the whole file rather than
+     * the matches among the last numEntries lines. Filtered results are cached separately per filter query.
      */
     public List<String> getFilteredLogEntries(String fileName, Integer numEntries, Optional<String> filterValue) throws ExecutionException, InterruptedException {
+        return getFilteredLogEntriesAsync(fileName, numEntries, filterValue).get();
+    }
+
+    /**
+     * Non-blocking version of {@link #getFilteredLogEntries}, so web requests don't hold a servlet thread while a file is read.
+     * Completes exceptionally with a 503 {@link ResponseStatusException} if the read takes longer than the configured request timeout
+     */
+    public CompletableFuture<TailLines> getFilteredLogEntriesAsync(String fileName, Integer numEntries, Optional<String> filterValue) {
+        return getFilteredLogEntriesAsync(fileName, numEntries, filterValue, Optional.empty());
+    }
+
+    /**
+     * Same as {@link #getFilteredLogEntriesAsync(String, Integer, Optional)}, but pages backwards from a cursor returned by
+     * {@link #getNextCursor} when one is given.
+     */
+    public CompletableFuture<TailLines> getFilteredLogEntriesAsync(String fileName, Integer numEntries, Optional<String> filterValue, Optional<String> beforeCursor) {
+        return getFilteredLogEntriesAsync(fileName, numEntries, filterValue, beforeCursor, Optional.empty());
+    }
+
+    /**
+     * Same as {@link #getFilteredLogEntriesAsync(String, Integer, Optional)}, but pages backwards from a cursor returned by
+     * {@link #getNextCursor} and/or only returns lines within a time range when given.
+     * <p>
+     * Pages and time ranges are read straight from disk, between byte offsets, rather than through the cached tail. Deep pages would
+     * otherwise need the cache to hold every line up to them. Time range boundaries are found by binary searching the file's timestamps.
+     * Completes exceptionally with a 410 {@link ResponseStatusException} if the file was rotated or truncated since the cursor was handed out.
+     */
+    public CompletableFuture<TailLines> getFilteredLogEntriesAsync(String fileName, Integer numEntries, Optional<String> filterValue,
+                                                                   Optional<String> beforeCursor, Optional<TimeRange> timeRange) {
+
+        CompletableFuture<TailLines> logEntries;
+        if (beforeCursor.isPresent() || timeRange.isPresent()) {
+            logEntries = getLogEntriesBetween(fileName, numEntries, filterValue, beforeCursor, timeRange);
+        } else {
+            logEntries = getLogEntries(fileName, numEntries, filterValue);
+        }
+        return withRequestTimeout(logEntries, fileName);
+    }
+
+    /**
+     * Hands the newest numEntries lines of the cached tail to a reader as UTF-8 bytes, ie. to write them straight to a response without
+     * decoding them into strings. The lines can hold more entries than requested, and are only valid until the reader returns.
+     * Completes exceptionally the same way as {@link #getFilteredLogEntriesAsync(String, Integer, Optional)}
+     *
+     * @param reader Runs once the lines are read, on the thread that read them
+     * @return Future of what the reader returns
+     */
+    public <T> CompletableFuture<T> readCachedLines(String fileName, Integer numEntries, Optional<String> filterValue, Function<EncodedTailLines, T> reader) {
+        return withRequestTimeout(getCachedFileWatcher(fileName, numEntries, filterValue).acquire(numEntries).thenApply(lines -> {
+            try {
+                return reader.apply(lines);
+            } finally {
+                lines.release();
+            }
+        }), fileName);
+    }
+
+    /**
+     * Fails the read with a 503 {@link ResponseStatusException} if it takes longer than the configured request timeout
+     */
+    private <T> CompletableFuture<T> withRequestTimeout(CompletableFuture<T> read, String fileName) {
+        return read
+                .orTimeout(requestTimeoutMillis, TimeUnit.MILLISECONDS)
+                .exceptionallyCompose(e -> {
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    if (cause instanceof TimeoutException) {
+                        return CompletableFuture.failedFuture(new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+                                "Timed out after " + requestTimeoutMillis + " milliseconds reading file: " + fileName));
+                    }
+                    return CompletableFuture.failedFuture(cause);
+                });
+    }
+
+    /**
+     * @return True if the file name is a glob, ie. hdfs-*.log, rather than a single file
+     */
+    public static boolean isGlob(String fileName) {
+        for (int i = 0; i < fileName.length(); i++) {
+            char c = fileName.charAt(i);
+            if (c == '*' || c == '?' || c == '[' || c == '{') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tails every file of the log directory whose name matches a glob (ie. hdfs-*.log), merged newest first by timestamp.
+     * <p>
+     * The newest page of each matching file is read in parallel on the disk executor, through the line matcher of the file's cached
+     * watcher but not its cached tail. Those are then k-way merged by a {@link TimestampMerger}, which reads each file's next page only
+     * once it gets to it and stops once it has numEntries lines. So memory use is bounded by a page per file plus the numEntries merged
+     * lines, rather than numEntries lines per file.
+     * Globs only match names within the log directory. Compressed and, when reads carry on into rotated files, rotated files are skipped.
+     *
+     * @param timeRange Only returns lines within the time range of each file when given
+     */
+    public CompletableFuture<MergedTail> getGlobLogEntriesAsync(String glob, Integer numEntries, Optional<String> filterValue, Optional<TimeRange> timeRange) {
+        try {
+            return mergeTails(glob, findGlobFiles(glob), numEntries, filterValue, timeRange);
+        } catch (ResponseStatusException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * @return Names of the files matching the glob, sorted
+     * @throws ResponseStatusException 404 if no file matches, 400 if the glob is invalid or matches more than com.cribl.logcollector.glob.maxFiles files
+     */
+    private List<String> findGlobFiles(String glob) {
+        Path directory = Paths.get(envProps.getProperty("com.cribl.logcollector.filepath"));
+        List<String> fileNames = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, glob)) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                if (fileName.endsWith(".gz") || (gzipSpool != null && ROTATED_FILE_NAME.matcher(fileName).matches()) || !Files.isRegularFile(file)) {
+                    continue;
+                }
+                fileNames.add(fileName);
+                if (fileNames.size() > globMaxFiles) {
+                    throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "File name glob matches more than " + globMaxFiles + " files: " + glob);
+                }
+            }
+        } catch (PatternSyntaxException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid file name glob: " + glob);
+        } catch (IOException e) {
+            logger.error("Couldn't list log directory {}", directory, e);
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Couldn't list log files");
+        }
+
+        if (fileNames.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No files match: " + glob);
+        }
+        Collections.sort(fileNames);
+        return fileNames;
+    }
 
-        // Get log entries and limit to max num entries requested
-        Stream<String> logEntriesStream = getLogEntries(fileName, numEntries).get().stream().limit(numEntries);
+    private CompletableFuture<MergedTail> mergeTails(String glob, List<String> fileNames, Integer numEntries, Optional<String> filterValue,
+                                                     Optional<TimeRange> timeRange) {
+        int pageSize = Math.min(numEntries, TAIL_PAGE_LINES);
+        List<String> mergedLines = new ArrayList<>(pageSize);
+        List<String> mergedFileNames = new ArrayList<>(pageSize);
+        IntSupplier remaining = () -> numEntries - mergedLines.size();
 
-        if (filterValue.isPresent()) {
-            return logEntriesStream.filter(entry -> entry.toLowerCase().contains(filterValue.get().toLowerCase())).collect(Collectors.toList());
+        // The first page of each file is read right away on the disk executor, so the files are scanned in parallel up to
+        // com.cribl.logcollector.io.maxConcurrentReads. Further pages are read by the merge as it gets to them
+        List<CompletableFuture<PagedTail>> tails = new ArrayList<>(fileNames.size());
+        long mergeBytes = 0;
+        for (String fileName : fileNames) {
+            CompletableFuture<PagedTail> tail;
+            try {
+                // Reuse the cached watcher so pages share its line matcher, without touching its cached tail
+                ICriblFileWatcher cachedWatcher = getCachedFileWatcher(fileName, numEntries, filterValue).getFileWatcher();
+                ICriblFileWatcher fileWatcher = timeRange.isPresent() ? getLiveFileWatcher(cachedWatcher) : cachedWatcher;
+                mergeBytes = Math.max(mergeBytes, fileWatcher.estimateScanBytes(numEntries));
+                tail = FairReadScheduler.supplyAsync(() -> {
+                    try {
+                        long[] range = findTimeRangeOffsets(fileWatcher, fileName, timeRange);
+                        PagedTail pagedTail = new PagedTail(fileWatcher, range[0], range[1], pageSize, remaining, null);
+                        pagedTail.readPage();
+                        return pagedTail;
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                }, readScheduler.forRead(fileName, fileWatcher.estimateScanBytes(pageSize)));
+            } catch (ResponseStatusException e) {
+                tail = CompletableFuture.failedFuture(e);
+            }
+            tails.add(tail.exceptionally(e -> {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                // Deleted since the directory was listed
+                if (cause instanceof ResponseStatusException statusException && statusException.getStatusCode() == HttpStatus.NOT_FOUND) {
+                    return null;
+                }
+                throw new CompletionException(cause);
+            }));
         }
 
-        return logEntriesStream.collect(Collectors.toList());
+        // The merge is a read of its own, since it reads the pages after the first
+        Executor mergeReads = readScheduler.forRead(glob, mergeBytes);
+        return withRequestTimeout(CompletableFuture.allOf(tails.toArray(CompletableFuture[]::new)).thenCompose(ignored -> FairReadScheduler.supplyAsync(() -> {
+            List<Supplier<String>> sources = new ArrayList<>(fileNames.size());
+            List<LogTimestampParser> timestampParsers = new ArrayList<>(fileNames.size());
+            for (int i = 0; i < fileNames.size(); i++) {
+                PagedTail tail = tails.get(i).join();
+                sources.add(tail != null ? tail : () -> null);
+                timestampParsers.add(getTimestampParser(fileNames.get(i)));
+            }
+
+            try {
+                new TimestampMerger(sources, timestampParsers).merge(numEntries, (fileIndex, line) -> {
+                    mergedLines.add(line);
+                    mergedFileNames.add(fileNames.get(fileIndex));
+                });
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+            return new MergedTail(mergedLines, mergedFileNames);
+        }, mergeReads)), glob);
+    }
+
+    /**
+     * Lines of one file, newest first, read a page of pageSize lines at a time as they're asked for rather than all at once, ie. as a glob
+     * merge gets to them or a streamed tail is written out.
+     * <p>
+     * Pages of the live file follow each other by byte offset like cursor pages. Rotated lines don't have offsets to page by, so once the
+     * live file runs out they're read in one go, but only as many as the merge can still take. A file rotated or truncated in between
+     * two pages ends where it was.
+     */
+    private static final class PagedTail implements Supplier<String> {
+        private final ICriblFileWatcher fileWatcher;
+        private final long startOffset;
+        private final int pageSize;
+        // Lines the merge or stream can still take, from any of its files
+        private final IntSupplier remaining;
+        // Runs each page read as a scheduled read of its own. Null to read pages on the calling thread, ie. within a scheduled merge
+        private final Executor pageReads;
+        private long beforeOffset;
+        private Object fileKey;
+        private TailLines page = TailLines.of(List.of());
+        private int index;
+        private boolean livePagesLeft = true;
+        private boolean rotatedLinesLeft;
+
+        private PagedTail(ICriblFileWatcher fileWatcher, long startOffset, long beforeOffset, int pageSize, IntSupplier remaining, Executor pageReads) {
+            this.fileWatcher = fileWatcher;
+            this.startOffset = startOffset;
+            this.beforeOffset = beforeOffset;
+            this.pageSize = pageSize;
+            this.remaining = remaining;
+            this.pageReads = pageReads;
+        }
+
+        /**
+         * @throws CompletionException If a page read fails
+         */
+        @Override
+        public String get() {
+            while (index == page.size()) {
+                if (!livePagesLeft && !rotatedLinesLeft) {
+                    return null;
+                }
+                if (pageReads == null) {
+                    readNextPage();
+                } else {
+                    FairReadScheduler.supplyAsync(() -> {
+                        readNextPage();
+                        return null;
+                    }, pageReads).join();
+                }
+            }
+            return page.get(index++);
+        }
+
+        private void readNextPage() {
+            try {
+                if (livePagesLeft) {
+                    readPage();
+                } else {
+                    readRotatedLines();
+                }
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }
+
+        /**
+         * Reads the next page of the live file, up to the first rotated line
+         */
+        private void readPage() throws IOException {
+            TailLines lines = readLines(pageSize);
+            int liveLines = 0;
+            while (liveLines < lines.size() && lines.getFileOffset(liveLines) != TailLines.UNKNOWN_OFFSET) {
+                liveLines++;
+            }
+            if (lines.isEmpty() || (fileKey != null && !Objects.equals(fileKey, lines.getFileKey()))) {
+                // Ran out, or rotated since the previous page
+                livePagesLeft = false;
+                page = TailLines.of(List.of());
+                return;
+            }
+            fileKey = lines.getFileKey();
+            if (liveLines > 0) {
+                beforeOffset = lines.getFileOffset(liveLines - 1);
+            }
+            livePagesLeft = liveLines == pageSize;
+            rotatedLinesLeft = liveLines < lines.size();
+            page = lines.limit(liveLines);
+            index = 0;
+        }
+
+        private void readRotatedLines() throws IOException {
+            rotatedLinesLeft = false;
+            TailLines lines = readLines(Math.max(remaining.getAsInt(), 1));
+            List<String> rotatedLines = new ArrayList<>();
+            for (int i = 0; i < lines.size(); i++) {
+                if (lines.getFileOffset(i) == TailLines.UNKNOWN_OFFSET) {
+                    rotatedLines.add(lines.get(i));
+                }
+            }
+            page = TailLines.of(rotatedLines);
+            index = 0;
+        }
+
+        private TailLines readLines(int maxLines) throws IOException {
+            try {
+                return fileWatcher.readLinesBefore(startOffset, beforeOffset, maxLines);
+            } catch (ResponseStatusException e) {
+                // Truncated or rewritten since the previous page, the offset no longer points into the same lines
+                if (e.getStatusCode() == HttpStatus.GONE || e.getStatusCode() == HttpStatus.BAD_REQUEST) {
+                    return TailLines.of(List.of());
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Cursor to pass back to {@link #getFilteredLogEntriesAsync(String, Integer, Optional, Optional)} for the page of lines older than these.
+     * <p>
+     * The cursor is the byte offset of the oldest line returned, along with a hash of the file's key (ie. inode) so we can tell when it no
+     * longer points into the same file. Byte offsets are seek targets already, so paging never needs to count lines from the top of the file.
+     *
+     * @return Opaque cursor, or null if there are no older lines
+     */
+    public static String getNextCursor(TailLines logEntries, int numEntries) {
+        if (logEntries.size() < numEntries || logEntries.isEmpty()) {
+            return null;
+        }
+        return getNextCursor(logEntries.getFileOffset(logEntries.size() - 1), logEntries.getFileKey());
+    }
+
+    /**
+     * Same as {@link #getNextCursor(TailLines, int)} for cached lines, which can hold more than numEntries lines
+     */
+    public static String getNextCursor(EncodedTailLines logEntries, int numEntries) {
+        if (logEntries.size() < numEntries) {
+            return null;
+        }
+        return getNextCursor(logEntries.getFileOffset(numEntries - 1), logEntries.getFileKey());
+    }
+
+    private static String getNextCursor(long oldestOffset, Object fileKey) {
+        if (oldestOffset <= 0) {
+            // Either we're at the start of the file or the watcher doesn't track offsets
+            return null;
+        }
+        return Long.toString(oldestOffset, 36) + CURSOR_SEPARATOR + fileKeyHash(fileKey);
+    }
+
+    /**
+     * Version of the response to a tail request: the request's params along with the identity (file key), size and modification time
+     * of every file it reads, rotated files included. Tails are only ever re-read when one of those changes, so equal versions mean equal
+     * responses. Only stats the files, so it's cheap enough to check before every read
+     *
+     * @return Version, or null if a file can't be stat'ed, ie. it doesn't exist
+     */
+    public String getTailVersion(String fileName, Integer numEntries, Optional<String> filterValue, Optional<String> beforeCursor, Optional<TimeRange> timeRange) {
+        StringBuilder version = new StringBuilder()
+                .append(fileName).append(VERSION_SEPARATOR)
+                .append(numEntries).append(VERSION_SEPARATOR)
+                // The raw query rather than its normalized form, since responses echo it back as is
+                .append(filterValue.orElse("")).append(VERSION_SEPARATOR)
+                .append(beforeCursor.orElse("")).append(VERSION_SEPARATOR)
+                .append(timeRange.map(range -> range.sinceMillis() + ".." + range.untilMillis()).orElse(""));
+        try {
+            List<String> fileNames = isGlob(fileName) ? findGlobFiles(fileName) : List.of(fileName);
+            String directory = envProps.getProperty("com.cribl.logcollector.filepath");
+            for (String name : fileNames) {
+                appendFileVersion(version, name, Paths.get(directory + name));
+                if (gzipSpool != null) {
+                    // Reads that run out of lines carry on into the rotated files, see RotatedFilesWatcher
+                    for (int i = 1; i <= rotationMaxFiles; i++) {
+                        Path plain = Paths.get(directory + name + "." + i);
+                        Path compressed = Paths.get(directory + name + "." + i + ".gz");
+                        if (Files.isRegularFile(plain)) {
+                            appendFileVersion(version, name + "." + i, plain);
+                        } else if (Files.isRegularFile(compressed)) {
+                            appendFileVersion(version, name + "." + i + ".gz", compressed);
+                        } else {
+                            break;
+                        }
+                    }
+                }
+            }
+        } catch (IOException | ResponseStatusException e) {
+            return null;
+        }
+        return version.toString();
+    }
+
+    private static void appendFileVersion(StringBuilder version, String name, Path file) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        version.append(VERSION_SEPARATOR).append(name).append(':').append(attributes.fileKey()).append(':').append(attributes.size())
+                .append(':').append(attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS));
+    }
+
+    private CompletableFuture<TailLines> getLogEntriesBetween(String fileName, Integer numEntries, Optional<String> filterValue,
+                                                              Optional<String> beforeCursor, Optional<TimeRange> timeRange) {
+        long cursorOffset = ICriblFileWatcher.END_OF_FILE;
+        String expectedFileKeyHash = null;
+        if (beforeCursor.isPresent()) {
+            String cursor = beforeCursor.get();
+            int separator = cursor.indexOf(CURSOR_SEPARATOR);
+            try {
+                cursorOffset = Long.parseLong(cursor.substring(0, Math.max(separator, 0)), 36);
+            } catch (NumberFormatException e) {
+                return CompletableFuture.failedFuture(new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor: " + cursor));
+            }
+            if (cursorOffset <= 0) {
+                return CompletableFuture.failedFuture(new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor: " + cursor));
+            }
+            expectedFileKeyHash = cursor.substring(separator + 1);
+        }
+
+        // Reuse the cached watcher so pages share its line matcher, but read on the disk executor without touching its cached tail
+        ICriblFileWatcher cachedWatcher = getCachedFileWatcher(fileName, numEntries, filterValue).getFileWatcher();
+        ICriblFileWatcher fileWatcher = timeRange.isPresent() ? getLiveFileWatcher(cachedWatcher) : cachedWatcher;
+        long beforeOffset = cursorOffset;
+        String fileKeyHash = expectedFileKeyHash;
+        return FairReadScheduler.supplyAsync(() -> {
+            try {
+                long[] range = findTimeRangeOffsets(fileWatcher, fileName, timeRange);
+                TailLines page = fileWatcher.readLinesBefore(range[0], Math.min(beforeOffset, range[1]), numEntries);
+                if (fileKeyHash != null && !fileKeyHash(page.getFileKey()).equals(fileKeyHash)) {
+                    throw new ResponseStatusException(HttpStatus.GONE, "File has been rotated since the cursor was created: " + fileName);
+                }
+                return page;
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, readScheduler.forRead(fileName, fileWatcher.estimateScanBytes(numEntries)));
+    }
+
+    /**
+     * @return Start and end byte offsets of the lines within the time range. The whole file if there is no time range
+     */
+    private long[] findTimeRangeOffsets(ICriblFileWatcher fileWatcher, String fileName, Optional<TimeRange> timeRange) throws IOException {
+        long startOffset = 0;
+        long endOffset = ICriblFileWatcher.END_OF_FILE;
+        if (timeRange.isPresent()) {
+            LogTimestampParser timestampParser = getTimestampParser(fileName);
+            if (timeRange.get().hasSince()) {
+                startOffset = fileWatcher.findTimestampOffset(timeRange.get().sinceMillis(), timestampParser);
+            }
+            if (timeRange.get().hasUntil()) {
+                endOffset = fileWatcher.findTimestampOffset(timeRange.get().untilMillis(), timestampParser);
+            }
+        }
+        return new long[]{startOffset, endOffset};
+    }
+
+    /**
+     * Counts the lines of a window of a file per log level or per value of a field, and per time bucket when asked to, without returning
+     * any of them. Alerting jobs no longer need to pull a whole tail just to count its errors.
+     * <p>
+     * The window is the newest maxLines (matching) lines of the live file, or the lines within a time range, found by binary search like
+     * the time ranges of tails. Lines are counted straight off the same reverse scan tails use, on the disk executor, and are never decoded
+     * or cached. Windows stop at com.cribl.logcollector.stats.maxLines lines.
+     * Completes exceptionally the same way as {@link #getFilteredLogEntriesAsync(String, Integer, Optional)}, and with a 400 for globs,
+     * windows of too many lines and time ranges of too many buckets
+     *
+     * @param maxLines Lines in the window, {@link Integer#MAX_VALUE} to count every line of the time range
+     * @param field Field to group lines by the value of (key=value or JSON), empty to group them by log level
+     * @param bucketMillis Size of the time buckets lines are counted in as well, 0 for none
+     */
+    public CompletableFuture<LogStatsApiResponse> getLogStatsAsync(String fileName, int maxLines, Optional<TimeRange> timeRange, Optional<String> filterValue,
+                                                                   Optional<String> field, long bucketMillis) {
+        ICriblFileWatcher fileWatcher;
+        int scanLines = Math.min(maxLines, statsMaxLines);
+        try {
+            checkStatsWindow(fileName, maxLines, timeRange, bucketMillis);
+            // Reuse the cached watcher for its line matcher and block index, without touching its cached tail
+            fileWatcher = getLiveFileWatcher(getCachedFileWatcher(fileName, scanLines, filterValue).getFileWatcher());
+        } catch (ResponseStatusException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        LogTimestampParser timestampParser = getTimestampParser(fileName);
+        Supplier<LogStatsAggregator> aggregators = () -> new LogStatsAggregator(field.orElse(null), bucketMillis, timestampParser, statsMaxGroups, statsMaxBuckets);
+        return withRequestTimeout(FairReadScheduler.supplyAsync(() -> {
+            try {
+                long[] range = findTimeRangeOffsets(fileWatcher, fileName, timeRange);
+                LogStatsAggregator aggregator = fileWatcher.aggregateLinesInReverse(range[0], range[1], scanLines, aggregators);
+                return aggregator.toResponse(filterValue.orElse(null), scanLines < maxLines && aggregator.getLines() == scanLines);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, readScheduler.forRead(fileName, fileWatcher.estimateScanBytes(scanLines))), fileName);
+    }
+
+    /**
+     * @throws ResponseStatusException 400 for globs, windows of too many lines and time ranges of too many buckets
+     */
+    private void checkStatsWindow(String fileName, int maxLines, Optional<TimeRange> timeRange, long bucketMillis) {
+        if (isGlob(fileName)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Stats can't be counted over file name globs");
+        }
+        if (maxLines != Integer.MAX_VALUE && maxLines > statsMaxLines) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Stats windows can hold at most " + statsMaxLines + " lines");
+        }
+        if (bucketMillis > 0 && timeRange.isPresent() && timeRange.get().hasSince()) {
+            long untilMillis = timeRange.get().hasUntil() ? timeRange.get().untilMillis() : System.currentTimeMillis();
+            if ((untilMillis - timeRange.get().sinceMillis()) / bucketMillis >= statsMaxBuckets) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Stats windows can span at most " + statsMaxBuckets + " buckets");
+            }
+        }
+    }
+
+    /**
+     * Timestamp parser for a file. The pattern can be set per file with com.cribl.logcollector.timestamp.pattern.[filename]
+     */
+    private LogTimestampParser getTimestampParser(String fileName) {
+        String pattern = envProps.getProperty("com.cribl.logcollector.timestamp.pattern." + fileName,
+                envProps.getProperty("com.cribl.logcollector.timestamp.pattern", LogTimestampParser.DEFAULT_PATTERN));
+        return timestampParsers.computeIfAbsent(pattern, LogTimestampParser::new);
+    }
+
+    private static String fileKeyHash(Object fileKey) {
+        return Integer.toUnsignedString(Objects.hashCode(fileKey), 36);
+    }
+
+    /**
+     * Tail that is written out line by line rather than collected into a list
+     */
+    @FunctionalInterface
+    public interface TailStream {
+        void writeTo(ICriblFileWatcher.LineWriter writer) throws IOException;
+    }
+
+    /**
+     * Streaming version of {@link #getFilteredLogEntriesAsync(String, Integer, Optional)} for large tails.
+     * <p>
+     * If the watcher's cached lines cover the request they are written straight from memory. Otherwise lines are read a page at a time and
+     * each page is written out before the next is read, without caching them, so memory use stays flat no matter how many entries are
+     * requested. Every page is a scheduled read of its own, so a slow client never holds on to a read slot while its lines are written.
+     * The file is looked up right away, so a missing file fails before anything is written.
+     *
+     * @return Tail to write out, which waits for its reads on the calling thread
+     */
+    public TailStream streamLogEntries(String fileName, Integer numEntries, Optional<String> filterValue) {
+        return streamLogEntries(fileName, numEntries, filterValue, Optional.empty());
+    }
+
+    /**
+     * Same as {@link #streamLogEntries(String, Integer, Optional)}, only streaming lines within the time range when one is given
+     */
+    public TailStream streamLogEntries(String fileName, Integer numEntries, Optional<String> filterValue, Optional<TimeRange> timeRange) {
+        if (isGlob(fileName)) {
+            // Merging needs the head of every file's tail first, so this writes the merged lines once they're all merged. The merge
+            // starts right away, so its reads are scheduled for the request's client
+            CompletableFuture<MergedTail> merge = mergeTails(fileName, findGlobFiles(fileName), numEntries, filterValue, timeRange);
+            return writer -> {
+                for (String line : joinRead(merge).lines()) {
+                    writer.write(line);
+                }
+            };
+        }
+
+        CachedFileWatcher cachedFileWatcher = getCachedFileWatcher(fileName, numEntries, filterValue);
+        ICriblFileWatcher fileWatcher = timeRange.isPresent() ? getLiveFileWatcher(cachedFileWatcher.getFileWatcher()) : cachedFileWatcher.getFileWatcher();
+        int pageSize = Math.min(numEntries, TAIL_PAGE_LINES);
+        // Looked up now, on the request's thread, so the pages are scheduled for the request's client
+        Executor pageReads = readScheduler.forRead(fileName, fileWatcher.estimateScanBytes(pageSize));
+
+        return writer -> {
+            if (timeRange.isEmpty()) {
+                EncodedTailLines cachedLines = cachedFileWatcher.getIfFresh(numEntries);
+                if (cachedLines != null) {
+                    try {
+                        for (int i = 0; i < Math.min(numEntries, cachedLines.size()); i++) {
+                            writer.write(cachedLines.get(i));
+                        }
+                    } finally {
+                        cachedLines.release();
+                    }
+                    return;
+                }
+            }
+
+            long[] range = joinRead(FairReadScheduler.supplyAsync(() -> {
+                try {
+                    return findTimeRangeOffsets(fileWatcher, fileName, timeRange);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, pageReads));
+            int[] written = {0};
+            PagedTail tail = new PagedTail(fileWatcher, range[0], range[1], pageSize, () -> numEntries - written[0], pageReads);
+            try {
+                for (String line = tail.get(); line != null; line = written[0] < numEntries ? tail.get() : null) {
+                    writer.write(line);
+                    written[0]++;
+                }
+            } catch (CompletionException e) {
+                throw rethrow(e);
+            }
+        };
+    }
+
+    /**
+     * Waits for a read on the calling thread
+     *
+     * @throws IOException If the read failed with one. Runtime exceptions, ie. {@link ResponseStatusException}s, are rethrown as is
+     */
+    private static <T> T joinRead(CompletableFuture<T> read) throws IOException {
+        try {
+            return read.join();
+        } catch (CompletionException e) {
+            throw rethrow(e);
+        }
+    }
+
+    private static IOException rethrow(CompletionException e) {
+        if (e.getCause() instanceof RuntimeException cause) {
+            throw cause;
+        }
+        return e.getCause() instanceof IOException cause ? cause : new IOException(e.getCause());
     }
 
     /**
@@ -67,43 +911,105 @@ public class CriblFileWatcherService {
      * @param requestedNumEntries Maximum number of log entries to retrieve
      * @return Future (java's version of Promises) of a list of log entries once callable thread executes
      */
-    public Future<List<String>> getLogEntries(String fileName, Integer requestedNumEntries) throws ExecutionException, InterruptedException {
+    public CompletableFuture<TailLines> getLogEntries(String fileName, Integer requestedNumEntries) {
+        return getLogEntries(fileName, requestedNumEntries, Optional.empty());
+    }
 
-        MutablePair<ICriblFileWatcher, Future<List<String>>> requestedFileWatcher = fileWatchers.get(fileName);
+    /**
+     * Main entry to retrieve tailed log files, only returning lines matching the filter query
+     *
+     * @param fileName File name to retrieve
+     * @param requestedNumEntries Maximum number of log entries to retrieve
+     * @param filterValue Optional filter query each returned line has to match
+     * @return Future (java's version of Promises) of a list of log entries once callable thread executes
+     */
+    public CompletableFuture<TailLines> getLogEntries(String fileName, Integer requestedNumEntries, Optional<String> filterValue) {
+        // File watcher thread will run and return the data with a promise. Concurrent requests for the same file share one read.
+        // Cached lines can hold more entries than this request asked for, only the ones it asked for are decoded
+        return getCachedFileWatcher(fileName, requestedNumEntries, filterValue).acquire(requestedNumEntries).thenApply(lines -> {
+            try {
+                return lines.toTailLines(requestedNumEntries);
+            } finally {
+                lines.release();
+            }
+        });
+    }
 
-        if (requestedFileWatcher == null) {
-            if (fileWatchers.size() < MAX_FILE_WATCHERS) {
+    private CachedFileWatcher getCachedFileWatcher(String fileName, Integer requestedNumEntries, Optional<String> filterValue) {
 
-                // Create new file watcher
-                ICriblFileWatcher newFileWatcher = new ByteSeekerFileWatcherCallable(envProps.getProperty("com.cribl.logcollector.filepath") + fileName, requestedNumEntries);
-                // Submit a watcher task to thread pool
-                Future<List<String>> future = executorService.submit(newFileWatcher);
-                fileWatchers.put(fileName, new MutablePair<>(newFileWatcher, future));
+        // Queries that only differ in case or spacing share a watcher
+        Optional<LogQuery> query = filterValue.map(CriblFileWatcherService::compileFilter);
+        String cacheKey = query.map(filter -> fileName + '\0' + filter).orElse(fileName);
 
-                // File watcher thread will run and return the data with a promise
-                return future;
-            } else {
-                throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "Reached maximum number of file watchers: " + MAX_FILE_WATCHERS);
-                // TODO: An idea here; instead of having a fixed number of allowed file watchers. We can implement an LFU cache for file watchers and kill least read watcher
-                //  and instantiate new one when at capacity
+        // Atomically looks up or creates the watcher. Also records our hit/miss stats
+        return fileWatchers.get(cacheKey, key -> {
+            // Create new file watcher
+            String filePath = envProps.getProperty("com.cribl.logcollector.filepath") + fileName;
+            ICriblFileWatcher newFileWatcher = createFileWatcher(filePath, requestedNumEntries, query.orElse(null));
+            if (blockIndexes != null && query.isPresent() && newFileWatcher instanceof ByteSeekerFileWatcherCallable byteSeeker) {
+                // Filtered watchers of a file share its block index
+                byteSeeker.setBlockIndex(blockIndexes.get(filePath, path -> new BlockTrigramIndex(Paths.get(path),
+                        (long estimatedBytes) -> readScheduler.forBackground(fileName, estimatedBytes),
+                        index -> blockIndexes.asMap().replace(path, index, index))), query.get().getRequiredLiterals());
             }
-        } else {
-            // Check file modified date against the last known modified date
-            // Only run expensive IO read if it has been modified since or our cached result set is smaller than num entries to query
-            if (requestedFileWatcher.getKey().hasFileBeenUpdated() || requestedFileWatcher.getValue().get().size() < requestedNumEntries) {
-                // Resubmit task to thread pool
-                ICriblFileWatcher fileWatcher = requestedFileWatcher.getKey();
-                fileWatcher.setMaxLines(requestedNumEntries);
-                Future<List<String>> future = executorService.submit(fileWatcher);
-                // Update cache
-                requestedFileWatcher.setValue(future);
-
-                return future;
-            } else {
-                // No file change. Return cached value
-                logger.debug("Cache hit, returning stored logs");
-                return requestedFileWatcher.getValue();
+            if (gzipSpool != null) {
+                // Reads that run out of lines carry on into the rotated files
+                RotatedFilesWatcher rotatedFilesWatcher = new RotatedFilesWatcher(newFileWatcher, filePath, query.orElse(null), rotationMaxFiles, gzipSpool);
+                rotatedFilesWatcher.setMetrics(metrics);
+                newFileWatcher = rotatedFilesWatcher;
             }
+            // Once read, re-insert so the cache re-weighs the entry with the lines it now holds
+            return new CachedFileWatcher(newFileWatcher, (long estimatedBytes) -> readScheduler.forRead(fileName, estimatedBytes),
+                    cached -> fileWatchers.asMap().replace(key, cached, cached), metrics, arena);
+        });
+    }
+
+    /**
+     * Time ranges are found by binary searching a single file's timestamps, so they only cover the live file
+     */
+    private static ICriblFileWatcher getLiveFileWatcher(ICriblFileWatcher fileWatcher) {
+        return fileWatcher instanceof RotatedFilesWatcher rotatedFilesWatcher ? rotatedFilesWatcher.getLiveFileWatcher() : fileWatcher;
+    }
+
+    /**
+     * Compiles a filter query, see {@link LogQuery} for the syntax. Compiled queries are cached
+     *
+     * @throws ResponseStatusException 400 if the query is invalid
+     */
+    public static LogQuery compileFilter(String filter) {
+        try {
+            return LineMatchers.query(filter);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
         }
     }
+
+    private ICriblFileWatcher createFileWatcher(String filePath, int maxLines, ILineMatcher lineMatcher) {
+        ByteSeekerFileWatcherCallable fileWatcher = FILE_WATCHER_MAPPED.equals(fileWatcherImpl)
+                ? new MappedFileWatcherCallable(filePath, maxLines, lineMatcher)
+                : new ByteSeekerFileWatcherCallable(filePath, maxLines, lineMatcher);
+        fileWatcher.setMetrics(metrics);
+        fileWatcher.setParallelScanner(parallelScanner);
+        fileWatcher.setArena(arena);
+        fileWatcher.setChannelPool(channelPool);
+        return fileWatcher;
+    }
+
+    /**
+     * @return Hit, miss, stale and eviction counters of the file watcher cache along with its current size.
+     * Hits are reads answered by cached lines, or by the read already in flight. Reads of a cached watcher that had to go back to the
+     * file are stale, not hits
+     */
+    public CacheStatsApiResponse getCacheStats() {
+        // Apply pending writes so sizes are up-to-date
+        fileWatchers.cleanUp();
+        long weightedSize = fileWatchers.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0L)).orElse(0L);
+
+        long hits = metrics.getCacheReads(FileWatcherMetrics.CacheRead.HIT) + metrics.getCacheReads(FileWatcherMetrics.CacheRead.SHARED);
+        long misses = metrics.getCacheReads(FileWatcherMetrics.CacheRead.MISS);
+        long stale = metrics.getCacheReads(FileWatcherMetrics.CacheRead.STALE);
+        long reads = hits + misses + stale;
+        return new CacheStatsApiResponse(hits, misses, stale, reads == 0 ? 1.0 : (double) hits / reads, fileWatchers.stats().evictionCount(),
+                fileWatchers.estimatedSize(), weightedSize, cacheMaxBytes);
+    }
 }
@@ -0,0 +1,515 @@
+package com.cribl.logcollector.services;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Immutable tail of log lines, newest first, kept as raw UTF-8 bytes in pages of a {@link TailLineArena} rather than as strings.
+ * <p>
+ * Lines live in a store of append-only pages: data pages holding each line's length followed by its bytes, and index pages holding, oldest
+ * line first, where each line starts in the data pages and the byte offset it starts at in its file. The newest line is kept out of the index,
+ * since it may be a partial line that gets read again. Lines are a window over the store: the newest line, then a run of index entries ending
+ * at a given one. Lines that go {@link Builder#inFrontOf in front of} the newest lines of a store are appended to the same store, so keeping
+ * a tail up to date only writes the new lines. Lines are only decoded into strings when asked for with {@link #get}, or copied out as bytes
+ * with {@link #copyLine}.
+ * <p>
+ * Stores are reference counted by the lines using them, and lines are reference counted by their users. Whoever creates or
+ * {@link #tryRetain retains} the lines has to {@link #release} them once done, which hands the store's pages back to the arena after the last
+ * lines using it are released. Lines that are never released are freed once they are garbage collected.
+ */
+public class EncodedTailLines extends AbstractList<String> implements RandomAccess {
+
+    private static final Cleaner CLEANER = Cleaner.create();
+    // Rough heap cost of a page besides its bytes: the ByteBuffer object, its slot in the page array and a heap page's array header
+    private static final int PAGE_OVERHEAD_BYTES = 80;
+    // Rough heap cost of the lines object itself: its header and fields, the page arrays, the reference count and the cleaner registration
+    private static final int OVERHEAD_BYTES = 160;
+    // A line's bytes are preceded by their length, aligned so the length never spans pages
+    private static final int LENGTH_BYTES = Integer.BYTES;
+    // An index entry holds where a line starts in the data pages and its file offset
+    private static final int ENTRY_BYTES = 2 * Long.BYTES;
+
+    private final Store store;
+    // The store's page arrays as of when the lines were built. The store only ever appends, so these never change within the lines
+    private final ByteBuffer[] dataPages;
+    private final ByteBuffer[] indexPages;
+    private final int pageCount;
+    private final int size;
+    private final long headStart;
+    private final long headFileOffset;
+    // Index entry of line 1. Line i > 0 is entry newestEntry - (i - 1)
+    private final long newestEntry;
+    // Bytes the lines take up in the data pages, to tell how much of the store is left over from older lines
+    private final long dataBytes;
+    private final Object fileKey;
+    private final AtomicInteger refCount = new AtomicInteger(1);
+    private final Cleaner.Cleanable cleanable;
+
+    /**
+     * Releases the lines' reference to their store. Doesn't reference the lines themselves, so it can run once they're unreachable
+     */
+    private record StoreReleaser(Store store) implements Runnable {
+        @Override
+        public void run() {
+            store.release();
+        }
+    }
+
+    private EncodedTailLines(Store store, int size, long headStart, long headFileOffset, long newestEntry, long dataBytes, Object fileKey) {
+        store.retain();
+        this.store = store;
+        this.dataPages = store.dataPages;
+        this.indexPages = store.indexPages;
+        this.pageCount = store.dataPageCount + store.indexPageCount;
+        this.size = size;
+        this.headStart = headStart;
+        this.headFileOffset = headFileOffset;
+        this.newestEntry = newestEntry;
+        this.dataBytes = dataBytes;
+        this.fileKey = fileKey;
+        this.cleanable = CLEANER.register(this, new StoreReleaser(store));
+    }
+
+    /**
+     * Encodes lines into the arena, keeping their file offsets and file key
+     */
+    public static EncodedTailLines encode(TailLineArena arena, TailLines lines) {
+        Builder builder = new Builder(arena, lines.getFileKey());
+        for (int i = 0; i < lines.size(); i++) {
+            builder.add(lines.get(i), lines.getFileOffset(i));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Decodes a line into a String
+     */
+    @Override
+    public String get(int index) {
+        byte[] line = new byte[getLineLength(index)];
+        copyLine(index, line, 0);
+        return new String(line, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return Length of a line in UTF-8 bytes
+     */
+    public int getLineLength(int index) {
+        checkIndex(index);
+        return readInt(getLineStart(index));
+    }
+
+    /**
+     * Copies a line's UTF-8 bytes into dst, which has to have room for {@link #getLineLength} bytes past dstOffset
+     *
+     * @return Length of the line
+     */
+    public int copyLine(int index, byte[] dst, int dstOffset) {
+        checkIndex(index);
+        long start = getLineStart(index);
+        int length = readInt(start);
+        long position = start + LENGTH_BYTES;
+        for (int copied = 0; copied < length; ) {
+            int pageOffset = (int) (position & (store.pageSize - 1));
+            int chunk = Math.min(length - copied, store.pageSize - pageOffset);
+            dataPages[(int) (position >>> store.pageShift)].get(pageOffset, dst, dstOffset + copied, chunk);
+            copied += chunk;
+            position += chunk;
+        }
+        return length;
+    }
+
+    /**
+     * @return Byte offset in the file of the line's first byte, or {@link TailLines#UNKNOWN_OFFSET}
+     */
+    public long getFileOffset(int index) {
+        checkIndex(index);
+        return index == 0 ? headFileOffset : readLong(indexPages, entryPosition(index) + Long.BYTES);
+    }
+
+    public Object getFileKey() {
+        return fileKey;
+    }
+
+    /**
+     * @return The first (newest) maxSize lines decoded into strings
+     */
+    public TailLines toTailLines(int maxSize) {
+        int linesSize = Math.min(maxSize, size);
+        String[] lines = new String[linesSize];
+        long[] offsets = new long[linesSize];
+        for (int i = 0; i < linesSize; i++) {
+            lines[i] = get(i);
+            offsets[i] = getFileOffset(i);
+        }
+        return new TailLines(lines, offsets, linesSize, fileKey);
+    }
+
+    /**
+     * @return Bytes of the store's pages the lines were built in, including ones left over from older lines sharing the store
+     */
+    public long getSizeInBytes() {
+        return (long) pageCount * store.pageSize;
+    }
+
+    /**
+     * @return Estimated memory the lines hold on to: their store's pages, on or off-heap, plus the objects tracking them
+     */
+    public long getRetainedBytes() {
+        return OVERHEAD_BYTES + (long) pageCount * (store.pageSize + PAGE_OVERHEAD_BYTES);
+    }
+
+    /**
+     * Takes another reference to the lines, so they stay around until it is released
+     *
+     * @return False if the lines have already been released for good, in which case they can't be used anymore
+     */
+    public boolean tryRetain() {
+        int count;
+        do {
+            count = refCount.get();
+            if (count <= 0) {
+                return false;
+            }
+        } while (!refCount.compareAndSet(count, count + 1));
+        return true;
+    }
+
+    /**
+     * Releases a reference. The last one releases the lines' store, which hands its pages back to the arena once no other lines use it
+     */
+    public void release() {
+        int count = refCount.decrementAndGet();
+        if (count == 0) {
+            cleanable.clean();
+        } else if (count < 0) {
+            throw new IllegalStateException("Lines were released more often than retained");
+        }
+    }
+
+    /**
+     * @return Where the line's length is in the data pages
+     */
+    private long getLineStart(int index) {
+        return index == 0 ? headStart : readLong(indexPages, entryPosition(index));
+    }
+
+    private long entryPosition(int index) {
+        return (newestEntry - (index - 1)) * ENTRY_BYTES;
+    }
+
+    private int readInt(long position) {
+        // Lengths are aligned, so they never span pages
+        return dataPages[(int) (position >>> store.pageShift)].getInt((int) (position & (store.pageSize - 1)));
+    }
+
+    private long readLong(ByteBuffer[] pages, long position) {
+        // Longs are aligned, so they never span pages
+        return pages[(int) (position >>> store.pageShift)].getLong((int) (position & (store.pageSize - 1)));
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        if (refCount.get() <= 0) {
+            throw new IllegalStateException("Lines have been released");
+        }
+    }
+
+    /**
+     * @return Bytes a line of the given length takes up in the data pages
+     */
+    private static long footprint(int length) {
+        return (LENGTH_BYTES + length + LENGTH_BYTES - 1) & -LENGTH_BYTES;
+    }
+
+    /**
+     * Append-only data and index pages shared by lines built on top of each other. Only one builder writes to a store at a time, and never
+     * within pages' regions that lines built so far read from
+     */
+    private static final class Store {
+        private final TailLineArena arena;
+        private final int pageSize;
+        private final int pageShift;
+        private ByteBuffer[] dataPages = new ByteBuffer[8];
+        private int dataPageCount = 0;
+        private long dataEnd = 0;
+        private ByteBuffer[] indexPages = new ByteBuffer[2];
+        private int indexPageCount = 0;
+        private long entryCount = 0;
+        private final AtomicInteger refCount = new AtomicInteger();
+        private final AtomicBoolean writing = new AtomicBoolean();
+
+        private Store(TailLineArena arena) {
+            this.arena = arena;
+            this.pageSize = arena.getPageSize();
+            this.pageShift = arena.getPageShift();
+        }
+
+        /**
+         * Reserves room for a line of length bytes and writes its length
+         *
+         * @return Where the line starts, the bytes go LENGTH_BYTES past it
+         */
+        private long startLine(int length) {
+            long start = (dataEnd + LENGTH_BYTES - 1) & -LENGTH_BYTES;
+            dataPageAt(start).putInt((int) (start & (pageSize - 1)), length);
+            dataEnd = start + LENGTH_BYTES;
+            return start;
+        }
+
+        private void write(byte[] bytes, int offset, int length) {
+            for (int written = 0; written < length; ) {
+                int pageOffset = (int) (dataEnd & (pageSize - 1));
+                int chunk = Math.min(length - written, pageSize - pageOffset);
+                dataPageAt(dataEnd).put(pageOffset, bytes, offset + written, chunk);
+                written += chunk;
+                dataEnd += chunk;
+            }
+        }
+
+        /**
+         * Copies length bytes starting at position of another store's pages
+         */
+        private void write(Store source, ByteBuffer[] sourcePages, long position, int length) {
+            long sourceEnd = position + length;
+            while (position < sourceEnd) {
+                int sourceOffset = (int) (position & (source.pageSize - 1));
+                int pageOffset = (int) (dataEnd & (pageSize - 1));
+                int chunk = (int) Math.min(sourceEnd - position, Math.min(source.pageSize - sourceOffset, pageSize - pageOffset));
+                dataPageAt(dataEnd).put(pageOffset, sourcePages[(int) (position >>> source.pageShift)], sourceOffset, chunk);
+                position += chunk;
+                dataEnd += chunk;
+            }
+        }
+
+        private void addEntry(long lineStart, long fileOffset) {
+            long position = entryCount * ENTRY_BYTES;
+            indexPageAt(position).putLong((int) (position & (pageSize - 1)), lineStart);
+            position += Long.BYTES;
+            indexPageAt(position).putLong((int) (position & (pageSize - 1)), fileOffset);
+            entryCount++;
+        }
+
+        private ByteBuffer dataPageAt(long position) {
+            int pageIndex = (int) (position >>> pageShift);
+            while (dataPageCount <= pageIndex) {
+                if (dataPageCount == dataPages.length) {
+                    // Lines built so far keep the old array, which still holds every page they read from
+                    dataPages = Arrays.copyOf(dataPages, dataPageCount * 2);
+                }
+                dataPages[dataPageCount++] = allocate();
+            }
+            return dataPages[pageIndex];
+        }
+
+        private ByteBuffer indexPageAt(long position) {
+            int pageIndex = (int) (position >>> pageShift);
+            while (indexPageCount <= pageIndex) {
+                if (indexPageCount == indexPages.length) {
+                    indexPages = Arrays.copyOf(indexPages, indexPageCount * 2);
+                }
+                indexPages[indexPageCount++] = allocate();
+            }
+            return indexPages[pageIndex];
+        }
+
+        private ByteBuffer allocate() {
+            return arena.allocate();
+        }
+
+        private void retain() {
+            refCount.incrementAndGet();
+        }
+
+        private void release() {
+            if (refCount.decrementAndGet() == 0) {
+                free();
+            }
+        }
+
+        private void free() {
+            for (int i = 0; i < dataPageCount; i++) {
+                arena.free(dataPages[i]);
+            }
+            for (int i = 0; i < indexPageCount; i++) {
+                arena.free(indexPages[i]);
+            }
+            dataPageCount = 0;
+            indexPageCount = 0;
+        }
+    }
+
+    /**
+     * Writes lines into pages of an arena, newest first. Each line's bytes are copied in as it is added, so the source buffers can be reused
+     */
+    public static class Builder {
+        private final Store store;
+        private final Object fileKey;
+        // Lines the added ones go in front of, null if there are none. Shared when the added lines are written to their store
+        private final EncodedTailLines older;
+        private final int olderFrom;
+        private final int maxSize;
+        private final boolean sharing;
+        // End of the store's data when the builder started, to roll back to when it is discarded
+        private final long dataStart;
+        private long[] lineStarts = new long[16];
+        private long[] fileOffsets = new long[16];
+        private int size = 0;
+        private long dataBytes = 0;
+
+        /**
+         * @param fileKey File key (ie. inode) of the file the lines are read from
+         */
+        public Builder(TailLineArena arena, Object fileKey) {
+            this(new Store(arena), fileKey, null, 0, Integer.MAX_VALUE, false);
+        }
+
+        private Builder(Store store, Object fileKey, EncodedTailLines older, int olderFrom, int maxSize, boolean sharing) {
+            this.store = store;
+            this.fileKey = fileKey;
+            this.older = older;
+            this.olderFrom = olderFrom;
+            this.maxSize = maxSize;
+            this.sharing = sharing;
+            this.dataStart = store.dataEnd;
+        }
+
+        /**
+         * Starts lines that go in front of older lines, ie. lines appended to a file since the older lines were read from it. If the older lines
+         * are the newest ones of their store, the added lines are appended to it, so building them costs no more than the added lines. Otherwise,
+         * or once most of the store is left over from lines that were dropped since, the kept older lines are copied into a new store.
+         *
+         * @param older Lines to keep behind the added ones. The caller has to hold on to them until the builder is built or discarded
+         * @param olderFrom First of the older lines to keep. 1 drops the newest one, ie. a partial line that is read again
+         * @param maxSize Most lines to build, added ones first
+         */
+        public static Builder inFrontOf(TailLineArena arena, EncodedTailLines older, int olderFrom, int maxSize) {
+            Store store = older.store;
+            long keptBytes = Math.max(older.dataBytes, store.pageSize);
+            boolean shareable = olderFrom <= 1 && store.arena == arena
+                    && older.newestEntry == store.entryCount - 1
+                    && store.dataEnd - keptBytes <= keptBytes
+                    && store.entryCount <= 2L * older.size + 16;
+            if (shareable && store.writing.compareAndSet(false, true)) {
+                return new Builder(store, older.fileKey, older, olderFrom, maxSize, true);
+            }
+            return new Builder(new Store(arena), older.fileKey, older, olderFrom, maxSize, false);
+        }
+
+        public void add(byte[] bytes, int offset, int length, long fileOffset) {
+            addLine(store.startLine(length), fileOffset, length);
+            store.write(bytes, offset, length);
+        }
+
+        public void add(String line, long fileOffset) {
+            byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+            add(bytes, 0, bytes.length, fileOffset);
+        }
+
+        /**
+         * Adds lines [from, to) of other encoded lines, copying their bytes over
+         */
+        public void addAll(EncodedTailLines lines, int from, int to) {
+            for (int i = from; i < to; i++) {
+                int length = lines.getLineLength(i);
+                addLine(store.startLine(length), lines.getFileOffset(i), length);
+                store.write(lines.store, lines.dataPages, lines.getLineStart(i) + LENGTH_BYTES, length);
+            }
+        }
+
+        /**
+         * @return Lines added so far, not counting older ones
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Writes the index entries of the added lines, and those of the older lines kept behind them. The builder can't be used afterwards
+         */
+        public EncodedTailLines build() {
+            int kept = older == null ? 0 : Math.max(0, Math.min(older.size - olderFrom, maxSize - size));
+            if (!sharing) {
+                if (older != null) {
+                    addAll(older, olderFrom, olderFrom + kept);
+                }
+                for (int i = size - 1; i > 0; i--) {
+                    store.addEntry(lineStarts[i], fileOffsets[i]);
+                }
+                return newLines(size, store.entryCount - 1, dataBytes);
+            }
+
+            try {
+                long keptBytes = older.dataBytes;
+                for (int i = 0; i < older.size; i++) {
+                    if (i < olderFrom || i >= olderFrom + kept) {
+                        keptBytes -= footprint(older.getLineLength(i));
+                    }
+                }
+                if (size == 0) {
+                    // Nothing was added, so the newest kept line goes first
+                    if (kept == 0) {
+                        return new EncodedTailLines(store, 0, -1, TailLines.UNKNOWN_OFFSET, store.entryCount - 1, 0, fileKey);
+                    }
+                    return new EncodedTailLines(store, kept, older.getLineStart(olderFrom), older.getFileOffset(olderFrom),
+                            older.newestEntry - olderFrom, keptBytes, fileKey);
+                }
+
+                if (olderFrom == 0 && kept > 0) {
+                    // The older lines' newest line isn't in the index, since it might have been partial. It's complete now
+                    store.addEntry(older.headStart, older.headFileOffset);
+                }
+                for (int i = size - 1; i > 0; i--) {
+                    store.addEntry(lineStarts[i], fileOffsets[i]);
+                }
+                return newLines(size + kept, store.entryCount - 1, dataBytes + keptBytes);
+            } finally {
+                store.writing.set(false);
+            }
+        }
+
+        /**
+         * Hands the pages written so far back to the arena, ie. when a read fails half way. When appending to the store of older lines,
+         * only gives up the bytes written since, keeping the pages for whoever appends next
+         */
+        public void discard() {
+            if (sharing) {
+                store.dataEnd = dataStart;
+                store.writing.set(false);
+            } else {
+                store.free();
+            }
+        }
+
+        private EncodedTailLines newLines(int linesSize, long newestEntry, long linesDataBytes) {
+            if (linesSize == 0) {
+                return new EncodedTailLines(store, 0, -1, TailLines.UNKNOWN_OFFSET, newestEntry, 0, fileKey);
+            }
+            return new EncodedTailLines(store, linesSize, lineStarts[0], fileOffsets[0], newestEntry, linesDataBytes, fileKey);
+        }
+
+        private void addLine(long lineStart, long fileOffset, int length) {
+            if (size == lineStarts.length) {
+                lineStarts = Arrays.copyOf(lineStarts, size * 2);
+                fileOffsets = Arrays.copyOf(fileOffsets, size * 2);
+            }
+            lineStarts[size] = lineStart;
+            fileOffsets[size] = fileOffset;
+            size++;
+            dataBytes += footprint(length);
+        }
+    }
+}
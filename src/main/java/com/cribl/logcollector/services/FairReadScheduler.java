@@ -0,0 +1,446 @@
+package com.cribl.logcollector.services;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Schedules disk reads so cheap reads never wait behind deep ones, and no client or file can hog the disk.
+ * <p>
+ * Reads are classified by the bytes they are estimated to scan. Cheap reads, ie. short tails or the bytes appended since a watcher's last
+ * read, and deep reads, ie. filtered reads of a cold file, deep pages and stats, wait in separate lanes. Reads served from the cache never
+ * get here. Each lane takes reads round robin per client, then round robin over that client's files, so a client asking for many deep
+ * reads only delays itself.
+ * <p>
+ * At most maxConcurrentReads reads run at once, of which at most maxConcurrentDeepReads deep ones, so there are always slots left for
+ * cheap reads. Deep reads also have to fit within a budget of estimated bytes in flight, though one deep read always gets to run so
+ * they keep making progress. When a client has too many reads waiting it's answered with a 429, and when a lane is full with a 503,
+ * both with a Retry-After estimated from how fast the lane drains.
+ * <p>
+ * Reads run on the given executor, ie. on virtual threads, once scheduled. Background reads such as index catch ups wait in a lane of their
+ * own and are never rejected. At most maxConcurrentBackgroundReads of them run at once, outside of the deep reads' slots, and the bytes
+ * they scan count against the same budget, so background work can't crowd out the deep reads of clients. They are counted apart from the
+ * reads of clients.
+ * <p>
+ * Reads started with {@link #supplyAsync} hand their slot back before their future completes, so whoever waits on a read never sees it
+ * still running.
+ */
+public class FairReadScheduler {
+
+    /**
+     * Queues reads wait in, by estimated cost
+     */
+    public enum Lane {
+        CHEAP,
+        DEEP,
+        BACKGROUND;
+
+        final String tag = name().toLowerCase(Locale.ROOT);
+    }
+
+    // Client of the reads submitted outside of a web request, ie. in tests
+    static final String LOCAL_CLIENT = "local";
+    private static final String BACKGROUND_CLIENT = "background";
+
+    private static final long MAX_RETRY_AFTER_SECONDS = 60;
+    // Weight of the latest read in the moving average of read durations
+    private static final double READ_NANOS_ALPHA = 0.1;
+
+    private final Executor workers;
+    private final int maxConcurrentReads;
+    private final int maxConcurrentDeepReads;
+    private final int maxConcurrentBackgroundReads;
+    private final long maxBytesInFlight;
+    private final long cheapReadMaxBytes;
+    private final int maxQueuedReads;
+    private final int maxQueuedReadsPerClient;
+
+    private FileWatcherMetrics metrics = FileWatcherMetrics.NOOP;
+
+    // Everything below is guarded by this
+    private final Map<Lane, LaneQueue> lanes = new EnumMap<>(Lane.class);
+    private final Map<String, Integer> queuedPerClient = new HashMap<>();
+    private final double[] averageReadNanos = new double[Lane.values().length];
+    private int running = 0;
+    private int backgroundRunning = 0;
+    private int deepRunning = 0;
+    private long bytesInFlight = 0;
+
+    private static final Runnable NO_COMPLETION = () -> { };
+
+    /**
+     * A read waiting to run
+     *
+     * @param completion Runs once the read has handed its slot back
+     */
+    private record ScheduledRead(String client, String file, Lane lane, long bytes, boolean rejectable, Runnable task, Runnable completion,
+                                 long queuedNanos) {
+
+        private boolean isBackground() {
+            return lane == Lane.BACKGROUND;
+        }
+    }
+
+    /**
+     * Executor of reads of one client and file. Reads passed to {@link #execute} hold their slot until they return, ie. until after they
+     * completed the future they were run for. Use {@link FairReadScheduler#supplyAsync} to hand it back first
+     */
+    public final class ReadExecutor implements Executor {
+        private final String client;
+        private final String file;
+        private final Lane lane;
+        private final long bytes;
+        private final boolean rejectable;
+
+        private ReadExecutor(String client, String file, Lane lane, long bytes, boolean rejectable) {
+            this.client = client;
+            this.file = file;
+            this.lane = lane;
+            this.bytes = bytes;
+            this.rejectable = rejectable;
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            submit(task, NO_COMPLETION);
+        }
+
+        private void submit(Runnable task, Runnable completion) {
+            FairReadScheduler.this.submit(new ScheduledRead(client, file, lane, bytes, rejectable, task, completion, System.nanoTime()));
+        }
+    }
+
+    /**
+     * Read result, kept until the read's slot has been handed back
+     */
+    private static final class SuppliedRead<T> implements Runnable {
+        private final Supplier<T> read;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private T value;
+        private Throwable error;
+
+        private SuppliedRead(Supplier<T> read) {
+            this.read = read;
+        }
+
+        @Override
+        public void run() {
+            try {
+                value = read.get();
+            } catch (Throwable e) {
+                error = e;
+            }
+        }
+
+        private void complete() {
+            if (error == null) {
+                future.complete(value);
+            } else {
+                // Same as CompletableFuture#supplyAsync
+                future.completeExceptionally(error instanceof CompletionException ? error : new CompletionException(error));
+            }
+        }
+    }
+
+    /**
+     * Reads of one client, per file. Files take turns
+     */
+    private static class ClientQueue {
+        private final String client;
+        private final Map<String, ArrayDeque<ScheduledRead>> readsByFile = new HashMap<>();
+        private final ArrayDeque<String> files = new ArrayDeque<>();
+
+        private ClientQueue(String client) {
+            this.client = client;
+        }
+
+        private void add(ScheduledRead read) {
+            readsByFile.computeIfAbsent(read.file(), file -> {
+                files.addLast(file);
+                return new ArrayDeque<>();
+            }).addLast(read);
+        }
+
+        private ScheduledRead peek() {
+            return readsByFile.get(files.peekFirst()).peekFirst();
+        }
+
+        private ScheduledRead poll() {
+            String file = files.pollFirst();
+            ArrayDeque<ScheduledRead> reads = readsByFile.get(file);
+            ScheduledRead read = reads.pollFirst();
+            if (reads.isEmpty()) {
+                readsByFile.remove(file);
+            } else {
+                files.addLast(file);
+            }
+            return read;
+        }
+
+        private boolean isEmpty() {
+            return files.isEmpty();
+        }
+    }
+
+    /**
+     * Reads of one lane, per client. Clients take turns
+     */
+    private static class LaneQueue {
+        private final Map<String, ClientQueue> clientQueues = new HashMap<>();
+        private final ArrayDeque<ClientQueue> clients = new ArrayDeque<>();
+        private int size = 0;
+
+        private void add(ScheduledRead read) {
+            clientQueues.computeIfAbsent(read.client(), client -> {
+                ClientQueue clientQueue = new ClientQueue(client);
+                clients.addLast(clientQueue);
+                return clientQueue;
+            }).add(read);
+            size++;
+        }
+
+        private ScheduledRead peek() {
+            return clients.isEmpty() ? null : clients.peekFirst().peek();
+        }
+
+        private ScheduledRead poll() {
+            ClientQueue clientQueue = clients.pollFirst();
+            ScheduledRead read = clientQueue.poll();
+            if (clientQueue.isEmpty()) {
+                clientQueues.remove(clientQueue.client);
+            } else {
+                clients.addLast(clientQueue);
+            }
+            size--;
+            return read;
+        }
+    }
+
+    /**
+     * @param workers Executor scheduled reads run on
+     * @param maxConcurrentReads Most reads running at once
+     * @param maxConcurrentDeepReads Most deep reads running at once
+     * @param maxBytesInFlight Most estimated bytes of the running reads
+     * @param cheapReadMaxBytes Reads estimated to scan more bytes than this are deep reads
+     * @param maxQueuedReads Most reads waiting per lane
+     * @param maxQueuedReadsPerClient Most reads waiting per client
+     */
+    public FairReadScheduler(Executor workers, int maxConcurrentReads, int maxConcurrentDeepReads, long maxBytesInFlight, long cheapReadMaxBytes,
+                             int maxQueuedReads, int maxQueuedReadsPerClient) {
+        this(workers, maxConcurrentReads, maxConcurrentDeepReads, 1, maxBytesInFlight, cheapReadMaxBytes, maxQueuedReads, maxQueuedReadsPerClient);
+    }
+
+    /**
+     * @param maxConcurrentBackgroundReads Most background reads running at once, besides the deep reads
+     */
+    public FairReadScheduler(Executor workers, int maxConcurrentReads, int maxConcurrentDeepReads, int maxConcurrentBackgroundReads,
+                             long maxBytesInFlight, long cheapReadMaxBytes, int maxQueuedReads, int maxQueuedReadsPerClient) {
+        this.workers = workers;
+        this.maxConcurrentReads = maxConcurrentReads;
+        this.maxConcurrentDeepReads = Math.min(maxConcurrentDeepReads, maxConcurrentReads);
+        this.maxConcurrentBackgroundReads = Math.min(maxConcurrentBackgroundReads, maxConcurrentReads);
+        this.maxBytesInFlight = maxBytesInFlight;
+        this.cheapReadMaxBytes = cheapReadMaxBytes;
+        this.maxQueuedReads = maxQueuedReads;
+        this.maxQueuedReadsPerClient = maxQueuedReadsPerClient;
+        for (Lane lane : Lane.values()) {
+            lanes.put(lane, new LaneQueue());
+        }
+    }
+
+    public void setMetrics(FileWatcherMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Executor for a read of the current web request's client, ie. to pass to {@link #supplyAsync}. Can be reused for several reads.
+     * Has to be called on the request's thread, the client is looked up right away.
+     * Its execute throws a {@link ReadRejectedException} when the read can't be queued
+     *
+     * @param file File read, reads of the same client take turns per file
+     * @param estimatedBytes Bytes the read is estimated to scan
+     */
+    public ReadExecutor forRead(String file, long estimatedBytes) {
+        return forRead(getCurrentClient(), file, estimatedBytes);
+    }
+
+    ReadExecutor forRead(String client, String file, long estimatedBytes) {
+        return new ReadExecutor(client, file, classify(estimatedBytes), Math.min(estimatedBytes, maxBytesInFlight), true);
+    }
+
+    /**
+     * Executor for a read of the service itself, ie. an index catch up. Background reads wait in their own lane and are never rejected
+     *
+     * @param estimatedBytes Bytes the read is estimated to scan
+     */
+    public ReadExecutor forBackground(String file, long estimatedBytes) {
+        return new ReadExecutor(BACKGROUND_CLIENT, file, Lane.BACKGROUND, Math.min(estimatedBytes, maxBytesInFlight), false);
+    }
+
+    /**
+     * Same as {@link CompletableFuture#supplyAsync(Supplier, Executor)}, except that reads scheduled by a {@link ReadExecutor} hand their
+     * slot back before the future completes. Throws a {@link ReadRejectedException} the same way when the read can't be queued
+     */
+    public static <T> CompletableFuture<T> supplyAsync(Supplier<T> read, Executor executor) {
+        if (!(executor instanceof FairReadScheduler.ReadExecutor readExecutor)) {
+            return CompletableFuture.supplyAsync(read, executor);
+        }
+        SuppliedRead<T> suppliedRead = new SuppliedRead<>(read);
+        readExecutor.submit(suppliedRead, suppliedRead::complete);
+        return suppliedRead.future;
+    }
+
+    public Lane classify(long estimatedBytes) {
+        return estimatedBytes <= cheapReadMaxBytes ? Lane.CHEAP : Lane.DEEP;
+    }
+
+    /**
+     * @return Reads of clients running, background reads left out
+     */
+    public synchronized int getRunning() {
+        return running - backgroundRunning;
+    }
+
+    /**
+     * @return Background reads running, ie. index catch ups
+     */
+    public synchronized int getBackgroundRunning() {
+        return backgroundRunning;
+    }
+
+    /**
+     * @return Reads waiting to run, in all lanes
+     */
+    public synchronized int getQueued() {
+        int queued = 0;
+        for (LaneQueue queue : lanes.values()) {
+            queued += queue.size;
+        }
+        return queued;
+    }
+
+    /**
+     * @return Estimated bytes of the running reads
+     */
+    public synchronized long getBytesInFlight() {
+        return bytesInFlight;
+    }
+
+    private synchronized void submit(ScheduledRead read) {
+        LaneQueue queue = lanes.get(read.lane());
+        if (read.rejectable()) {
+            int clientQueued = queuedPerClient.getOrDefault(read.client(), 0);
+            if (clientQueued >= maxQueuedReadsPerClient) {
+                metrics.recordReadRejected("client");
+                throw new ReadRejectedException(HttpStatus.TOO_MANY_REQUESTS, "Too many reads queued for this client, retry later",
+                        getRetryAfterSeconds(read.lane(), clientQueued));
+            }
+            if (queue.size >= maxQueuedReads) {
+                metrics.recordReadRejected("saturated");
+                throw new ReadRejectedException(HttpStatus.SERVICE_UNAVAILABLE, "Too many reads queued, retry later",
+                        getRetryAfterSeconds(read.lane(), queue.size));
+            }
+        }
+        queue.add(read);
+        queuedPerClient.merge(read.client(), 1, Integer::sum);
+        dispatch();
+    }
+
+    private void dispatch() {
+        while (running < maxConcurrentReads) {
+            ScheduledRead read = next();
+            if (read == null) {
+                return;
+            }
+            start(read);
+        }
+    }
+
+    private ScheduledRead next() {
+        LaneQueue cheap = lanes.get(Lane.CHEAP);
+        LaneQueue deep = lanes.get(Lane.DEEP);
+        LaneQueue background = lanes.get(Lane.BACKGROUND);
+        // One deep read always gets to run, so deep reads make progress however many cheap ones come in
+        if (deepRunning == 0 && deep.size > 0) {
+            return deep.poll();
+        }
+        if (cheap.size > 0) {
+            return cheap.poll();
+        }
+        // Background reads have slots of their own, so they never hold the deep reads' slots, but share their budget of bytes
+        if (background.size > 0 && backgroundRunning < maxConcurrentBackgroundReads && bytesInFlight + background.peek().bytes() <= maxBytesInFlight) {
+            return background.poll();
+        }
+        if (deep.size > 0 && deepRunning < maxConcurrentDeepReads && bytesInFlight + deep.peek().bytes() <= maxBytesInFlight) {
+            return deep.poll();
+        }
+        return null;
+    }
+
+    private void start(ScheduledRead read) {
+        queuedPerClient.computeIfPresent(read.client(), (client, queued) -> queued > 1 ? queued - 1 : null);
+        running++;
+        if (read.isBackground()) {
+            backgroundRunning++;
+        }
+        if (read.lane() == Lane.DEEP) {
+            deepRunning++;
+        }
+        bytesInFlight += read.bytes();
+        metrics.recordReadWait(read.lane(), System.nanoTime() - read.queuedNanos());
+
+        workers.execute(() -> {
+            long startNanos = System.nanoTime();
+            try {
+                read.task().run();
+            } finally {
+                finish(read, System.nanoTime() - startNanos);
+            }
+            read.completion().run();
+        });
+    }
+
+    private synchronized void finish(ScheduledRead read, long readNanos) {
+        running--;
+        if (read.isBackground()) {
+            backgroundRunning--;
+        }
+        if (read.lane() == Lane.DEEP) {
+            deepRunning--;
+        }
+        bytesInFlight -= read.bytes();
+        int lane = read.lane().ordinal();
+        averageReadNanos[lane] = averageReadNanos[lane] == 0 ? readNanos : averageReadNanos[lane] + READ_NANOS_ALPHA * (readNanos - averageReadNanos[lane]);
+        dispatch();
+    }
+
+    /**
+     * @param queued Reads waiting ahead of the rejected one
+     * @return Seconds until they should have run, at the lane's average read duration
+     */
+    private long getRetryAfterSeconds(Lane lane, int queued) {
+        int slots = lane == Lane.DEEP ? maxConcurrentDeepReads : maxConcurrentReads;
+        double drainNanos = averageReadNanos[lane.ordinal()] * (queued + 1) / slots;
+        return Math.clamp((long) Math.ceil(drainNanos / 1_000_000_000d), 1, MAX_RETRY_AFTER_SECONDS);
+    }
+
+    /**
+     * @return Remote address of the current web request, or {@link #LOCAL_CLIENT} outside of one
+     */
+    private static String getCurrentClient() {
+        if (RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attributes) {
+            return attributes.getRequest().getRemoteAddr();
+        }
+        return LOCAL_CLIENT;
+    }
+}
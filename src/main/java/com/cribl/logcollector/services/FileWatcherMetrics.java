@@ -0,0 +1,209 @@
+package com.cribl.logcollector.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.BaseUnits;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micrometer meters of the read path, scraped from /actuator/prometheus.
+ * <p>
+ * Tags are kept low-cardinality: the watcher implementation, the kind of read, cache outcomes and response formats.
+ * File names and filters are never tags, since every distinct value would be a new time series.
+ */
+public class FileWatcherMetrics {
+
+    // Records nothing. Used by watchers and services created without a meter registry, ie. in tests
+    public static final FileWatcherMetrics NOOP = new FileWatcherMetrics(new CompositeMeterRegistry());
+
+    /**
+     * Kinds of watcher reads, timed separately since their costs differ by orders of magnitude
+     */
+    public enum ReadType {
+        // Tail read from scratch
+        TAIL,
+        // Only the bytes appended since the last read
+        APPEND,
+        // Cursor page or time range
+        PAGE,
+        STREAM,
+        // Lines counted for the stats endpoint
+        STATS,
+        // Timestamp binary search of a time range boundary
+        SEEK;
+
+        private final String tag = name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Outcomes of a cached watcher read
+     */
+    public enum CacheRead {
+        // Cached lines were still up-to-date
+        HIT,
+        // Attached to the read already in flight
+        SHARED,
+        // First read of the watcher
+        MISS,
+        // Watcher was cached, but the file changed or more lines were asked for, so it had to be read again
+        STALE;
+
+        private final String tag = name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Meters of one watcher implementation, looked up once per watcher rather than per read
+     */
+    public static class ReadMeters {
+        private final Map<ReadType, Timer> readTimers = new EnumMap<>(ReadType.class);
+        private final DistributionSummary bytesScanned;
+        private final Counter linesScanned;
+        private final Counter linesDecoded;
+
+        private ReadMeters(MeterRegistry registry, String impl) {
+            for (ReadType readType : ReadType.values()) {
+                readTimers.put(readType, Timer.builder("logcollector.read")
+                        .description("Latency of file watcher reads")
+                        .tags("impl", impl, "type", readType.tag)
+                        .publishPercentileHistogram()
+                        .register(registry));
+            }
+            bytesScanned = DistributionSummary.builder("logcollector.read.bytes")
+                    .description("Bytes scanned by a file watcher read")
+                    .baseUnit(BaseUnits.BYTES)
+                    .tag("impl", impl)
+                    .publishPercentileHistogram()
+                    .register(registry);
+            linesScanned = Counter.builder("logcollector.lines.scanned")
+                    .description("Lines looked at by reads, matching the filter or not")
+                    .tag("impl", impl)
+                    .register(registry);
+            linesDecoded = Counter.builder("logcollector.lines.decoded")
+                    .description("Lines that matched the filter and were decoded into strings")
+                    .tag("impl", impl)
+                    .register(registry);
+        }
+
+        public void recordRead(ReadType readType, long startNanos) {
+            readTimers.get(readType).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+
+        public void recordScan(long bytes, long lines) {
+            bytesScanned.record(bytes);
+            linesScanned.increment(lines);
+        }
+
+        public void recordDecoded(long lines) {
+            linesDecoded.increment(lines);
+        }
+    }
+
+    private final MeterRegistry registry;
+    private final Map<String, ReadMeters> readMeters = new ConcurrentHashMap<>();
+    private final Map<CacheRead, Counter> cacheReads = new EnumMap<>(CacheRead.class);
+    private final Counter notModifiedResponses;
+    private final Map<FairReadScheduler.Lane, Timer> readWaitTimers = new EnumMap<>(FairReadScheduler.Lane.class);
+
+    public FileWatcherMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        for (CacheRead cacheRead : CacheRead.values()) {
+            cacheReads.put(cacheRead, Counter.builder("logcollector.cache.reads")
+                    .description("Reads of cached file watchers by outcome")
+                    .tag("result", cacheRead.tag)
+                    .register(registry));
+        }
+        notModifiedResponses = Counter.builder("logcollector.response.notmodified")
+                .description("Tail requests answered with a 304 since the client already had the response")
+                .register(registry);
+        for (FairReadScheduler.Lane lane : FairReadScheduler.Lane.values()) {
+            readWaitTimers.put(lane, Timer.builder("logcollector.reads.wait")
+                    .description("Time disk reads waited for the scheduler to run them")
+                    .tag("lane", lane.tag)
+                    .publishPercentileHistogram()
+                    .register(registry));
+        }
+    }
+
+    public MeterRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * @param impl Watcher implementation, as set with com.cribl.logcollector.fileWatcher.impl
+     */
+    public ReadMeters forImpl(String impl) {
+        return readMeters.computeIfAbsent(impl, key -> new ReadMeters(registry, key));
+    }
+
+    public void recordCacheRead(CacheRead cacheRead) {
+        cacheReads.get(cacheRead).increment();
+    }
+
+    /**
+     * @return Cached watcher reads with the outcome so far. Always 0 for {@link #NOOP}
+     */
+    public long getCacheReads(CacheRead cacheRead) {
+        return (long) cacheReads.get(cacheRead).count();
+    }
+
+    /**
+     * Records the size of a tail response
+     *
+     * @param format json, cbor or ndjson
+     * @param entries Log entries returned
+     * @param bytes Bytes of the response body
+     */
+    public void recordResponse(String format, long entries, long bytes) {
+        DistributionSummary.builder("logcollector.response.entries")
+                .description("Log entries returned per tail response")
+                .tag("format", format)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(entries);
+        DistributionSummary.builder("logcollector.response.bytes")
+                .description("Bytes of the body of tail responses")
+                .baseUnit(BaseUnits.BYTES)
+                .tag("format", format)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(bytes);
+    }
+
+    public void recordNotModified() {
+        notModifiedResponses.increment();
+    }
+
+    /**
+     * @param coding Content coding a tail response was sent with: zstd, gzip or identity
+     */
+    public void recordContentCoding(String coding) {
+        Counter.builder("logcollector.response.codings")
+                .description("Tail responses by the content coding they were sent with")
+                .tag("coding", coding)
+                .register(registry)
+                .increment();
+    }
+
+    public void recordReadWait(FairReadScheduler.Lane lane, long nanos) {
+        readWaitTimers.get(lane).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param reason client when the client had too many reads queued, saturated when the lane was full
+     */
+    public void recordReadRejected(String reason) {
+        Counter.builder("logcollector.reads.rejected")
+                .description("Disk reads turned away with a Retry-After")
+                .tag("reason", reason)
+                .register(registry)
+                .increment();
+    }
+}
@@ -1,11 +1,119 @@
 package com.cribl.logcollector.services;
 
+import com.cribl.logcollector.services.stats.LogStatsAggregator;
+
+import java.io.IOException;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.function.Supplier;
 
 public interface ICriblFileWatcher extends Callable<List<String>> {
 
+    // Byte offset standing in for the end of the file, wherever it is at the time of the read
+    long END_OF_FILE = Long.MAX_VALUE;
+
+    /**
+     * Receives lines as a watcher streams them
+     */
+    @FunctionalInterface
+    interface LineWriter {
+        void write(String line) throws IOException;
+    }
+
     boolean hasFileBeenUpdated();
 
+    /**
+     * Same as {@link #call()}, but returns the lines UTF-8 encoded in pages of an arena rather than as strings, so caching them costs the
+     * garbage collector next to nothing. The caller owns a reference to the returned lines and has to release it.
+     * Watchers that keep their lines encoded between reads hand out another reference to them instead of encoding them again
+     *
+     * @param arena Arena to encode the lines into
+     */
+    default EncodedTailLines callEncoded(TailLineArena arena) throws Exception {
+        return EncodedTailLines.encode(arena, TailLines.of(call()));
+    }
+
+    /**
+     * Frees the lines a watcher keeps between reads, ie. once it's evicted from the cache. The watcher can still be read afterwards,
+     * its next read just starts from scratch
+     */
+    default void releaseCachedLines() {
+    }
+
+    /**
+     * @return Estimated heap bytes the watcher keeps between reads besides the lines it returns, ie. lines of rotated files.
+     * Counted in the weight of its cache entry, and freed by {@link #releaseCachedLines()}
+     */
+    default long getKeptBytes() {
+        return 0;
+    }
+
+    /**
+     * Rough number of bytes the next {@link #call()} for maxLines lines would read, used to schedule reads by cost. Watchers that only read
+     * the appended bytes of a file they've read already estimate just those
+     */
+    default long estimateReadBytes(int maxLines) {
+        return estimateScanBytes(maxLines);
+    }
+
+    /**
+     * Rough number of bytes a reverse scan for maxLines lines would read, ignoring anything cached. Filtered scans can read the whole file
+     *
+     * @return Estimate, {@link Long#MAX_VALUE} if the watcher can't tell
+     */
+    default long estimateScanBytes(int maxLines) {
+        return Long.MAX_VALUE;
+    }
+
     void setMaxLines(int maxLines);
+
+    int getMaxLines();
+
+    /**
+     * Reads up to maxLines lines that start before a byte offset, newest first
+     */
+    default TailLines readLinesBefore(long beforeOffset, int maxLines) throws IOException {
+        return readLinesBefore(0, beforeOffset, maxLines);
+    }
+
+    /**
+     * Reads up to maxLines lines starting between two byte offsets, newest first.
+     *
+     * @param beforeOffset Line start to read up to, or {@link #END_OF_FILE}
+     */
+    TailLines readLinesBefore(long startOffset, long beforeOffset, int maxLines) throws IOException;
+
+    /**
+     * Finds the byte offset of the first line with a timestamp at or after the given one
+     *
+     * @param timestamp Epoch milliseconds
+     * @return Byte offset of the line's start, or {@link #END_OF_FILE} if there is no such line
+     */
+    long findTimestampOffset(long timestamp, LogTimestampParser timestampParser) throws IOException;
+
+    /**
+     * Streams up to maxLines lines to the writer, newest first, as they are read. Unlike {@link #call()} lines aren't collected or cached,
+     * so watchers that read in reverse don't need more memory for more lines
+     */
+    default void streamLinesInReverse(int maxLines, LineWriter writer) throws IOException {
+        streamLinesInReverse(0, END_OF_FILE, maxLines, writer);
+    }
+
+    /**
+     * Streams up to maxLines lines starting between two byte offsets to the writer, newest first
+     *
+     * @param beforeOffset Line start to read up to, or {@link #END_OF_FILE}
+     */
+    void streamLinesInReverse(long startOffset, long beforeOffset, int maxLines, LineWriter writer) throws IOException;
+
+    /**
+     * Counts up to maxLines lines starting between two byte offsets, newest first, without collecting or decoding them
+     *
+     * @param beforeOffset Line start to read up to, or {@link #END_OF_FILE}
+     * @param aggregators Creates the aggregators lines are counted into. Watchers that scan in parallel count each part of the file
+     *                    into its own aggregator and merge them
+     * @return Aggregator holding the counts of every line
+     */
+    LogStatsAggregator aggregateLinesInReverse(long startOffset, long beforeOffset, int maxLines, Supplier<LogStatsAggregator> aggregators)
+            throws IOException;
 }
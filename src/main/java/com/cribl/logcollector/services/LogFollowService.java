@@ -0,0 +1,89 @@
+package com.cribl.logcollector.services;
+
+import com.cribl.logcollector.services.filewatchers.FileFollower;
+import jakarta.annotation.PreDestroy;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Singleton service backing live follow (`tail -f`) requests.
+ * <p>
+ * Keeps one {@link FileFollower} per followed file, shared by all of its subscribers. A follower is started by its first subscriber
+ * and stopped once its last subscriber disconnects.
+ */
+@Service("LogFollowService")
+public class LogFollowService {
+
+    @Autowired
+    private Environment envProps;
+
+    private static final Logger logger = LogManager.getLogger(LogFollowService.class);
+
+    private static final int FOLLOWER_THREADS = 2;
+
+    private final Map<String, FileFollower> followers = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(FOLLOWER_THREADS);
+    // Lines are sent off the pollers, a client stuck on a slow connection only blocks its own virtual thread
+    private final ExecutorService sender = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * Subscribes a new client to lines appended to a file from now on
+     *
+     * @param fileName File name to follow
+     * @param filterValue Optional filter query each pushed line has to match
+     * @return Server-Sent Events emitter that receives one event per appended line
+     */
+    public SseEmitter follow(String fileName, Optional<String> filterValue) {
+        long timeoutMillis = envProps.getProperty("com.cribl.logcollector.follow.timeoutMillis", Long.class, 30L * 60 * 1000);
+        int maxQueuedLines = envProps.getProperty("com.cribl.logcollector.follow.maxQueuedLines", Integer.class, 10000);
+        SseEmitter emitter = new SseEmitter(timeoutMillis);
+        FileFollower.Subscriber subscriber = new FileFollower.Subscriber(emitter, filterValue.map(CriblFileWatcherService::compileFilter).orElse(null),
+                maxQueuedLines);
+
+        // compute is atomic per key, so a follower can't be stopped by its last subscriber leaving while we are joining it
+        followers.compute(fileName, (key, follower) -> {
+            if (follower == null) {
+                follower = new FileFollower(envProps.getProperty("com.cribl.logcollector.filepath") + fileName, scheduler, sender);
+                follower.start();
+            }
+            follower.addSubscriber(subscriber);
+            return follower;
+        });
+
+        emitter.onCompletion(() -> unsubscribe(fileName, emitter));
+        emitter.onTimeout(() -> unsubscribe(fileName, emitter));
+        emitter.onError(e -> unsubscribe(fileName, emitter));
+
+        logger.debug("New follow subscriber for file {}", fileName);
+        return emitter;
+    }
+
+    private void unsubscribe(String fileName, SseEmitter emitter) {
+        followers.computeIfPresent(fileName, (key, follower) -> {
+            follower.removeSubscriber(emitter);
+            if (follower.hasSubscribers()) {
+                return follower;
+            }
+            follower.stop();
+            return null;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        followers.values().forEach(FileFollower::stop);
+        scheduler.shutdownNow();
+        sender.shutdownNow();
+    }
+}
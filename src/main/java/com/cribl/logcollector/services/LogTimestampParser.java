@@ -0,0 +1,79 @@
+package com.cribl.logcollector.services;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalAccessor;
+
+/**
+ * Parses the timestamp at the start of a log line with a fixed width {@link DateTimeFormatter} pattern,
+ * ie. "yyyy-MM-dd HH:mm:ss" or "yyMMdd HHmmss" for the HDFS logs.
+ * <p>
+ * Used wherever lines of different files or servers need ordering by time. Lines without a timestamp (stack traces, wrapped lines)
+ * return {@link #NO_TIMESTAMP}.
+ */
+public class LogTimestampParser {
+
+    public static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+    public static final String DEFAULT_PATTERN = "yyyy-MM-dd HH:mm:ss";
+
+    private final DateTimeFormatter formatter;
+    private final ZoneId zoneId;
+    private final int timestampLength;
+
+    public LogTimestampParser(String pattern) {
+        this(pattern, ZoneId.systemDefault());
+    }
+
+    public LogTimestampParser(String pattern, ZoneId zoneId) {
+        this.formatter = DateTimeFormatter.ofPattern(pattern);
+        this.zoneId = zoneId;
+        // Fixed width patterns always format to the same length
+        this.timestampLength = formatter.format(LocalDateTime.of(2000, 1, 1, 0, 0).atZone(zoneId)).length();
+    }
+
+    /**
+     * @return Epoch milliseconds of the line's timestamp or {@link #NO_TIMESTAMP}
+     */
+    public long parse(String line) {
+        if (line.length() < timestampLength) {
+            return NO_TIMESTAMP;
+        }
+        return parseTimestamp(line.substring(0, timestampLength));
+    }
+
+    /**
+     * Byte level version of {@link #parse(String)}, only decodes the timestamp prefix of the line
+     */
+    public long parse(byte[] bytes, int offset, int length) {
+        if (length < timestampLength) {
+            return NO_TIMESTAMP;
+        }
+        return parseTimestamp(new String(bytes, offset, timestampLength, StandardCharsets.UTF_8));
+    }
+
+    private long parseTimestamp(String timestamp) {
+        // Cheap check before paying for a parse exception on lines that obviously don't start with a timestamp
+        if (!Character.isDigit(timestamp.charAt(0))) {
+            return NO_TIMESTAMP;
+        }
+
+        try {
+            TemporalAccessor parsed = formatter.parse(timestamp);
+            if (parsed.isSupported(ChronoField.INSTANT_SECONDS)) {
+                return parsed.getLong(ChronoField.INSTANT_SECONDS) * 1000 + parsed.get(ChronoField.MILLI_OF_SECOND);
+            }
+            return LocalDateTime.from(parsed).atZone(zoneId).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return NO_TIMESTAMP;
+        }
+    }
+
+    public int getTimestampLength() {
+        return timestampLength;
+    }
+}
@@ -0,0 +1,9 @@
+package com.cribl.logcollector.services;
+
+import java.util.List;
+
+/**
+ * Tail of several files merged newest first by timestamp. fileNames holds the file each line came from, at the same index
+ */
+public record MergedTail(List<String> lines, List<String> fileNames) {
+}
@@ -0,0 +1,286 @@
+package com.cribl.logcollector.services;
+
+import com.cribl.logcollector.services.cluster.PeerTailStream;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Supplier;
+
+/**
+ * Primary side of the Primary/Secondary log proxy described in the README's system design.
+ * <p>
+ * Scatters a tail request to every registered peer in parallel and gathers the results, either grouped per server or k-way merged
+ * by log timestamp. Peer responses are parsed as streams and written straight through to our response, so the primary never buffers
+ * all of the peers' log entries. Every peer has its own deadline: the peer timeout covers its response headers, and its entries get the
+ * same time again from when we start reading them. Peers that fail or time out are reported next to the results we did get.
+ */
+@Service("PrimaryLogService")
+public class PrimaryLogService {
+
+    @Autowired
+    private Environment envProps;
+
+    @Autowired
+    private ClusterPeerRegistry peerRegistry;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private static final Logger logger = LogManager.getLogger(PrimaryLogService.class);
+
+    private static final long DEFAULT_PEER_TIMEOUT_MILLIS = 5000;
+
+    // Flush merged entries to the client in batches rather than per entry
+    private static final int FLUSH_EVERY_ENTRIES = 1000;
+
+    // One client for all peers. It keeps connections to peers open between requests
+    private HttpClient httpClient;
+    private final ScheduledExecutorService deadlineScheduler = Executors.newSingleThreadScheduledExecutor();
+    private Duration peerTimeout;
+    private String authorizationHeader;
+    private LogTimestampParser timestampParser;
+
+    @PostConstruct
+    public void init() {
+        peerTimeout = Duration.ofMillis(envProps.getProperty("com.cribl.logcollector.cluster.peerTimeoutMillis", Long.class, DEFAULT_PEER_TIMEOUT_MILLIS));
+        httpClient = HttpClient.newBuilder()
+                .connectTimeout(peerTimeout)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+
+        String username = envProps.getProperty("com.cribl.logcollector.cluster.username", envProps.getProperty("com.cribl.logcollector.ws.username", ""));
+        String password = envProps.getProperty("com.cribl.logcollector.cluster.password", envProps.getProperty("com.cribl.logcollector.ws.password", ""));
+        authorizationHeader = "Basic " + Base64.getEncoder().encodeToString((username + ":" + password).getBytes(StandardCharsets.UTF_8));
+
+        timestampParser = new LogTimestampParser(envProps.getProperty("com.cribl.logcollector.timestamp.pattern", LogTimestampParser.DEFAULT_PATTERN));
+    }
+
+    /**
+     * Secondaries announce themselves to their primary on startup when com.cribl.logcollector.cluster.primaryUrl and selfUrl are set
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void registerWithPrimary() {
+        String primaryUrl = envProps.getProperty("com.cribl.logcollector.cluster.primaryUrl");
+        String selfUrl = envProps.getProperty("com.cribl.logcollector.cluster.selfUrl");
+        if (primaryUrl == null || selfUrl == null) {
+            return;
+        }
+
+        HttpRequest request = HttpRequest.newBuilder(URI.create(primaryUrl + "/primary/cluster/peers?url=" + encode(selfUrl)))
+                .header("Authorization", authorizationHeader)
+                .timeout(peerTimeout)
+                .POST(HttpRequest.BodyPublishers.noBody())
+                .build();
+        httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, e) -> {
+            if (e != null || response.statusCode() != 200) {
+                logger.error("Failed to register with primary {}: {}", primaryUrl, e != null ? e.getMessage() : "HTTP " + response.statusCode());
+            } else {
+                logger.info("Registered with primary {} as {}", primaryUrl, selfUrl);
+            }
+        });
+    }
+
+    /**
+     * Tails a file on every peer and writes the combined JSON response
+     *
+     * @param mergeByTimestamp True to k-way merge all peers' entries newest first by timestamp, false to group them per server
+     */
+    public void tail(String fileName, int numEntries, Optional<String> filterValue, boolean mergeByTimestamp, OutputStream outputStream) throws IOException {
+        List<String> peers = peerRegistry.getPeers();
+
+        // Scatter
+        List<CompletableFuture<PeerTailStream>> peerStreams = new ArrayList<>(peers.size());
+        for (String peer : peers) {
+            peerStreams.add(requestTail(peer, fileName, numEntries, filterValue));
+        }
+
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+            if (mergeByTimestamp) {
+                writeMerged(generator, peerStreams, numEntries);
+            } else {
+                writeGroupedByServer(generator, peerStreams, filterValue);
+            }
+        }
+    }
+
+    /**
+     * Sends the tail request to one peer. Completes once the peer's response headers arrive, with a stream over its log entries.
+     * Failures complete with a stream that's already failed, so they show up in the response
+     */
+    private CompletableFuture<PeerTailStream> requestTail(String peer, String fileName, int numEntries, Optional<String> filterValue) {
+        String uri = peer + "/cribl/log/tail?filename=" + encode(fileName) + "&numEntries=" + numEntries
+                + filterValue.map(filter -> "&filter=" + encode(filter)).orElse("");
+        HttpRequest request = HttpRequest.newBuilder(URI.create(uri))
+                .header("Authorization", authorizationHeader)
+                .header("Accept", "application/json")
+                .timeout(peerTimeout)
+                .GET()
+                .build();
+        JsonFactory jsonFactory = objectMapper.getFactory();
+
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream())
+                .thenApply(response -> {
+                    if (response.statusCode() != 200) {
+                        return failedStream(peer, "HTTP " + response.statusCode() + ": " + readErrorDetail(response.body()));
+                    }
+                    try {
+                        // The request timeout only covers the response headers. The body's deadline starts once we read it
+                        return new PeerTailStream(peer, response.body(), jsonFactory);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                })
+                .exceptionally(e -> {
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    PeerTailStream failed = failedStream(peer, cause instanceof HttpTimeoutException ? "Timed out" : "Request failed: " + cause);
+                    logger.debug("Tail request to peer {} failed: {}", peer, failed.getError());
+                    return failed;
+                });
+    }
+
+    /**
+     * Writes each peer's entries as soon as that peer starts responding:
+     * {"servers":[{"server":"http://host:port","logEntries":[...],"filterUsed":"..","status":"OK","error":null}, ...]}
+     */
+    private void writeGroupedByServer(JsonGenerator generator, List<CompletableFuture<PeerTailStream>> peerStreams, Optional<String> filterValue) throws IOException {
+        // Gather in completion order, so one slow peer doesn't hold up the others
+        BlockingQueue<PeerTailStream> completed = new LinkedBlockingQueue<>();
+        peerStreams.forEach(future -> future.thenAccept(completed::add));
+
+        generator.writeStartObject();
+        generator.writeArrayFieldStart("servers");
+        for (int i = 0; i < peerStreams.size(); i++) {
+            PeerTailStream stream = take(completed);
+            stream.startDeadline(deadlineScheduler, peerTimeout);
+            try (stream) {
+                generator.writeStartObject();
+                generator.writeStringField("server", stream.getServer());
+                generator.writeArrayFieldStart("logEntries");
+                for (String entry = stream.next(); entry != null; entry = stream.next()) {
+                    generator.writeString(entry);
+                }
+                generator.writeEndArray();
+                generator.writeStringField("filterUsed", filterValue.orElse(null));
+                writeStatus(generator, stream);
+                generator.writeEndObject();
+                generator.flush();
+            }
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+    }
+
+    /**
+     * K-way merges the peers' entries, newest first, keeping only one pending entry per peer in memory:
+     * {"logEntries":[{"server":"http://host:port","entry":"..."}, ...],"servers":[{"server":"..","status":"OK","error":null}, ...]}
+     * <p>
+     * Each peer's entries are already newest first. Lines without a timestamp (ie. stack traces) are kept together with the
+     * older timestamped line they belong to and ordered by its timestamp
+     */
+    private void writeMerged(JsonGenerator generator, List<CompletableFuture<PeerTailStream>> peerStreams, int numEntries) throws IOException {
+        List<PeerTailStream> streams = new ArrayList<>(peerStreams.size());
+        for (CompletableFuture<PeerTailStream> future : peerStreams) {
+            streams.add(future.join());
+        }
+        // Merged streams are all read at once
+        streams.forEach(stream -> stream.startDeadline(deadlineScheduler, peerTimeout));
+
+        List<Supplier<String>> sources = new ArrayList<>(streams.size());
+        for (PeerTailStream stream : streams) {
+            sources.add(stream::next);
+        }
+
+        generator.writeStartObject();
+        generator.writeArrayFieldStart("logEntries");
+        int[] written = {0};
+        new TimestampMerger(sources, Collections.nCopies(streams.size(), timestampParser)).merge(numEntries, (streamIndex, entry) -> {
+            generator.writeStartObject();
+            generator.writeStringField("server", streams.get(streamIndex).getServer());
+            generator.writeStringField("entry", entry);
+            generator.writeEndObject();
+            if (++written[0] % FLUSH_EVERY_ENTRIES == 0) {
+                generator.flush();
+            }
+        });
+        generator.writeEndArray();
+
+        generator.writeArrayFieldStart("servers");
+        for (PeerTailStream stream : streams) {
+            stream.close();
+            generator.writeStartObject();
+            generator.writeStringField("server", stream.getServer());
+            writeStatus(generator, stream);
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+    }
+
+    private static void writeStatus(JsonGenerator generator, PeerTailStream stream) throws IOException {
+        String status = stream.getError() == null ? "OK" : stream.getEntriesRead() > 0 ? "PARTIAL" : "ERROR";
+        generator.writeStringField("status", status);
+        generator.writeStringField("error", stream.getError());
+    }
+
+    private static PeerTailStream failedStream(String peer, String error) {
+        try {
+            PeerTailStream stream = new PeerTailStream(peer, InputStream.nullInputStream(), new JsonFactory());
+            stream.fail(error);
+            return stream;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String readErrorDetail(InputStream body) {
+        try (body) {
+            return objectMapper.readTree(body).path("detail").asText("");
+        } catch (IOException e) {
+            return "";
+        }
+    }
+
+    private static PeerTailStream take(BlockingQueue<PeerTailStream> queue) throws IOException {
+        try {
+            return queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for peers", e);
+        }
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+}
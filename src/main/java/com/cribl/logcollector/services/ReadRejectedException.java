@@ -0,0 +1,30 @@
+package com.cribl.logcollector.services;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Read turned away by the {@link FairReadScheduler} because too many reads are queued. Answered with a Retry-After header telling the
+ * client when the queue should have drained
+ */
+public class ReadRejectedException extends ResponseStatusException {
+
+    private final long retryAfterSeconds;
+
+    public ReadRejectedException(HttpStatusCode status, String reason, long retryAfterSeconds) {
+        super(status, reason);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    @Override
+    public HttpHeaders getHeaders() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds));
+        return headers;
+    }
+}
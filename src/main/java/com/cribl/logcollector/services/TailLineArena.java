@@ -0,0 +1,115 @@
+package com.cribl.logcollector.services;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of fixed size off-heap pages that cached tails are encoded into, see {@link EncodedTailLines}. Bounded by a global budget.
+ * <p>
+ * Pages are sliced out of 1 MB direct slabs and recycled rather than freed, so cached lines cost the garbage collector a handful of page
+ * objects instead of a String per line. Once the budget is used up pages are allocated on the heap, so the read at hand can still finish.
+ * Lines holding such pages are still cached, and weighed by them, so the cache evicts colder lines and their pages come back to the pool.
+ */
+public class TailLineArena {
+
+    public static final int DEFAULT_PAGE_SIZE = 4096; // 4KB
+
+    private static final int SLAB_SIZE = 1024 * 1024; // 1MB
+
+    // Only allocates heap pages. Used by watchers created outside of the service, ie. in tests
+    public static final TailLineArena HEAP = new TailLineArena(0, DEFAULT_PAGE_SIZE);
+
+    private final long maxBytes;
+    private final int pageSize;
+    private final int pageShift;
+    private final ConcurrentLinkedQueue<ByteBuffer> freePages = new ConcurrentLinkedQueue<>();
+    // Direct memory allocated in slabs so far. Slabs are kept for the life of the arena
+    private long allocatedBytes = 0;
+    private final AtomicLong usedBytes = new AtomicLong();
+
+    /**
+     * @param maxBytes Most direct memory to allocate
+     * @param pageSize Size of a page, a power of 2 and a multiple of 8
+     */
+    public TailLineArena(long maxBytes, int pageSize) {
+        if (Integer.bitCount(pageSize) != 1 || pageSize < 8) {
+            throw new IllegalArgumentException("Page size has to be a power of 2 of at least 8: " + pageSize);
+        }
+        this.maxBytes = maxBytes;
+        this.pageSize = pageSize;
+        this.pageShift = Integer.numberOfTrailingZeros(pageSize);
+    }
+
+    /**
+     * @return A page of pageSize bytes. Off-heap unless the budget is used up. Its contents are undefined
+     */
+    public ByteBuffer allocate() {
+        usedBytes.addAndGet(pageSize);
+        ByteBuffer page = freePages.poll();
+        if (page == null) {
+            page = allocateSlab();
+        }
+        return page != null ? page : ByteBuffer.allocate(pageSize);
+    }
+
+    /**
+     * Returns a page to the pool. Heap pages are left for the garbage collector
+     */
+    public void free(ByteBuffer page) {
+        usedBytes.addAndGet(-pageSize);
+        if (page.isDirect()) {
+            freePages.offer(page);
+        }
+    }
+
+    /**
+     * Slices a new slab into pages, keeping all but the returned one in the pool
+     *
+     * @return A page of the new slab, or null if the budget doesn't allow another one
+     */
+    private synchronized ByteBuffer allocateSlab() {
+        // Another thread may have just filled the pool
+        ByteBuffer page = freePages.poll();
+        if (page != null) {
+            return page;
+        }
+
+        long slabSize = Math.min(SLAB_SIZE, (maxBytes - allocatedBytes) >> pageShift << pageShift);
+        if (slabSize < pageSize) {
+            return null;
+        }
+        ByteBuffer slab = ByteBuffer.allocateDirect((int) slabSize);
+        allocatedBytes += slabSize;
+        for (int offset = pageSize; offset < slabSize; offset += pageSize) {
+            freePages.offer(slab.slice(offset, pageSize));
+        }
+        return slab.slice(0, pageSize);
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    int getPageShift() {
+        return pageShift;
+    }
+
+    /**
+     * @return Direct memory allocated so far, in use or pooled
+     */
+    public synchronized long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * @return Bytes of the pages handed out and not freed yet, on or off-heap
+     */
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+}
@@ -0,0 +1,96 @@
+package com.cribl.logcollector.services;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Immutable list of tailed log lines, newest first, that also knows the byte offset each line starts at in its file.
+ * <p>
+ * Offsets let us hand clients a cursor to page further back from the oldest line they've seen.
+ * File watchers that don't track offsets report {@link #UNKNOWN_OFFSET}.
+ */
+public class TailLines extends AbstractList<String> implements RandomAccess {
+
+    public static final long UNKNOWN_OFFSET = -1;
+
+    private final String[] lines;
+    private final long[] offsets;
+    private final int size;
+    // File key (ie. inode) of the file the lines were read from, so cursors can be checked against rotations
+    private final Object fileKey;
+
+    public TailLines(String[] lines, long[] offsets, int size, Object fileKey) {
+        this.lines = lines;
+        this.offsets = offsets;
+        this.size = size;
+        this.fileKey = fileKey;
+    }
+
+    /**
+     * Wraps lines without known offsets
+     */
+    public static TailLines of(List<String> lines) {
+        if (lines instanceof TailLines tailLines) {
+            return tailLines;
+        }
+        return new TailLines(lines.toArray(new String[0]), null, lines.size(), null);
+    }
+
+    @Override
+    public String get(int index) {
+        return lines[checkIndex(index)];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return Byte offset in the file of the line's first byte, or {@link #UNKNOWN_OFFSET}
+     */
+    public long getFileOffset(int index) {
+        return offsets == null ? UNKNOWN_OFFSET : offsets[checkIndex(index)];
+    }
+
+    public Object getFileKey() {
+        return fileKey;
+    }
+
+    /**
+     * @return The first (newest) maxSize lines, sharing this list's arrays
+     */
+    public TailLines limit(int maxSize) {
+        return maxSize >= size ? this : new TailLines(lines, offsets, maxSize, fileKey);
+    }
+
+    /**
+     * @return These lines followed by older lines from another file, ie. a rotated one. The older lines have unknown offsets,
+     * since they aren't in the file our offsets and file key refer to
+     */
+    public TailLines append(List<String> olderLines) {
+        if (olderLines.isEmpty()) {
+            return this;
+        }
+        int combinedSize = size + olderLines.size();
+        String[] combinedLines = new String[combinedSize];
+        long[] combinedOffsets = new long[combinedSize];
+        for (int i = 0; i < size; i++) {
+            combinedLines[i] = lines[i];
+            combinedOffsets[i] = getFileOffset(i);
+        }
+        for (int i = size; i < combinedSize; i++) {
+            combinedLines[i] = olderLines.get(i - size);
+            combinedOffsets[i] = UNKNOWN_OFFSET;
+        }
+        return new TailLines(combinedLines, combinedOffsets, combinedSize, fileKey);
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,292 @@
+package com.cribl.logcollector.services;
+
+import com.cribl.logcollector.models.TailApiResponse;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Serialized JSON (or CBOR) of recent tail responses, keyed by their version (see {@link CriblFileWatcherService#getTailVersion}) and format.
+ * <p>
+ * Most polling requests get the same lines as last time. Those are served from the cached bytes without touching the file watcher or Jackson.
+ * Versions also give us strong ETags, so clients sending If-None-Match get a 304 after no more than a stat of the file.
+ * Responses built from cached lines are serialized straight from their UTF-8 bytes, so they're never decoded into strings.
+ * <p>
+ * Only responses that can be cached are serialized up front. Ones that can't, or that are estimated to be bigger than a cache entry may
+ * be (com.cribl.logcollector.responseCache.maxEntryBytes), are serialized as they're written out, straight into the response's compressor,
+ * so they're never buffered whole, see {@link StreamedTail}.
+ */
+@Service("TailResponseCache")
+public class TailResponseCache {
+
+    private static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024; // 64MB
+    // Rough JSON cost of an entry besides its line: quotes, the comma and the odd escaped character
+    private static final int ENTRY_OVERHEAD_BYTES = 8;
+    private static final int RESPONSE_OVERHEAD_BYTES = 64;
+
+    @Autowired
+    private Environment envProps;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    // Provided by actuator. Left out when the service is created outside of Spring, ie. in tests
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    // Same schema as the JSON, for clients that asked for a compact binary encoding
+    private final ObjectMapper cborMapper = new CBORMapper();
+
+    private Cache<String, SerializedTail> responses;
+    private long maxEntryBytes;
+
+    /**
+     * Encodings of the {@link TailApiResponse} schema
+     */
+    public enum TailFormat {
+        JSON,
+        CBOR;
+
+        private final String tag = name().toLowerCase(Locale.ROOT);
+
+        public String getTag() {
+            return tag;
+        }
+    }
+
+    /**
+     * Body of a tail response, serialized up front or as it's written out
+     */
+    public sealed interface TailBody permits SerializedTail, StreamedTail {
+        TailFormat format();
+
+        /**
+         * @return Number of log entries in it
+         */
+        int entries();
+    }
+
+    /**
+     * Body of a tail response serialized up front, which can be cached
+     */
+    public record SerializedTail(TailFormat format, byte[] body, int entries) implements TailBody {
+    }
+
+    /**
+     * Body of a tail response serialized as it's written out
+     *
+     * @param estimatedBytes Rough size of the serialized body
+     * @param writer Writes the body. Lines it was built from are held until it has run, so it has to run once
+     */
+    public record StreamedTail(TailFormat format, int entries, long estimatedBytes, BodyWriter writer) implements TailBody {
+    }
+
+    /**
+     * Writes a response body. Leaves the stream open
+     */
+    @FunctionalInterface
+    public interface BodyWriter {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    @PostConstruct
+    public void init() {
+        long maxBytes = envProps.getProperty("com.cribl.logcollector.responseCache.maxBytes", Long.class, DEFAULT_MAX_BYTES);
+        // A response much bigger than this would evict most of the cache to be kept
+        maxEntryBytes = envProps.getProperty("com.cribl.logcollector.responseCache.maxEntryBytes", Long.class, maxBytes / 16);
+        responses = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String key, SerializedTail response) -> key.length() + response.body().length)
+                .recordStats()
+                .build();
+        if (meterRegistry != null) {
+            CaffeineCacheMetrics.monitor(meterRegistry, responses, "tailResponses");
+        }
+    }
+
+    /**
+     * @return Strong ETag of a version, quoted
+     */
+    public static String getETag(String version) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(version.getBytes(StandardCharsets.UTF_8));
+            // 128 bits are plenty to tell versions apart
+            return '"' + HexFormat.of().formatHex(digest, 0, 16) + '"';
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is always available", e);
+        }
+    }
+
+    /**
+     * Checks an If-None-Match header against an ETag. Uses the weak comparison If-None-Match calls for, so W/ prefixes are ignored
+     *
+     * @param ifNoneMatch Header value, a list of ETags or *. Can be null
+     */
+    public static boolean matches(String ifNoneMatch, String eTag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(eTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Cached response of a version in a format, or null
+     */
+    public SerializedTail get(String version, TailFormat format) {
+        return responses.getIfPresent(getKey(version, format));
+    }
+
+    public void put(String version, SerializedTail response) {
+        responses.put(getKey(version, response.format()), response);
+    }
+
+    /**
+     * Serializes a JSON response with Spring's object mapper, the same way it would be written without the cache
+     */
+    public SerializedTail serialize(TailApiResponse response) {
+        return serialize(response, TailFormat.JSON);
+    }
+
+    public SerializedTail serialize(TailApiResponse response, TailFormat format) {
+        try {
+            return new SerializedTail(format, getMapper(format).writeValueAsBytes(response), response.getLogEntries().size());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Serializes a response up front if it can be cached, otherwise returns it to be serialized as it's written out
+     *
+     * @param cacheable False if the response won't be cached anyway, ie. it has no version
+     */
+    public TailBody toBody(TailApiResponse response, TailFormat format, boolean cacheable) {
+        List<String> logEntries = response.getLogEntries();
+        long estimatedBytes = RESPONSE_OVERHEAD_BYTES;
+        for (String logEntry : logEntries) {
+            estimatedBytes += logEntry.length() + ENTRY_OVERHEAD_BYTES;
+        }
+        if (cacheable && estimatedBytes <= maxEntryBytes) {
+            return serialize(response, format);
+        }
+        return new StreamedTail(format, logEntries.size(), estimatedBytes, out -> getMapper(format).writeValue(StreamUtils.nonClosing(out), response));
+    }
+
+    /**
+     * Same as {@link #toBody(TailApiResponse, TailFormat, boolean)} for the newest numEntries cached lines. A streamed body takes its own
+     * reference to the lines, released once it's written (or once it's garbage collected, if it never is)
+     */
+    public TailBody toBody(EncodedTailLines logEntries, int numEntries, String filterUsed, String nextCursor, TailFormat format, boolean cacheable) {
+        int entries = Math.min(numEntries, logEntries.size());
+        long estimatedBytes = RESPONSE_OVERHEAD_BYTES;
+        for (int i = 0; i < entries; i++) {
+            estimatedBytes += logEntries.getLineLength(i) + ENTRY_OVERHEAD_BYTES;
+        }
+        if ((cacheable && estimatedBytes <= maxEntryBytes) || !logEntries.tryRetain()) {
+            return serialize(logEntries, numEntries, filterUsed, nextCursor, format);
+        }
+        return new StreamedTail(format, entries, estimatedBytes, out -> {
+            try {
+                writeLines(logEntries, entries, filterUsed, nextCursor, format, out);
+            } finally {
+                logEntries.release();
+            }
+        });
+    }
+
+    /**
+     * Serializes a JSON response of the newest numEntries cached lines, see {@link #serialize(EncodedTailLines, int, String, String, TailFormat)}
+     */
+    public SerializedTail serialize(EncodedTailLines logEntries, int numEntries, String filterUsed, String nextCursor) {
+        return serialize(logEntries, numEntries, filterUsed, nextCursor, TailFormat.JSON);
+    }
+
+    /**
+     * Serializes a response of the newest numEntries cached lines, writing their UTF-8 bytes straight into the JSON or CBOR. Writes the same
+     * JSON as {@link #serialize(TailApiResponse, TailFormat)} would for the decoded lines, and CBOR that decodes to the same response
+     */
+    public SerializedTail serialize(EncodedTailLines logEntries, int numEntries, String filterUsed, String nextCursor, TailFormat format) {
+        int entries = Math.min(numEntries, logEntries.size());
+        ByteArrayOutputStream body = new ByteArrayOutputStream(256 + entries * 64);
+        try {
+            writeLines(logEntries, entries, filterUsed, nextCursor, format, body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new SerializedTail(format, body.toByteArray(), entries);
+    }
+
+    private void writeLines(EncodedTailLines logEntries, int entries, String filterUsed, String nextCursor, TailFormat format, OutputStream out)
+            throws IOException {
+        byte[] line = new byte[256];
+        try (JsonGenerator generator = getMapper(format).createGenerator(StreamUtils.nonClosing(out))) {
+            generator.writeStartObject();
+            generator.writeFieldName("logEntries");
+            // Sized like the object mapper sizes lists, CBOR writes the length up front
+            generator.writeStartArray(null, entries);
+            for (int i = 0; i < entries; i++) {
+                int length = logEntries.getLineLength(i);
+                if (length > line.length) {
+                    line = new byte[Math.max(length, line.length * 2)];
+                }
+                logEntries.copyLine(i, line, 0);
+                if (isAscii(line, length)) {
+                    generator.writeUTF8String(line, 0, length);
+                } else {
+                    // Decoded like any other line, so invalid UTF-8 is replaced rather than copied into the JSON
+                    generator.writeString(new String(line, 0, length, StandardCharsets.UTF_8));
+                }
+            }
+            generator.writeEndArray();
+            generator.writeStringField("filterUsed", filterUsed);
+            generator.writeStringField("nextCursor", nextCursor);
+            generator.writeEndObject();
+        }
+    }
+
+    private ObjectMapper getMapper(TailFormat format) {
+        return format == TailFormat.CBOR ? cborMapper : objectMapper;
+    }
+
+    private static String getKey(String version, TailFormat format) {
+        return format.tag + '\0' + version;
+    }
+
+    private static boolean isAscii(byte[] bytes, int length) {
+        for (int i = 0; i < length; i++) {
+            if (bytes[i] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,16 @@
+package com.cribl.logcollector.services;
+
+/**
+ * Time window of a tail request, in epoch milliseconds. Lines from since (inclusive) up to until (exclusive) are returned.
+ * Unbounded ends are {@link Long#MIN_VALUE} and {@link Long#MAX_VALUE}
+ */
+public record TimeRange(long sinceMillis, long untilMillis) {
+
+    public boolean hasSince() {
+        return sinceMillis != Long.MIN_VALUE;
+    }
+
+    public boolean hasUntil() {
+        return untilMillis != Long.MAX_VALUE;
+    }
+}
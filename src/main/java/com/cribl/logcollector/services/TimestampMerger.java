@@ -0,0 +1,91 @@
+package com.cribl.logcollector.services;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Supplier;
+
+/**
+ * K-way merges sources of log lines that are each newest first into one newest first sequence, ordered by the lines' timestamps.
+ * <p>
+ * Only the next pending entry of each source is held, so memory use is bounded by the number of sources rather than lines.
+ * Lines without a timestamp (ie. stack traces) are kept together with the older timestamped line they belong to and ordered by its
+ * timestamp. Ties go to the source listed first.
+ */
+public class TimestampMerger {
+
+    /**
+     * Receives the merged lines, along with the index of the source each came from
+     */
+    @FunctionalInterface
+    public interface MergedLineConsumer {
+        void accept(int sourceIndex, String line) throws IOException;
+    }
+
+    private record MergeHead(List<String> entries, long timestamp, int sourceIndex) {
+    }
+
+    private final List<Supplier<String>> sources;
+    private final List<LogTimestampParser> timestampParsers;
+
+    /**
+     * @param sources Lines of each source, newest first. Each returns null once it runs out
+     * @param timestampParsers Timestamp parser of each source
+     */
+    public TimestampMerger(List<Supplier<String>> sources, List<LogTimestampParser> timestampParsers) {
+        if (sources.size() != timestampParsers.size()) {
+            throw new IllegalArgumentException("Every source needs a timestamp parser");
+        }
+        this.sources = sources;
+        this.timestampParsers = timestampParsers;
+    }
+
+    /**
+     * Passes up to maxLines merged lines to the consumer
+     *
+     * @return Number of lines passed on
+     */
+    public int merge(int maxLines, MergedLineConsumer consumer) throws IOException {
+        PriorityQueue<MergeHead> heads = new PriorityQueue<>(Comparator.comparingLong(MergeHead::timestamp).reversed().thenComparingInt(MergeHead::sourceIndex));
+        for (int i = 0; i < sources.size(); i++) {
+            pushNext(heads, i);
+        }
+
+        int merged = 0;
+        while (merged < maxLines && !heads.isEmpty()) {
+            MergeHead head = heads.poll();
+            for (String entry : head.entries()) {
+                if (merged == maxLines) {
+                    return merged;
+                }
+                consumer.accept(head.sourceIndex(), entry);
+                merged++;
+            }
+            pushNext(heads, head.sourceIndex());
+        }
+        return merged;
+    }
+
+    /**
+     * Next entries of a source in merge order. Usually one line, more when it is preceded by lines without a timestamp
+     */
+    private void pushNext(PriorityQueue<MergeHead> heads, int sourceIndex) {
+        Supplier<String> source = sources.get(sourceIndex);
+        LogTimestampParser timestampParser = timestampParsers.get(sourceIndex);
+        List<String> entries = new ArrayList<>(1);
+        for (String entry = source.get(); entry != null; entry = source.get()) {
+            entries.add(entry);
+            long timestamp = timestampParser.parse(entry);
+            if (timestamp != LogTimestampParser.NO_TIMESTAMP) {
+                heads.add(new MergeHead(entries, timestamp, sourceIndex));
+                return;
+            }
+        }
+        // Oldest lines of the source had no timestamp. Order them last
+        if (!entries.isEmpty()) {
+            heads.add(new MergeHead(entries, Long.MIN_VALUE, sourceIndex));
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.cribl.logcollector.services.cluster;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pulls log entries one by one out of a peer's streamed tail JSON response, without buffering the whole response.
+ * <p>
+ * Any failure reading the stream (ie. it was closed because the peer hit its deadline) ends the stream and is kept as its error,
+ * so the primary can still return the entries it got as a partial result.
+ */
+public class PeerTailStream implements Closeable {
+
+    private final String server;
+    private final InputStream inputStream;
+    private final JsonParser parser;
+    private boolean inEntries = false;
+    private boolean finished = false;
+    private String error;
+    private volatile boolean expired = false;
+    private ScheduledFuture<?> deadline;
+    private int entriesRead = 0;
+
+    public PeerTailStream(String server, InputStream inputStream, JsonFactory jsonFactory) throws IOException {
+        this.server = server;
+        this.inputStream = inputStream;
+        this.parser = jsonFactory.createParser(inputStream);
+    }
+
+    /**
+     * @return The next log entry, or null once there are no more entries or the stream failed
+     */
+    public String next() {
+        if (finished) {
+            return null;
+        }
+
+        try {
+            if (!inEntries && !seekToEntries()) {
+                finished = true;
+                return null;
+            }
+            if (parser.nextToken() == JsonToken.VALUE_STRING) {
+                entriesRead++;
+                return parser.getText();
+            }
+            finished = true;
+        } catch (IOException e) {
+            fail(expired ? "Timed out" : "Error reading response: " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Advances the parser to the start of the logEntries array
+     */
+    private boolean seekToEntries() throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            fail("Unexpected response");
+            return false;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ("logEntries".equals(field) && value == JsonToken.START_ARRAY) {
+                inEntries = true;
+                return true;
+            }
+            parser.skipChildren();
+        }
+        fail("Response has no log entries");
+        return false;
+    }
+
+    /**
+     * Cuts the stream off once it's been read for longer than the timeout. Started when the stream is first read rather than when the
+     * request was sent, so a peer that waits its turn behind a slow one isn't cut off for it
+     */
+    public void startDeadline(ScheduledExecutorService scheduler, Duration timeout) {
+        if (deadline == null && !finished) {
+            deadline = scheduler.schedule(this::expire, timeout.toNanos(), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Called from the deadline timer. Closing the input stream unblocks a read waiting on a stalled peer
+     */
+    public void expire() {
+        expired = true;
+        try {
+            inputStream.close();
+        } catch (IOException e) {
+            // Closing anyway
+        }
+    }
+
+    public void fail(String error) {
+        if (this.error == null) {
+            this.error = error;
+        }
+        finished = true;
+    }
+
+    public String getServer() {
+        return server;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public int getEntriesRead() {
+        return entriesRead;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (deadline != null) {
+            deadline.cancel(false);
+        }
+        parser.close();
+        inputStream.close();
+    }
+}
@@ -0,0 +1,518 @@
+package com.cribl.logcollector.services.filewatchers;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+import java.util.zip.CRC32;
+
+/**
+ * Per block Bloom filter index of a log file, so filtered reverse scans can skip whole blocks that can't contain the search term.
+ * <p>
+ * The file is split into fixed size {@link #BLOCK_SIZE} blocks. Each block has a Bloom filter of the case folded character trigrams
+ * of every line that touches it, so a line spanning two blocks is in both. A block's filter is sized from its number of distinct trigrams
+ * once all its lines are indexed, so repetitive logs get small filters and varied ones bigger filters. Blocks whose filter still ends up
+ * with too many of its bits set, ie. of random ids or base64, would hardly rule anything out, so they're left unindexed and always scanned. Filters are case-insensitive substring searches rather than
+ * token lookups, and a line can only contain a term if its block has all of the term's trigrams. That means no false negatives, while
+ * rare terms rule out nearly every block. Terms shorter than a trigram or with non ASCII characters can't use the index.
+ * <p>
+ * The index lives off-heap and is built forward in the background, only indexing complete lines, and caught up incrementally as the file grows.
+ * Blocks aren't skipped until all their lines are indexed, so the unindexed tail of the file is always scanned. The index resets itself
+ * when the file is rotated or truncated, which it checks with the file key, size and a checksum of the first bytes.
+ */
+public class BlockTrigramIndex {
+
+    private static final Logger logger = LogManager.getLogger(BlockTrigramIndex.class);
+
+    public static final int BLOCK_SIZE = 64 * 1024; // 64KB
+
+    // Filters get at least this many bits per distinct trigram, rounded up to a power of 2. Two bits per trigram, ~3% false positives at most
+    private static final int BITS_PER_TRIGRAM = 10;
+    private static final int MIN_FILTER_BITS = 64;
+    // 8KB filter per 64KB block at most
+    private static final int MAX_FILTER_BITS = 65536;
+    // Blocks whose filter has more of its bits set are left unindexed
+    private static final double MAX_FILL_RATIO = 0.5;
+    // Each block stores the start of the line touching its first byte followed by a reference to its filter
+    private static final int BLOCK_LONGS = 2;
+    private static final int SEGMENT_BLOCKS = 256;
+    // Filters are packed into chunks, which are a multiple of the biggest filter so filters never span chunks
+    private static final int FILTER_CHUNK_LONGS = 8 * MAX_FILTER_BITS / 64;
+    // Reference of a block without a filter, which could contain anything
+    private static final long UNINDEXED = 0;
+
+    private static final int READ_SIZE = 1024 * 1024; // 1MB
+    private static final int HEAD_CHECKSUM_BYTES = 4096;
+
+    private final Path file;
+    // Executor of a catch up by the bytes it's estimated to scan
+    private final LongFunction<Executor> executors;
+    private final Consumer<BlockTrigramIndex> onCatchUp;
+    private final AtomicBoolean catchUpQueued = new AtomicBoolean(false);
+    // Serializes catch ups. A lock rather than synchronized, so the virtual thread indexing the file isn't pinned to its carrier
+    private final ReentrantLock catchUpLock = new ReentrantLock();
+
+    /**
+     * Published after each catch up. Blocks complete in a snapshot, and their filters, are never written to again, so readers don't need to lock
+     *
+     * @param filterLongs Longs of the filter chunks used so far
+     */
+    private record IndexState(LongBuffer[] segments, LongBuffer[] filterChunks, long filterLongs, long indexedUpTo, Object fileKey,
+                              long headChecksum) {
+    }
+
+    private static final IndexState EMPTY_STATE = new IndexState(new LongBuffer[0], new LongBuffer[0], 0, 0, null, 0);
+
+    private volatile IndexState state = EMPTY_STATE;
+    // Trigrams of the lines touching the block being indexed, which gets its filter once complete. Guarded by catchUpLock
+    private int[] openBlockTrigrams = new int[1024];
+    private int openBlockTrigramCount = 0;
+
+    /**
+     * @param executors Executor to run a background catch up on, by the bytes it's estimated to scan, see
+     *                  {@link com.cribl.logcollector.services.FairReadScheduler#forBackground}
+     * @param onCatchUp Called after each catch up that indexed more of the file
+     */
+    public BlockTrigramIndex(Path file, LongFunction<Executor> executors, Consumer<BlockTrigramIndex> onCatchUp) {
+        this.file = file;
+        this.executors = executors;
+        this.onCatchUp = onCatchUp;
+    }
+
+    /**
+     * @return The term's trigrams to pass to {@link #getCandidateRegions}, or null if the term can't be looked up in the index
+     */
+    public static int[] getTermTrigrams(String term) {
+        if (term == null || term.length() < 3) {
+            return null;
+        }
+        byte[] folded = new byte[term.length()];
+        for (int i = 0; i < term.length(); i++) {
+            char c = term.charAt(i);
+            if (c > 0x7F) {
+                return null;
+            }
+            folded[i] = foldCase((byte) c);
+        }
+
+        int[] trigrams = new int[folded.length - 2];
+        for (int i = 0; i < trigrams.length; i++) {
+            trigrams[i] = trigram(folded[i], folded[i + 1], folded[i + 2]);
+        }
+        return Arrays.stream(trigrams).distinct().toArray();
+    }
+
+    /**
+     * @param requiredLiterals Alternatives of literals a matching line contains all of, see {@link com.cribl.logcollector.services.matchers.LogQuery#getRequiredLiterals()}
+     * @return The trigrams of each alternative to pass to {@link #getCandidateRegions}, or null if the index can't rule out any block
+     */
+    public static int[][] getQueryTrigrams(List<List<String>> requiredLiterals) {
+        if (requiredLiterals == null || requiredLiterals.isEmpty()) {
+            return null;
+        }
+        int[][] alternatives = new int[requiredLiterals.size()][];
+        for (int i = 0; i < alternatives.length; i++) {
+            // Literals we can't look up are left out of their alternative, an alternative with none of them could be in any block
+            alternatives[i] = requiredLiterals.get(i).stream().map(BlockTrigramIndex::getTermTrigrams).filter(Objects::nonNull)
+                    .flatMapToInt(Arrays::stream).distinct().toArray();
+            if (alternatives[i].length == 0) {
+                return null;
+            }
+        }
+        return alternatives;
+    }
+
+    /**
+     * Splits the region [startOffset, endOffset) into the line aligned sub regions that could hold lines with all the trigrams of one of
+     * the alternatives, newest first. Falls back to the whole region if the index doesn't match the file anymore.
+     *
+     * @param reader Reads the file being scanned, to check the index is still of the same file
+     * @param fileKey File key of the file being scanned
+     * @param fileSize Size of the file being scanned
+     */
+    public List<long[]> getCandidateRegions(ReverseLineScanner.ChunkReader reader, Object fileKey, long fileSize,
+                                            long startOffset, long endOffset, int[][] trigramAlternatives) throws IOException {
+        List<long[]> regions = new ArrayList<>();
+        if (startOffset >= endOffset) {
+            return regions;
+        }
+
+        IndexState snapshot = state;
+        requestCatchUp();
+        if (snapshot.indexedUpTo == 0 || !isSameFile(snapshot, reader, fileKey, fileSize)) {
+            regions.add(new long[]{startOffset, endOffset});
+            return regions;
+        }
+
+        long firstBlock = startOffset / BLOCK_SIZE;
+        long lastBlock = (endOffset - 1) / BLOCK_SIZE;
+        long regionEnd = endOffset;
+        for (long block = lastBlock; block >= firstBlock; block--) {
+            // The region's newest block is always scanned, so readers still see the lines at its end
+            boolean candidate = block == lastBlock || !isComplete(snapshot, block) || mightContainAny(snapshot, block, trigramAlternatives);
+            if (candidate) {
+                if (regionEnd < 0) {
+                    // First candidate after skipped blocks. The skipped block after it starts with the line touching its first byte
+                    regionEnd = Math.min(endOffset, getLineStart(snapshot, block + 1));
+                }
+            } else if (regionEnd >= 0) {
+                addRegion(regions, Math.max(startOffset, getLineStart(snapshot, block + 1)), regionEnd);
+                regionEnd = -1;
+            }
+        }
+        if (regionEnd >= 0) {
+            addRegion(regions, startOffset, regionEnd);
+        }
+        return regions;
+    }
+
+    private static void addRegion(List<long[]> regions, long startOffset, long endOffset) {
+        if (startOffset < endOffset) {
+            regions.add(new long[]{startOffset, endOffset});
+        }
+    }
+
+    /**
+     * Queues a background catch up, unless one is queued already
+     */
+    public void requestCatchUp() {
+        if (catchUpQueued.compareAndSet(false, true)) {
+            // The bytes appended since the last catch up, or the whole file if it was rotated or truncated
+            long fileSize = file.toFile().length();
+            long indexedUpTo = state.indexedUpTo;
+            executors.apply(fileSize >= indexedUpTo ? fileSize - indexedUpTo : fileSize).execute(() -> {
+                catchUpQueued.set(false);
+                try {
+                    catchUp();
+                } catch (IOException e) {
+                    logger.warn("Couldn't index file {}", file, e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Indexes the complete lines appended since the last catch up, starting over if the file was rotated or truncated
+     */
+    public void catchUp() throws IOException {
+        catchUpLock.lock();
+        try {
+            catchUpLocked();
+        } finally {
+            catchUpLock.unlock();
+        }
+    }
+
+    private void catchUpLocked() throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file.toFile(), "r")) {
+            FileChannel channel = randomAccessFile.getChannel();
+            long fileSize = channel.size();
+            ReverseLineScanner.ChunkReader reader = (position, dst, dstOffset, length) -> readFully(channel, position, dst, dstOffset, length);
+
+            IndexState current = state;
+            if (!isSameFile(current, reader, attributes.fileKey(), fileSize)) {
+                current = new IndexState(new LongBuffer[0], new LongBuffer[0], 0, 0, attributes.fileKey(), 0);
+                openBlockTrigramCount = 0;
+            }
+            if (current.indexedUpTo >= fileSize) {
+                state = current;
+                return;
+            }
+
+            long timerStart = System.currentTimeMillis();
+            IndexState updated = indexLines(channel, current, fileSize, attributes.fileKey());
+            state = updated;
+            if (updated.indexedUpTo > current.indexedUpTo) {
+                logger.debug("Indexed {} bytes of file {} in {} milliseconds", updated.indexedUpTo - current.indexedUpTo, file.getFileName(),
+                        System.currentTimeMillis() - timerStart);
+                onCatchUp.accept(this);
+            }
+        }
+    }
+
+    /**
+     * @return Off-heap bytes used by the index
+     */
+    public long getSizeInBytes() {
+        IndexState snapshot = state;
+        return ((long) snapshot.segments.length * SEGMENT_BLOCKS * BLOCK_LONGS + (long) snapshot.filterChunks.length * FILTER_CHUNK_LONGS) * Long.BYTES;
+    }
+
+    /**
+     * @return Offset up to which complete lines are indexed
+     */
+    public long getIndexedUpTo() {
+        return state.indexedUpTo;
+    }
+
+    /**
+     * Reads forward from where the last catch up stopped, adding the trigrams of each complete line to every block it touches
+     */
+    private IndexState indexLines(FileChannel channel, IndexState current, long fileSize, Object fileKey) throws IOException {
+        IndexWriter writer = new IndexWriter(current);
+        byte[] buffer = new byte[READ_SIZE];
+        int[] lineTrigrams = new int[256];
+        int lineTrigramCount = 0;
+
+        long lineStart = current.indexedUpTo;
+        long indexedUpTo = current.indexedUpTo;
+        long position = current.indexedUpTo;
+        // Case folded previous two bytes of the current line, -1 at line start
+        int previous1 = -1;
+        int previous2 = -1;
+
+        while (position < fileSize) {
+            int length = (int) Math.min(buffer.length, fileSize - position);
+            readFully(channel, position, buffer, 0, length);
+
+            for (int i = 0; i < length; i++) {
+                byte b = buffer[i];
+                if (b == '\n') {
+                    long lineEnd = position + i + 1;
+                    addLine(writer, lineStart, lineEnd, lineTrigrams, lineTrigramCount);
+                    indexedUpTo = lineEnd;
+                    lineStart = lineEnd;
+                    lineTrigramCount = 0;
+                    previous1 = -1;
+                    previous2 = -1;
+                    continue;
+                }
+
+                int folded = foldCase(b) & 0xFF;
+                if (previous2 >= 0) {
+                    if (lineTrigramCount == lineTrigrams.length) {
+                        lineTrigrams = Arrays.copyOf(lineTrigrams, lineTrigrams.length * 2);
+                    }
+                    lineTrigrams[lineTrigramCount++] = (previous2 << 16) | (previous1 << 8) | folded;
+                }
+                previous2 = previous1;
+                previous1 = folded;
+            }
+            position += length;
+        }
+
+        long headChecksum = current.indexedUpTo >= HEAD_CHECKSUM_BYTES ? current.headChecksum
+                : headChecksum((pos, dst, dstOffset, len) -> readFully(channel, pos, dst, dstOffset, len), indexedUpTo);
+        return new IndexState(writer.segments, writer.filterChunks, writer.filterLongs, indexedUpTo, fileKey, headChecksum);
+    }
+
+    /**
+     * Adds a line's trigrams to every block it touches, and gives the blocks it completes their filter
+     */
+    private void addLine(IndexWriter writer, long lineStart, long lineEnd, int[] lineTrigrams, int lineTrigramCount) {
+        long firstBlock = lineStart / BLOCK_SIZE;
+        long lastBlock = (lineEnd - 1) / BLOCK_SIZE;
+        writer.growSegments(lastBlock);
+
+        for (long block = firstBlock; block <= lastBlock; block++) {
+            LongBuffer segment = writer.segments[(int) (block / SEGMENT_BLOCKS)];
+            int blockBase = (int) (block % SEGMENT_BLOCKS) * BLOCK_LONGS;
+            if (lineStart <= block * BLOCK_SIZE) {
+                segment.put(blockBase, lineStart);
+            }
+            if (openBlockTrigramCount + lineTrigramCount > openBlockTrigrams.length) {
+                openBlockTrigrams = Arrays.copyOf(openBlockTrigrams, Math.max(openBlockTrigrams.length * 2, openBlockTrigramCount + lineTrigramCount));
+            }
+            System.arraycopy(lineTrigrams, 0, openBlockTrigrams, openBlockTrigramCount, lineTrigramCount);
+            openBlockTrigramCount += lineTrigramCount;
+            if (lineEnd >= (block + 1) * BLOCK_SIZE) {
+                // Every line touching the block is indexed now
+                segment.put(blockBase + 1, writer.addFilter(openBlockTrigrams, openBlockTrigramCount));
+                openBlockTrigramCount = 0;
+            }
+        }
+    }
+
+    private static boolean mightContainAny(IndexState snapshot, long block, int[][] trigramAlternatives) {
+        for (int[] trigrams : trigramAlternatives) {
+            if (mightContain(snapshot, block, trigrams)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean mightContain(IndexState snapshot, long block, int[] termTrigrams) {
+        long filter = snapshot.segments[(int) (block / SEGMENT_BLOCKS)].get((int) (block % SEGMENT_BLOCKS) * BLOCK_LONGS + 1);
+        if (filter == UNINDEXED) {
+            return true;
+        }
+        long filterStart = filter >>> 6;
+        LongBuffer chunk = snapshot.filterChunks[(int) (filterStart / FILTER_CHUNK_LONGS)];
+        int filterBase = (int) (filterStart % FILTER_CHUNK_LONGS);
+        int bitMask = (1 << (int) (filter & 63)) - 1;
+        for (int trigram : termTrigrams) {
+            long hash = hash(trigram);
+            if (!isBitSet(chunk, filterBase, firstBit(hash) & bitMask) || !isBitSet(chunk, filterBase, secondBit(hash) & bitMask)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A block is complete once every line touching it is indexed
+     */
+    private static boolean isComplete(IndexState snapshot, long block) {
+        return (block + 1) * BLOCK_SIZE <= snapshot.indexedUpTo;
+    }
+
+    /**
+     * @return Start of the line touching the block's first byte. Only valid for blocks starting at or before indexedUpTo
+     */
+    private static long getLineStart(IndexState snapshot, long block) {
+        if (block * BLOCK_SIZE == snapshot.indexedUpTo) {
+            // Right after the last indexed line return, so it starts a line
+            return snapshot.indexedUpTo;
+        }
+        return snapshot.segments[(int) (block / SEGMENT_BLOCKS)].get((int) (block % SEGMENT_BLOCKS) * BLOCK_LONGS);
+    }
+
+    private static boolean isSameFile(IndexState snapshot, ReverseLineScanner.ChunkReader reader, Object fileKey, long fileSize) throws IOException {
+        if (snapshot.indexedUpTo == 0) {
+            return true;
+        }
+        return fileKey != null && Objects.equals(fileKey, snapshot.fileKey) && fileSize >= snapshot.indexedUpTo
+                && headChecksum(reader, snapshot.indexedUpTo) == snapshot.headChecksum;
+    }
+
+    private static long headChecksum(ReverseLineScanner.ChunkReader reader, long indexedUpTo) throws IOException {
+        byte[] head = new byte[(int) Math.min(HEAD_CHECKSUM_BYTES, indexedUpTo)];
+        reader.read(0, head, 0, head.length);
+        CRC32 crc = new CRC32();
+        crc.update(head);
+        return crc.getValue();
+    }
+
+    private static void setBit(LongBuffer chunk, int filterBase, int bit) {
+        int index = filterBase + (bit >>> 6);
+        chunk.put(index, chunk.get(index) | (1L << bit));
+    }
+
+    private static boolean isBitSet(LongBuffer chunk, int filterBase, int bit) {
+        return (chunk.get(filterBase + (bit >>> 6)) & (1L << bit)) != 0;
+    }
+
+    private static long hash(int trigram) {
+        return (trigram + 1L) * 0x9E3779B97F4A7C15L;
+    }
+
+    // The high bits of the hash are the well mixed ones. Masked down to the filter's size
+    private static int firstBit(long hash) {
+        return (int) (hash >>> 48);
+    }
+
+    private static int secondBit(long hash) {
+        return (int) (hash >>> 32) & 0xFFFF;
+    }
+
+    private static int trigram(byte b0, byte b1, byte b2) {
+        return ((b0 & 0xFF) << 16) | ((b1 & 0xFF) << 8) | (b2 & 0xFF);
+    }
+
+    private static byte foldCase(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+    }
+
+    /**
+     * Segments and filter chunks of a state while a catch up adds lines to them. Arrays are grown by copying them, and only ever appended
+     * to past what the state they were copied from covers, so readers of that state aren't affected
+     */
+    private static final class IndexWriter {
+        private LongBuffer[] segments;
+        private LongBuffer[] filterChunks;
+        private long filterLongs;
+
+        private IndexWriter(IndexState state) {
+            this.segments = state.segments;
+            this.filterChunks = state.filterChunks;
+            this.filterLongs = state.filterLongs;
+        }
+
+        private void growSegments(long lastBlock) {
+            if (lastBlock / SEGMENT_BLOCKS >= segments.length) {
+                LongBuffer[] grown = Arrays.copyOf(segments, (int) (lastBlock / SEGMENT_BLOCKS) + 1);
+                for (int i = segments.length; i < grown.length; i++) {
+                    grown[i] = ByteBuffer.allocateDirect(SEGMENT_BLOCKS * BLOCK_LONGS * Long.BYTES).asLongBuffer();
+                }
+                segments = grown;
+            }
+        }
+
+        /**
+         * Writes the filter of a complete block, sized from its number of distinct trigrams. Sorts the trigrams
+         *
+         * @return Reference to the filter: where it starts in the chunks, shifted left by 6, and the log2 of its bits. {@link #UNINDEXED}
+         * if the filter would be too full to rule anything out
+         */
+        private long addFilter(int[] trigrams, int count) {
+            Arrays.sort(trigrams, 0, count);
+            int distinct = 0;
+            for (int i = 0; i < count; i++) {
+                if (i == 0 || trigrams[i] != trigrams[i - 1]) {
+                    trigrams[distinct++] = trigrams[i];
+                }
+            }
+            long wantedBits = Math.max(MIN_FILTER_BITS, (long) distinct * BITS_PER_TRIGRAM);
+            int bits = wantedBits >= MAX_FILTER_BITS ? MAX_FILTER_BITS : Integer.highestOneBit((int) wantedBits - 1) << 1;
+            int longs = bits / 64;
+
+            if (filterLongs % FILTER_CHUNK_LONGS + longs > FILTER_CHUNK_LONGS) {
+                // Doesn't fit in what's left of the chunk
+                filterLongs += FILTER_CHUNK_LONGS - filterLongs % FILTER_CHUNK_LONGS;
+            }
+            if (filterLongs / FILTER_CHUNK_LONGS >= filterChunks.length) {
+                filterChunks = Arrays.copyOf(filterChunks, filterChunks.length + 1);
+                filterChunks[filterChunks.length - 1] = ByteBuffer.allocateDirect(FILTER_CHUNK_LONGS * Long.BYTES).asLongBuffer();
+            }
+            LongBuffer chunk = filterChunks[(int) (filterLongs / FILTER_CHUNK_LONGS)];
+            int filterBase = (int) (filterLongs % FILTER_CHUNK_LONGS);
+            for (int i = 0; i < distinct; i++) {
+                long hash = hash(trigrams[i]);
+                setBit(chunk, filterBase, firstBit(hash) & (bits - 1));
+                setBit(chunk, filterBase, secondBit(hash) & (bits - 1));
+            }
+
+            long setBits = 0;
+            for (int i = 0; i < longs; i++) {
+                setBits += Long.bitCount(chunk.get(filterBase + i));
+            }
+            if (setBits > bits * MAX_FILL_RATIO) {
+                // Cleared, the next filter is written over it
+                for (int i = 0; i < longs; i++) {
+                    chunk.put(filterBase + i, 0);
+                }
+                return UNINDEXED;
+            }
+            long filter = (filterLongs << 6) | Integer.numberOfTrailingZeros(bits);
+            filterLongs += longs;
+            return filter;
+        }
+    }
+
+    private static void readFully(FileChannel channel, long position, byte[] dst, int dstOffset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(dst, dstOffset, length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position() - dstOffset) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+    }
+}
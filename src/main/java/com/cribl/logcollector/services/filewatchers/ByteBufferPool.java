@@ -0,0 +1,98 @@
+package com.cribl.logcollector.services.filewatchers;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Small pool of buffers, so file reads don't allocate a new buffer on every call.
+ * <p>
+ * Buffers come in power of two size classes, from bufferSize up to maxBufferSize. Each class keeps about the same number of bytes pooled,
+ * so there are fewer big buffers than small ones, though at least two of each. Pools of direct buffers hand out buffers that channels read
+ * into without the JDK staging the read in a temporary direct buffer of its own.
+ * <p>
+ * We don't use a ThreadLocal cache since reads run on virtual threads, which would each get their own buffer.
+ * Buffers that don't fit the pool are left for the garbage collector.
+ */
+public class ByteBufferPool {
+
+    private static final int MIN_POOLED_PER_CLASS = 2;
+
+    private final int bufferSize;
+    private final int maxBufferSize;
+    private final boolean direct;
+    private final ArrayBlockingQueue<ByteBuffer>[] sizeClasses;
+
+    /**
+     * Pool of heap buffers of a single size
+     */
+    public ByteBufferPool(int bufferSize, int maxPooledBuffers) {
+        this(bufferSize, bufferSize, maxPooledBuffers, false);
+    }
+
+    /**
+     * @param bufferSize Size of the smallest buffers, a power of two
+     * @param maxBufferSize Size of the biggest buffers pooled
+     * @param maxPooledBuffers Number of the smallest buffers pooled. Every bigger class pools half as many as the one below it
+     * @param direct True to pool direct buffers, false for heap buffers
+     */
+    @SuppressWarnings("unchecked")
+    public ByteBufferPool(int bufferSize, int maxBufferSize, int maxPooledBuffers, boolean direct) {
+        this.bufferSize = bufferSize;
+        this.maxBufferSize = Math.max(bufferSize, maxBufferSize);
+        this.direct = direct;
+        int classes = Integer.numberOfTrailingZeros(Integer.highestOneBit(this.maxBufferSize / bufferSize)) + 1;
+        this.sizeClasses = (ArrayBlockingQueue<ByteBuffer>[]) new ArrayBlockingQueue<?>[classes];
+        for (int i = 0; i < classes; i++) {
+            sizeClasses[i] = new ArrayBlockingQueue<>(Math.max(MIN_POOLED_PER_CLASS, maxPooledBuffers >> i));
+        }
+    }
+
+    /**
+     * @return A cleared buffer of bufferSize bytes
+     */
+    public ByteBuffer acquire() {
+        return acquire(bufferSize);
+    }
+
+    /**
+     * @return A cleared buffer of at least minCapacity bytes, rounded up to its size class. Buffers bigger than maxBufferSize aren't pooled
+     */
+    public ByteBuffer acquire(int minCapacity) {
+        int sizeClass = getSizeClass(minCapacity);
+        if (sizeClass >= sizeClasses.length) {
+            return allocate(minCapacity);
+        }
+        ByteBuffer buffer = sizeClasses[sizeClass].poll();
+        return buffer != null ? buffer.clear() : allocate(bufferSize << sizeClass);
+    }
+
+    /**
+     * Returns a buffer to the pool. Buffers of another size (ie. grown for very long lines) aren't pooled
+     */
+    public void release(ByteBuffer buffer) {
+        int sizeClass = getSizeClass(buffer.capacity());
+        if (buffer.isDirect() == direct && sizeClass < sizeClasses.length && buffer.capacity() == bufferSize << sizeClass) {
+            sizeClasses[sizeClass].offer(buffer);
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public int getMaxBufferSize() {
+        return maxBufferSize;
+    }
+
+    private int getSizeClass(int capacity) {
+        if (capacity <= bufferSize) {
+            return 0;
+        }
+        // Smallest power of two multiple of bufferSize that fits the capacity
+        return 32 - Integer.numberOfLeadingZeros((capacity - 1) / bufferSize);
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+}
@@ -1,7 +1,13 @@
 package com.cribl.logcollector.services.filewatchers;
 
+import com.cribl.logcollector.services.EncodedTailLines;
+import com.cribl.logcollector.services.FileWatcherMetrics;
 import com.cribl.logcollector.services.ICriblFileWatcher;
-import org.apache.commons.lang3.math.NumberUtils;
+import com.cribl.logcollector.services.LogTimestampParser;
+import com.cribl.logcollector.services.TailLineArena;
+import com.cribl.logcollector.services.TailLines;
+import com.cribl.logcollector.services.matchers.ILineMatcher;
+import com.cribl.logcollector.services.stats.LogStatsAggregator;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.http.HttpStatus;
@@ -9,11 +15,20 @@ import org.springframework.web.server.ResponseStatusException;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
 
 public class ByteSeekerFileWatcherCallable implements ICriblFileWatcher {
 
@@ -23,13 +38,195 @@ public class ByteSeekerFileWatcherCallable implements ICriblFileWatcher {
 
     private int maxLines;
 
+    // Optional filter pushed down into the reverse scan. Null means every line is returned
+    private final ILineMatcher lineMatcher;
+
     private static final int BUFFER_SIZE = 4096; // 4KB
+    // Biggest chunk deep scans read ahead at once
+    private static final int MAX_CHUNK_SIZE = 1024 * 1024; // 1MB
+
+    // Average line length assumed until we've scanned some of the file
+    private static final int ESTIMATED_LINE_BYTES = 200;
+    // Weight of the latest scan in the moving average of line lengths
+    private static final double LINE_BYTES_ALPHA = 0.2;
+
+    // Optional block index of the file, used to skip blocks that can't contain the filter's literals
+    private BlockTrigramIndex blockIndex;
+    private int[][] queryTrigrams;
+
+    // Optional scanner deep reads carry on with in parallel. Null means reads are scanned on the calling thread only
+    private ParallelReverseScanner parallelScanner;
+
+    // Implementation name our metrics are tagged with, as set with com.cribl.logcollector.fileWatcher.impl
+    private final String implName;
+    private FileWatcherMetrics.ReadMeters readMeters;
+
+    // Read buffers are pooled and shared by all byte seeker watchers. Channels read into direct buffers, which are copied into the scan buffers
+    private static final ReverseLineScanner LINE_SCANNER = new ReverseLineScanner(new ByteBufferPool(BUFFER_SIZE, MAX_CHUNK_SIZE, 64, false), MAX_CHUNK_SIZE);
+    private static final ByteBufferPool DIRECT_BUFFERS = new ByteBufferPool(BUFFER_SIZE, MAX_CHUNK_SIZE, 16, true);
+
+    // Optional pool keeping the file open between reads. Null means every read opens the file
+    private FileChannelPool channelPool;
+
+    // Moving average of the line length of our scans, sizes the first chunk of the next one
+    private volatile double averageLineBytes = ESTIMATED_LINE_BYTES;
 
     protected long lastKnownModified = 0;
 
+    // Guards the state of the last read below. A lock rather than synchronized, which would pin the virtual thread reading the file to its carrier
+    private final ReentrantLock readLock = new ReentrantLock();
+
+    // Arena the cached lines are encoded into
+    private TailLineArena arena = TailLineArena.HEAP;
+
+    // State of the last read, used to only read appended bytes when the file grows
+    private EncodedTailLines cachedLines;
+    // Number of lines the cached lines were read for. Appended lines push the oldest ones out past it
+    private int cachedMaxLines;
+    private Object lastFileKey;
+    private long lastReadSize = 0;
+    // Offset right after the last line return we've read. Anything past it is a partial line still being written
+    private long tailOffset = 0;
+    // True if the newest cached line is that partial line, so it has to be replaced on the next incremental read
+    private boolean partialLineCached = false;
+
+    /**
+     * Lines collected by one reverse read of a region, plus where the region's last line return ends
+     * (its start if we didn't see one) and whether the partial line after it was added.
+     * Lines are decoded into strings, or copied into an arena when the read is encoded
+     */
+    private static class ReverseRead {
+        private final List<String> lines = new ArrayList<>();
+        private long[] offsets = new long[16];
+        private final EncodedTailLines.Builder encodedLines;
+        private long lastNewlineEnd = -1;
+        private boolean partialLineAdded = false;
+
+        private ReverseRead(EncodedTailLines.Builder encodedLines) {
+            this.encodedLines = encodedLines;
+        }
+
+        private void add(byte[] bytes, int offset, int length, long fileOffset) {
+            if (encodedLines != null) {
+                encodedLines.add(bytes, offset, length, fileOffset);
+                return;
+            }
+            if (lines.size() == offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            offsets[lines.size()] = fileOffset;
+            lines.add(new String(bytes, offset, length, StandardCharsets.UTF_8));
+        }
+
+        private int size() {
+            return encodedLines != null ? encodedLines.size() : lines.size();
+        }
+
+        private TailLines toTailLines(Object fileKey) {
+            return new TailLines(lines.toArray(new String[0]), offsets, lines.size(), fileKey);
+        }
+    }
+
+    /**
+     * Counts (matching) lines into an aggregator until it holds maxLines of them. Also counts the lines it scans
+     */
+    private static class AggregatingConsumer implements ReverseLineScanner.LineConsumer {
+        private final LogStatsAggregator aggregator;
+        private final ILineMatcher lineMatcher;
+        private final long maxLines;
+        private long linesAggregated = 0;
+
+        private AggregatingConsumer(LogStatsAggregator aggregator, ILineMatcher lineMatcher, long maxLines) {
+            this.aggregator = aggregator;
+            this.lineMatcher = lineMatcher;
+            this.maxLines = maxLines;
+        }
+
+        @Override
+        public boolean accept(byte[] bytes, int offset, int length, long fileOffset) {
+            if (length > 0 && (lineMatcher == null || lineMatcher.matches(bytes, offset, length))) {
+                aggregator.accept(bytes, offset, length);
+                linesAggregated++;
+            }
+            return linesAggregated < maxLines;
+        }
+    }
+
+    /**
+     * Scans the regions left once a read goes deeper than the newest segment, on the parallel scanner
+     */
+    @FunctionalInterface
+    private interface ParallelScan {
+        /**
+         * @param countingConsumer Consumer of the read, counting the lines it's handed as scanned
+         * @param linesScanned Counts lines scanned without going through the counting consumer
+         */
+        void scan(ReverseLineScanner.ChunkReader reader, List<long[]> regions, ReverseLineScanner.LineConsumer countingConsumer,
+                  LongConsumer linesScanned) throws IOException;
+    }
+
+    /**
+     * Lets filtered scans skip the blocks of the file that can't contain the filter's literals. Has to be called before the first read.
+     * Filters the index can't rule blocks out for are scanned as usual
+     *
+     * @param blockIndex Block index of this watcher's file
+     * @param requiredLiterals Alternatives of literals every line our line matcher matches contains all of, or null if there are none
+     */
+    public void setBlockIndex(BlockTrigramIndex blockIndex, List<List<String>> requiredLiterals) {
+        this.queryTrigrams = BlockTrigramIndex.getQueryTrigrams(requiredLiterals);
+        this.blockIndex = queryTrigrams != null ? blockIndex : null;
+    }
+
+    /**
+     * Lets reads that go deeper than a segment of the parallel scanner carry on over several threads
+     */
+    public void setParallelScanner(ParallelReverseScanner parallelScanner) {
+        this.parallelScanner = parallelScanner;
+    }
+
+    /**
+     * Lets reads lease the file's channel from a pool instead of opening the file themselves
+     */
+    public void setChannelPool(FileChannelPool channelPool) {
+        this.channelPool = channelPool;
+    }
+
+    /**
+     * Arena the lines kept between reads are encoded into. They're kept on the heap by default
+     */
+    public void setArena(TailLineArena arena) {
+        readLock.lock();
+        try {
+            this.arena = arena;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Records read latencies and scan sizes to the given metrics. Reads aren't recorded anywhere by default
+     */
+    public void setMetrics(FileWatcherMetrics metrics) {
+        this.readMeters = metrics.forImpl(implName);
+    }
+
     public ByteSeekerFileWatcherCallable(String fileName, int maxLines) {
+        this(fileName, maxLines, null);
+    }
+
+    public ByteSeekerFileWatcherCallable(String fileName, int maxLines, ILineMatcher lineMatcher) {
+        this(fileName, maxLines, lineMatcher, "byteSeeker");
+    }
+
+    /**
+     * @param implName Implementation name our metrics are tagged with, for subclasses reading the file another way
+     */
+    protected ByteSeekerFileWatcherCallable(String fileName, int maxLines, ILineMatcher lineMatcher, String implName) {
         this.logFile = new File(fileName);
         this.maxLines = maxLines;
+        this.lineMatcher = lineMatcher;
+        this.implName = implName;
+        this.readMeters = FileWatcherMetrics.NOOP.forImpl(implName);
 
         if (!this.logFile.exists()) {
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, "File does not exist on server: " + fileName);
@@ -38,81 +235,463 @@ public class ByteSeekerFileWatcherCallable implements ICriblFileWatcher {
         logger.debug("Started new logger for file: " + fileName);
     }
 
+    /**
+     * Returns the newest maxLines (matching) lines of the file, see {@link #callEncoded}
+     */
     @Override
     public List<String> call() throws IOException {
-        long timerStart = System.currentTimeMillis();
+        readLock.lock();
+        try {
+            readTail();
+            return cachedLines.toTailLines(cachedLines.size());
+        } finally {
+            readLock.unlock();
+        }
+    }
 
-        List<String> result = readFileLinesInReverse();
+    /**
+     * Returns the newest maxLines (matching) lines of the file, encoded in our arena.
+     * <p>
+     * The first call reads the tail of the file. Later calls only read the bytes appended since the last read and merge the new lines
+     * with our cached ones. We fall back to a full re-read when the file was truncated or rotated (size shrank or file key/inode changed),
+     * or when more lines are requested than we have cached.
+     *
+     * @param arena Ignored, lines are kept in the arena set with {@link #setArena}
+     */
+    @Override
+    public EncodedTailLines callEncoded(TailLineArena arena) throws IOException {
+        readLock.lock();
+        try {
+            readTail();
+            // Always succeeds, our own reference keeps them alive
+            cachedLines.tryRetain();
+            return cachedLines;
+        } finally {
+            readLock.unlock();
+        }
+    }
 
-        logger.info("Read file {} in {} milliseconds", this.logFile.getName(), System.currentTimeMillis() - timerStart);
-        lastKnownModified = logFile.lastModified();
-        return result;
+    @Override
+    public void releaseCachedLines() {
+        readLock.lock();
+        try {
+            if (cachedLines != null) {
+                cachedLines.release();
+                cachedLines = null;
+            }
+        } finally {
+            readLock.unlock();
+        }
     }
 
+    private void readTail() throws IOException {
+        long timerStart = System.nanoTime();
+
+        BasicFileAttributes attributes = Files.readAttributes(logFile.toPath(), BasicFileAttributes.class);
+        long fileSize = attributes.size();
+        long modified = attributes.lastModifiedTime().toMillis();
+        Object fileKey = attributes.fileKey();
+
+        if (cachedLines == null || maxLines > cachedMaxLines || fileSize < lastReadSize || !Objects.equals(fileKey, lastFileKey)
+                || (fileSize == lastReadSize && modified != lastKnownModified)) {
+            // First read, truncation, rotation or a same size rewrite. Read the tail from scratch
+            ReverseRead read = readEncodedRegion(0, fileSize, maxLines, new EncodedTailLines.Builder(arena, fileKey));
+            replaceCachedLines(read.encodedLines.build());
+            cachedMaxLines = maxLines;
+            tailOffset = read.lastNewlineEnd;
+            partialLineCached = read.partialLineAdded;
+            readMeters.recordRead(FileWatcherMetrics.ReadType.TAIL, timerStart);
+        } else if (fileSize > lastReadSize) {
+            readAppendedLines(fileSize);
+            readMeters.recordRead(FileWatcherMetrics.ReadType.APPEND, timerStart);
+        }
+
+        lastFileKey = fileKey;
+        lastReadSize = fileSize;
+        lastKnownModified = modified;
+    }
+
+    /**
+     * Keeps new cached lines, releasing our reference to the old ones. Anyone still holding on to those keeps them around until they release them
+     */
+    private void replaceCachedLines(EncodedTailLines lines) {
+        if (cachedLines != null) {
+            cachedLines.release();
+        }
+        cachedLines = lines;
+    }
+
+    /**
+     * Reads the whole file backwards from the end until we've collected maxLines matching lines or hit the start of the file.
+     * Doesn't touch the cached lines used by {@link #call()}
+     */
     public List<String> readFileLinesInReverse() throws IOException {
-        List<String> logLines = new ArrayList<>(maxLines);
-
-        try (RandomAccessFile file = new RandomAccessFile(this.logFile, "r")) {
-            FileChannel channel = file.getChannel();
-            long fileSize = channel.size();
-            StringBuilder sb = new StringBuilder();
-            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
-
-            // Set our starting read position. End of file - bufferSize
-            long readPosition = NumberUtils.max(fileSize - BUFFER_SIZE, 0);
-
-            while (readPosition < fileSize && readPosition >= 0) {
-                // Read
-                channel.position(readPosition);
-                channel.read(buffer);
-                buffer.flip();
-
-                // Process the buffer from end to beginning
-                for (int i = buffer.limit() - 1; i >= 0; i--) {
-                    char ch = (char) buffer.get(i);
-                    // If line return detected, reverse string b/c we've been reading backwards, and add to the list of results
-                    if (ch == '\n') {
-                        // Lets remove \r if it exists as well
-                        // Windows uses \r\n  OSX/Linus uses \n
-                        if (i > 1 && buffer.get(i-1) == '\r') {
-                            i--;
-                        }
-                        String line = sb.reverse().toString();
-                        // Skip over empty lines
-                        if (!line.isEmpty()) {
-                            logLines.add(line);
-                        }
-                        sb.setLength(0); // Fastest way to clear SB rather than init a new one
-                        // Break out once we hit the max log lines we want tailed
-                        if (logLines.size() >= maxLines) {
-                            return logLines;
+        readLock.lock();
+        try {
+            return readRegion(0, logFile.length(), maxLines).lines;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Reads a page of up to maxLines (matching) lines between two byte offsets, newest first. Used to page backwards through a file
+     * with a cursor and to read time ranges. Doesn't touch the cached lines, so pages can be read while the tail is being refreshed.
+     *
+     * @param startOffset Byte offset of a line start to stop reading at
+     * @param beforeOffset Byte offset of a line start, usually the offset of the oldest line of the previous page, or {@link #END_OF_FILE}
+     * @param maxLines Maximum number of lines to return
+     */
+    @Override
+    public TailLines readLinesBefore(long startOffset, long beforeOffset, int maxLines) throws IOException {
+        long timerStart = System.nanoTime();
+        try (FileChannelPool.Lease lease = openChannel()) {
+            FileChannel channel = lease.channel();
+            long endOffset = beforeOffset == END_OF_FILE ? channel.size() : beforeOffset;
+            if (endOffset > channel.size()) {
+                throw new ResponseStatusException(HttpStatus.GONE, "Cursor is past the end of the file, it has been truncated or rotated: " + logFile.getName());
+            }
+            if (beforeOffset != END_OF_FILE && endOffset > 0) {
+                // A cursor has to point at the start of a line
+                ByteBuffer previousByte = ByteBuffer.allocate(1);
+                channel.read(previousByte, endOffset - 1);
+                if (previousByte.get(0) != '\n') {
+                    throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Cursor doesn't point at the start of a line");
+                }
+            }
+
+            Object fileKey = lease.fileKey();
+            if (startOffset >= endOffset) {
+                return new TailLines(new String[0], new long[0], 0, fileKey);
+            }
+            return readLinesInReverse(channel, startOffset, endOffset, maxLines, new ReverseRead(null)).toTailLines(fileKey);
+        } finally {
+            readMeters.recordRead(FileWatcherMetrics.ReadType.PAGE, timerStart);
+        }
+    }
+
+    /**
+     * Binary searches the file for the first line with a timestamp at or after the given one. See {@link TimestampSeeker}
+     */
+    @Override
+    public long findTimestampOffset(long timestamp, LogTimestampParser timestampParser) throws IOException {
+        long timerStart = System.nanoTime();
+        try (FileChannelPool.Lease lease = openChannel()) {
+            FileChannel channel = lease.channel();
+            long offset = new TimestampSeeker(getChunkReader(channel), channel.size(), timestampParser).findFirstLineAtOrAfter(timestamp);
+            return offset == channel.size() ? END_OF_FILE : offset;
+        } finally {
+            readMeters.recordRead(FileWatcherMetrics.ReadType.SEEK, timerStart);
+        }
+    }
+
+    /**
+     * Streams up to maxLines (matching) lines between two byte offsets to the writer as the reverse scan finds them.
+     * Doesn't touch the cached lines
+     */
+    @Override
+    public void streamLinesInReverse(long startOffset, long beforeOffset, int maxLines, LineWriter writer) throws IOException {
+        long timerStart = System.nanoTime();
+        try (FileChannelPool.Lease lease = openChannel()) {
+            FileChannel channel = lease.channel();
+            long endOffset = Math.min(beforeOffset, channel.size());
+            if (startOffset >= endOffset) {
+                return;
+            }
+
+            int[] linesWritten = {0};
+            scanInReverse(channel, startOffset, endOffset, maxLines,
+                    (bytes, offset, length, fileOffset) -> {
+                        if (length > 0 && (lineMatcher == null || lineMatcher.matches(bytes, offset, length))) {
+                            try {
+                                writer.write(new String(bytes, offset, length, StandardCharsets.UTF_8));
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                            linesWritten[0]++;
                         }
-                    } else {
-                        // No line return detected
-                        sb.append(ch);
+                        return linesWritten[0] < maxLines;
+                    });
+            readMeters.recordDecoded(linesWritten[0]);
+        } catch (UncheckedIOException e) {
+            // Usually the client going away. Unwrap so callers see the writer's own exception
+            throw e.getCause();
+        } finally {
+            readMeters.recordRead(FileWatcherMetrics.ReadType.STREAM, timerStart);
+        }
+    }
+
+    /**
+     * Counts up to maxLines (matching) lines between two byte offsets, newest first. Lines are handed to the aggregator straight from the
+     * read buffer, so nothing is decoded or copied.
+     * <p>
+     * With a parallel scanner, deep windows are counted segment by segment, each segment into its own aggregator, and merged newest first.
+     * The segment a window with a line limit ends in is counted again on this thread, stopping at the window's last line
+     */
+    @Override
+    public LogStatsAggregator aggregateLinesInReverse(long startOffset, long beforeOffset, int maxLines, Supplier<LogStatsAggregator> aggregators)
+            throws IOException {
+        long timerStart = System.nanoTime();
+        try (FileChannelPool.Lease lease = openChannel()) {
+            FileChannel channel = lease.channel();
+            long endOffset = Math.min(beforeOffset, channel.size());
+            AggregatingConsumer consumer = new AggregatingConsumer(aggregators.get(), lineMatcher, maxLines);
+            if (startOffset >= endOffset) {
+                return consumer.aggregator;
+            }
+
+            scanInReverse(channel, startOffset, endOffset, maxLines, consumer, (reader, regions, countingConsumer, linesScanned) ->
+                    parallelScanner.scanSegments(getLineScanner(), reader, regions,
+                            () -> new AggregatingConsumer(aggregators.get(), lineMatcher, maxLines - consumer.linesAggregated),
+                            (segment, segmentStart, segmentEnd) -> {
+                                if (segment.linesAggregated <= maxLines - consumer.linesAggregated) {
+                                    consumer.aggregator.merge(segment.aggregator);
+                                    consumer.linesAggregated += segment.linesAggregated;
+                                    return consumer.linesAggregated < maxLines;
+                                }
+                                // The window ends within this segment
+                                getLineScanner().scan(reader, segmentStart, segmentEnd, countingConsumer);
+                                return false;
+                            }, linesScanned));
+            return consumer.aggregator;
+        } finally {
+            readMeters.recordRead(FileWatcherMetrics.ReadType.STATS, timerStart);
+        }
+    }
+
+    private ReverseRead readRegion(long startOffset, long endOffset, int maxLines) throws IOException {
+        try (FileChannelPool.Lease lease = openChannel()) {
+            return readLinesInReverse(lease.channel(), startOffset, endOffset, maxLines, new ReverseRead(null));
+        }
+    }
+
+    /**
+     * Same as {@link #readRegion}, copying the lines into our arena
+     */
+    private ReverseRead readEncodedRegion(long startOffset, long endOffset, int maxLines, EncodedTailLines.Builder encodedLines) throws IOException {
+        try (FileChannelPool.Lease lease = openChannel()) {
+            return readLinesInReverse(lease.channel(), startOffset, endOffset, maxLines, new ReverseRead(encodedLines));
+        } catch (IOException | RuntimeException e) {
+            encodedLines.discard();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads only the bytes appended since our last read, starting at the partial line we may have cached, and merges them with the cached lines.
+     * Reading the appended region backwards means a huge append costs no more than a regular tail read. The cached lines are immutable,
+     * since readers may still be using them, so the new lines are appended to the pages the cached ones are in and the merged lines only move
+     * where the tail starts, see {@link EncodedTailLines.Builder#inFrontOf}
+     */
+    private void readAppendedLines(long fileSize) throws IOException {
+        // A partial line cached last time is being re-read from its start, with whatever was appended to it
+        EncodedTailLines.Builder encodedLines = EncodedTailLines.Builder.inFrontOf(arena, cachedLines, partialLineCached ? 1 : 0, cachedMaxLines);
+        ReverseRead read = readEncodedRegion(tailOffset, fileSize, cachedMaxLines, encodedLines);
+        replaceCachedLines(encodedLines.build());
+
+        // Without a new line return we've just re-read the same partial line again, so the tail offset stays put
+        tailOffset = read.lastNewlineEnd;
+        partialLineCached = read.partialLineAdded;
+    }
+
+    /**
+     * Reads the byte region [startOffset, endOffset) backwards until we've collected maxLines matching lines or hit startOffset.
+     * startOffset has to be the start of a line.
+     * <p>
+     * Lines are sliced straight out of the read buffer and only decoded into a String once they pass the line matcher.
+     * Filtered searches for rare terms keep scanning further back instead of filtering only the last maxLines lines.
+     */
+    private ReverseRead readLinesInReverse(FileChannel channel, long startOffset, long endOffset, int maxLines, ReverseRead read) throws IOException {
+        scanInReverse(channel, startOffset, endOffset, maxLines,
+                (bytes, offset, length, fileOffset) -> {
+                    // Skip over empty lines
+                    boolean added = length > 0 && (lineMatcher == null || lineMatcher.matches(bytes, offset, length));
+                    if (added) {
+                        read.add(bytes, offset, length, fileOffset);
                     }
-                }
+                    // The first line we see is the one after the region's last line return
+                    if (read.lastNewlineEnd < 0) {
+                        read.lastNewlineEnd = fileOffset;
+                        read.partialLineAdded = added;
+                    }
+                    // Break out once we hit the max log lines we want tailed
+                    return read.size() < maxLines;
+                });
+        readMeters.recordDecoded(read.size());
+
+        return read;
+    }
 
-                // We haven't hit our goal of lines to tail, keep going back in file
-                readPosition -= BUFFER_SIZE;
+    /**
+     * Scans the region [startOffset, endOffset) backwards, skipping the blocks our block index rules out for the filter.
+     * <p>
+     * With a parallel scanner, only the newest segment's worth of the region is scanned on this thread. Most reads end within it.
+     * Reads that need to go deeper carry on over the rest of the region in parallel.
+     * Records the bytes and lines scanned, matching the filter or not
+     *
+     * @param maxLines Most lines the consumer takes
+     */
+    private void scanInReverse(FileChannel channel, long startOffset, long endOffset, int maxLines, ReverseLineScanner.LineConsumer consumer) throws IOException {
+        scanInReverse(channel, startOffset, endOffset, maxLines, consumer, (reader, regions, countingConsumer, linesScanned) ->
+                parallelScanner.scan(getLineScanner(), reader, regions, lineMatcher, maxLines, consumer, linesScanned));
+    }
+
+    /**
+     * Same as {@link #scanInReverse(FileChannel, long, long, int, ReverseLineScanner.LineConsumer)}, carrying on with the given parallel scan
+     * once a read goes deeper than the newest segment.
+     * <p>
+     * The newest region's first chunk is sized to maxLines lines of our average line length, so most reads take a single read syscall.
+     * Filtered reads usually scan further, the scanner's read ahead doubles from there
+     */
+    private void scanInReverse(FileChannel channel, long startOffset, long endOffset, long maxLines, ReverseLineScanner.LineConsumer consumer,
+                               ParallelScan parallelScan) throws IOException {
+        ReverseLineScanner.ChunkReader channelReader = getChunkReader(channel);
+        // Chunks are read on several threads once a scan goes parallel
+        AtomicLong bytesScanned = new AtomicLong();
+        ReverseLineScanner.ChunkReader reader = (position, dst, dstOffset, length) -> {
+            bytesScanned.addAndGet(length);
+            channelReader.read(position, dst, dstOffset, length);
+        };
+        long[] linesScanned = {0};
+        ReverseLineScanner.LineConsumer countingConsumer = (bytes, offset, length, fileOffset) -> {
+            linesScanned[0]++;
+            return consumer.accept(bytes, offset, length, fileOffset);
+        };
+
+        try {
+            List<long[]> regions = List.of(new long[]{startOffset, endOffset});
+            if (blockIndex != null) {
+                Object fileKey = Files.readAttributes(logFile.toPath(), BasicFileAttributes.class).fileKey();
+                // Index catch up reads go through the unwrapped reader, they're indexing rather than this read's scanning
+                regions = blockIndex.getCandidateRegions(channelReader, fileKey, channel.size(), startOffset, endOffset, queryTrigrams);
+            }
+            if (regions.isEmpty()) {
+                return;
             }
 
-            if (!sb.isEmpty()) {
-                logLines.add(sb.reverse().toString());
+            long[] newestRegion = regions.get(0);
+            long sequentialStart = parallelScanner != null ? parallelScanner.findSegmentStart(reader, newestRegion[0], newestRegion[1]) : newestRegion[0];
+            long expectedBytes = (long) Math.min(maxLines * averageLineBytes, Long.MAX_VALUE);
+            if (!getLineScanner().scan(reader, sequentialStart, newestRegion[1], expectedBytes, countingConsumer)) {
+                return;
+            }
+
+            List<long[]> remainingRegions = new ArrayList<>(regions.size());
+            if (sequentialStart > newestRegion[0]) {
+                remainingRegions.add(new long[]{newestRegion[0], sequentialStart});
+            }
+            remainingRegions.addAll(regions.subList(1, regions.size()));
+            if (parallelScanner != null) {
+                parallelScan.scan(reader, remainingRegions, countingConsumer, lines -> linesScanned[0] += lines);
+                return;
+            }
+            for (long[] region : remainingRegions) {
+                if (!getLineScanner().scan(reader, region[0], region[1], countingConsumer)) {
+                    return;
+                }
             }
+        } finally {
+            readMeters.recordScan(bytesScanned.get(), linesScanned[0]);
+            recordLineBytes(bytesScanned.get(), linesScanned[0]);
         }
+    }
 
-        lastKnownModified = logFile.lastModified();
-        return logLines;
+    /**
+     * Updates our average line length with a scan's. Racing scans can lose an update, which an average doesn't mind
+     */
+    private void recordLineBytes(long bytesScanned, long linesScanned) {
+        // The first and last line of a scan are usually cut off by its region, so only scans of a few lines tell us much
+        if (linesScanned > 2) {
+            double lineBytes = (double) bytesScanned / linesScanned;
+            averageLineBytes += LINE_BYTES_ALPHA * (lineBytes - averageLineBytes);
+        }
     }
 
+    /**
+     * Leases our file's channel from the channel pool, or opens the file for just this read without one
+     */
+    private FileChannelPool.Lease openChannel() throws IOException {
+        return channelPool != null ? channelPool.acquire(logFile.toPath()) : FileChannelPool.openUnpooled(logFile.toPath());
+    }
+
+    /**
+     * Scanner the reverse reads run on. Implementations reading bigger chunks can use a scanner with bigger buffers
+     */
+    protected ReverseLineScanner getLineScanner() {
+        return LINE_SCANNER;
+    }
+
+    /**
+     * Reads the chunks of the file the reverse scan asks for. Reads through the opened channel by default
+     */
+    protected ReverseLineScanner.ChunkReader getChunkReader(FileChannel channel) throws IOException {
+        return (position, dst, dstOffset, length) -> readFully(channel, position, dst, dstOffset, length);
+    }
+
+    protected File getLogFile() {
+        return logFile;
+    }
+
+    /**
+     * Reads with positional reads into a pooled direct buffer, copied into dst. Reading into dst directly would have the JDK stage the read in
+     * a temporary direct buffer of its own, cached per carrier thread and as big as the biggest read. Chunks longer than the biggest pooled
+     * buffer, ie. of very long lines, are read in pieces
+     */
+    private static void readFully(FileChannel channel, long position, byte[] dst, int dstOffset, int length) throws IOException {
+        ByteBuffer buffer = DIRECT_BUFFERS.acquire(Math.min(length, DIRECT_BUFFERS.getMaxBufferSize()));
+        try {
+            while (length > 0) {
+                buffer.clear().limit(Math.min(length, buffer.capacity()));
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, position + buffer.position()) < 0) {
+                        throw new IOException("Unexpected end of file");
+                    }
+                }
+                int read = buffer.flip().remaining();
+                buffer.get(dst, dstOffset, read);
+                position += read;
+                dstOffset += read;
+                length -= read;
+            }
+        } finally {
+            DIRECT_BUFFERS.release(buffer);
+        }
+    }
+
+    /**
+     * Checks size as well as modified date. Files appended to many times a second can change within the modified date's granularity
+     */
     @Override
     public boolean hasFileBeenUpdated() {
-        return lastKnownModified != logFile.lastModified();
+        return lastKnownModified != logFile.lastModified() || lastReadSize != logFile.length();
+    }
+
+    /**
+     * Reads the state of the last read without locking, since a read can be holding the lock. Good enough for an estimate
+     */
+    @Override
+    public long estimateReadBytes(int maxLines) {
+        long fileSize = logFile.length();
+        if (cachedLines != null && maxLines <= cachedMaxLines && fileSize >= lastReadSize) {
+            return fileSize - lastReadSize;
+        }
+        return estimateScanBytes(maxLines);
+    }
+
+    @Override
+    public long estimateScanBytes(int maxLines) {
+        long fileSize = logFile.length();
+        // Filtered scans go on until enough lines match, which can be the whole file
+        return lineMatcher != null ? fileSize : Math.min(fileSize, (long) (maxLines * averageLineBytes));
     }
 
     @Override
     public void setMaxLines(int maxLines) {
         this.maxLines = maxLines;
     }
+
+    @Override
+    public int getMaxLines() {
+        return maxLines;
+    }
 }
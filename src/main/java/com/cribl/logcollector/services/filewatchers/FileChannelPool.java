@@ -0,0 +1,255 @@
+package com.cribl.logcollector.services.filewatchers;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Keeps files open between reads, so a tail poll doesn't pay for an open and a close on top of its reads.
+ * <p>
+ * Channels are shared by every watcher of a file. Reads only use positional reads, which don't touch the channel's position, so any
+ * number of them can run on a channel at once. Each read leases the channel and the channel is only closed once its last lease is released.
+ * <p>
+ * Every lease checks the path's file key (inode) first. A file that was rotated away is closed and the new file at the path opened in its
+ * place. So is a channel that was closed under us, which an interrupted read does to the channel it was reading from, whoever else shares
+ * it. Truncated files keep their channel, reads already check the file size. At most maxOpenFiles files are kept open, closing the
+ * least recently read ones first, and files nobody read for idleTimeoutMillis are closed too, so a deleted file's disk space isn't held on to.
+ */
+public class FileChannelPool {
+
+    private static final Logger logger = LogManager.getLogger(FileChannelPool.class);
+
+    private final int maxOpenFiles;
+    private final long idleTimeoutMillis;
+
+    // Least recently leased first. Guarded by this, as are the fields of the open files
+    private final LinkedHashMap<Path, OpenFile> openFiles = new LinkedHashMap<>(16, 0.75f, true);
+    private long opened = 0;
+
+    private static class OpenFile {
+        private final FileChannel channel;
+        private final Object fileKey;
+        private int leases = 0;
+        private long lastLeasedMillis;
+        // Out of the pool, closed once the last lease is released
+        private boolean retired = false;
+
+        private OpenFile(FileChannel channel, Object fileKey) {
+            this.channel = channel;
+            this.fileKey = fileKey;
+        }
+    }
+
+    /**
+     * Channel of a file, open until the lease is closed
+     */
+    public static final class Lease implements AutoCloseable {
+        private final FileChannelPool pool;
+        private final OpenFile openFile;
+        private boolean closed = false;
+
+        private Lease(FileChannelPool pool, OpenFile openFile) {
+            this.pool = pool;
+            this.openFile = openFile;
+        }
+
+        public FileChannel channel() {
+            return openFile.channel;
+        }
+
+        /**
+         * @return File key of the file the channel has open, as of when it was opened
+         */
+        public Object fileKey() {
+            return openFile.fileKey;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (pool != null) {
+                pool.release(openFile);
+            } else {
+                openFile.channel.close();
+            }
+        }
+    }
+
+    /**
+     * @param maxOpenFiles Most files kept open
+     * @param idleTimeoutMillis Files not read for this long are closed
+     */
+    public FileChannelPool(int maxOpenFiles, long idleTimeoutMillis) {
+        this.maxOpenFiles = maxOpenFiles;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * Opens a file just for one lease, for reads without a pool
+     */
+    public static Lease openUnpooled(Path path) throws IOException {
+        OpenFile openFile = open(path);
+        return new Lease(null, openFile);
+    }
+
+    /**
+     * Leases the open channel of the file currently at the path, opening it if it isn't open yet, the one we have open was rotated away
+     * or its channel was closed by an interrupted read
+     */
+    public Lease acquire(Path path) throws IOException {
+        Object fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+        List<OpenFile> closable = new ArrayList<>();
+        Lease lease = null;
+        synchronized (this) {
+            OpenFile openFile = openFiles.get(path);
+            if (isReusable(openFile, fileKey)) {
+                lease = lease(openFile);
+                evict(closable);
+            }
+        }
+        if (lease != null) {
+            closeAll(closable);
+            return lease;
+        }
+
+        // Opened outside the lock, other files' reads don't have to wait on it
+        OpenFile opened = open(path);
+        synchronized (this) {
+            OpenFile current = openFiles.get(path);
+            if (isReusable(current, opened.fileKey)) {
+                // Someone else opened the same file meanwhile
+                closable.add(opened);
+                lease = lease(current);
+            } else {
+                if (current != null) {
+                    openFiles.remove(path);
+                    retire(current, closable);
+                }
+                openFiles.put(path, opened);
+                this.opened++;
+                lease = lease(opened);
+            }
+            evict(closable);
+        }
+        closeAll(closable);
+        return lease;
+    }
+
+    /**
+     * Closes the files nobody has read for idleTimeoutMillis. Leases do so as well, this is for when reads stop coming in.
+     * Leased files are closed once they're released
+     */
+    public void closeIdle() {
+        List<OpenFile> closable = new ArrayList<>();
+        synchronized (this) {
+            evict(closable);
+        }
+        closeAll(closable);
+    }
+
+    /**
+     * @return Files currently open in the pool
+     */
+    public synchronized int getOpenFiles() {
+        return openFiles.size();
+    }
+
+    /**
+     * @return Files opened so far, counting reopens after rotation or eviction
+     */
+    public synchronized long getOpened() {
+        return opened;
+    }
+
+    private static boolean isReusable(OpenFile openFile, Object fileKey) {
+        return openFile != null && openFile.channel.isOpen() && Objects.equals(openFile.fileKey, fileKey);
+    }
+
+    private Lease lease(OpenFile openFile) {
+        openFile.leases++;
+        openFile.lastLeasedMillis = System.currentTimeMillis();
+        return new Lease(this, openFile);
+    }
+
+    private void release(OpenFile openFile) {
+        boolean close;
+        synchronized (this) {
+            openFile.leases--;
+            close = openFile.retired && openFile.leases == 0;
+        }
+        if (close) {
+            close(openFile);
+        }
+    }
+
+    /**
+     * Drops the least recently leased files past maxOpenFiles, along with the idle ones. Has to be called holding the lock
+     */
+    private void evict(List<OpenFile> closable) {
+        long idleBefore = System.currentTimeMillis() - idleTimeoutMillis;
+        Iterator<OpenFile> files = openFiles.values().iterator();
+        while (files.hasNext()) {
+            OpenFile eldest = files.next();
+            if (openFiles.size() <= maxOpenFiles && eldest.lastLeasedMillis > idleBefore) {
+                return;
+            }
+            files.remove();
+            retire(eldest, closable);
+        }
+    }
+
+    private static void retire(OpenFile openFile, List<OpenFile> closable) {
+        openFile.retired = true;
+        if (openFile.leases == 0) {
+            closable.add(openFile);
+        }
+    }
+
+    /**
+     * Opens the file at the path along with its file key. The path is looked up on both sides of the open, so the key is the one of the
+     * file we really have open even if the file is rotated right then
+     */
+    private static OpenFile open(Path path) throws IOException {
+        while (true) {
+            Object fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                if (Objects.equals(fileKey, Files.readAttributes(path, BasicFileAttributes.class).fileKey())) {
+                    return new OpenFile(channel, fileKey);
+                }
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+            channel.close();
+        }
+    }
+
+    private static void closeAll(List<OpenFile> openFiles) {
+        for (OpenFile openFile : openFiles) {
+            close(openFile);
+        }
+    }
+
+    private static void close(OpenFile openFile) {
+        try {
+            openFile.channel.close();
+        } catch (IOException e) {
+            logger.warn("Couldn't close a pooled file", e);
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package com.cribl.logcollector.services.filewatchers;
+
+import com.cribl.logcollector.services.matchers.ILineMatcher;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Follows a single file like `tail -f` and pushes every appended line to all of its subscribers.
+ * <p>
+ * One follower is shared by every client following the same file, so the appended bytes are read once per change no matter how many
+ * dashboards are watching. Instead of a WatchService (which isn't reliable on network mounts or for in place appends on every OS)
+ * we use an adaptive poller: it polls quickly while the file is changing and backs off exponentially while it is idle.
+ * <p>
+ * The poller never writes to a client itself. Lines are queued per subscriber and sent from the sender executor, so a slow client only
+ * holds up its own lines. A client that falls more than its queue's worth of lines behind is disconnected.
+ */
+public class FileFollower {
+
+    private static final Logger logger = LogManager.getLogger(FileFollower.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024; // 64KB
+    private static final long MIN_POLL_INTERVAL_MILLIS = 50;
+    private static final long MAX_POLL_INTERVAL_MILLIS = 1000;
+
+    private final Path logFile;
+    private final ScheduledExecutorService scheduler;
+    private final Executor sender;
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    // Offset right after the last line return we've pushed out. Partial lines past it are sent once they're complete
+    private long position;
+    private Object fileKey;
+    private long pollIntervalMillis = MIN_POLL_INTERVAL_MILLIS;
+    private volatile ScheduledFuture<?> nextPoll;
+    private volatile boolean stopped = false;
+
+    /**
+     * Client following the file. Its lines wait in a bounded queue until they're sent, by one sender task at a time
+     */
+    public static final class Subscriber {
+        private final SseEmitter emitter;
+        private final ILineMatcher lineMatcher;
+        private final ArrayBlockingQueue<String> queuedLines;
+        private final AtomicBoolean sending = new AtomicBoolean();
+
+        /**
+         * @param lineMatcher Filter lines have to match, null for every line
+         * @param maxQueuedLines Most lines waiting to be sent before the client is disconnected
+         */
+        public Subscriber(SseEmitter emitter, ILineMatcher lineMatcher, int maxQueuedLines) {
+            this.emitter = emitter;
+            this.lineMatcher = lineMatcher;
+            this.queuedLines = new ArrayBlockingQueue<>(maxQueuedLines);
+        }
+
+        public SseEmitter emitter() {
+            return emitter;
+        }
+
+        public ILineMatcher lineMatcher() {
+            return lineMatcher;
+        }
+    }
+
+    /**
+     * @param scheduler Runs the polls
+     * @param sender Sends the lines to the subscribers
+     */
+    public FileFollower(String fileName, ScheduledExecutorService scheduler, Executor sender) {
+        this.logFile = Path.of(fileName);
+        this.scheduler = scheduler;
+        this.sender = sender;
+
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(logFile, BasicFileAttributes.class);
+            // Only lines written from now on are followed
+            this.position = attributes.size();
+            this.fileKey = attributes.fileKey();
+        } catch (IOException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "File does not exist on server: " + fileName);
+        }
+
+        logger.debug("Started new follower for file: " + fileName);
+    }
+
+    public void start() {
+        nextPoll = scheduler.schedule(this::poll, pollIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        stopped = true;
+        ScheduledFuture<?> poll = nextPoll;
+        if (poll != null) {
+            poll.cancel(false);
+        }
+        logger.debug("Stopped follower for file: " + logFile);
+    }
+
+    public void addSubscriber(Subscriber subscriber) {
+        subscribers.add(subscriber);
+    }
+
+    public void removeSubscriber(SseEmitter emitter) {
+        subscribers.removeIf(subscriber -> subscriber.emitter() == emitter);
+    }
+
+    public boolean hasSubscribers() {
+        return !subscribers.isEmpty();
+    }
+
+    /**
+     * Checks the file for appended bytes and queues any complete new lines for their subscribers, then schedules itself again.
+     * Only ever runs on one scheduler thread at a time
+     */
+    private void poll() {
+        if (stopped) {
+            return;
+        }
+
+        boolean changed = false;
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(logFile, BasicFileAttributes.class);
+            if (attributes.size() < position || !Objects.equals(fileKey, attributes.fileKey())) {
+                // Truncated or rotated. Follow the new file from its start
+                position = 0;
+                fileKey = attributes.fileKey();
+            }
+            if (attributes.size() > position) {
+                changed = readAppendedLines(attributes.size());
+            }
+            if (changed) {
+                subscribers.forEach(this::startSending);
+            }
+        } catch (NoSuchFileException e) {
+            // Rotated away and not recreated yet. Keep polling until it comes back
+        } catch (IOException e) {
+            logger.error("Error following file " + logFile, e);
+        }
+
+        pollIntervalMillis = changed ? MIN_POLL_INTERVAL_MILLIS : Math.min(pollIntervalMillis * 2, MAX_POLL_INTERVAL_MILLIS);
+        if (!stopped) {
+            nextPoll = scheduler.schedule(this::poll, pollIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Reads forward from our position and publishes every complete line
+     *
+     * @return True if at least one line was read
+     */
+    private boolean readAppendedLines(long fileSize) throws IOException {
+        boolean linesRead = false;
+
+        try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.READ)) {
+            while (position < fileSize) {
+                buffer.clear();
+                int bytesRead = channel.read(buffer, position);
+                if (bytesRead <= 0) {
+                    break;
+                }
+
+                byte[] bytes = buffer.array();
+                int lineStart = 0;
+                for (int i = 0; i < bytesRead; i++) {
+                    if (bytes[i] == '\n') {
+                        publishLine(bytes, lineStart, i);
+                        lineStart = i + 1;
+                    }
+                }
+
+                if (lineStart == 0) {
+                    if (bytesRead < buffer.capacity()) {
+                        // Partial line still being written, wait for its line return
+                        break;
+                    }
+                    // Line is longer than our buffer
+                    buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+                    continue;
+                }
+
+                position += lineStart;
+                linesRead = true;
+            }
+        }
+        return linesRead;
+    }
+
+    /**
+     * Queues bytes[start..end) for every subscriber whose filter matches. The line is decoded at most once
+     */
+    private void publishLine(byte[] bytes, int start, int end) {
+        // Lets remove \r if it exists as well
+        if (end > start && bytes[end - 1] == '\r') {
+            end--;
+        }
+        // Skip over empty lines
+        if (end == start) {
+            return;
+        }
+
+        String line = null;
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.lineMatcher == null || subscriber.lineMatcher.matches(bytes, start, end - start)) {
+                if (line == null) {
+                    line = new String(bytes, start, end - start, StandardCharsets.UTF_8);
+                }
+                if (!subscriber.queuedLines.offer(line)) {
+                    logger.warn("Disconnecting a client following {} that fell {} lines behind", logFile, subscriber.queuedLines.size());
+                    disconnect(subscriber, new IOException("Client is too slow to follow " + logFile));
+                }
+            }
+        }
+    }
+
+    /**
+     * Hands the subscriber's queued lines to the sender, unless a sender task is already at it
+     */
+    private void startSending(Subscriber subscriber) {
+        if (!subscriber.queuedLines.isEmpty() && subscriber.sending.compareAndSet(false, true)) {
+            sender.execute(() -> send(subscriber));
+        }
+    }
+
+    /**
+     * Sends the subscriber's queued lines until there are none left. Only one of these runs per subscriber at a time, so emitters are
+     * never written to concurrently
+     */
+    private void send(Subscriber subscriber) {
+        try {
+            String line;
+            while ((line = subscriber.queuedLines.poll()) != null) {
+                subscriber.emitter.send(line);
+            }
+        } catch (IOException | IllegalStateException e) {
+            // Client went away
+            disconnect(subscriber, e);
+        } finally {
+            subscriber.sending.set(false);
+        }
+        // Lines queued after we found the queue empty but before we let go of it
+        if (subscribers.contains(subscriber)) {
+            startSending(subscriber);
+        }
+    }
+
+    /**
+     * Completing the emitter triggers its callbacks which unsubscribe it. It's removed here too, so no more lines are queued for it
+     */
+    private void disconnect(Subscriber subscriber, Exception e) {
+        if (subscribers.remove(subscriber)) {
+            subscriber.queuedLines.clear();
+            subscriber.emitter.completeWithError(e);
+        }
+    }
+}
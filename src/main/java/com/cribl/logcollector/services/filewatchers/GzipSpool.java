@@ -0,0 +1,256 @@
+package com.cribl.logcollector.services.filewatchers;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Decompressed copies of gzip compressed rotated log files, so they can be read backwards like any other log file.
+ * <p>
+ * Gzip can only be decompressed forwards from the start of a member. Resuming in the middle of one takes the deflate window and the
+ * exact bit position of a block boundary (zlib's inflatePrime), and java.util.zip exposes neither, so we can't keep seek points into the
+ * archive itself. Rotated archives never change though, so each one is decompressed once into a spool file, which is a seek point
+ * at every byte, and later reads (including paged and filtered ones) seek in that instead.
+ * <p>
+ * Spool files are keyed by the archive's file key, size and modified time, so they survive the archive being renamed by the next
+ * rotation. They're deleted least recently used first once they go over a disk budget, but never while a reader has them open.
+ * Archives too big for the budget are never kept, their copy is shared by the reads running at the same time and deleted after the last one.
+ * <p>
+ * Each spool writes into its own directory under the spool dir, so instances sharing a temp dir don't delete each other's files.
+ * Directories left behind by processes that are gone are cleaned up at startup.
+ */
+public class GzipSpool implements Closeable {
+
+    private static final Logger logger = LogManager.getLogger(GzipSpool.class);
+
+    private static final String SPOOL_FILE_SUFFIX = ".spool";
+    private static final String INSTANCE_DIR_PREFIX = "spool-";
+    private static final int BUFFER_SIZE = 64 * 1024; // 64KB
+
+    private final Path spoolDir;
+    private final long maxBytes;
+    private final Cache<String, SpooledFile> spooledFiles;
+    // Decompressions in progress, and copies of archives too big to cache while they're read, so concurrent reads share them
+    private final ConcurrentHashMap<String, CompletableFuture<SpooledFile>> sharedFiles = new ConcurrentHashMap<>();
+
+    /**
+     * Decompressed copy of an archive, open for reading until closed
+     */
+    public static class SpooledFile implements Closeable {
+        private final Path path;
+        private final long size;
+        private final Runnable onDelete;
+        private int openCount = 0;
+        // Cleared once the spool's cache no longer holds the file, it's deleted when the last reader closes it
+        private boolean cached = true;
+        private boolean deleted = false;
+
+        private SpooledFile(Path path, long size, Runnable onDelete) {
+            this.path = path;
+            this.size = size;
+            this.onDelete = onDelete;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        /**
+         * @return False if the file has been deleted already
+         */
+        private synchronized boolean open() {
+            if (deleted) {
+                return false;
+            }
+            openCount++;
+            return true;
+        }
+
+        private synchronized void release() {
+            cached = false;
+            deleteIfUnused();
+        }
+
+        @Override
+        public synchronized void close() {
+            openCount--;
+            deleteIfUnused();
+        }
+
+        private void deleteIfUnused() {
+            if (!cached && openCount == 0 && !deleted) {
+                deleted = true;
+                onDelete.run();
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    logger.warn("Couldn't delete spool file {}", path, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param spoolDir Directory our own spool directory is created in. Directories of processes that are gone are deleted
+     * @param maxBytes Disk budget of the spool files
+     */
+    public GzipSpool(Path spoolDir, long maxBytes) throws IOException {
+        Files.createDirectories(spoolDir);
+        deleteStaleInstanceDirs(spoolDir);
+        this.spoolDir = Files.createTempDirectory(spoolDir, INSTANCE_DIR_PREFIX + ProcessHandle.current().pid() + "-");
+        this.maxBytes = maxBytes;
+
+        this.spooledFiles = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String key, SpooledFile value) -> (int) Math.min(value.size, Integer.MAX_VALUE))
+                // Evict and delete right away on the spooling thread, rather than going over the disk budget until a background run
+                .executor(Runnable::run)
+                .removalListener((String key, SpooledFile value, RemovalCause cause) -> {
+                    if (value != null) {
+                        value.release();
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * @return Our own spool directory
+     */
+    public Path getSpoolDir() {
+        return spoolDir;
+    }
+
+    /**
+     * Opens the decompressed copy of an archive, decompressing it if it isn't spooled yet. Concurrent opens of an archive decompress it once.
+     * Close the returned file once done reading it.
+     */
+    public SpooledFile open(Path archive) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(archive, BasicFileAttributes.class);
+        String key = (attributes.fileKey() != null ? attributes.fileKey() : archive.toAbsolutePath()) + ":" + attributes.size() + ":"
+                + attributes.lastModifiedTime().toMillis();
+
+        while (true) {
+            SpooledFile cachedFile = spooledFiles.getIfPresent(key);
+            if (cachedFile != null && cachedFile.open()) {
+                return cachedFile;
+            }
+
+            CompletableFuture<SpooledFile> decompression = new CompletableFuture<>();
+            CompletableFuture<SpooledFile> sharedFile = sharedFiles.putIfAbsent(key, decompression);
+            if (sharedFile != null) {
+                // Another read is decompressing the archive or still reading an archive too big to cache
+                SpooledFile file = join(sharedFile);
+                if (file.open()) {
+                    return file;
+                }
+                // Deleted since, read it again
+                sharedFiles.remove(key, sharedFile);
+                continue;
+            }
+
+            SpooledFile file;
+            try {
+                file = decompress(archive, () -> sharedFiles.remove(key, decompression));
+            } catch (IOException | RuntimeException e) {
+                sharedFiles.remove(key, decompression);
+                decompression.completeExceptionally(e);
+                throw e;
+            }
+            // Opened for us before it's handed to anyone else, so it can't be deleted before we read it
+            file.open();
+            decompression.complete(file);
+            if (file.size <= maxBytes) {
+                spooledFiles.put(key, file);
+                sharedFiles.remove(key, decompression);
+            } else {
+                // Never cached. Reads that start before we're done share it, it's deleted once the last of them closes it
+                logger.debug("Not keeping {} ({} bytes), it's bigger than the spool's budget", archive.getFileName(), file.size);
+                file.release();
+            }
+            return file;
+        }
+    }
+
+    /**
+     * Deletes our spool files, ie. on shutdown. Files still open are deleted once closed
+     */
+    @Override
+    public void close() {
+        spooledFiles.invalidateAll();
+        try {
+            Files.deleteIfExists(spoolDir);
+        } catch (IOException e) {
+            // Not empty, a read still has a file open
+            logger.debug("Couldn't delete spool dir {}", spoolDir, e);
+        }
+    }
+
+    private SpooledFile decompress(Path archive, Runnable onDelete) throws IOException {
+        long timerStart = System.currentTimeMillis();
+        Path spoolFile = Files.createTempFile(spoolDir, "rotated", SPOOL_FILE_SUFFIX);
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(archive), BUFFER_SIZE);
+             OutputStream out = Files.newOutputStream(spoolFile)) {
+            in.transferTo(out);
+        } catch (IOException e) {
+            Files.deleteIfExists(spoolFile);
+            throw e;
+        }
+
+        long size = Files.size(spoolFile);
+        logger.debug("Decompressed {} ({} bytes) in {} milliseconds", archive.getFileName(), size, System.currentTimeMillis() - timerStart);
+        return new SpooledFile(spoolFile, size, onDelete);
+    }
+
+    private static SpooledFile join(CompletableFuture<SpooledFile> sharedFile) throws IOException {
+        try {
+            return sharedFile.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Deletes the spool directories of processes that aren't running any more, along with their spool files. Directories are named
+     * after the pid of the process that created them
+     */
+    private static void deleteStaleInstanceDirs(Path spoolDir) throws IOException {
+        try (DirectoryStream<Path> instanceDirs = Files.newDirectoryStream(spoolDir, INSTANCE_DIR_PREFIX + "*-*")) {
+            for (Path instanceDir : instanceDirs) {
+                String name = instanceDir.getFileName().toString();
+                long instancePid;
+                try {
+                    instancePid = Long.parseLong(name.substring(INSTANCE_DIR_PREFIX.length(), name.indexOf('-', INSTANCE_DIR_PREFIX.length())));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                if (ProcessHandle.of(instancePid).isPresent()) {
+                    continue;
+                }
+                try (DirectoryStream<Path> staleFiles = Files.newDirectoryStream(instanceDir, "*" + SPOOL_FILE_SUFFIX)) {
+                    for (Path staleFile : staleFiles) {
+                        Files.deleteIfExists(staleFile);
+                    }
+                }
+                Files.deleteIfExists(instanceDir);
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.cribl.logcollector.services.filewatchers;
+
+import com.cribl.logcollector.services.matchers.ILineMatcher;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Byte seeking file watcher that reads through memory mapped windows of the file instead of a read syscall per chunk.
+ * <p>
+ * The file is mapped in large windows aligned to {@link #DEFAULT_WINDOW_SIZE}, mapped lazily as the reverse scan moves backwards.
+ * Windows are kept across calls while the file only grows. Mappings share the OS page cache, so they always see the file's current
+ * content. Only the last, partial window is remapped once the file has grown past it. Rotation or truncation drops every window, checked
+ * again each time a read moves on to another window. A file truncated in the middle of a read faults when the mapping past its new end is
+ * touched, the chunk is then read through the channel instead.
+ * <p>
+ * Chunks are copied out of the mapping with a bulk get, which is a plain memory copy on page cache hot files. Larger scan buffers
+ * than the channel reader's cut down on per-chunk overhead.
+ */
+public class MappedFileWatcherCallable extends ByteSeekerFileWatcherCallable {
+
+    public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024; // 64MB
+
+    private static final int BUFFER_SIZE = 64 * 1024; // 64KB
+
+    private static final ReverseLineScanner LINE_SCANNER = new ReverseLineScanner(new ByteBufferPool(BUFFER_SIZE, 16));
+
+    private final int windowSize;
+
+    // Mapped windows by index. Reverse reads run concurrently with cached reads, so the map has to be thread safe
+    private final Map<Long, MappedByteBuffer> windows = new ConcurrentHashMap<>();
+    private volatile Object mappedFileKey;
+    private volatile long mappedFileSize;
+
+    public MappedFileWatcherCallable(String fileName, int maxLines) {
+        this(fileName, maxLines, null);
+    }
+
+    public MappedFileWatcherCallable(String fileName, int maxLines, ILineMatcher lineMatcher) {
+        this(fileName, maxLines, lineMatcher, DEFAULT_WINDOW_SIZE);
+    }
+
+    public MappedFileWatcherCallable(String fileName, int maxLines, ILineMatcher lineMatcher, int windowSize) {
+        super(fileName, maxLines, lineMatcher, "mapped");
+        this.windowSize = windowSize;
+    }
+
+    @Override
+    protected ReverseLineScanner getLineScanner() {
+        return LINE_SCANNER;
+    }
+
+    @Override
+    protected ReverseLineScanner.ChunkReader getChunkReader(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        Object fileKey = Files.readAttributes(getLogFile().toPath(), BasicFileAttributes.class).fileKey();
+        dropStaleWindows(fileKey, fileSize);
+        ReverseLineScanner.ChunkReader channelReader = super.getChunkReader(channel);
+        // Window the last chunk was read from. Segments scanned in parallel share the reader, racing on it only rechecks more often
+        AtomicLong checkedWindow = new AtomicLong(-1);
+        // Set once the file shrank below the size the read started at, windows of that size would fault or can't be mapped anymore
+        AtomicBoolean truncated = new AtomicBoolean();
+
+        return (position, dst, dstOffset, length) -> {
+            while (length > 0) {
+                if (truncated.get()) {
+                    channelReader.read(position, dst, dstOffset, length);
+                    return;
+                }
+                long windowIndex = position / windowSize;
+                int windowOffset = (int) (position - windowIndex * windowSize);
+                if (checkedWindow.getAndSet(windowIndex) != windowIndex) {
+                    long currentSize = channel.size();
+                    dropStaleWindows(Files.readAttributes(getLogFile().toPath(), BasicFileAttributes.class).fileKey(), currentSize);
+                    if (currentSize < fileSize) {
+                        truncated.set(true);
+                        continue;
+                    }
+                }
+                MappedByteBuffer window = getWindow(channel, fileKey, windowIndex, fileSize);
+                int copied = Math.min(length, window.capacity() - windowOffset);
+                if (copied <= 0) {
+                    throw new IOException("Unexpected end of file");
+                }
+                try {
+                    window.get(windowOffset, dst, dstOffset, copied);
+                } catch (InternalError e) {
+                    // The file was truncated under the mapping and the copy touched a page past its new end
+                    windows.clear();
+                    truncated.set(true);
+                    continue;
+                }
+                position += copied;
+                dstOffset += copied;
+                length -= copied;
+            }
+        };
+    }
+
+    /**
+     * Mappings outlive the channel they were mapped from, so they're all dropped once the file was rotated or truncated
+     */
+    private void dropStaleWindows(Object fileKey, long fileSize) {
+        if (fileKey == null || !Objects.equals(fileKey, mappedFileKey) || fileSize < mappedFileSize) {
+            windows.clear();
+            mappedFileKey = fileKey;
+        }
+        mappedFileSize = fileSize;
+    }
+
+    /**
+     * Returns the window, mapping it if we haven't yet or if it was mapped when the file ended within it and it has to cover more now.
+     * Windows mapped from a file that was rotated during the read aren't kept
+     *
+     * @param fileKey File key of the file when the read started
+     */
+    private MappedByteBuffer getWindow(FileChannel channel, Object fileKey, long windowIndex, long fileSize) throws IOException {
+        long windowStart = windowIndex * windowSize;
+        long windowLength = Math.min(windowSize, fileSize - windowStart);
+
+        MappedByteBuffer window = windows.get(windowIndex);
+        if (window == null || window.capacity() != windowLength) {
+            window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowLength);
+            if (Objects.equals(fileKey, mappedFileKey)) {
+                windows.put(windowIndex, window);
+            }
+        }
+        return window;
+    }
+}
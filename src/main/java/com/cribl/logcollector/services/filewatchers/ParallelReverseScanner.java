@@ -0,0 +1,323 @@
+package com.cribl.logcollector.services.filewatchers;
+
+import com.cribl.logcollector.services.matchers.ILineMatcher;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Scans deep regions of a file backwards on several threads, for reads that have to cover a large part of a file
+ * (many entries, selective filters, time ranges).
+ * <p>
+ * Regions are split into segments of about segmentBytes, aligned on line starts so every line belongs to exactly one segment. Segments are
+ * scanned in waves of one segment per thread of the fork/join pool, newest first. Each segment keeps copies of its matching lines, which
+ * are then handed to the consumer segment by segment, so it sees the same lines in the same order as a single threaded scan. Once the
+ * newer segments of a wave hold enough lines, the older ones stop scanning, and no further waves are started once the consumer is done.
+ * <p>
+ * Segments keep at most their own bytes in copies, so a wave holds at most parallelism * segmentBytes of lines. Scans that only count lines
+ * don't need copies, see {@link #scanSegments}.
+ */
+public class ParallelReverseScanner {
+
+    private static final int ALIGN_CHUNK_SIZE = 4096; // 4KB
+
+    private final ForkJoinPool pool;
+    private final long segmentBytes;
+
+    /**
+     * Matching lines of one segment, newest first
+     */
+    private static class Segment {
+        private final long startOffset;
+        private final long endOffset;
+        private final List<byte[]> lines = new ArrayList<>();
+        private long[] offsets = new long[16];
+        private long linesScanned = 0;
+
+        private Segment(long startOffset, long endOffset) {
+            this.startOffset = startOffset;
+            this.endOffset = endOffset;
+        }
+
+        private void add(byte[] bytes, int offset, int length, long fileOffset) {
+            if (lines.size() == offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            offsets[lines.size()] = fileOffset;
+            lines.add(Arrays.copyOfRange(bytes, offset, offset + length));
+        }
+    }
+
+    /**
+     * Segments scanned concurrently. Tracks which of them are done, so older segments can stop once newer ones hold enough lines
+     */
+    private static class Wave {
+        private final List<Segment> segments;
+        private final int maxLines;
+        private final boolean[] done;
+        // Segments after this index can stop, the ones up to it hold enough lines
+        private volatile int enoughAt = Integer.MAX_VALUE;
+
+        private Wave(List<Segment> segments, int maxLines) {
+            this.segments = segments;
+            this.maxLines = maxLines;
+            this.done = new boolean[segments.size()];
+        }
+
+        private synchronized void segmentDone(int index) {
+            done[index] = true;
+            long lines = 0;
+            for (int i = 0; i < segments.size() && done[i]; i++) {
+                lines += segments.get(i).lines.size();
+                if (lines >= maxLines) {
+                    enoughAt = i;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Splits regions into segments a wave at a time, from the end of the newest region back
+     */
+    private class WaveSplitter {
+        private final ReverseLineScanner.ChunkReader reader;
+        private final List<long[]> regions;
+        private int regionIndex = 0;
+        private long regionEnd;
+
+        private WaveSplitter(ReverseLineScanner.ChunkReader reader, List<long[]> regions) {
+            this.reader = reader;
+            this.regions = regions;
+            this.regionEnd = regions.isEmpty() ? 0 : regions.get(0)[1];
+        }
+
+        /**
+         * @return Segments of the next wave, newest first. Empty once the regions are used up
+         */
+        private List<Segment> nextWave() throws IOException {
+            List<Segment> segments = new ArrayList<>(pool.getParallelism());
+            while (segments.size() < pool.getParallelism() && regionIndex < regions.size()) {
+                long regionStart = regions.get(regionIndex)[0];
+                if (regionEnd <= regionStart) {
+                    if (++regionIndex < regions.size()) {
+                        regionEnd = regions.get(regionIndex)[1];
+                    }
+                    continue;
+                }
+                long segmentStart = findSegmentStart(reader, regionStart, regionEnd);
+                segments.add(new Segment(segmentStart, regionEnd));
+                regionEnd = segmentStart;
+            }
+            return segments;
+        }
+    }
+
+    /**
+     * Receives the segments scanned by {@link #scanSegments}
+     */
+    @FunctionalInterface
+    public interface SegmentHandler<T> {
+        /**
+         * @param consumer Consumer the segment's lines were handed to
+         * @return False to stop scanning
+         */
+        boolean accept(T consumer, long startOffset, long endOffset) throws IOException;
+    }
+
+    /**
+     * @param pool Pool segments are scanned on. Its parallelism is the number of segments per wave
+     * @param segmentBytes Size of the segments regions are split into
+     */
+    public ParallelReverseScanner(ForkJoinPool pool, long segmentBytes) {
+        this.pool = pool;
+        this.segmentBytes = segmentBytes;
+    }
+
+    public long getSegmentBytes() {
+        return segmentBytes;
+    }
+
+    /**
+     * Scans the regions backwards, handing the lines that match to the consumer, newest first.
+     *
+     * @param lineScanner Scanner each segment is scanned with
+     * @param reader Reads the file. Called from several threads at once
+     * @param regions Regions to scan, newest first. Each has to start at a line start
+     * @param lineMatcher Filter lines have to match to be passed on. Null means every non empty line is passed on
+     * @param maxLines Most lines the consumer takes, so segments know when they've found enough
+     * @param linesScanned Called with the number of lines each wave scanned, matching or not
+     * @return False if the consumer stopped the scan
+     */
+    public boolean scan(ReverseLineScanner lineScanner, ReverseLineScanner.ChunkReader reader, List<long[]> regions, ILineMatcher lineMatcher, int maxLines,
+                        ReverseLineScanner.LineConsumer consumer, LongConsumer linesScanned) throws IOException {
+        WaveSplitter splitter = new WaveSplitter(reader, regions);
+        List<Segment> segments;
+        while (!(segments = splitter.nextWave()).isEmpty()) {
+            Wave wave = new Wave(segments, maxLines);
+            List<ForkJoinTask<?>> tasks = new ArrayList<>(segments.size());
+            for (int i = 0; i < segments.size(); i++) {
+                int index = i;
+                tasks.add(pool.submit(() -> scanSegment(lineScanner, reader, wave, index, lineMatcher)));
+            }
+            joinAll(tasks);
+
+            long waveLinesScanned = 0;
+            for (Segment segment : segments) {
+                waveLinesScanned += segment.linesScanned;
+            }
+            linesScanned.accept(waveLinesScanned);
+
+            for (Segment segment : segments) {
+                for (int i = 0; i < segment.lines.size(); i++) {
+                    byte[] line = segment.lines.get(i);
+                    if (!consumer.accept(line, 0, line.length, segment.offsets[i])) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Scans the regions backwards segment by segment like {@link #scan}, but hands each segment's lines to a consumer of its own instead
+     * of keeping copies of them, ie. to aggregate lines without collecting them. A segment stops early once its consumer returns false.
+     * Once a wave is done its segments are handed to the handler along with their consumers, newest first
+     *
+     * @param consumers Creates the consumer of each segment, on the calling thread as its wave starts
+     * @param handler Receives each segment once scanned
+     * @param linesScanned Called with the number of lines each wave scanned
+     * @return False if the handler stopped the scan
+     */
+    public <T extends ReverseLineScanner.LineConsumer> boolean scanSegments(ReverseLineScanner lineScanner, ReverseLineScanner.ChunkReader reader,
+                                                                         List<long[]> regions, Supplier<T> consumers, SegmentHandler<T> handler,
+                                                                         LongConsumer linesScanned) throws IOException {
+        WaveSplitter splitter = new WaveSplitter(reader, regions);
+        List<Segment> segments;
+        while (!(segments = splitter.nextWave()).isEmpty()) {
+            List<T> segmentConsumers = new ArrayList<>(segments.size());
+            List<ForkJoinTask<?>> tasks = new ArrayList<>(segments.size());
+            for (Segment segment : segments) {
+                T consumer = consumers.get();
+                segmentConsumers.add(consumer);
+                tasks.add(pool.submit(() -> {
+                    try {
+                        lineScanner.scan(reader, segment.startOffset, segment.endOffset, (bytes, offset, length, fileOffset) -> {
+                            segment.linesScanned++;
+                            return consumer.accept(bytes, offset, length, fileOffset);
+                        });
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }));
+            }
+            joinAll(tasks);
+
+            long waveLinesScanned = 0;
+            for (Segment segment : segments) {
+                waveLinesScanned += segment.linesScanned;
+            }
+            linesScanned.accept(waveLinesScanned);
+
+            for (int i = 0; i < segments.size(); i++) {
+                if (!handler.accept(segmentConsumers.get(i), segments.get(i).startOffset, segments.get(i).endOffset)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static void scanSegment(ReverseLineScanner lineScanner, ReverseLineScanner.ChunkReader reader, Wave wave, int index, ILineMatcher lineMatcher) {
+        Segment segment = wave.segments.get(index);
+        try {
+            lineScanner.scan(reader, segment.startOffset, segment.endOffset, (bytes, offset, length, fileOffset) -> {
+                segment.linesScanned++;
+                if (length > 0 && (lineMatcher == null || lineMatcher.matches(bytes, offset, length))) {
+                    segment.add(bytes, offset, length, fileOffset);
+                }
+                return segment.lines.size() < wave.maxLines && index <= wave.enoughAt;
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            wave.segmentDone(index);
+        }
+    }
+
+    /**
+     * Start of the segment ending at endOffset: the first line start at or after endOffset - segmentBytes. A line longer than a segment
+     * makes the segment grow until it holds that line's start
+     */
+    long findSegmentStart(ReverseLineScanner.ChunkReader reader, long regionStart, long endOffset) throws IOException {
+        long nominalStart = endOffset - segmentBytes;
+        while (nominalStart > regionStart) {
+            long lineStart = findLineStartAtOrAfter(reader, nominalStart, endOffset);
+            if (lineStart < endOffset) {
+                return lineStart;
+            }
+            nominalStart -= segmentBytes;
+        }
+        return regionStart;
+    }
+
+    /**
+     * @return Offset right after the first line return at or after offset - 1, or endOffset if there is none before it
+     */
+    private static long findLineStartAtOrAfter(ReverseLineScanner.ChunkReader reader, long offset, long endOffset) throws IOException {
+        byte[] chunk = new byte[ALIGN_CHUNK_SIZE];
+        for (long position = offset - 1; position < endOffset; position += chunk.length) {
+            int length = (int) Math.min(chunk.length, endOffset - position);
+            reader.read(position, chunk, 0, length);
+            for (int i = 0; i < length; i++) {
+                if (chunk[i] == '\n') {
+                    return position + i + 1;
+                }
+            }
+        }
+        return endOffset;
+    }
+
+    /**
+     * Waits for every task, even once one has failed, since they all read through the caller's reader
+     */
+    private static void joinAll(List<ForkJoinTask<?>> tasks) throws IOException {
+        Throwable failure = null;
+        boolean interrupted = false;
+        for (ForkJoinTask<?> task : tasks) {
+            while (true) {
+                try {
+                    task.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    failure = failure != null ? failure : e.getCause();
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (failure instanceof UncheckedIOException e) {
+            throw e.getCause();
+        } else if (failure instanceof RuntimeException e) {
+            throw e;
+        } else if (failure instanceof Error e) {
+            throw e;
+        } else if (failure != null) {
+            throw new IOException(failure);
+        }
+    }
+}
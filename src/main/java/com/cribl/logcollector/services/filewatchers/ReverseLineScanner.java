@@ -0,0 +1,135 @@
+package com.cribl.logcollector.services.filewatchers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Scans a byte region of a file backwards, line by line, handing each line to a consumer as a slice of the read buffer.
+ * <p>
+ * Chunks are read back to front into one buffer. Newline offsets are found directly in the buffer and every complete line is passed on
+ * as a (buffer, offset, length) slice, so there's no per byte copying and consumers decode a line at most once, from its whole UTF-8 byte range.
+ * A line spanning a chunk boundary is kept at the end of the buffer and the next (earlier) chunk is read right in front of it.
+ * Only that partial line is moved, with one bulk copy per chunk.
+ * <p>
+ * Scanners with a max chunk size above their pool's buffer size read ahead adaptively. The first chunk is sized to what the caller expects
+ * to scan, ie. the lines wanted times the average line length, and every chunk after it is twice as big up to the max. Short tails take a
+ * single small read while deep scans cross megabytes in a handful of reads, rather than one read per buffer.
+ */
+public class ReverseLineScanner {
+
+    /**
+     * Reads length bytes of the file at position into dst[dstOffset..]
+     */
+    @FunctionalInterface
+    public interface ChunkReader {
+        void read(long position, byte[] dst, int dstOffset, int length) throws IOException;
+    }
+
+    /**
+     * Receives lines newest to oldest. Line bytes are only valid during the call.
+     * Trailing \r is already removed. Lines can be empty, ie. the "line" after a file's final line return.
+     */
+    @FunctionalInterface
+    public interface LineConsumer {
+        /**
+         * @param fileOffset Offset of the line's first byte in the file
+         * @return False to stop scanning
+         */
+        boolean accept(byte[] bytes, int offset, int length, long fileOffset);
+    }
+
+    private final ByteBufferPool bufferPool;
+    private final int maxChunkBytes;
+
+    /**
+     * Scanner reading chunks of the pool's buffer size
+     */
+    public ReverseLineScanner(ByteBufferPool bufferPool) {
+        this(bufferPool, bufferPool.getBufferSize());
+    }
+
+    /**
+     * @param bufferPool Pool of heap buffers the chunks are read into
+     * @param maxChunkBytes Biggest chunk read ahead. Lines longer than that still grow the buffer as needed
+     */
+    public ReverseLineScanner(ByteBufferPool bufferPool, int maxChunkBytes) {
+        this.bufferPool = bufferPool;
+        this.maxChunkBytes = Math.max(bufferPool.getBufferSize(), maxChunkBytes);
+    }
+
+    /**
+     * Scans the region [startOffset, endOffset) from its end. startOffset has to be the start of a line.
+     *
+     * @return True if the whole region was scanned, false if the consumer stopped early
+     */
+    public boolean scan(ChunkReader reader, long startOffset, long endOffset, LineConsumer consumer) throws IOException {
+        return scan(reader, startOffset, endOffset, 0, consumer);
+    }
+
+    /**
+     * Same as {@link #scan(ChunkReader, long, long, LineConsumer)}, starting with a chunk of about expectedBytes
+     *
+     * @param expectedBytes Bytes the caller expects to scan before the consumer stops, 0 if it can't tell
+     */
+    public boolean scan(ChunkReader reader, long startOffset, long endOffset, long expectedBytes, LineConsumer consumer) throws IOException {
+        int firstChunkBytes = Math.clamp(Math.min(expectedBytes, endOffset - startOffset), bufferPool.getBufferSize(), maxChunkBytes);
+        ByteBuffer pooledBuffer = bufferPool.acquire(firstChunkBytes);
+        byte[] buffer = pooledBuffer.array();
+
+        try {
+            // The partial line we haven't seen the start of yet sits at buffer[carryStart..buffer.length)
+            int carryStart = buffer.length;
+            long position = endOffset;
+
+            while (position > startOffset) {
+                if (carryStart == 0 || (position < endOffset && buffer.length < maxChunkBytes)) {
+                    // Line longer than our buffer, or a scan going on past its first chunk. Grow the buffer, keeping the partial line right aligned
+                    ByteBuffer grownBuffer = bufferPool.acquire(buffer.length * 2);
+                    byte[] grown = grownBuffer.array();
+                    int carryLength = buffer.length - carryStart;
+                    System.arraycopy(buffer, carryStart, grown, grown.length - carryLength, carryLength);
+                    carryStart = grown.length - carryLength;
+                    bufferPool.release(pooledBuffer);
+                    pooledBuffer = grownBuffer;
+                    buffer = grown;
+                }
+
+                int chunkLength = (int) Math.min(carryStart, position - startOffset);
+                int chunkStart = carryStart - chunkLength;
+                position -= chunkLength;
+                reader.read(position, buffer, chunkStart, chunkLength);
+
+                // File offset of buffer[0]
+                long bufferFileOffset = position - chunkStart;
+                int lineEnd = buffer.length;
+                for (int i = carryStart - 1; i >= chunkStart; i--) {
+                    if (buffer[i] == '\n') {
+                        if (!acceptLine(consumer, buffer, i + 1, lineEnd, bufferFileOffset)) {
+                            return false;
+                        }
+                        lineEnd = i;
+                    }
+                }
+
+                // Move what is left of the partial line to the end of the buffer, the next chunk is read in front of it
+                int carryLength = lineEnd - chunkStart;
+                carryStart = buffer.length - carryLength;
+                System.arraycopy(buffer, chunkStart, buffer, carryStart, carryLength);
+            }
+
+            // First line of the region has no line return in front of it
+            return acceptLine(consumer, buffer, carryStart, buffer.length, startOffset - carryStart);
+        } finally {
+            bufferPool.release(pooledBuffer);
+        }
+    }
+
+    private static boolean acceptLine(LineConsumer consumer, byte[] buffer, int start, int end, long bufferFileOffset) {
+        // Lets remove \r if it exists as well
+        // Windows uses \r\n  OSX/Linus uses \n
+        if (end > start && buffer[end - 1] == '\r') {
+            end--;
+        }
+        return consumer.accept(buffer, start, end - start, bufferFileOffset + start);
+    }
+}
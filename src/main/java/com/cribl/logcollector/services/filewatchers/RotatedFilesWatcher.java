@@ -0,0 +1,348 @@
+package com.cribl.logcollector.services.filewatchers;
+
+import com.cribl.logcollector.services.EncodedTailLines;
+import com.cribl.logcollector.services.FileWatcherMetrics;
+import com.cribl.logcollector.services.ICriblFileWatcher;
+import com.cribl.logcollector.services.LogTimestampParser;
+import com.cribl.logcollector.services.TailLineArena;
+import com.cribl.logcollector.services.TailLines;
+import com.cribl.logcollector.services.matchers.ILineMatcher;
+import com.cribl.logcollector.services.stats.LogStatsAggregator;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.zip.ZipException;
+
+/**
+ * Wraps the watcher of a live log file and carries reads that run out of lines on into its rotated files, so a rotation right before
+ * a request doesn't hide the history just before it.
+ * <p>
+ * Rotated files follow logrotate naming: app.log.1, app.log.2.gz and so on, newest first, each either plain or gzip compressed.
+ * Gzip archives are read through a {@link GzipSpool}, which decompresses each one once. Lines of rotated files don't change until
+ * the next rotation, so they are kept and reused by reads that only needed more lines of the live file.
+ * <p>
+ * Only reads that reach the start of the live file carry on. Their rotated lines have unknown offsets, so paging stops at the rotation.
+ */
+public class RotatedFilesWatcher implements ICriblFileWatcher {
+
+    private static final Logger logger = LogManager.getLogger(RotatedFilesWatcher.class);
+
+    // Rough heap cost of a kept line besides its characters: the String, its byte array header and the list slot
+    private static final int LINE_OVERHEAD_BYTES = 64;
+
+    private final ICriblFileWatcher liveFileWatcher;
+    private final String fileName;
+    private final ILineMatcher lineMatcher;
+    private final int maxRotatedFiles;
+    private final GzipSpool gzipSpool;
+    private FileWatcherMetrics metrics = FileWatcherMetrics.NOOP;
+
+    // Guards the rotated lines below. A lock rather than synchronized, so the virtual thread reading the rotated files isn't pinned to its carrier
+    private final ReentrantLock rotatedLinesLock = new ReentrantLock();
+    // Rotated lines of the last read and the rotated files and line count they were read for
+    private String rotatedFilesSignature;
+    private int rotatedLinesRequested;
+    private List<String> rotatedLines;
+    private volatile long rotatedLinesBytes = 0;
+
+    @FunctionalInterface
+    private interface RotatedFileReader {
+        void read(ByteSeekerFileWatcherCallable watcher) throws IOException;
+    }
+
+    /**
+     * Counts the lines passed on to a writer
+     */
+    private static class CountingWriter implements LineWriter {
+        private final LineWriter writer;
+        private int count = 0;
+
+        private CountingWriter(LineWriter writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public void write(String line) throws IOException {
+            count++;
+            writer.write(line);
+        }
+    }
+
+    /**
+     * @param liveFileWatcher Watcher of the live file
+     * @param fileName Path of the live file
+     * @param lineMatcher Filter of the live file watcher, applied to rotated files too. Null means every line is returned
+     * @param maxRotatedFiles How many rotated files to look at
+     */
+    public RotatedFilesWatcher(ICriblFileWatcher liveFileWatcher, String fileName, ILineMatcher lineMatcher, int maxRotatedFiles, GzipSpool gzipSpool) {
+        this.liveFileWatcher = liveFileWatcher;
+        this.fileName = fileName;
+        this.lineMatcher = lineMatcher;
+        this.maxRotatedFiles = maxRotatedFiles;
+        this.gzipSpool = gzipSpool;
+    }
+
+    /**
+     * Records reads of the rotated files to the given metrics, the live file's watcher records its own
+     */
+    public void setMetrics(FileWatcherMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public ICriblFileWatcher getLiveFileWatcher() {
+        return liveFileWatcher;
+    }
+
+    @Override
+    public TailLines call() throws Exception {
+        TailLines lines = TailLines.of(liveFileWatcher.call());
+        int remaining = getMaxLines() - lines.size();
+        return remaining > 0 ? lines.append(readRotatedLines(remaining)) : lines;
+    }
+
+    /**
+     * Rotated lines are only encoded along with the live file's lines when a read reaches past the start of the live file
+     */
+    @Override
+    public EncodedTailLines callEncoded(TailLineArena arena) throws Exception {
+        EncodedTailLines lines = liveFileWatcher.callEncoded(arena);
+        int remaining = getMaxLines() - lines.size();
+        if (remaining <= 0) {
+            return lines;
+        }
+
+        List<String> rotatedLines;
+        try {
+            rotatedLines = readRotatedLines(remaining);
+        } catch (IOException | RuntimeException e) {
+            lines.release();
+            throw e;
+        }
+        if (rotatedLines.isEmpty()) {
+            return lines;
+        }
+
+        EncodedTailLines.Builder combinedLines = new EncodedTailLines.Builder(arena, lines.getFileKey());
+        try {
+            combinedLines.addAll(lines, 0, lines.size());
+            for (String rotatedLine : rotatedLines) {
+                combinedLines.add(rotatedLine, TailLines.UNKNOWN_OFFSET);
+            }
+            return combinedLines.build();
+        } finally {
+            lines.release();
+        }
+    }
+
+    /**
+     * Frees the kept rotated lines along with the live file watcher's lines
+     */
+    @Override
+    public void releaseCachedLines() {
+        liveFileWatcher.releaseCachedLines();
+        rotatedLinesLock.lock();
+        try {
+            rotatedFilesSignature = null;
+            rotatedLinesRequested = 0;
+            rotatedLines = null;
+            rotatedLinesBytes = 0;
+        } finally {
+            rotatedLinesLock.unlock();
+        }
+    }
+
+    /**
+     * @return Estimated heap bytes of the kept rotated lines, plus whatever the live file watcher keeps
+     */
+    @Override
+    public long getKeptBytes() {
+        return rotatedLinesBytes + liveFileWatcher.getKeptBytes();
+    }
+
+    @Override
+    public boolean hasFileBeenUpdated() {
+        // A rotation always replaces or truncates the live file, so this covers the rotated files too
+        return liveFileWatcher.hasFileBeenUpdated();
+    }
+
+    /**
+     * Estimated from the live file only. Reads only carry on into rotated files when it runs out of lines
+     */
+    @Override
+    public long estimateReadBytes(int maxLines) {
+        return liveFileWatcher.estimateReadBytes(maxLines);
+    }
+
+    @Override
+    public long estimateScanBytes(int maxLines) {
+        return liveFileWatcher.estimateScanBytes(maxLines);
+    }
+
+    @Override
+    public void setMaxLines(int maxLines) {
+        liveFileWatcher.setMaxLines(maxLines);
+    }
+
+    @Override
+    public int getMaxLines() {
+        return liveFileWatcher.getMaxLines();
+    }
+
+    @Override
+    public TailLines readLinesBefore(long startOffset, long beforeOffset, int maxLines) throws IOException {
+        TailLines lines = liveFileWatcher.readLinesBefore(startOffset, beforeOffset, maxLines);
+        int remaining = maxLines - lines.size();
+        return startOffset == 0 && remaining > 0 ? lines.append(readRotatedLines(remaining)) : lines;
+    }
+
+    @Override
+    public long findTimestampOffset(long timestamp, LogTimestampParser timestampParser) throws IOException {
+        return liveFileWatcher.findTimestampOffset(timestamp, timestampParser);
+    }
+
+    /**
+     * Stats windows are byte offsets found in the live file, like time ranges, so only the live file is counted
+     */
+    @Override
+    public LogStatsAggregator aggregateLinesInReverse(long startOffset, long beforeOffset, int maxLines, Supplier<LogStatsAggregator> aggregators)
+            throws IOException {
+        return liveFileWatcher.aggregateLinesInReverse(startOffset, beforeOffset, maxLines, aggregators);
+    }
+
+    @Override
+    public void streamLinesInReverse(long startOffset, long beforeOffset, int maxLines, LineWriter writer) throws IOException {
+        CountingWriter countingWriter = new CountingWriter(writer);
+        liveFileWatcher.streamLinesInReverse(startOffset, beforeOffset, maxLines, countingWriter);
+        if (startOffset != 0) {
+            return;
+        }
+
+        // Streamed straight from each file rather than through the kept rotated lines, so memory use stays flat
+        for (Path rotatedFile : findRotatedFiles()) {
+            int remaining = maxLines - countingWriter.count;
+            if (remaining <= 0) {
+                return;
+            }
+            if (!readRotatedFile(rotatedFile, remaining, watcher -> watcher.streamLinesInReverse(remaining, countingWriter))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reads up to maxLines (matching) lines of the rotated files, newest first. Locked, since cursor pages can run while the
+     * live file is being re-read
+     */
+    private List<String> readRotatedLines(int maxLines) throws IOException {
+        rotatedLinesLock.lock();
+        try {
+            return readRotatedLinesLocked(maxLines);
+        } finally {
+            rotatedLinesLock.unlock();
+        }
+    }
+
+    private List<String> readRotatedLinesLocked(int maxLines) throws IOException {
+        List<Path> rotatedFiles = findRotatedFiles();
+        String signature = getSignature(rotatedFiles);
+        // Kept lines still do if they cover the request, or if there were fewer than asked for, ie. every rotated line
+        if (signature.equals(rotatedFilesSignature) && (rotatedLinesRequested >= maxLines || rotatedLines.size() < rotatedLinesRequested)) {
+            return rotatedLines.subList(0, Math.min(maxLines, rotatedLines.size()));
+        }
+
+        List<String> lines = new ArrayList<>();
+        for (Path rotatedFile : rotatedFiles) {
+            int remaining = maxLines - lines.size();
+            if (remaining <= 0) {
+                break;
+            }
+            if (!readRotatedFile(rotatedFile, remaining, watcher -> lines.addAll(watcher.readLinesBefore(END_OF_FILE, remaining)))) {
+                // Don't keep the partial result, the next read sees the new file names
+                return lines;
+            }
+        }
+
+        rotatedFilesSignature = signature;
+        rotatedLinesRequested = maxLines;
+        rotatedLines = lines;
+        rotatedLinesBytes = lines.stream().mapToLong(line -> LINE_OVERHEAD_BYTES + line.length()).sum();
+        return lines;
+    }
+
+    /**
+     * @return Existing rotated files, newest first. Stops at the first missing one
+     */
+    private List<Path> findRotatedFiles() {
+        List<Path> rotatedFiles = new ArrayList<>();
+        for (int i = 1; i <= maxRotatedFiles; i++) {
+            Path plain = Paths.get(fileName + "." + i);
+            Path compressed = Paths.get(fileName + "." + i + ".gz");
+            if (Files.isRegularFile(plain)) {
+                rotatedFiles.add(plain);
+            } else if (Files.isRegularFile(compressed)) {
+                rotatedFiles.add(compressed);
+            } else {
+                break;
+            }
+        }
+        return rotatedFiles;
+    }
+
+    /**
+     * Changes whenever a rotated file is added, renamed, replaced or written to
+     */
+    private static String getSignature(List<Path> rotatedFiles) throws IOException {
+        StringBuilder signature = new StringBuilder();
+        for (Path rotatedFile : rotatedFiles) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(rotatedFile, BasicFileAttributes.class);
+                signature.append(rotatedFile.getFileName()).append(':').append(attributes.fileKey()).append(':').append(attributes.size())
+                        .append(':').append(attributes.lastModifiedTime().toMillis()).append('/');
+            } catch (NoSuchFileException e) {
+                signature.append(rotatedFile.getFileName()).append(":missing/");
+            }
+        }
+        return signature.toString();
+    }
+
+    /**
+     * Reads a rotated file with a byte seeker, through its spooled copy if it's compressed
+     *
+     * @return False if we can't read past this file, ie. it was rotated away before we could read it
+     */
+    private boolean readRotatedFile(Path rotatedFile, int maxLines, RotatedFileReader reader) throws IOException {
+        GzipSpool.SpooledFile spooledFile = null;
+        try {
+            if (rotatedFile.getFileName().toString().endsWith(".gz")) {
+                spooledFile = gzipSpool.open(rotatedFile);
+            }
+            Path readablePath = spooledFile != null ? spooledFile.getPath() : rotatedFile;
+            ByteSeekerFileWatcherCallable watcher = new ByteSeekerFileWatcherCallable(readablePath.toString(), maxLines, lineMatcher);
+            watcher.setMetrics(metrics);
+            reader.read(watcher);
+            return true;
+        } catch (NoSuchFileException | ResponseStatusException e) {
+            return false;
+        } catch (EOFException | ZipException e) {
+            // Still being compressed or corrupt, so we can't get past it
+            logger.warn("Couldn't decompress rotated file {}", rotatedFile, e);
+            return false;
+        } finally {
+            if (spooledFile != null) {
+                spooledFile.close();
+            }
+        }
+    }
+}
@@ -1,16 +1,34 @@
 package com.cribl.logcollector.services.filewatchers;
 
 import com.cribl.logcollector.services.ICriblFileWatcher;
+import com.cribl.logcollector.services.LogTimestampParser;
+import com.cribl.logcollector.services.TailLines;
+import com.cribl.logcollector.services.matchers.ILineMatcher;
+import com.cribl.logcollector.services.stats.LogStatsAggregator;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -26,11 +44,23 @@ public class StreamsFileWatcherCallable implements ICriblFileWatcher {
 
     private final File logFile;
     private int maxLines;
+    private final ILineMatcher lineMatcher;
     protected long lastKnownModified = 0;
 
+    /**
+     * A line found by a forward scan, along with the byte offset it starts at
+     */
+    private record Line(long offset, byte[] bytes) {
+    }
+
     public StreamsFileWatcherCallable(String fileName, Integer maxLines) {
+        this(fileName, maxLines, null);
+    }
+
+    public StreamsFileWatcherCallable(String fileName, Integer maxLines, ILineMatcher lineMatcher) {
         this.logFile = new File(fileName);
         this.maxLines = maxLines;
+        this.lineMatcher = lineMatcher;
 
         if (!this.logFile.exists()) {
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, "File does not exist on server: " + fileName);
@@ -64,12 +94,147 @@ public class StreamsFileWatcherCallable implements ICriblFileWatcher {
         List<String> tailedLogLines;
         try (Stream<String> lines = Files.lines(logFile.toPath())) {
 
-            tailedLogLines = reverse(lines).limit(maxLines).collect(Collectors.toList());
+            Stream<String> reversedLines = reverse(lines);
+            if (lineMatcher != null) {
+                reversedLines = reversedLines.filter(lineMatcher::matches);
+            }
+            tailedLogLines = reversedLines.limit(maxLines).collect(Collectors.toList());
             lastKnownModified = logFile.lastModified();
         }
         return tailedLogLines;
     }
 
+    /**
+     * Reads a page of up to maxLines (matching) lines between two byte offsets, newest first
+     *
+     * @param startOffset Byte offset of a line start to stop reading at
+     * @param beforeOffset Byte offset of a line start, usually the offset of the oldest line of the previous page, or {@link #END_OF_FILE}
+     */
+    @Override
+    public TailLines readLinesBefore(long startOffset, long beforeOffset, int maxLines) throws IOException {
+        try (FileChannel channel = FileChannel.open(logFile.toPath(), StandardOpenOption.READ)) {
+            if (beforeOffset != END_OF_FILE) {
+                if (beforeOffset > channel.size()) {
+                    throw new ResponseStatusException(HttpStatus.GONE, "Cursor is past the end of the file, it has been truncated or rotated: " + logFile.getName());
+                }
+                // A cursor has to point at the start of a line
+                ByteBuffer previousByte = ByteBuffer.allocate(1);
+                if (beforeOffset > 0 && (channel.read(previousByte, beforeOffset - 1) < 1 || previousByte.get(0) != '\n')) {
+                    throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Cursor doesn't point at the start of a line");
+                }
+            }
+
+            Deque<Line> lines = readLinesBetween(channel, startOffset, beforeOffset, maxLines);
+            String[] newestFirst = new String[lines.size()];
+            long[] offsets = new long[lines.size()];
+            Iterator<Line> newestLines = lines.descendingIterator();
+            for (int i = 0; newestLines.hasNext(); i++) {
+                Line line = newestLines.next();
+                newestFirst[i] = new String(line.bytes, StandardCharsets.UTF_8);
+                offsets[i] = line.offset;
+            }
+            Object fileKey = Files.readAttributes(logFile.toPath(), BasicFileAttributes.class).fileKey();
+            return new TailLines(newestFirst, offsets, newestFirst.length, fileKey);
+        }
+    }
+
+    /**
+     * Binary searches the file for the first line with a timestamp at or after the given one. See {@link TimestampSeeker}
+     */
+    @Override
+    public long findTimestampOffset(long timestamp, LogTimestampParser timestampParser) throws IOException {
+        try (FileChannel channel = FileChannel.open(logFile.toPath(), StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            ReverseLineScanner.ChunkReader reader = (position, dst, dstOffset, length) -> {
+                ByteBuffer buffer = ByteBuffer.wrap(dst, dstOffset, length);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, position + buffer.position() - dstOffset) < 0) {
+                        throw new IOException("Unexpected end of file");
+                    }
+                }
+            };
+            long offset = new TimestampSeeker(reader, fileSize, timestampParser).findFirstLineAtOrAfter(timestamp);
+            return offset == fileSize ? END_OF_FILE : offset;
+        }
+    }
+
+    /**
+     * Writes up to maxLines (matching) lines between two byte offsets to the writer, newest first. Streams only read forwards, so the
+     * lines are collected before the first one can be written
+     */
+    @Override
+    public void streamLinesInReverse(long startOffset, long beforeOffset, int maxLines, LineWriter writer) throws IOException {
+        Deque<Line> lines;
+        try (FileChannel channel = FileChannel.open(logFile.toPath(), StandardOpenOption.READ)) {
+            lines = readLinesBetween(channel, startOffset, beforeOffset, maxLines);
+        }
+        for (Iterator<Line> newestLines = lines.descendingIterator(); newestLines.hasNext(); ) {
+            writer.write(new String(newestLines.next().bytes, StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Counts up to maxLines (matching) lines between two byte offsets, newest first
+     */
+    @Override
+    public LogStatsAggregator aggregateLinesInReverse(long startOffset, long beforeOffset, int maxLines, Supplier<LogStatsAggregator> aggregators)
+            throws IOException {
+        LogStatsAggregator aggregator = aggregators.get();
+        try (FileChannel channel = FileChannel.open(logFile.toPath(), StandardOpenOption.READ)) {
+            for (Iterator<Line> newestLines = readLinesBetween(channel, startOffset, beforeOffset, maxLines).descendingIterator(); newestLines.hasNext(); ) {
+                byte[] line = newestLines.next().bytes;
+                aggregator.accept(line, 0, line.length);
+            }
+        }
+        return aggregator;
+    }
+
+    /**
+     * Scans the lines starting between two byte offsets forwards, keeping the newest maxLines (matching) ones.
+     * Line returns are stripped and empty lines skipped, like the reverse scans of the other watchers do
+     *
+     * @return Lines found, oldest first
+     */
+    private Deque<Line> readLinesBetween(FileChannel channel, long startOffset, long beforeOffset, int maxLines) throws IOException {
+        Deque<Line> lines = new ArrayDeque<>();
+        long endOffset = Math.min(beforeOffset, channel.size());
+        if (maxLines <= 0 || startOffset >= endOffset) {
+            return lines;
+        }
+
+        InputStream in = new BufferedInputStream(Channels.newInputStream(channel.position(startOffset)));
+        ByteArrayOutputStream lineBytes = new ByteArrayOutputStream();
+        long lineStart = startOffset;
+        for (long position = startOffset; position < endOffset; position++) {
+            int b = in.read();
+            if (b < 0) {
+                break;
+            }
+            if (b == '\n') {
+                keepLine(lines, lineStart, lineBytes, maxLines);
+                lineBytes.reset();
+                lineStart = position + 1;
+            } else {
+                lineBytes.write(b);
+            }
+        }
+        // The last line of the file doesn't need a line return
+        keepLine(lines, lineStart, lineBytes, maxLines);
+        return lines;
+    }
+
+    private void keepLine(Deque<Line> lines, long lineStart, ByteArrayOutputStream lineBytes, int maxLines) {
+        byte[] bytes = lineBytes.toByteArray();
+        int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+        if (length == 0 || (lineMatcher != null && !lineMatcher.matches(bytes, 0, length))) {
+            return;
+        }
+        lines.addLast(new Line(lineStart, length == bytes.length ? bytes : Arrays.copyOf(bytes, length)));
+        if (lines.size() > maxLines) {
+            lines.removeFirst();
+        }
+    }
+
     @Override
     public boolean hasFileBeenUpdated() {
         return lastKnownModified != logFile.lastModified();
@@ -79,6 +244,11 @@ public class StreamsFileWatcherCallable implements ICriblFileWatcher {
         this.maxLines = maxLines;
     }
 
+    @Override
+    public int getMaxLines() {
+        return maxLines;
+    }
+
     private static <T> Stream<T> reverse(Stream<T> stream) {
         LinkedList<T> stack = new LinkedList<>();
         stream.forEach(stack::push);
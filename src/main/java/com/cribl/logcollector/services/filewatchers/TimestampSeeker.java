@@ -0,0 +1,103 @@
+package com.cribl.logcollector.services.filewatchers;
+
+import com.cribl.logcollector.services.LogTimestampParser;
+
+import java.io.IOException;
+
+/**
+ * Binary searches a log file for the first line at or after a timestamp.
+ * <p>
+ * Log files are appended in time order, so we can seek to the middle of a byte range, sync to the next line start and parse its timestamp
+ * to halve the range, finding a time window's boundaries in O(log size) small reads instead of a scan. Lines without a timestamp
+ * (stack traces, wrapped lines) are skipped over while probing, so they stay with the timestamped line before them.
+ * Timestamps that are slightly out of order only make the boundary approximate.
+ */
+public class TimestampSeeker {
+
+    private static final int BUFFER_SIZE = 4096; // 4KB
+
+    private final ReverseLineScanner.ChunkReader reader;
+    private final long fileSize;
+    private final LogTimestampParser timestampParser;
+
+    // Forward read buffer, so probing a line costs one read in the common case
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private long bufferStart = 0;
+    private int bufferLength = 0;
+
+    private record Probe(long lineStart, long timestamp, long nextLineStart) {
+    }
+
+    public TimestampSeeker(ReverseLineScanner.ChunkReader reader, long fileSize, LogTimestampParser timestampParser) {
+        this.reader = reader;
+        this.fileSize = fileSize;
+        this.timestampParser = timestampParser;
+    }
+
+    /**
+     * @param timestamp Epoch milliseconds
+     * @return Byte offset of the first timestamped line at or after the timestamp, or the file size if there is none
+     */
+    public long findFirstLineAtOrAfter(long timestamp) throws IOException {
+        // Every timestamped line starting before low is older than the timestamp. The first one from high on isn't, if there is one
+        long low = 0;
+        long high = fileSize;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            Probe probe = probe(middle);
+            if (probe.timestamp == LogTimestampParser.NO_TIMESTAMP || probe.timestamp >= timestamp) {
+                high = middle;
+            } else {
+                low = probe.nextLineStart;
+            }
+        }
+        return probe(low).lineStart;
+    }
+
+    /**
+     * Finds the first timestamped line starting at or after position
+     */
+    private Probe probe(long position) throws IOException {
+        long lineStart = position;
+        if (lineStart > 0 && byteAt(lineStart - 1) != '\n') {
+            lineStart = nextLineStart(lineStart);
+        }
+
+        byte[] timestampBytes = new byte[timestampParser.getTimestampLength()];
+        while (lineStart < fileSize) {
+            long nextLineStart = nextLineStart(lineStart);
+            int length = (int) Math.min(timestampBytes.length, nextLineStart - lineStart);
+            for (int i = 0; i < length; i++) {
+                timestampBytes[i] = byteAt(lineStart + i);
+            }
+
+            long timestamp = timestampParser.parse(timestampBytes, 0, length);
+            if (timestamp != LogTimestampParser.NO_TIMESTAMP) {
+                return new Probe(lineStart, timestamp, nextLineStart);
+            }
+            lineStart = nextLineStart;
+        }
+        return new Probe(fileSize, LogTimestampParser.NO_TIMESTAMP, fileSize);
+    }
+
+    /**
+     * @return Offset right after the next line return at or after position, or the file size
+     */
+    private long nextLineStart(long position) throws IOException {
+        for (long i = position; i < fileSize; i++) {
+            if (byteAt(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return fileSize;
+    }
+
+    private byte byteAt(long position) throws IOException {
+        if (position < bufferStart || position >= bufferStart + bufferLength) {
+            bufferStart = position;
+            bufferLength = (int) Math.min(buffer.length, fileSize - position);
+            reader.read(bufferStart, buffer, 0, bufferLength);
+        }
+        return buffer[(int) (position - bufferStart)];
+    }
+}
@@ -0,0 +1,115 @@
+package com.cribl.logcollector.services.matchers;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Case-insensitive Aho-Corasick search for up to 64 ASCII patterns at once over raw line bytes.
+ * <p>
+ * The automaton is compiled into a DFA over case folded ASCII, so every byte of the line costs one table lookup no matter how many
+ * patterns there are. Bytes outside ASCII can't be part of a pattern and reset the search to the root state.
+ */
+public class AsciiAhoCorasick {
+
+    public static final int MAX_PATTERNS = 64;
+
+    private static final int ALPHABET = 128;
+
+    // Next state for each (state, folded byte) pair
+    private final int[] transitions;
+    // Bit mask of the patterns ending at each state, including the ones reached through failure links
+    private final long[] outputs;
+    private final long allPatterns;
+
+    /**
+     * @param patterns Non empty ASCII patterns, the bit of each one in the masks returned by {@link #search} is its index in this list
+     */
+    public AsciiAhoCorasick(List<String> patterns) {
+        if (patterns.size() > MAX_PATTERNS) {
+            throw new IllegalArgumentException("At most " + MAX_PATTERNS + " patterns are supported");
+        }
+
+        // Trie of the folded patterns. -1 marks a missing edge until the failure links fill it in
+        int maxStates = 1 + patterns.stream().mapToInt(String::length).sum();
+        int[] trie = new int[maxStates * ALPHABET];
+        Arrays.fill(trie, -1);
+        long[] patternOutputs = new long[maxStates];
+        int stateCount = 1;
+        for (int p = 0; p < patterns.size(); p++) {
+            String pattern = patterns.get(p);
+            int state = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = pattern.charAt(i);
+                if (c >= ALPHABET) {
+                    throw new IllegalArgumentException("Pattern isn't ASCII: " + pattern);
+                }
+                int edge = state * ALPHABET + foldCase(c);
+                if (trie[edge] < 0) {
+                    trie[edge] = stateCount++;
+                }
+                state = trie[edge];
+            }
+            patternOutputs[state] |= 1L << p;
+        }
+
+        // Breadth first pass turning the trie into a DFA. Missing edges point where the failure link's edge does
+        int[] failure = new int[stateCount];
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int c = 0; c < ALPHABET; c++) {
+            int next = trie[c];
+            if (next < 0) {
+                trie[c] = 0;
+            } else {
+                failure[next] = 0;
+                queue.add(next);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            patternOutputs[state] |= patternOutputs[failure[state]];
+            for (int c = 0; c < ALPHABET; c++) {
+                int edge = state * ALPHABET + c;
+                int fallback = trie[failure[state] * ALPHABET + c];
+                if (trie[edge] < 0) {
+                    trie[edge] = fallback;
+                } else {
+                    failure[trie[edge]] = fallback;
+                    queue.add(trie[edge]);
+                }
+            }
+        }
+
+        this.transitions = Arrays.copyOf(trie, stateCount * ALPHABET);
+        this.outputs = Arrays.copyOf(patternOutputs, stateCount);
+        this.allPatterns = patterns.size() == MAX_PATTERNS ? -1L : (1L << patterns.size()) - 1;
+    }
+
+    /**
+     * @return Bit mask of the patterns found in the bytes. Stops early once every pattern was found
+     */
+    public long search(byte[] bytes, int offset, int length) {
+        long found = 0;
+        int state = 0;
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            int b = bytes[i];
+            if (b < 0) {
+                // Not ASCII, so no pattern can continue through it
+                state = 0;
+                continue;
+            }
+            state = transitions[state * ALPHABET + foldCase(b)];
+            found |= outputs[state];
+            if (found == allPatterns) {
+                break;
+            }
+        }
+        return found;
+    }
+
+    private static int foldCase(int c) {
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+    }
+}
@@ -0,0 +1,61 @@
+package com.cribl.logcollector.services.matchers;
+
+import java.util.Arrays;
+
+/**
+ * Case-insensitive substring search over raw line bytes using Boyer-Moore-Horspool with an ASCII case folded skip table.
+ * <p>
+ * Only ASCII letters are folded. Multibyte UTF-8 sequences never contain bytes in the ASCII range, so they can't produce false matches
+ */
+public class AsciiCaseInsensitiveMatcher implements ILineMatcher {
+
+    private final byte[] pattern;
+    private final int[] skipTable = new int[256];
+
+    public AsciiCaseInsensitiveMatcher(String filter) {
+        this.pattern = new byte[filter.length()];
+        for (int i = 0; i < pattern.length; i++) {
+            pattern[i] = toLowerCase((byte) filter.charAt(i));
+        }
+
+        // Horspool bad character table. Register both cases of every letter so we can skip on the raw (unfolded) text byte
+        Arrays.fill(skipTable, pattern.length);
+        for (int i = 0; i < pattern.length - 1; i++) {
+            int shift = pattern.length - 1 - i;
+            skipTable[pattern[i] & 0xFF] = shift;
+            skipTable[toUpperCase(pattern[i]) & 0xFF] = shift;
+        }
+    }
+
+    @Override
+    public boolean matches(byte[] bytes, int offset, int length) {
+        int patternLength = pattern.length;
+        if (patternLength == 0) {
+            return true;
+        }
+
+        int last = patternLength - 1;
+        int end = offset + length - patternLength;
+        int position = offset;
+
+        while (position <= end) {
+            int i = last;
+            while (toLowerCase(bytes[position + i]) == pattern[i]) {
+                if (i == 0) {
+                    return true;
+                }
+                i--;
+            }
+            position += skipTable[bytes[position + last] & 0xFF];
+        }
+        return false;
+    }
+
+    private static byte toLowerCase(byte b) {
+        return (b >= 'A' && b <= 'Z') ? (byte) (b + ('a' - 'A')) : b;
+    }
+
+    private static byte toUpperCase(byte b) {
+        return (b >= 'a' && b <= 'z') ? (byte) (b - ('a' - 'A')) : b;
+    }
+}
@@ -0,0 +1,16 @@
+package com.cribl.logcollector.services.matchers;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Matches a single log line while it is still raw UTF-8 bytes, so file watchers can skip lines without decoding them into a String
+ */
+public interface ILineMatcher {
+
+    boolean matches(byte[] bytes, int offset, int length);
+
+    default boolean matches(String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        return matches(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,47 @@
+package com.cribl.logcollector.services.matchers;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Factory for the line matchers used by file watchers
+ */
+public final class LineMatchers {
+
+    // Compiled queries by query string. Dashboards send the same few queries over and over
+    private static final Cache<String, LogQuery> QUERY_CACHE = Caffeine.newBuilder().maximumSize(1024).build();
+
+    private LineMatchers() {
+    }
+
+    /**
+     * Case-insensitive "line contains filter" matcher.
+     * <p>
+     * Pure ASCII filters (the common case for log searches) are matched directly against the line bytes. Anything else falls back to
+     * decoding the line so we keep the same Unicode case folding as {@link String#toLowerCase()}
+     *
+     * @param filter Search term
+     * @return Matcher for the given filter
+     */
+    public static ILineMatcher containsIgnoreCase(String filter) {
+        if (StandardCharsets.US_ASCII.newEncoder().canEncode(filter)) {
+            return new AsciiCaseInsensitiveMatcher(filter);
+        }
+
+        String lowerCaseFilter = filter.toLowerCase();
+        return (bytes, offset, length) -> new String(bytes, offset, length, StandardCharsets.UTF_8).toLowerCase().contains(lowerCaseFilter);
+    }
+
+    /**
+     * Compiles a filter query, see {@link LogQuery} for the syntax. Compiled queries are cached, so repeated queries compile once
+     *
+     * @param query Filter query
+     * @return Matcher for the query
+     * @throws IllegalArgumentException If the query is invalid
+     */
+    public static LogQuery query(String query) {
+        return QUERY_CACHE.get(query, LogQuery::parse);
+    }
+}
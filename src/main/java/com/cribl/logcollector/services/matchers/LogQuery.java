@@ -0,0 +1,698 @@
+package com.cribl.logcollector.services.matchers;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.Collectors;
+
+/**
+ * Filter query compiled into a line matcher.
+ * <p>
+ * A query is made of case-insensitive terms, quoted phrases and {@code re:/regex/} regexes, combined with AND, OR, NOT and parentheses.
+ * Terms next to each other are ANDed, so {@code error timeout} matches lines containing both words, and a query of a single term
+ * behaves like the plain substring filter it used to be. Operators are only recognized in upper case.
+ * <p>
+ * Queries are compiled once. Every plain term and the literals a regex can't match without are searched for in a single Aho-Corasick
+ * pass over the raw line bytes, and the boolean expression is evaluated on the resulting bit mask. Regexes only run on lines containing
+ * their literals, and lines are only decoded into Strings when a regex or a non ASCII term needs them.
+ * <p>
+ * Regexes come from clients, so they are guarded against catastrophic backtracking: long regexes and nested repetition such as
+ * {@code (a+)+} are rejected up front, and a match that still runs for too long on a line fails the read with a {@link RegexTimeoutException}.
+ */
+public final class LogQuery implements ILineMatcher {
+
+    // Literals shorter than this aren't selective enough to be worth prefiltering regexes on
+    private static final int MIN_REGEX_LITERAL_LENGTH = 3;
+    // Caps the alternatives of required literals, queries with more are treated as having none
+    private static final int MAX_LITERAL_ALTERNATIVES = 16;
+    // Escapes that stand for a character class, anchor or control character rather than the escaped character itself
+    private static final String CLASS_ESCAPES = "dDwWsSbBhHvVRXAzZGtnrfae";
+    // Comments mode and Unicode case folding change what a regex's literal characters match, so we don't extract literals from those
+    private static final Pattern UNSUPPORTED_REGEX_FLAGS = Pattern.compile("\\(\\?[a-zA-Z-]*[xuU]");
+    // Longest regex a query can hold
+    static final int MAX_REGEX_LENGTH = 1000;
+    // Longest a regex can run on a single line. Catches the backtracking the nested repetition check misses, ie. overlapping alternatives
+    static final long REGEX_LINE_TIMEOUT_MILLIS = 100;
+
+    private sealed interface Node permits Term, Regex, And, Or, Not {
+    }
+
+    private record Term(String text) implements Node {
+        private String lowerCaseText() {
+            return text.toLowerCase(Locale.ROOT);
+        }
+
+        private boolean isAscii() {
+            return StandardCharsets.US_ASCII.newEncoder().canEncode(text);
+        }
+    }
+
+    private record Regex(Pattern pattern, List<String> literals) implements Node {
+    }
+
+    private record And(List<Node> children) implements Node {
+    }
+
+    private record Or(List<Node> children) implements Node {
+    }
+
+    private record Not(Node child) implements Node {
+    }
+
+    private final Node root;
+    private final ILineMatcher matcher;
+
+    private LogQuery(Node root) {
+        this.root = root;
+        this.matcher = root instanceof Term term ? LineMatchers.containsIgnoreCase(term.text) : new CompiledMatcher(root);
+    }
+
+    /**
+     * Parses and compiles a query. Prefer {@link LineMatchers#query(String)}, which caches compiled queries
+     *
+     * @throws IllegalArgumentException If the query or one of its regexes is invalid
+     */
+    public static LogQuery parse(String query) {
+        return new LogQuery(new Parser(query).parse());
+    }
+
+    @Override
+    public boolean matches(byte[] bytes, int offset, int length) {
+        return matcher.matches(bytes, offset, length);
+    }
+
+    /**
+     * Literals a line has to contain to match, for indexes to rule out the parts of a file that can't match.
+     * Every line matching the query contains all the literals of at least one of the inner lists.
+     *
+     * @return Lower case literals, or null if the query can match lines without any particular literal (ie. a NOT query)
+     */
+    public List<List<String>> getRequiredLiterals() {
+        return requiredLiterals(root);
+    }
+
+    /**
+     * @return Normalized form of the query, equal for queries that only differ in case, spacing or implicit ANDs
+     */
+    @Override
+    public String toString() {
+        return toString(root);
+    }
+
+    private static List<List<String>> requiredLiterals(Node node) {
+        return switch (node) {
+            case Term term -> term.text.isEmpty() ? null : List.of(List.of(term.lowerCaseText()));
+            case Regex regex -> regex.literals.isEmpty() ? null : List.of(regex.literals);
+            case Not not -> null;
+            case Or or -> {
+                // A line matching the OR matches one of its children, so it has the literals of one of theirs
+                List<List<String>> alternatives = new ArrayList<>();
+                for (Node child : or.children) {
+                    List<List<String>> childLiterals = requiredLiterals(child);
+                    if (childLiterals == null || alternatives.size() + childLiterals.size() > MAX_LITERAL_ALTERNATIVES) {
+                        yield null;
+                    }
+                    alternatives.addAll(childLiterals);
+                }
+                yield alternatives;
+            }
+            case And and -> {
+                // Cross product of the children's alternatives. Children that would blow up the product are left out, which only loosens it
+                List<List<String>> alternatives = null;
+                for (Node child : and.children) {
+                    List<List<String>> childLiterals = requiredLiterals(child);
+                    if (childLiterals == null) {
+                        continue;
+                    }
+                    if (alternatives == null) {
+                        alternatives = childLiterals;
+                    } else if (alternatives.size() * childLiterals.size() <= MAX_LITERAL_ALTERNATIVES) {
+                        List<List<String>> product = new ArrayList<>();
+                        for (List<String> left : alternatives) {
+                            for (List<String> right : childLiterals) {
+                                List<String> combined = new ArrayList<>(left);
+                                combined.addAll(right);
+                                product.add(combined);
+                            }
+                        }
+                        alternatives = product;
+                    }
+                }
+                yield alternatives;
+            }
+        };
+    }
+
+    private static String toString(Node node) {
+        return switch (node) {
+            case Term term -> '"' + term.lowerCaseText().replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+            case Regex regex -> "re:/" + regex.pattern.pattern() + '/';
+            case Not not -> "NOT " + toString(not.child);
+            case And and -> and.children.stream().map(LogQuery::toString).collect(Collectors.joining(" AND ", "(", ")"));
+            case Or or -> or.children.stream().map(LogQuery::toString).collect(Collectors.joining(" OR ", "(", ")"));
+        };
+    }
+
+    /**
+     * Literals a regex can't match without. Only looks at the top level of the pattern, and gives up on anything it doesn't understand,
+     * since a literal that isn't actually required would make us skip matching lines
+     */
+    static List<String> getRegexLiterals(String regex) {
+        List<String> literals = new ArrayList<>();
+        if (regex.contains("\\Q") || UNSUPPORTED_REGEX_FLAGS.matcher(regex).find()) {
+            return literals;
+        }
+
+        StringBuilder run = new StringBuilder();
+        int depth = 0;
+        int i = 0;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            int literal = -1;
+            int next = i + 1;
+
+            if (c == '\\') {
+                if (i + 1 == regex.length()) {
+                    return List.of();
+                }
+                char escaped = regex.charAt(i + 1);
+                next = i + 2;
+                if (!Character.isLetterOrDigit(escaped)) {
+                    literal = escaped;
+                } else if (CLASS_ESCAPES.indexOf(escaped) < 0) {
+                    // Back references, code points, named classes...
+                    return List.of();
+                }
+            } else if (c == '[') {
+                next = skipCharacterClass(regex, i);
+                if (next < 0) {
+                    return List.of();
+                }
+            } else if (c == '{') {
+                next = regex.indexOf('}', i) + 1;
+                if (next == 0) {
+                    return List.of();
+                }
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == '|' && depth == 0) {
+                // Top level alternation, no literal is required
+                return List.of();
+            } else if ("^$.|?*+".indexOf(c) < 0) {
+                literal = c;
+            }
+
+            if (depth == 0 && literal >= 0x20 && literal < 0x7F) {
+                char quantifier = next < regex.length() ? regex.charAt(next) : 0;
+                if (quantifier == '?' || quantifier == '*' || quantifier == '{') {
+                    // Optional, so the literal run ends before it
+                    addLiteral(literals, run);
+                } else {
+                    run.append((char) literal);
+                    if (quantifier == '+') {
+                        addLiteral(literals, run);
+                    }
+                }
+            } else {
+                addLiteral(literals, run);
+            }
+            i = next;
+        }
+        addLiteral(literals, run);
+        return literals;
+    }
+
+    /**
+     * Whether a regex repeats a group without bound that itself repeats without bound, ie. {@code (a+)+} or {@code (\\w*\\s?)*}.
+     * The regex engine backtracks through every way of splitting the input between the two repetitions when such a regex fails to match,
+     * which takes time exponential in the line's length
+     */
+    static boolean hasNestedRepetition(String regex) {
+        // Whether each open group, and the whole regex at the bottom, repeats anything without bound
+        List<Boolean> repeats = new ArrayList<>();
+        repeats.add(false);
+        int i = 0;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (c == '[') {
+                i = skipNestedCharacterClass(regex, i);
+            } else if (c == '(') {
+                repeats.add(false);
+                i++;
+            } else if (c == ')' && repeats.size() > 1) {
+                boolean groupRepeats = repeats.remove(repeats.size() - 1);
+                i++;
+                int quantifierEnd = unboundedQuantifierEnd(regex, i);
+                if (quantifierEnd > i) {
+                    if (groupRepeats) {
+                        return true;
+                    }
+                    i = quantifierEnd;
+                    groupRepeats = true;
+                }
+                if (groupRepeats) {
+                    repeats.set(repeats.size() - 1, true);
+                }
+            } else {
+                int quantifierEnd = unboundedQuantifierEnd(regex, i);
+                if (quantifierEnd > i) {
+                    repeats.set(repeats.size() - 1, true);
+                    i = quantifierEnd;
+                } else {
+                    i++;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Index right after the *, + or {n,} quantifier at position, or position if there is none there
+     */
+    private static int unboundedQuantifierEnd(String regex, int position) {
+        if (position >= regex.length()) {
+            return position;
+        }
+        char c = regex.charAt(position);
+        if (c == '*' || c == '+') {
+            return position + 1;
+        }
+        if (c == '{') {
+            int end = regex.indexOf('}', position);
+            if (end > 0 && regex.charAt(end - 1) == ',') {
+                return end + 1;
+            }
+        }
+        return position;
+    }
+
+    /**
+     * @return Index right after the character class starting at start, including classes nested in it
+     */
+    private static int skipNestedCharacterClass(String regex, int start) {
+        int depth = 0;
+        int i = start;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            }
+            if (c == '[') {
+                depth++;
+            } else if (c == ']' && i > start + 1 && --depth == 0) {
+                return i + 1;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @return Index right after the character class starting at start, or -1 for classes we don't parse (nested classes)
+     */
+    private static int skipCharacterClass(String regex, int start) {
+        int i = start + 1;
+        if (i < regex.length() && regex.charAt(i) == '^') {
+            i++;
+        }
+        if (i < regex.length() && regex.charAt(i) == ']') {
+            i++;
+        }
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (c == '[') {
+                return -1;
+            } else if (c == ']') {
+                return i + 1;
+            } else {
+                i++;
+            }
+        }
+        return -1;
+    }
+
+    private static void addLiteral(List<String> literals, StringBuilder run) {
+        if (run.length() >= MIN_REGEX_LITERAL_LENGTH) {
+            String literal = run.toString().toLowerCase(Locale.ROOT);
+            if (!literals.contains(literal)) {
+                literals.add(literal);
+            }
+        }
+        run.setLength(0);
+    }
+
+    /**
+     * Recursive descent parser. OR binds loosest, then AND (explicit or implied), then NOT
+     */
+    private static class Parser {
+
+        private enum Kind {LEFT_PAREN, RIGHT_PAREN, AND, OR, NOT, TERM, REGEX, END}
+
+        private record Token(Kind kind, String text) {
+        }
+
+        private static final Map<String, Kind> OPERATORS = Map.of("AND", Kind.AND, "OR", Kind.OR, "NOT", Kind.NOT);
+
+        private final List<Token> tokens;
+        private int position = 0;
+
+        private Parser(String query) {
+            this.tokens = tokenize(query);
+        }
+
+        private Node parse() {
+            if (peek() == Kind.END) {
+                // Empty filter, matches every line
+                return new Term("");
+            }
+            Node node = parseOr();
+            if (peek() != Kind.END) {
+                throw invalid("unexpected '" + tokens.get(position).text + "'");
+            }
+            return node;
+        }
+
+        private Node parseOr() {
+            List<Node> children = new ArrayList<>();
+            children.add(parseAnd());
+            while (peek() == Kind.OR) {
+                position++;
+                children.add(parseAnd());
+            }
+            return children.size() == 1 ? children.get(0) : new Or(children);
+        }
+
+        private Node parseAnd() {
+            List<Node> children = new ArrayList<>();
+            children.add(parseNot());
+            while (peek() != Kind.OR && peek() != Kind.RIGHT_PAREN && peek() != Kind.END) {
+                if (peek() == Kind.AND) {
+                    position++;
+                }
+                children.add(parseNot());
+            }
+            return children.size() == 1 ? children.get(0) : new And(children);
+        }
+
+        private Node parseNot() {
+            if (peek() == Kind.NOT) {
+                position++;
+                return new Not(parseNot());
+            }
+            return parsePrimary();
+        }
+
+        private Node parsePrimary() {
+            Token token = tokens.get(position++);
+            switch (token.kind) {
+                case LEFT_PAREN -> {
+                    Node node = parseOr();
+                    if (peek() != Kind.RIGHT_PAREN) {
+                        throw invalid("missing ')'");
+                    }
+                    position++;
+                    return node;
+                }
+                case TERM -> {
+                    return new Term(token.text);
+                }
+                case REGEX -> {
+                    if (token.text.length() > MAX_REGEX_LENGTH) {
+                        throw new IllegalArgumentException("Invalid regex in filter: longer than " + MAX_REGEX_LENGTH + " characters");
+                    }
+                    if (hasNestedRepetition(token.text)) {
+                        throw new IllegalArgumentException("Invalid regex in filter: nested repetition such as (a+)+ can take exponential time in "
+                                + token.text);
+                    }
+                    try {
+                        return new Regex(Pattern.compile(token.text, Pattern.CASE_INSENSITIVE), getRegexLiterals(token.text));
+                    } catch (PatternSyntaxException e) {
+                        throw new IllegalArgumentException("Invalid regex in filter: " + e.getDescription() + " in " + token.text, e);
+                    }
+                }
+                case END -> throw invalid("unexpected end of query");
+                default -> throw invalid("unexpected '" + token.text + "'");
+            }
+        }
+
+        private Kind peek() {
+            return tokens.get(position).kind;
+        }
+
+        private static List<Token> tokenize(String query) {
+            List<Token> tokens = new ArrayList<>();
+            int i = 0;
+            while (i < query.length()) {
+                char c = query.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                } else if (c == '(') {
+                    tokens.add(new Token(Kind.LEFT_PAREN, "("));
+                    i++;
+                } else if (c == ')') {
+                    tokens.add(new Token(Kind.RIGHT_PAREN, ")"));
+                    i++;
+                } else if (c == '"') {
+                    // Phrase. Backslash escapes a quote or a backslash
+                    StringBuilder phrase = new StringBuilder();
+                    i++;
+                    while (i < query.length() && query.charAt(i) != '"') {
+                        if (query.charAt(i) == '\\' && i + 1 < query.length()) {
+                            i++;
+                        }
+                        phrase.append(query.charAt(i++));
+                    }
+                    if (i == query.length()) {
+                        throw invalid("missing closing '\"'");
+                    }
+                    i++;
+                    tokens.add(new Token(Kind.TERM, phrase.toString()));
+                } else if (query.startsWith("re:/", i)) {
+                    // Regex up to the next unescaped slash. Escapes are kept, \/ is a plain slash to the regex engine too
+                    int start = i + 4;
+                    int end = start;
+                    while (end < query.length() && query.charAt(end) != '/') {
+                        end += query.charAt(end) == '\\' ? 2 : 1;
+                    }
+                    if (end >= query.length()) {
+                        throw invalid("missing closing '/' of regex");
+                    }
+                    tokens.add(new Token(Kind.REGEX, query.substring(start, end)));
+                    i = end + 1;
+                } else {
+                    int start = i;
+                    while (i < query.length() && !Character.isWhitespace(query.charAt(i)) && query.charAt(i) != '(' && query.charAt(i) != ')') {
+                        i++;
+                    }
+                    String word = query.substring(start, i);
+                    if (word.startsWith("re:") && word.length() > 3) {
+                        tokens.add(new Token(Kind.REGEX, word.substring(3)));
+                    } else {
+                        tokens.add(new Token(OPERATORS.getOrDefault(word, Kind.TERM), word));
+                    }
+                }
+            }
+            tokens.add(new Token(Kind.END, ""));
+            return tokens;
+        }
+
+        private static IllegalArgumentException invalid(String reason) {
+            return new IllegalArgumentException("Invalid filter query: " + reason);
+        }
+    }
+
+    /**
+     * Line text that fails the match it's read by once it has run for {@link #REGEX_LINE_TIMEOUT_MILLIS}, or once the reading thread is
+     * interrupted. The regex engine reads every character through {@link #charAt}, however it backtracks, so the clock is checked there,
+     * every so many characters
+     */
+    private static final class DeadlineCharSequence implements CharSequence {
+        private static final int CHECK_INTERVAL = 1024;
+
+        private final String text;
+        private final Pattern pattern;
+        private final long deadline;
+        private int untilCheck = CHECK_INTERVAL;
+
+        private DeadlineCharSequence(String text, Pattern pattern) {
+            this.text = text;
+            this.pattern = pattern;
+            this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(REGEX_LINE_TIMEOUT_MILLIS);
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (--untilCheck == 0) {
+                untilCheck = CHECK_INTERVAL;
+                if (System.nanoTime() - deadline > 0 || Thread.currentThread().isInterrupted()) {
+                    throw new RegexTimeoutException("Regex in filter ran for more than " + REGEX_LINE_TIMEOUT_MILLIS
+                            + " milliseconds on a single line: " + pattern.pattern());
+                }
+            }
+            return text.charAt(index);
+        }
+
+        @Override
+        public int length() {
+            return text.length();
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return text.subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+
+    /**
+     * Evaluates the query on the bit mask of the literals found in the line, decoding the line only when a node needs it
+     */
+    private static class CompiledMatcher implements ILineMatcher {
+
+        private interface Predicate {
+            boolean test(Line line);
+        }
+
+        private static class Line {
+            private final byte[] bytes;
+            private final int offset;
+            private final int length;
+            private final long found;
+            private String text;
+            private String lowerCaseText;
+
+            private Line(byte[] bytes, int offset, int length, long found) {
+                this.bytes = bytes;
+                this.offset = offset;
+                this.length = length;
+                this.found = found;
+            }
+
+            private String text() {
+                if (text == null) {
+                    text = new String(bytes, offset, length, StandardCharsets.UTF_8);
+                }
+                return text;
+            }
+
+            private String lowerCaseText() {
+                if (lowerCaseText == null) {
+                    lowerCaseText = text().toLowerCase();
+                }
+                return lowerCaseText;
+            }
+        }
+
+        private final AsciiAhoCorasick literalSearch;
+        private final Predicate predicate;
+
+        private CompiledMatcher(Node root) {
+            // Terms must all fit in the automaton, regex literals only get a bit while there is room since they're just a prefilter
+            Set<String> termLiterals = new LinkedHashSet<>();
+            Set<String> regexLiterals = new LinkedHashSet<>();
+            collectLiterals(root, termLiterals, regexLiterals);
+            if (termLiterals.size() > AsciiAhoCorasick.MAX_PATTERNS) {
+                throw new IllegalArgumentException("Invalid filter query: more than " + AsciiAhoCorasick.MAX_PATTERNS + " terms");
+            }
+            List<String> literals = new ArrayList<>(termLiterals);
+            regexLiterals.stream().filter(literal -> !termLiterals.contains(literal))
+                    .limit(AsciiAhoCorasick.MAX_PATTERNS - literals.size()).forEach(literals::add);
+
+            this.literalSearch = literals.isEmpty() ? null : new AsciiAhoCorasick(literals);
+            this.predicate = compile(root, literal -> {
+                int index = literals.indexOf(literal);
+                return index < 0 ? 0 : 1L << index;
+            });
+        }
+
+        @Override
+        public boolean matches(byte[] bytes, int offset, int length) {
+            long found = literalSearch == null ? 0 : literalSearch.search(bytes, offset, length);
+            return predicate.test(new Line(bytes, offset, length, found));
+        }
+
+        private static void collectLiterals(Node node, Set<String> termLiterals, Set<String> regexLiterals) {
+            switch (node) {
+                case Term term -> {
+                    if (!term.text.isEmpty() && term.isAscii()) {
+                        termLiterals.add(term.lowerCaseText());
+                    }
+                }
+                case Regex regex -> regexLiterals.addAll(regex.literals);
+                case Not not -> collectLiterals(not.child, termLiterals, regexLiterals);
+                case And and -> and.children.forEach(child -> collectLiterals(child, termLiterals, regexLiterals));
+                case Or or -> or.children.forEach(child -> collectLiterals(child, termLiterals, regexLiterals));
+            }
+        }
+
+        private static Predicate compile(Node node, Function<String, Long> literalBits) {
+            switch (node) {
+                case Term term -> {
+                    if (term.text.isEmpty()) {
+                        return line -> true;
+                    }
+                    if (!term.isAscii()) {
+                        // Same Unicode case folding as the single term matcher
+                        String lowerCaseText = term.text.toLowerCase();
+                        return line -> line.lowerCaseText().contains(lowerCaseText);
+                    }
+                    long bit = literalBits.apply(term.lowerCaseText());
+                    return line -> (line.found & bit) != 0;
+                }
+                case Regex regex -> {
+                    long required = regex.literals.stream().mapToLong(literalBits::apply).reduce(0, (a, b) -> a | b);
+                    Pattern pattern = regex.pattern;
+                    return line -> (line.found & required) == required && pattern.matcher(new DeadlineCharSequence(line.text(), pattern)).find();
+                }
+                case Not not -> {
+                    Predicate child = compile(not.child, literalBits);
+                    return line -> !child.test(line);
+                }
+                case And and -> {
+                    // Cheap children first, so regexes only run when everything else matched
+                    Predicate[] children = and.children.stream().sorted((a, b) -> Boolean.compare(a instanceof Regex, b instanceof Regex))
+                            .map(child -> compile(child, literalBits)).toArray(Predicate[]::new);
+                    return line -> {
+                        for (Predicate child : children) {
+                            if (!child.test(line)) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    };
+                }
+                case Or or -> {
+                    Predicate[] children = or.children.stream().sorted((a, b) -> Boolean.compare(a instanceof Regex, b instanceof Regex))
+                            .map(child -> compile(child, literalBits)).toArray(Predicate[]::new);
+                    return line -> {
+                        for (Predicate child : children) {
+                            if (child.test(line)) {
+                                return true;
+                            }
+                        }
+                        return false;
+                    };
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.cribl.logcollector.services.matchers;
+
+/**
+ * Thrown while matching a line when a filter regex runs for too long on it, ie. when it backtracks catastrophically.
+ * Fails the whole read, since a regex that blows up on one line is likely to on the next ones too
+ */
+public class RegexTimeoutException extends RuntimeException {
+
+    public RegexTimeoutException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,107 @@
+package com.cribl.logcollector.services.stats;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Hands out dense ids (0, 1, 2, ...) for byte string keys, ie. the field values lines are counted by, so counts can be kept in a
+ * plain array indexed by id.
+ * <p>
+ * Open addressing over the keys' hashes. Key bytes are copied back to back into one growing array, so looking up a key that has been
+ * seen before doesn't allocate, and new keys only cost a copy of their bytes. Bounded by a maximum number of keys.
+ */
+public class ByteKeyTable {
+
+    private final int maxKeys;
+    // Key id + 1 by slot, 0 for empty slots
+    private int[] slots = new int[16];
+    private int[] hashes = new int[8];
+    private int[] keyOffsets = new int[9];
+    private byte[] keyBytes = new byte[256];
+    private int size = 0;
+
+    public ByteKeyTable(int maxKeys) {
+        this.maxKeys = maxKeys;
+    }
+
+    /**
+     * @return Id of the key, adding it if it's new, or -1 if it's new and the table is full
+     */
+    public int getOrAdd(byte[] bytes, int offset, int length) {
+        int hash = hash(bytes, offset, length);
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int id = slots[slot] - 1;
+            if (id < 0) {
+                if (size == maxKeys) {
+                    return -1;
+                }
+                return add(slot, hash, bytes, offset, length);
+            }
+            if (hashes[id] == hash && Arrays.equals(keyBytes, keyOffsets[id], keyOffsets[id + 1], bytes, offset, offset + length)) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #getOrAdd(byte[], int, int)} for a key of another table
+     */
+    public int getOrAdd(ByteKeyTable other, int otherId) {
+        return getOrAdd(other.keyBytes, other.keyOffsets[otherId], other.keyOffsets[otherId + 1] - other.keyOffsets[otherId]);
+    }
+
+    /**
+     * @return Key of an id, decoded as UTF-8
+     */
+    public String getKey(int id) {
+        return new String(keyBytes, keyOffsets[id], keyOffsets[id + 1] - keyOffsets[id], StandardCharsets.UTF_8);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int add(int slot, int hash, byte[] bytes, int offset, int length) {
+        int id = size++;
+        if (size == hashes.length) {
+            hashes = Arrays.copyOf(hashes, size * 2);
+            keyOffsets = Arrays.copyOf(keyOffsets, size * 2 + 1);
+        }
+        int keyOffset = keyOffsets[id];
+        if (keyOffset + length > keyBytes.length) {
+            keyBytes = Arrays.copyOf(keyBytes, Math.max(keyOffset + length, keyBytes.length * 2));
+        }
+        System.arraycopy(bytes, offset, keyBytes, keyOffset, length);
+        keyOffsets[id + 1] = keyOffset + length;
+        hashes[id] = hash;
+        slots[slot] = id + 1;
+
+        // Keep the table at most half full
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hashes[id] & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id + 1;
+        }
+    }
+
+    private static int hash(byte[] bytes, int offset, int length) {
+        int hash = 1;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        // Spread the low bits, the slot index only uses those
+        return hash ^ (hash >>> 16);
+    }
+}
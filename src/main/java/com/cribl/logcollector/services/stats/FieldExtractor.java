@@ -0,0 +1,121 @@
+package com.cribl.logcollector.services.stats;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Finds the value of a field in a line's bytes, either a key=value pair (key=value or key="quoted value") or a JSON member
+ * ("key": "value" or "key": 123). The first occurrence of the field wins.
+ * <p>
+ * Values are returned as a position within the line rather than copied out, so extracting them doesn't allocate. Quoted values are
+ * returned as they are, without unescaping them.
+ */
+public class FieldExtractor {
+
+    public static final long NOT_FOUND = -1;
+
+    private final byte[] name;
+
+    public FieldExtractor(String name) {
+        if (name.isEmpty()) {
+            throw new IllegalArgumentException("Field name can't be empty");
+        }
+        this.name = name.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return Offset of the value in bytes in the upper 32 bits and its length in the lower ones, or {@link #NOT_FOUND}.
+     * Empty values count as not found
+     */
+    public long find(byte[] bytes, int offset, int length) {
+        int end = offset + length;
+        for (int i = offset; i + name.length < end; i++) {
+            if (bytes[i] != name[0] || !Arrays.equals(bytes, i, i + name.length, name, 0, name.length)) {
+                continue;
+            }
+            boolean quoted = i > offset && bytes[i - 1] == '"';
+            int valueStart = quoted ? findJsonValue(bytes, i + name.length, end) : -1;
+            // Has to be the whole key rather than the end of a longer one
+            if (valueStart < 0 && (i == offset || !isKeyByte(bytes[i - 1]))) {
+                valueStart = findKeyValue(bytes, i + name.length, end);
+            }
+            if (valueStart < 0) {
+                continue;
+            }
+            long value = findValueEnd(bytes, valueStart, end);
+            if (value != NOT_FOUND) {
+                return value;
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * @return Start of the value after a quoted key, ie. after "key": , or -1 if the key isn't followed by a colon
+     */
+    private static int findJsonValue(byte[] bytes, int position, int end) {
+        if (bytes[position] != '"') {
+            return -1;
+        }
+        position = skipSpaces(bytes, position + 1, end);
+        if (position >= end || bytes[position] != ':') {
+            return -1;
+        }
+        return skipSpaces(bytes, position + 1, end);
+    }
+
+    /**
+     * @return Start of the value after key=, or -1 if the key isn't followed by an equals sign
+     */
+    private static int findKeyValue(byte[] bytes, int position, int end) {
+        return bytes[position] == '=' ? position + 1 : -1;
+    }
+
+    private static long findValueEnd(byte[] bytes, int start, int end) {
+        if (start >= end) {
+            return NOT_FOUND;
+        }
+        int valueEnd;
+        if (bytes[start] == '"') {
+            // Quoted value, up to the closing quote or the end of the line
+            start++;
+            valueEnd = start;
+            while (valueEnd < end && bytes[valueEnd] != '"') {
+                valueEnd += bytes[valueEnd] == '\\' ? 2 : 1;
+            }
+            valueEnd = Math.min(valueEnd, end);
+        } else {
+            valueEnd = start;
+            while (valueEnd < end && !isValueEnd(bytes[valueEnd])) {
+                valueEnd++;
+            }
+        }
+        if (valueEnd == start) {
+            return NOT_FOUND;
+        }
+        return ((long) start << 32) | (valueEnd - start);
+    }
+
+    private static int skipSpaces(byte[] bytes, int position, int end) {
+        while (position < end && (bytes[position] == ' ' || bytes[position] == '\t')) {
+            position++;
+        }
+        return position;
+    }
+
+    private static boolean isValueEnd(byte b) {
+        return b == ' ' || b == '\t' || b == ',' || b == '}' || b == ']';
+    }
+
+    private static boolean isKeyByte(byte b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9') || b == '_' || b == '-' || b == '.';
+    }
+
+    public static int getValueOffset(long value) {
+        return (int) (value >>> 32);
+    }
+
+    public static int getValueLength(long value) {
+        return (int) value;
+    }
+}
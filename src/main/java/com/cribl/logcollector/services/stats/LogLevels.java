@@ -0,0 +1,81 @@
+package com.cribl.logcollector.services.stats;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Finds the log level of a line straight in its bytes: the first upper case word that is a known level, ie. "INFO" in
+ * "081109 203615 148 INFO dfs.DataNode: ..." or "ERROR" in "[ERROR] Connection reset".
+ * <p>
+ * Levels are found by index, so lines can be counted per level in a plain array without decoding or allocating anything.
+ */
+public final class LogLevels {
+
+    private static final String[] NAMES = {"TRACE", "DEBUG", "INFO", "NOTICE", "WARN", "WARNING", "ERROR", "SEVERE", "FATAL", "CRITICAL"};
+
+    private static final byte[][] NAME_BYTES = Arrays.stream(NAMES).map(name -> name.getBytes(StandardCharsets.US_ASCII)).toArray(byte[][]::new);
+
+    private static final int MIN_LENGTH = 4;
+    private static final int MAX_LENGTH = 8;
+
+    private LogLevels() {
+    }
+
+    /**
+     * @return Number of known levels. Level indexes are below it
+     */
+    public static int count() {
+        return NAMES.length;
+    }
+
+    public static String getName(int level) {
+        return NAMES[level];
+    }
+
+    /**
+     * @return Index of the first level named in the line, or -1 if there is none. Levels have to be whole upper case words
+     */
+    public static int find(byte[] bytes, int offset, int length) {
+        int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            if (!isUpperCase(bytes[i]) || (i > offset && isWordByte(bytes[i - 1]))) {
+                i++;
+                continue;
+            }
+            int wordEnd = i + 1;
+            while (wordEnd < end && isUpperCase(bytes[wordEnd])) {
+                wordEnd++;
+            }
+            if (wordEnd == end || !isWordByte(bytes[wordEnd])) {
+                int level = match(bytes, i, wordEnd - i);
+                if (level >= 0) {
+                    return level;
+                }
+            }
+            i = wordEnd;
+        }
+        return -1;
+    }
+
+    private static int match(byte[] bytes, int offset, int length) {
+        if (length < MIN_LENGTH || length > MAX_LENGTH) {
+            return -1;
+        }
+        for (int level = 0; level < NAME_BYTES.length; level++) {
+            byte[] name = NAME_BYTES[level];
+            if (name.length == length && Arrays.equals(bytes, offset, offset + length, name, 0, length)) {
+                return level;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isUpperCase(byte b) {
+        return b >= 'A' && b <= 'Z';
+    }
+
+    private static boolean isWordByte(byte b) {
+        return (b >= 'a' && b <= 'z') || isUpperCase(b) || (b >= '0' && b <= '9') || b == '_';
+    }
+}
@@ -0,0 +1,197 @@
+package com.cribl.logcollector.services.stats;
+
+import com.cribl.logcollector.models.LogStatsApiResponse;
+import com.cribl.logcollector.services.LogTimestampParser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.IntStream;
+
+/**
+ * Counts lines per log level or per value of a field, over the whole window and per time bucket, straight from their bytes as a
+ * reverse scan finds them.
+ * <p>
+ * Nothing is allocated per line. Levels are array indexes, field values get ids from a {@link ByteKeyTable} the first time they're seen,
+ * bucket counts are kept in {@link LongCountMap}s, and a line's timestamp is only parsed when its prefix differs from the previous line's.
+ * Lines are bucketed by their leading timestamp, the same one time ranges use. Lines without one count towards the totals only.
+ * <p>
+ * Not thread safe. Parallel scans aggregate each segment separately and {@link #merge} the results.
+ */
+public class LogStatsAggregator {
+
+    // Null when grouping by level
+    private final FieldExtractor fieldExtractor;
+    private final ByteKeyTable fieldValues;
+    private final String field;
+    // Group ids are below it. Bucket counts are keyed by bucket * groupSlots + group
+    private final int groupSlots;
+    private final long[] groupCounts;
+    private long lines = 0;
+
+    // 0 when lines aren't bucketed
+    private final long bucketMillis;
+    private final LogTimestampParser timestampParser;
+    private final LongCountMap bucketLines;
+    private final LongCountMap bucketGroupCounts;
+    private final byte[] lastTimestampPrefix;
+    private long lastTimestamp = LogTimestampParser.NO_TIMESTAMP;
+
+    private boolean truncated = false;
+
+    /**
+     * @param field Field to group lines by the value of, or null to group them by log level
+     * @param bucketMillis Size of the time buckets lines are also counted in, 0 to only count them over the whole window
+     * @param timestampParser Parses the timestamps lines are bucketed by
+     * @param maxGroups Most field values to count. Lines with other values count towards the total lines only
+     * @param maxBuckets Most time buckets to count
+     */
+    public LogStatsAggregator(String field, long bucketMillis, LogTimestampParser timestampParser, int maxGroups, int maxBuckets) {
+        this.field = field;
+        this.fieldExtractor = field != null ? new FieldExtractor(field) : null;
+        this.fieldValues = field != null ? new ByteKeyTable(maxGroups) : null;
+        this.groupSlots = field != null ? maxGroups : LogLevels.count();
+        this.groupCounts = new long[groupSlots];
+        this.bucketMillis = bucketMillis;
+        this.timestampParser = timestampParser;
+        this.bucketLines = new LongCountMap(maxBuckets);
+        this.bucketGroupCounts = new LongCountMap(maxBuckets * groupSlots);
+        this.lastTimestampPrefix = new byte[timestampParser.getTimestampLength()];
+    }
+
+    /**
+     * Counts a line
+     */
+    public void accept(byte[] bytes, int offset, int length) {
+        lines++;
+        int group = findGroup(bytes, offset, length);
+        if (group >= 0) {
+            groupCounts[group]++;
+        }
+        if (bucketMillis > 0) {
+            long timestamp = parseTimestamp(bytes, offset, length);
+            if (timestamp != LogTimestampParser.NO_TIMESTAMP) {
+                count(Math.floorDiv(timestamp, bucketMillis), group, 1, 1);
+            }
+        }
+    }
+
+    /**
+     * Adds the counts of another aggregator, ie. of another segment of the same scan. Both have to group and bucket lines the same way
+     */
+    public void merge(LogStatsAggregator other) {
+        lines += other.lines;
+        truncated |= other.truncated;
+
+        int[] groups = new int[other.getGroupCount()];
+        for (int otherGroup = 0; otherGroup < groups.length; otherGroup++) {
+            groups[otherGroup] = fieldValues != null ? fieldValues.getOrAdd(other.fieldValues, otherGroup) : otherGroup;
+            if (groups[otherGroup] >= 0) {
+                groupCounts[groups[otherGroup]] += other.groupCounts[otherGroup];
+            } else {
+                truncated = true;
+            }
+        }
+
+        other.bucketLines.forEach((bucket, count) -> count(bucket, -1, count, 0));
+        other.bucketGroupCounts.forEach((key, count) -> {
+            int group = groups[(int) Math.floorMod(key, (long) other.groupSlots)];
+            // Buckets without room here are already flagged, along with their lines
+            if (group >= 0 && bucketLines.get(Math.floorDiv(key, other.groupSlots)) > 0) {
+                count(Math.floorDiv(key, other.groupSlots), group, 0, count);
+            }
+        });
+    }
+
+    public long getLines() {
+        return lines;
+    }
+
+    /**
+     * @param filterUsed Filter lines had to match to be counted
+     * @param windowTruncated True if the scan stopped before the end of the window
+     */
+    public LogStatsApiResponse toResponse(String filterUsed, boolean windowTruncated) {
+        List<LogStatsApiResponse.Bucket> buckets = null;
+        if (bucketMillis > 0) {
+            // Counts per group of each bucket, newest bucket first
+            TreeMap<Long, long[]> bucketCounts = new TreeMap<>(Comparator.reverseOrder());
+            bucketLines.forEach((bucket, count) -> bucketCounts.put(bucket, new long[groupSlots]));
+            bucketGroupCounts.forEach((key, count) -> bucketCounts.get(Math.floorDiv(key, groupSlots))[(int) Math.floorMod(key, (long) groupSlots)] = count);
+            buckets = new ArrayList<>(bucketCounts.size());
+            for (Map.Entry<Long, long[]> bucket : bucketCounts.entrySet()) {
+                buckets.add(new LogStatsApiResponse.Bucket(bucket.getKey() * bucketMillis, bucketLines.get(bucket.getKey()), toCounts(bucket.getValue())));
+            }
+        }
+        return new LogStatsApiResponse(field != null ? "field" : "level", field, filterUsed, lines, toCounts(groupCounts), buckets,
+                truncated || windowTruncated);
+    }
+
+    private int findGroup(byte[] bytes, int offset, int length) {
+        if (fieldExtractor == null) {
+            return LogLevels.find(bytes, offset, length);
+        }
+        long value = fieldExtractor.find(bytes, offset, length);
+        if (value == FieldExtractor.NOT_FOUND) {
+            return -1;
+        }
+        int group = fieldValues.getOrAdd(bytes, FieldExtractor.getValueOffset(value), FieldExtractor.getValueLength(value));
+        if (group < 0) {
+            truncated = true;
+        }
+        return group;
+    }
+
+    /**
+     * Counts lines of a bucket, along with the ones of a group within it
+     *
+     * @param group Group of the lines, -1 for none
+     */
+    private void count(long bucket, int group, long bucketLineCount, long groupLineCount) {
+        if (!bucketLines.add(bucket, bucketLineCount)) {
+            truncated = true;
+            return;
+        }
+        if (group >= 0 && !bucketGroupCounts.add(bucket * groupSlots + group, groupLineCount)) {
+            truncated = true;
+        }
+    }
+
+    private long parseTimestamp(byte[] bytes, int offset, int length) {
+        int prefixLength = lastTimestampPrefix.length;
+        if (length < prefixLength) {
+            return LogTimestampParser.NO_TIMESTAMP;
+        }
+        // Neighbouring lines mostly share their timestamp, so it's only parsed when it changes
+        if (!Arrays.equals(bytes, offset, offset + prefixLength, lastTimestampPrefix, 0, prefixLength)) {
+            System.arraycopy(bytes, offset, lastTimestampPrefix, 0, prefixLength);
+            lastTimestamp = timestampParser.parse(bytes, offset, length);
+        }
+        return lastTimestamp;
+    }
+
+    private int getGroupCount() {
+        return fieldValues != null ? fieldValues.size() : LogLevels.count();
+    }
+
+    private String getGroupName(int group) {
+        return fieldValues != null ? fieldValues.getKey(group) : LogLevels.getName(group);
+    }
+
+    /**
+     * @return Counts by group name, most frequent first. Groups without lines are left out
+     */
+    private Map<String, Long> toCounts(long[] counts) {
+        Map<String, Long> namedCounts = new LinkedHashMap<>();
+        IntStream.range(0, getGroupCount())
+                .filter(group -> counts[group] > 0)
+                .boxed()
+                .sorted(Comparator.comparingLong((Integer group) -> -counts[group]).thenComparing(this::getGroupName))
+                .forEach(group -> namedCounts.put(getGroupName(group), counts[group]));
+        return namedCounts;
+    }
+}
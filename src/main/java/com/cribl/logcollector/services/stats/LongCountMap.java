@@ -0,0 +1,116 @@
+package com.cribl.logcollector.services.stats;
+
+import java.util.Arrays;
+
+/**
+ * Counts by long key, ie. by time bucket, without boxing keys or counts. Open addressing over parallel key and count arrays,
+ * bounded by a maximum number of keys.
+ */
+public class LongCountMap {
+
+    // Free slot marker. Time buckets and the keys packed from them are never this low
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private final int maxKeys;
+    private long[] keys = newKeys(16);
+    private long[] counts = new long[16];
+    private int size = 0;
+
+    /**
+     * Receives the entries of a map
+     */
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(long key, long count);
+    }
+
+    public LongCountMap(int maxKeys) {
+        this.maxKeys = maxKeys;
+    }
+
+    /**
+     * Adds to a key's count
+     *
+     * @return False if the key is new and the map is full, in which case nothing was counted
+     */
+    public boolean add(long key, long count) {
+        int mask = keys.length - 1;
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                counts[slot] += count;
+                return true;
+            }
+            if (keys[slot] == EMPTY) {
+                if (size == maxKeys) {
+                    return false;
+                }
+                keys[slot] = key;
+                counts[slot] = count;
+                // Keep the table at most half full
+                if (++size * 2 > keys.length) {
+                    rehash();
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return Count of a key, 0 if it was never counted
+     */
+    public long get(long key) {
+        int mask = keys.length - 1;
+        for (int slot = hash(key) & mask; keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return counts[slot];
+            }
+        }
+        return 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Hands every key and its count to the consumer, in no particular order
+     */
+    public void forEach(EntryConsumer consumer) {
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != EMPTY) {
+                consumer.accept(keys[slot], counts[slot]);
+            }
+        }
+    }
+
+    private void rehash() {
+        long[] oldKeys = keys;
+        long[] oldCounts = counts;
+        keys = newKeys(oldKeys.length * 2);
+        counts = new long[oldKeys.length * 2];
+        int mask = keys.length - 1;
+        for (int oldSlot = 0; oldSlot < oldKeys.length; oldSlot++) {
+            if (oldKeys[oldSlot] == EMPTY) {
+                continue;
+            }
+            int slot = hash(oldKeys[oldSlot]) & mask;
+            while (keys[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = oldKeys[oldSlot];
+            counts[slot] = oldCounts[oldSlot];
+        }
+    }
+
+    private static long[] newKeys(int capacity) {
+        long[] keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        return keys;
+    }
+
+    private static int hash(long key) {
+        // Consecutive buckets are the common case, mix them so they don't fill runs of neighbouring slots
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+}
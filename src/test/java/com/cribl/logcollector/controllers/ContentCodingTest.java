@@ -0,0 +1,65 @@
+package com.cribl.logcollector.controllers;
+
+import com.github.luben.zstd.ZstdInputStream;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * JUnit tests for {@link ContentCoding}
+ */
+class ContentCodingTest {
+
+    @Test
+    void testNegotiate() {
+        // Execution / Assert
+        Assertions.assertEquals(ContentCoding.IDENTITY, ContentCoding.negotiate(null));
+        Assertions.assertEquals(ContentCoding.IDENTITY, ContentCoding.negotiate("br, deflate"));
+        Assertions.assertEquals(ContentCoding.GZIP, ContentCoding.negotiate("gzip, deflate, br"));
+        Assertions.assertEquals(ContentCoding.ZSTD, ContentCoding.negotiate("gzip, deflate, br, zstd"));
+        Assertions.assertEquals(ContentCoding.GZIP, ContentCoding.negotiate("zstd;q=0.5, GZIP;q=0.8"));
+        Assertions.assertEquals(ContentCoding.GZIP, ContentCoding.negotiate("zstd;q=0, *"));
+        Assertions.assertEquals(ContentCoding.ZSTD, ContentCoding.negotiate("*;q=0.1"));
+        Assertions.assertEquals(ContentCoding.IDENTITY, ContentCoding.negotiate("gzip;q=0, zstd;q=oops"));
+        Assertions.assertEquals(ContentCoding.GZIP, ContentCoding.fromToken("gzip"));
+        Assertions.assertEquals(ContentCoding.IDENTITY, ContentCoding.fromToken(null));
+    }
+
+    @Test
+    void testStreamsFlushWhatWasCompressedSoFar() throws Exception {
+        // Setup
+        byte[] firstLine = "\"2024-01-01 10:00:00 INFO first line\"\n".getBytes(StandardCharsets.UTF_8);
+
+        for (ContentCoding coding : new ContentCoding[]{ContentCoding.ZSTD, ContentCoding.GZIP}) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+            // Execution
+            OutputStream encoded = coding.wrap(body);
+            encoded.write(firstLine);
+            encoded.flush();
+            byte[] flushed = body.toByteArray();
+            for (int i = 0; i < 1000; i++) {
+                encoded.write(firstLine);
+            }
+            encoded.close();
+
+            // Assert. The flushed bytes hold the whole first line, and the rest is a fraction of its size
+            Assertions.assertArrayEquals(firstLine, decode(coding, flushed, firstLine.length), coding.getToken());
+            Assertions.assertEquals(firstLine.length * 1001, decode(coding, body.toByteArray(), Integer.MAX_VALUE).length);
+            Assertions.assertTrue(body.size() < firstLine.length * 1001 / 20, coding.getToken());
+        }
+    }
+
+    private static byte[] decode(ContentCoding coding, byte[] compressed, int maxBytes) throws Exception {
+        ByteArrayInputStream bytes = new ByteArrayInputStream(compressed);
+        try (InputStream decoded = coding == ContentCoding.GZIP ? new GZIPInputStream(bytes) : new ZstdInputStream(bytes)) {
+            return decoded.readNBytes(maxBytes);
+        }
+    }
+}
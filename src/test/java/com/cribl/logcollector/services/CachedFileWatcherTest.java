@@ -0,0 +1,133 @@
+package com.cribl.logcollector.services;
+
+import com.cribl.logcollector.services.filewatchers.StreamsFileWatcherCallable;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * JUnit tests for {@link CachedFileWatcher}
+ */
+class CachedFileWatcherTest {
+
+    @Test
+    void testConcurrentReadsShareOneFlight() throws Exception {
+        // Setup
+        BlockingFileWatcher watcher = new BlockingFileWatcher();
+        try (ExecutorService executorService = Executors.newFixedThreadPool(4)) {
+            CachedFileWatcher cachedWatcher = new CachedFileWatcher(watcher, executorService, cached -> { });
+
+            // Execution
+            List<CompletableFuture<EncodedTailLines>> futures = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                futures.add(cachedWatcher.read(5));
+            }
+            watcher.release.countDown();
+
+            // Assert
+            for (CompletableFuture<EncodedTailLines> future : futures) {
+                Assertions.assertEquals(5, future.get().size());
+            }
+            Assertions.assertEquals(1, watcher.calls.get());
+        }
+    }
+
+    @Test
+    void testBiggerReadIsQueuedBehindInFlightRead() throws Exception {
+        // Setup
+        BlockingFileWatcher watcher = new BlockingFileWatcher();
+        try (ExecutorService executorService = Executors.newFixedThreadPool(4)) {
+            CachedFileWatcher cachedWatcher = new CachedFileWatcher(watcher, executorService, cached -> { });
+
+            // Execution
+            CompletableFuture<EncodedTailLines> smallRead = cachedWatcher.read(5);
+            CompletableFuture<EncodedTailLines> bigRead = cachedWatcher.read(20);
+            CompletableFuture<EncodedTailLines> attachedRead = cachedWatcher.read(10);
+            watcher.release.countDown();
+
+            // Assert
+            Assertions.assertEquals(5, smallRead.get().size());
+            Assertions.assertEquals(20, bigRead.get().size());
+            Assertions.assertSame(bigRead, attachedRead);
+            Assertions.assertEquals(2, watcher.calls.get());
+            Assertions.assertEquals(1, watcher.maxConcurrentCalls.get());
+        }
+    }
+
+    @Test
+    void testLinesOverTheArenaBudgetAreCachedByWeight() throws Exception {
+        // Setup. The arena has room for a data page and an index page, which hold a few lines but not a thousand
+        BlockingFileWatcher watcher = new BlockingFileWatcher();
+        watcher.release.countDown();
+        TailLineArena arena = new TailLineArena(2 * TailLineArena.DEFAULT_PAGE_SIZE, TailLineArena.DEFAULT_PAGE_SIZE);
+        try (ExecutorService executorService = Executors.newFixedThreadPool(4)) {
+            CachedFileWatcher cachedWatcher = new CachedFileWatcher(watcher, executorService, cached -> { }, FileWatcherMetrics.NOOP, arena);
+
+            // Execution
+            EncodedTailLines overBudget = cachedWatcher.acquire(1000).get();
+            cachedWatcher.acquire(1000).get().release();
+            cachedWatcher.acquire(10).get().release();
+
+            // Assert. Lines spilling onto the heap are served from the cache, which is weighed by all of their pages
+            Assertions.assertEquals(1000, overBudget.size());
+            Assertions.assertEquals("line", overBudget.get(999));
+            Assertions.assertEquals(1, watcher.calls.get());
+            Assertions.assertTrue(arena.getUsedBytes() > arena.getMaxBytes());
+            Assertions.assertEquals(CachedFileWatcher.ENTRY_OVERHEAD_BYTES + overBudget.getRetainedBytes(), cachedWatcher.getCachedBytes());
+            Assertions.assertTrue(overBudget.getRetainedBytes() > arena.getUsedBytes());
+
+            // Evicting the entry hands the pages back
+            overBudget.release();
+            cachedWatcher.releaseCachedLines();
+            Assertions.assertEquals(0, arena.getUsedBytes());
+        }
+    }
+
+    /**
+     * Fake watcher over the test log whose reads block until released, returning maxLines lines
+     */
+    private static class BlockingFileWatcher extends StreamsFileWatcherCallable {
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final AtomicInteger calls = new AtomicInteger();
+        private final AtomicInteger concurrentCalls = new AtomicInteger();
+        private final AtomicInteger maxConcurrentCalls = new AtomicInteger();
+        private volatile int maxLines;
+
+        private BlockingFileWatcher() {
+            super("logs/test.txt", 0);
+        }
+
+        @Override
+        public List<String> call() throws Exception {
+            calls.incrementAndGet();
+            maxConcurrentCalls.accumulateAndGet(concurrentCalls.incrementAndGet(), Math::max);
+            int lines = maxLines;
+            release.await();
+            concurrentCalls.decrementAndGet();
+            return new ArrayList<>(Collections.nCopies(lines, "line"));
+        }
+
+        @Override
+        public boolean hasFileBeenUpdated() {
+            return false;
+        }
+
+        @Override
+        public void setMaxLines(int maxLines) {
+            this.maxLines = maxLines;
+        }
+
+        @Override
+        public int getMaxLines() {
+            return maxLines;
+        }
+    }
+}
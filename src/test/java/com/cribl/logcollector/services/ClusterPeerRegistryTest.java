@@ -0,0 +1,49 @@
+package com.cribl.logcollector.services;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.List;
+
+/**
+ * JUnit tests for {@link ClusterPeerRegistry}
+ */
+class ClusterPeerRegistryTest {
+
+    @Test
+    void testConfiguredAndRegisteredPeersAreNormalized() {
+        // Setup
+        ClusterPeerRegistry registry = new ClusterPeerRegistry();
+        ReflectionTestUtils.setField(registry, "envProps", new MockEnvironment()
+                .withProperty("com.cribl.logcollector.cluster.peers", " http://collector-2:8080/ ,,https://collector-3"));
+        registry.init();
+
+        // Execution
+        String registered = registry.register("http://collector-1:8080");
+        registry.register("http://collector-1:8080/");
+        boolean deregistered = registry.deregister("https://collector-3/");
+        boolean deregisteredAgain = registry.deregister("https://collector-3");
+
+        // Assert
+        Assertions.assertEquals("http://collector-1:8080", registered);
+        Assertions.assertEquals(List.of("http://collector-1:8080", "http://collector-2:8080"), registry.getPeers());
+        Assertions.assertTrue(deregistered);
+        Assertions.assertFalse(deregisteredAgain);
+    }
+
+    @Test
+    void testInvalidPeerUrlsAreRejected() {
+        // Setup
+        ClusterPeerRegistry registry = new ClusterPeerRegistry();
+
+        // Execution / Assert. Only bare http(s) base URLs, so a peer can't point the primary's requests at an arbitrary path
+        for (String peerUrl : List.of("collector-1:8080", "ftp://collector-1", "http://collector-1:8080/admin", "http://collector-1?x=1", "http:///")) {
+            ResponseStatusException ex = Assertions.assertThrows(ResponseStatusException.class, () -> registry.register(peerUrl), peerUrl);
+            Assertions.assertEquals("400 BAD_REQUEST", ex.getStatusCode().toString());
+        }
+        Assertions.assertTrue(registry.getPeers().isEmpty());
+    }
+}
@@ -0,0 +1,403 @@
+package com.cribl.logcollector.services;
+
+import com.cribl.logcollector.models.CacheStatsApiResponse;
+import com.cribl.logcollector.models.LogStatsApiResponse;
+import com.cribl.logcollector.services.filewatchers.FileChannelPool;
+import com.cribl.logcollector.services.filewatchers.StreamsFileWatcherCallable;
+import com.github.benmanes.caffeine.cache.Cache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JUnit tests for {@link CriblFileWatcherService}
+ */
+class CriblFileWatcherServiceTest {
+
+    private CriblFileWatcherService service;
+
+    @BeforeEach
+    void setUp() {
+        MockEnvironment env = new MockEnvironment()
+                .withProperty("com.cribl.logcollector.filepath", "logs/")
+                .withProperty("com.cribl.logcollector.cache.maxBytes", "100000");
+
+        service = new CriblFileWatcherService();
+        ReflectionTestUtils.setField(service, "envProps", env);
+        service.init();
+    }
+
+    @Test
+    void testCachedEntriesAreWeighedAndCounted() throws Exception {
+        // Execution
+        List<String> logLines = service.getFilteredLogEntries("test.txt", 3, Optional.empty());
+        List<String> cachedLogLines = service.getFilteredLogEntries("test.txt", 2, Optional.empty());
+
+        // Assert
+        Assertions.assertEquals(List.of("Log line 10", "Log line 9", "Log line 8"), logLines);
+        Assertions.assertEquals(List.of("Log line 10", "Log line 9"), cachedLogLines);
+
+        CacheStatsApiResponse stats = service.getCacheStats();
+        Assertions.assertEquals(1, stats.getMissCount());
+        Assertions.assertEquals(1, stats.getHitCount());
+        Assertions.assertEquals(1, stats.getEntryCount());
+        Assertions.assertTrue(stats.getCachedBytes() > 0);
+    }
+
+    @Test
+    void testMissingFileIsNotCached() {
+        // Execution
+        ResponseStatusException ex = Assertions.assertThrows(ResponseStatusException.class, () -> service.getFilteredLogEntries("missing.txt", 3, Optional.empty()));
+
+        // Assert
+        Assertions.assertEquals("404 NOT_FOUND", ex.getStatusCode().toString());
+        Assertions.assertEquals(0, service.getCacheStats().getEntryCount());
+    }
+
+    @Test
+    void testSlowReadTimesOutWith503() throws Exception {
+        // Setup. A watcher whose read blocks until the end of the test, behind a 100 millisecond request timeout
+        MockEnvironment env = new MockEnvironment()
+                .withProperty("com.cribl.logcollector.filepath", "logs/")
+                .withProperty("com.cribl.logcollector.requestTimeoutMillis", "100");
+        CriblFileWatcherService timeoutService = new CriblFileWatcherService();
+        ReflectionTestUtils.setField(timeoutService, "envProps", env);
+        timeoutService.init();
+        CountDownLatch readAllowed = new CountDownLatch(1);
+        ICriblFileWatcher blockingWatcher = new StreamsFileWatcherCallable("logs/test.txt", 3) {
+            @Override
+            public List<String> call() throws Exception {
+                readAllowed.await();
+                return List.of("late line");
+            }
+
+            @Override
+            public boolean hasFileBeenUpdated() {
+                return false;
+            }
+        };
+        @SuppressWarnings("unchecked")
+        Cache<String, CachedFileWatcher> fileWatchers = (Cache<String, CachedFileWatcher>) ReflectionTestUtils.getField(timeoutService, "fileWatchers");
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            fileWatchers.put("test.txt", new CachedFileWatcher(blockingWatcher, executor, cached -> { }));
+
+            // Execution
+            ExecutionException ex = Assertions.assertThrows(ExecutionException.class,
+                    () -> timeoutService.getFilteredLogEntriesAsync("test.txt", 3, Optional.empty()).get(5, TimeUnit.SECONDS));
+            readAllowed.countDown();
+
+            // Assert
+            ResponseStatusException cause = Assertions.assertInstanceOf(ResponseStatusException.class, ex.getCause());
+            Assertions.assertEquals("503 SERVICE_UNAVAILABLE", cause.getStatusCode().toString());
+        }
+    }
+
+    @Test
+    void testPagingWithCursor() throws Exception {
+        // Execution
+        TailLines firstPage = service.getFilteredLogEntriesAsync("test.txt", 4, Optional.empty()).get();
+        String firstCursor = CriblFileWatcherService.getNextCursor(firstPage, 4);
+        TailLines secondPage = service.getFilteredLogEntriesAsync("test.txt", 4, Optional.empty(), Optional.of(firstCursor)).get();
+        String secondCursor = CriblFileWatcherService.getNextCursor(secondPage, 4);
+        TailLines lastPage = service.getFilteredLogEntriesAsync("test.txt", 4, Optional.empty(), Optional.of(secondCursor)).get();
+
+        // Assert
+        Assertions.assertEquals(List.of("Log line 10", "Log line 9", "Log line 8", "Log line 7"), firstPage);
+        Assertions.assertEquals(List.of("Log line 6", "Log line 5", "Log line 4", "Log line 3"), secondPage);
+        Assertions.assertEquals(List.of("Log line 2", "Log line 1"), lastPage);
+        Assertions.assertNull(CriblFileWatcherService.getNextCursor(lastPage, 4));
+    }
+
+    @Test
+    void testInvalidCursors() throws Exception {
+        // Setup
+        TailLines firstPage = service.getFilteredLogEntriesAsync("test.txt", 4, Optional.empty()).get();
+        String cursor = CriblFileWatcherService.getNextCursor(firstPage, 4);
+        String offset = cursor.substring(0, cursor.indexOf('-'));
+
+        // Execution
+        ExecutionException malformed = Assertions.assertThrows(ExecutionException.class,
+                () -> service.getFilteredLogEntriesAsync("test.txt", 4, Optional.empty(), Optional.of("not a cursor")).get());
+        ExecutionException notLineStart = Assertions.assertThrows(ExecutionException.class,
+                () -> service.getFilteredLogEntriesAsync("test.txt", 4, Optional.empty(), Optional.of("1" + cursor.substring(cursor.indexOf('-')))).get());
+        ExecutionException otherFile = Assertions.assertThrows(ExecutionException.class,
+                () -> service.getFilteredLogEntriesAsync("test.txt", 4, Optional.empty(), Optional.of(offset + "-0")).get());
+
+        // Assert
+        Assertions.assertEquals("400 BAD_REQUEST", ((ResponseStatusException) malformed.getCause()).getStatusCode().toString());
+        Assertions.assertEquals("400 BAD_REQUEST", ((ResponseStatusException) notLineStart.getCause()).getStatusCode().toString());
+        Assertions.assertEquals("410 GONE", ((ResponseStatusException) otherFile.getCause()).getStatusCode().toString());
+    }
+
+    @Test
+    void testStreamedEntries() throws Exception {
+        // Setup
+        List<String> streamedLines = new ArrayList<>();
+        List<String> cachedLines = new ArrayList<>();
+        FairReadScheduler readScheduler = (FairReadScheduler) ReflectionTestUtils.getField(service, "readScheduler");
+        List<Integer> readsRunningWhileWriting = new ArrayList<>();
+
+        // Execution. Lines are written in between reads, never while one holds a slot
+        service.streamLogEntries("test.txt", 3, Optional.of("line 1")).writeTo(line -> {
+            readsRunningWhileWriting.add(readScheduler.getRunning());
+            streamedLines.add(line);
+        });
+        service.getFilteredLogEntries("test.txt", 3, Optional.of("line 1"));
+        service.streamLogEntries("test.txt", 1, Optional.of("line 1")).writeTo(cachedLines::add);
+
+        // Assert
+        Assertions.assertEquals(List.of("Log line 10", "Log line 1"), streamedLines);
+        Assertions.assertEquals(List.of(0, 0), readsRunningWhileWriting);
+        Assertions.assertEquals(List.of("Log line 10"), cachedLines);
+    }
+
+    @Test
+    void testGlobTailsAreMergedByTimestamp(@TempDir Path tempDir) throws Exception {
+        // Setup. Two worker logs, a stack trace that stays with its line, a rotated file and a file the glob doesn't match
+        Files.writeString(tempDir.resolve("worker-1.log"), "2024-01-01 10:00:01 one a\n2024-01-01 10:00:04 one b\n\tat Trace.line\n2024-01-01 10:00:05 one c\n");
+        Files.writeString(tempDir.resolve("worker-2.log"), "2024-01-01 10:00:02 two a\n2024-01-01 10:00:03 two b\n2024-01-01 10:00:06 two c\n");
+        Files.writeString(tempDir.resolve("worker-1.log.1"), "2024-01-01 09:00:00 rotated\n");
+        Files.writeString(tempDir.resolve("other.log"), "2024-01-01 10:00:07 other\n");
+        CriblFileWatcherService globService = new CriblFileWatcherService();
+        ReflectionTestUtils.setField(globService, "envProps", new MockEnvironment()
+                .withProperty("com.cribl.logcollector.filepath", tempDir + "/")
+                .withProperty("com.cribl.logcollector.glob.maxFiles", "2")
+                .withProperty("com.cribl.logcollector.rotation.spoolDir", tempDir.resolve("spool").toString()));
+        globService.init();
+
+        // Execution
+        MergedTail tail = globService.getGlobLogEntriesAsync("worker-*.log", 5, Optional.empty(), Optional.empty()).get();
+        MergedTail filtered = globService.getGlobLogEntriesAsync("worker-?.log", 10, Optional.of("\" a\" OR rotated"), Optional.empty()).get();
+        List<String> streamed = new ArrayList<>();
+        globService.streamLogEntries("worker-*.log", 2, Optional.empty()).writeTo(streamed::add);
+        ExecutionException tooMany = Assertions.assertThrows(ExecutionException.class, () -> globService.getGlobLogEntriesAsync("*.log", 5, Optional.empty(), Optional.empty()).get());
+        ExecutionException noMatch = Assertions.assertThrows(ExecutionException.class, () -> globService.getGlobLogEntriesAsync("missing-*", 5, Optional.empty(), Optional.empty()).get());
+
+        // Assert
+        Assertions.assertEquals(List.of("2024-01-01 10:00:06 two c", "2024-01-01 10:00:05 one c", "\tat Trace.line", "2024-01-01 10:00:04 one b",
+                "2024-01-01 10:00:03 two b"), tail.lines());
+        Assertions.assertEquals(List.of("worker-2.log", "worker-1.log", "worker-1.log", "worker-1.log", "worker-2.log"), tail.fileNames());
+        // Rotated lines come through their live file rather than being matched by the glob themselves
+        Assertions.assertEquals(List.of("2024-01-01 10:00:02 two a", "2024-01-01 10:00:01 one a", "2024-01-01 09:00:00 rotated"), filtered.lines());
+        Assertions.assertEquals(List.of("2024-01-01 10:00:06 two c", "2024-01-01 10:00:05 one c"), streamed);
+        Assertions.assertEquals("400 BAD_REQUEST", ((ResponseStatusException) tooMany.getCause()).getStatusCode().toString());
+        Assertions.assertEquals("404 NOT_FOUND", ((ResponseStatusException) noMatch.getCause()).getStatusCode().toString());
+    }
+
+    @Test
+    void testTailsLongerThanAPageAreReadAcrossPages(@TempDir Path tempDir) throws Exception {
+        // Setup. Each live file holds a few pages of lines, alternating seconds, and the first carries on into a rotated file
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 10, 0);
+        int linesPerFile = CriblFileWatcherService.TAIL_PAGE_LINES * 2 + 10;
+        StringBuilder rotated = new StringBuilder();
+        StringBuilder first = new StringBuilder();
+        StringBuilder second = new StringBuilder();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            rotated.append(formatter.format(start.minusHours(1).plusSeconds(i))).append(" rotated ").append(i).append('\n');
+        }
+        for (int i = 0; i < linesPerFile * 2; i++) {
+            String line = formatter.format(start.plusSeconds(i)) + " line " + i;
+            (i % 2 == 0 ? first : second).append(line).append('\n');
+            expected.addFirst(line);
+        }
+        expected.add(formatter.format(start.minusHours(1).plusSeconds(4)) + " rotated 4");
+        expected.add(formatter.format(start.minusHours(1).plusSeconds(3)) + " rotated 3");
+        Files.writeString(tempDir.resolve("worker-1.log"), first);
+        Files.writeString(tempDir.resolve("worker-1.log.1"), rotated);
+        Files.writeString(tempDir.resolve("worker-2.log"), second);
+        CriblFileWatcherService globService = new CriblFileWatcherService();
+        ReflectionTestUtils.setField(globService, "envProps", new MockEnvironment()
+                .withProperty("com.cribl.logcollector.filepath", tempDir + "/")
+                .withProperty("com.cribl.logcollector.rotation.spoolDir", tempDir.resolve("spool").toString()));
+        globService.init();
+
+        // Execution
+        MergedTail tail = globService.getGlobLogEntriesAsync("worker-*.log", expected.size(), Optional.empty(), Optional.empty()).get();
+        MergedTail filtered = globService.getGlobLogEntriesAsync("worker-*.log", 3, Optional.of("rotated"), Optional.empty()).get();
+        List<String> streamed = new ArrayList<>();
+        globService.streamLogEntries("worker-1.log", linesPerFile + 2, Optional.empty()).writeTo(streamed::add);
+
+        // Assert
+        Assertions.assertEquals(expected, tail.lines());
+        Assertions.assertEquals(expected.stream().filter(line -> line.contains("rotated") || Integer.parseInt(line.substring(line.lastIndexOf(' ') + 1)) % 2 == 0)
+                .toList(), streamed);
+        Assertions.assertEquals("worker-1.log", tail.fileNames().getLast());
+        Assertions.assertEquals(List.of(formatter.format(start.minusHours(1).plusSeconds(4)) + " rotated 4",
+                formatter.format(start.minusHours(1).plusSeconds(3)) + " rotated 3", formatter.format(start.minusHours(1).plusSeconds(2)) + " rotated 2"),
+                filtered.lines());
+    }
+
+    @Test
+    void testTailVersionFollowsTheFile(@TempDir Path tempDir) throws Exception {
+        // Setup
+        Path logFile = tempDir.resolve("app.log");
+        Files.writeString(logFile, "first\n");
+        CriblFileWatcherService fileService = new CriblFileWatcherService();
+        ReflectionTestUtils.setField(fileService, "envProps", new MockEnvironment().withProperty("com.cribl.logcollector.filepath", tempDir + "/"));
+        fileService.init();
+
+        // Execution
+        String version = fileService.getTailVersion("app.log", 5, Optional.of("error"), Optional.empty(), Optional.empty());
+        String sameVersion = fileService.getTailVersion("app.log", 5, Optional.of("error"), Optional.empty(), Optional.empty());
+        String otherSpellingVersion = fileService.getTailVersion("app.log", 5, Optional.of("ERROR "), Optional.empty(), Optional.empty());
+        String otherCountVersion = fileService.getTailVersion("app.log", 6, Optional.of("error"), Optional.empty(), Optional.empty());
+        Files.writeString(logFile, "first\nsecond\n");
+        String appendedVersion = fileService.getTailVersion("app.log", 5, Optional.of("error"), Optional.empty(), Optional.empty());
+        Files.writeString(tempDir.resolve("app.log.1"), "rotated\n");
+        String rotatedVersion = fileService.getTailVersion("app.log", 5, Optional.of("error"), Optional.empty(), Optional.empty());
+        Files.writeString(tempDir.resolve("app.log.1"), "rotated\nmore\n");
+        String rotatedGrewVersion = fileService.getTailVersion("app.log", 5, Optional.of("error"), Optional.empty(), Optional.empty());
+
+        // Assert. Responses echo the filter as it was sent, so spellings of the same query are versioned apart
+        Assertions.assertEquals(version, sameVersion);
+        Assertions.assertNotEquals(version, otherSpellingVersion);
+        Assertions.assertNotEquals(version, otherCountVersion);
+        Assertions.assertNotEquals(version, appendedVersion);
+        Assertions.assertNotEquals(appendedVersion, rotatedVersion);
+        Assertions.assertNotEquals(rotatedVersion, rotatedGrewVersion);
+        Assertions.assertNull(fileService.getTailVersion("missing.log", 5, Optional.empty(), Optional.empty(), Optional.empty()));
+    }
+
+    @Test
+    void testChangedFileIsStaleRatherThanAHit(@TempDir Path tempDir) throws Exception {
+        // Setup
+        Path logFile = tempDir.resolve("app.log");
+        Files.writeString(logFile, "first\n");
+        CriblFileWatcherService fileService = new CriblFileWatcherService();
+        ReflectionTestUtils.setField(fileService, "envProps", new MockEnvironment().withProperty("com.cribl.logcollector.filepath", tempDir + "/"));
+        fileService.init();
+
+        // Execution
+        fileService.getFilteredLogEntries("app.log", 5, Optional.empty());
+        fileService.getFilteredLogEntries("app.log", 5, Optional.empty());
+        Files.writeString(logFile, "first\nsecond\n");
+        List<String> changed = fileService.getFilteredLogEntries("app.log", 5, Optional.empty());
+        CacheStatsApiResponse stats = fileService.getCacheStats();
+
+        // Assert
+        Assertions.assertEquals(List.of("second", "first"), changed);
+        Assertions.assertEquals(1, stats.getMissCount());
+        Assertions.assertEquals(1, stats.getHitCount());
+        Assertions.assertEquals(1, stats.getStaleCount());
+        Assertions.assertEquals(1 / 3d, stats.getHitRate(), 1e-9);
+        // A single page of lines, weighed with the entry's overhead on top
+        Assertions.assertTrue(stats.getCachedBytes() > TailLineArena.DEFAULT_PAGE_SIZE + CachedFileWatcher.ENTRY_OVERHEAD_BYTES);
+    }
+
+    @Test
+    void testStatsOfWindows(@TempDir Path tempDir) throws Exception {
+        // Setup. Lines from two hours, half an hour and a minute ago
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern(LogTimestampParser.DEFAULT_PATTERN);
+        LocalDateTime now = LocalDateTime.now();
+        Files.writeString(tempDir.resolve("app.log"),
+                now.minusHours(2).format(formatter) + " ERROR status=500\n"
+                + now.minusMinutes(30).format(formatter) + " INFO status=200\n"
+                + now.minusMinutes(1).format(formatter) + " ERROR status=503 timeout\n"
+                + now.minusMinutes(1).format(formatter) + " INFO status=200\n");
+        CriblFileWatcherService statsService = new CriblFileWatcherService();
+        ReflectionTestUtils.setField(statsService, "envProps", new MockEnvironment()
+                .withProperty("com.cribl.logcollector.filepath", tempDir + "/")
+                .withProperty("com.cribl.logcollector.stats.maxLines", "1000"));
+        statsService.init();
+        Optional<TimeRange> lastHour = Optional.of(new TimeRange(System.currentTimeMillis() - 3_600_000, Long.MAX_VALUE));
+
+        // Execution
+        LogStatsApiResponse levels = statsService.getLogStatsAsync("app.log", Integer.MAX_VALUE, lastHour, Optional.empty(), Optional.empty(), 0).get();
+        LogStatsApiResponse fields = statsService.getLogStatsAsync("app.log", 3, Optional.empty(), Optional.empty(), Optional.of("status"), 0).get();
+        LogStatsApiResponse filtered = statsService.getLogStatsAsync("app.log", 100, Optional.empty(), Optional.of("timeout"), Optional.empty(), 0).get();
+        ExecutionException tooManyLines = Assertions.assertThrows(ExecutionException.class,
+                () -> statsService.getLogStatsAsync("app.log", 1001, Optional.empty(), Optional.empty(), Optional.empty(), 0).get());
+        ExecutionException tooManyBuckets = Assertions.assertThrows(ExecutionException.class,
+                () -> statsService.getLogStatsAsync("app.log", Integer.MAX_VALUE, lastHour, Optional.empty(), Optional.empty(), 1000).get());
+        ExecutionException glob = Assertions.assertThrows(ExecutionException.class,
+                () -> statsService.getLogStatsAsync("*.log", 10, Optional.empty(), Optional.empty(), Optional.empty(), 0).get());
+
+        // Assert
+        Assertions.assertEquals(3, levels.getLines());
+        Assertions.assertEquals(Map.of("INFO", 2L, "ERROR", 1L), levels.getCounts());
+        Assertions.assertNull(levels.getBuckets());
+        Assertions.assertEquals("field", fields.getGroupBy());
+        Assertions.assertEquals(Map.of("200", 2L, "503", 1L), fields.getCounts());
+        Assertions.assertEquals(Map.of("ERROR", 1L), filtered.getCounts());
+        Assertions.assertEquals("timeout", filtered.getFilterUsed());
+        Assertions.assertEquals("400 BAD_REQUEST", ((ResponseStatusException) tooManyLines.getCause()).getStatusCode().toString());
+        Assertions.assertEquals("400 BAD_REQUEST", ((ResponseStatusException) tooManyBuckets.getCause()).getStatusCode().toString());
+        Assertions.assertEquals("400 BAD_REQUEST", ((ResponseStatusException) glob.getCause()).getStatusCode().toString());
+    }
+
+    @Test
+    void testFilesNobodyReadsAreClosed(@TempDir Path tempDir) throws Exception {
+        // Setup
+        Files.writeString(tempDir.resolve("app.log"), "first\nsecond\n");
+        CriblFileWatcherService idleService = new CriblFileWatcherService();
+        ReflectionTestUtils.setField(idleService, "envProps", new MockEnvironment()
+                .withProperty("com.cribl.logcollector.filepath", tempDir + "/")
+                .withProperty("com.cribl.logcollector.io.openFileIdleMillis", "50"));
+        idleService.init();
+        FileChannelPool channelPool = (FileChannelPool) ReflectionTestUtils.getField(idleService, "channelPool");
+
+        try {
+            // Execution. No more reads come in after the first one
+            idleService.getFilteredLogEntries("app.log", 2, Optional.empty());
+            int openAfterRead = channelPool.getOpenFiles();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (channelPool.getOpenFiles() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+
+            // Assert
+            Assertions.assertEquals(1, openAfterRead);
+            Assertions.assertEquals(0, channelPool.getOpenFiles());
+        } finally {
+            idleService.shutdown();
+        }
+    }
+
+    @Test
+    void testReadsAreMetered() throws Exception {
+        // Setup
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        CriblFileWatcherService meteredService = new CriblFileWatcherService();
+        ReflectionTestUtils.setField(meteredService, "envProps", new MockEnvironment().withProperty("com.cribl.logcollector.filepath", "logs/"));
+        ReflectionTestUtils.setField(meteredService, "meterRegistry", registry);
+        meteredService.init();
+
+        // Execution
+        meteredService.getFilteredLogEntries("test.txt", 3, Optional.of("line 1"));
+        meteredService.getFilteredLogEntries("test.txt", 2, Optional.of("line 1"));
+
+        // Assert
+        Assertions.assertEquals(1, registry.get("logcollector.cache.reads").tag("result", "miss").counter().count());
+        Assertions.assertEquals(1, registry.get("logcollector.cache.reads").tag("result", "hit").counter().count());
+        Assertions.assertEquals(1, registry.get("logcollector.read").tags("impl", "byteSeeker", "type", "tail").timer().count());
+        // Every line (and the empty one after the last line return) was scanned to find the 2 matching ones, and only those were decoded
+        Assertions.assertEquals(11, registry.get("logcollector.lines.scanned").counter().count());
+        Assertions.assertEquals(2, registry.get("logcollector.lines.decoded").counter().count());
+        Assertions.assertTrue(registry.get("logcollector.read.bytes").summary().totalAmount() > 0);
+        Assertions.assertEquals(0, registry.get("logcollector.reads.active").gauge().value());
+        Assertions.assertEquals(2, registry.get("cache.gets").tag("cache", "fileWatchers").tag("result", "hit").functionCounter().count()
+                + registry.get("cache.gets").tag("cache", "fileWatchers").tag("result", "miss").functionCounter().count());
+    }
+}
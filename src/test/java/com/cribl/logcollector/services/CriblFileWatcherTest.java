@@ -1,11 +1,15 @@
 package com.cribl.logcollector.services;
 
 import com.cribl.logcollector.services.filewatchers.ByteSeekerFileWatcherCallable;
+import com.cribl.logcollector.services.filewatchers.MappedFileWatcherCallable;
 import com.cribl.logcollector.services.filewatchers.StreamsFileWatcherCallable;
+import com.cribl.logcollector.services.matchers.LineMatchers;
+import com.cribl.logcollector.services.stats.LogStatsAggregator;
 import org.apache.commons.io.input.ReversedLinesFileReader;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.MethodSource;
 import org.springframework.web.server.ResponseStatusException;
@@ -13,6 +17,10 @@ import org.springframework.web.server.ResponseStatusException;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
@@ -91,6 +99,141 @@ class CriblFileWatcherTest {
         Assertions.assertEquals(logLines, logLines2);
     }
 
+    @ParameterizedTest
+    @MethodSource("getFilteredFileWatcherImplementations")
+    void testFilteredReadScansPastLastEntries(ICriblFileWatcher watcher) throws Exception {
+        // Setup
+
+        // Execution
+        List<String> logLines = watcher.call();
+
+        // Assert
+        // Only 2 lines match, so the watcher has to keep reading back past the last LINES_TO_READ lines of the file
+        Assertions.assertEquals(List.of("Log line 10", "Log line 1"), logLines);
+    }
+
+    @ParameterizedTest
+    @MethodSource("getFileWatcherImplementations")
+    void testPagedStreamedAndCountedLinesFollowTheTail(ICriblFileWatcher watcher) throws Exception {
+        // Setup
+        LogTimestampParser timestampParser = new LogTimestampParser(LogTimestampParser.DEFAULT_PATTERN);
+
+        // Execution
+        TailLines tail = watcher.readLinesBefore(ICriblFileWatcher.END_OF_FILE, 3);
+        TailLines page = watcher.readLinesBefore(tail.getFileOffset(2), 3);
+        List<String> streamed = new ArrayList<>();
+        watcher.streamLinesInReverse(4, streamed::add);
+        long counted = watcher.aggregateLinesInReverse(0, tail.getFileOffset(2), 100,
+                () -> new LogStatsAggregator(null, 0, timestampParser, 10, 10)).getLines();
+
+        // Assert
+        Assertions.assertEquals(List.of("Log line 10", "Log line 9", "Log line 8"), tail);
+        Assertions.assertEquals(List.of("Log line 7", "Log line 6", "Log line 5"), page);
+        Assertions.assertEquals(List.of("Log line 10", "Log line 9", "Log line 8", "Log line 7"), streamed);
+        Assertions.assertEquals(7, counted);
+    }
+
+    @Test
+    void testTimeRangesAreFoundByEveryWatcher(@TempDir Path tempDir) throws Exception {
+        // Setup
+        Path logFile = tempDir.resolve("time.log");
+        Files.writeString(logFile, """
+                2024-01-01 10:00:00 INFO one
+                2024-01-01 10:01:00 ERROR two
+                \tat com.cribl.Frame
+                2024-01-01 10:02:00 INFO three
+                2024-01-01 10:03:00 INFO four
+                """);
+        LogTimestampParser timestampParser = new LogTimestampParser(LogTimestampParser.DEFAULT_PATTERN, ZoneOffset.UTC);
+        long since = timestampParser.parse("2024-01-01 10:01:00");
+        long until = timestampParser.parse("2024-01-01 10:03:00");
+        List<ICriblFileWatcher> watchers = List.of(
+                new ByteSeekerFileWatcherCallable(logFile.toString(), 10),
+                new MappedFileWatcherCallable(logFile.toString(), 10),
+                new StreamsFileWatcherCallable(logFile.toString(), 10));
+
+        for (ICriblFileWatcher watcher : watchers) {
+            // Execution
+            long startOffset = watcher.findTimestampOffset(since, timestampParser);
+            long endOffset = watcher.findTimestampOffset(until, timestampParser);
+            List<String> window = watcher.readLinesBefore(startOffset, endOffset, 10);
+            long pastEnd = watcher.findTimestampOffset(until + 60_000, timestampParser);
+
+            // Assert
+            Assertions.assertEquals(List.of("2024-01-01 10:02:00 INFO three", "\tat com.cribl.Frame", "2024-01-01 10:01:00 ERROR two"), window,
+                    watcher.getClass().getSimpleName());
+            Assertions.assertEquals(ICriblFileWatcher.END_OF_FILE, pastEnd, watcher.getClass().getSimpleName());
+        }
+    }
+
+    @Test
+    void testAppendedLinesAreMergedIntoCachedTail(@TempDir Path tempDir) throws Exception {
+        // Setup
+        Path logFile = tempDir.resolve("append.log");
+        Files.writeString(logFile, "line 1\nline 2\nline 3\npartial");
+        ByteSeekerFileWatcherCallable watcher = new ByteSeekerFileWatcherCallable(logFile.toString(), 3);
+        Assertions.assertEquals(List.of("partial", "line 3", "line 2"), watcher.call());
+
+        // Execution
+        Files.writeString(logFile, " line 4\nline 5\n", StandardOpenOption.APPEND);
+        List<String> logLines = watcher.call();
+
+        // Assert
+        Assertions.assertEquals(List.of("line 5", "partial line 4", "line 3"), logLines);
+        Assertions.assertFalse(watcher.hasFileBeenUpdated());
+    }
+
+    @Test
+    void testMappedWindowsFollowFileGrowthAndTruncation(@TempDir Path tempDir) throws Exception {
+        // Setup
+        Path logFile = tempDir.resolve("mapped.log");
+        Files.writeString(logFile, "line 1\nline 2\nline 3\npartial");
+        MappedFileWatcherCallable watcher = new MappedFileWatcherCallable(logFile.toString(), 3, null, 8);
+        Assertions.assertEquals(List.of("partial", "line 3", "line 2"), watcher.call());
+
+        // Execution
+        Files.writeString(logFile, " line 4\nline 5\n", StandardOpenOption.APPEND);
+        List<String> appendedLines = watcher.call();
+        Files.writeString(logFile, "new 1\nnew 2\n", StandardOpenOption.TRUNCATE_EXISTING);
+        List<String> truncatedLines = watcher.call();
+
+        // Assert
+        Assertions.assertEquals(List.of("line 5", "partial line 4", "line 3"), appendedLines);
+        Assertions.assertEquals(List.of("new 2", "new 1"), truncatedLines);
+    }
+
+    @Test
+    void testMultiByteLinesAcrossBufferBoundaries(@TempDir Path tempDir) throws Exception {
+        // Setup
+        // Long lines of multibyte characters, so lines and characters straddle the 4KB read buffer boundaries
+        String longLine = "Zürich ✓ ".repeat(1000);
+        Path logFile = tempDir.resolve("utf8.log");
+        Files.writeString(logFile, "first ✓\r\n" + longLine + "\r\nhéllo wörld\r\n" + longLine + "\n");
+        ByteSeekerFileWatcherCallable watcher = new ByteSeekerFileWatcherCallable(logFile.toString(), 10);
+
+        // Execution
+        List<String> logLines = watcher.call();
+
+        // Assert
+        Assertions.assertEquals(List.of(longLine, "héllo wörld", longLine, "first ✓"), logLines);
+    }
+
+    @Test
+    void testTruncatedFileIsReadAgain(@TempDir Path tempDir) throws Exception {
+        // Setup
+        Path logFile = tempDir.resolve("truncate.log");
+        Files.writeString(logFile, "line 1\nline 2\nline 3\n");
+        ByteSeekerFileWatcherCallable watcher = new ByteSeekerFileWatcherCallable(logFile.toString(), 3);
+        watcher.call();
+
+        // Execution
+        Files.writeString(logFile, "new 1\n", StandardOpenOption.TRUNCATE_EXISTING);
+        List<String> logLines = watcher.call();
+
+        // Assert
+        Assertions.assertEquals(List.of("new 1"), logLines);
+    }
+
     @Test
     void testInvalidFileException() {
         // Setup
@@ -107,7 +250,17 @@ class CriblFileWatcherTest {
     private static List<ICriblFileWatcher> getFileWatcherImplementations() {
         return List.of(
                 new ByteSeekerFileWatcherCallable(TEST_FILE, LINES_TO_READ),
+                new MappedFileWatcherCallable(TEST_FILE, LINES_TO_READ),
                 new StreamsFileWatcherCallable(TEST_FILE, LINES_TO_READ)
         );
     }
+
+    private static List<ICriblFileWatcher> getFilteredFileWatcherImplementations() {
+        return List.of(
+                new ByteSeekerFileWatcherCallable(TEST_FILE, LINES_TO_READ, LineMatchers.containsIgnoreCase("LINE 1")),
+                // Small windows so the scan crosses window boundaries
+                new MappedFileWatcherCallable(TEST_FILE, LINES_TO_READ, LineMatchers.containsIgnoreCase("LINE 1"), 16),
+                new StreamsFileWatcherCallable(TEST_FILE, LINES_TO_READ, LineMatchers.containsIgnoreCase("LINE 1"))
+        );
+    }
 }
\ No newline at end of file
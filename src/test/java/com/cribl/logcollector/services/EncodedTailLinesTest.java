@@ -0,0 +1,164 @@
+package com.cribl.logcollector.services;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * JUnit tests for {@link EncodedTailLines} and {@link TailLineArena}
+ */
+class EncodedTailLinesTest {
+
+    @Test
+    void testLinesSpanningPages() {
+        // Setup. 16 byte pages and room for only 4 of them off-heap, so lines span pages and the arena runs over its budget
+        TailLineArena arena = new TailLineArena(64, 16);
+        List<String> lines = List.of("newest line, longer than a page", "", "ünïcödé ✓", "x", "oldest line of them all");
+        long[] offsets = {120, 119, 100, 98, TailLines.UNKNOWN_OFFSET};
+
+        // Execution
+        EncodedTailLines.Builder builder = new EncodedTailLines.Builder(arena, "inode");
+        for (int i = 0; i < lines.size(); i++) {
+            builder.add(lines.get(i), offsets[i]);
+        }
+        EncodedTailLines encoded = builder.build();
+
+        // Assert
+        Assertions.assertEquals(lines, encoded);
+        Assertions.assertEquals("inode", encoded.getFileKey());
+        for (int i = 0; i < lines.size(); i++) {
+            byte[] expected = lines.get(i).getBytes(StandardCharsets.UTF_8);
+            byte[] line = new byte[expected.length + 2];
+            Assertions.assertEquals(expected.length, encoded.getLineLength(i));
+            Assertions.assertEquals(expected.length, encoded.copyLine(i, line, 2));
+            Assertions.assertArrayEquals(expected, Arrays.copyOfRange(line, 2, line.length));
+            Assertions.assertEquals(offsets[i], encoded.getFileOffset(i));
+        }
+        TailLines tail = encoded.toTailLines(3);
+        Assertions.assertEquals(lines.subList(0, 3), tail);
+        Assertions.assertEquals(100, tail.getFileOffset(2));
+        Assertions.assertEquals(64, arena.getAllocatedBytes());
+        Assertions.assertEquals(encoded.getSizeInBytes(), arena.getUsedBytes());
+        Assertions.assertTrue(encoded.getSizeInBytes() > 64);
+    }
+
+    @Test
+    void testAddAllAcrossArenas() {
+        // Setup
+        TailLineArena source = new TailLineArena(1024, 32);
+        TailLineArena target = new TailLineArena(1024, 8);
+        EncodedTailLines.Builder sourceBuilder = new EncodedTailLines.Builder(source, null);
+        for (int i = 0; i < 10; i++) {
+            sourceBuilder.add("line number " + i, i * 100L);
+        }
+        EncodedTailLines sourceLines = sourceBuilder.build();
+
+        // Execution. Append lines 3 to 7 after a new line, the way appended reads keep older cached lines
+        EncodedTailLines.Builder builder = new EncodedTailLines.Builder(target, null);
+        builder.add("appended", 5000);
+        builder.addAll(sourceLines, 3, 8);
+        builder.addAll(sourceLines, 8, 8);
+        EncodedTailLines lines = builder.build();
+
+        // Assert
+        Assertions.assertEquals(List.of("appended", "line number 3", "line number 4", "line number 5", "line number 6", "line number 7"), lines);
+        Assertions.assertEquals(5000, lines.getFileOffset(0));
+        Assertions.assertEquals(300, lines.getFileOffset(1));
+        Assertions.assertEquals(700, lines.getFileOffset(5));
+    }
+
+    @Test
+    void testLinesInFrontShareTheOlderLinesPages() {
+        // Setup. The newest line is partial, the way a tail read racing a writer caches it
+        TailLineArena arena = new TailLineArena(1 << 20, 64);
+        EncodedTailLines.Builder builder = new EncodedTailLines.Builder(arena, "inode");
+        builder.add("partial", 300);
+        for (int i = 2; i >= 0; i--) {
+            builder.add("line " + i, i * 100L);
+        }
+        EncodedTailLines older = builder.build();
+        long usedBefore = arena.getUsedBytes();
+
+        // Execution. Re-read the partial line and add one after it, keeping 4 lines, then add another line in front of those
+        EncodedTailLines.Builder appended = EncodedTailLines.Builder.inFrontOf(arena, older, 1, 4);
+        appended.add("line 4", 400);
+        appended.add("line 3", 300);
+        EncodedTailLines lines = appended.build();
+        long usedAfterAppend = arena.getUsedBytes();
+        EncodedTailLines.Builder appendedAgain = EncodedTailLines.Builder.inFrontOf(arena, lines, 0, 4);
+        appendedAgain.add("line 5", 500);
+        EncodedTailLines newest = appendedAgain.build();
+
+        // Assert. Both appends went into the older lines' pages, which still read the same
+        Assertions.assertEquals(List.of("partial", "line 2", "line 1", "line 0"), older);
+        Assertions.assertEquals(List.of("line 4", "line 3", "line 2", "line 1"), lines);
+        Assertions.assertEquals(List.of("line 5", "line 4", "line 3", "line 2"), newest);
+        Assertions.assertEquals(300, lines.getFileOffset(1));
+        Assertions.assertEquals(200, newest.getFileOffset(3));
+        Assertions.assertEquals("inode", newest.getFileKey());
+        Assertions.assertTrue(usedAfterAppend - usedBefore <= 64);
+
+        // Pages go back to the arena only once all the lines sharing them are released
+        older.release();
+        lines.release();
+        Assertions.assertEquals(newest.getSizeInBytes(), arena.getUsedBytes());
+        newest.release();
+        Assertions.assertEquals(0, arena.getUsedBytes());
+    }
+
+    @Test
+    void testLinesInFrontOfOlderOnesAreCopiedOnceTheyWereAppendedTo() {
+        // Setup
+        TailLineArena arena = new TailLineArena(1 << 20, 64);
+        EncodedTailLines.Builder builder = new EncodedTailLines.Builder(arena, null);
+        builder.add("line 0", 0);
+        EncodedTailLines older = builder.build();
+        EncodedTailLines.Builder first = EncodedTailLines.Builder.inFrontOf(arena, older, 0, 10);
+        first.add("line 1", 100);
+        EncodedTailLines firstLines = first.build();
+
+        // Execution. The older lines aren't the newest of their pages anymore, so a second append can't share them
+        EncodedTailLines.Builder second = EncodedTailLines.Builder.inFrontOf(arena, older, 0, 10);
+        second.add("other line 1", 200);
+        EncodedTailLines secondLines = second.build();
+
+        // Assert
+        Assertions.assertEquals(List.of("line 1", "line 0"), firstLines);
+        Assertions.assertEquals(List.of("other line 1", "line 0"), secondLines);
+        Assertions.assertEquals(List.of("line 0"), older);
+    }
+
+    @Test
+    void testReleaseHandsPagesBack() {
+        // Setup
+        TailLineArena arena = new TailLineArena(4096, 64);
+        EncodedTailLines.Builder builder = new EncodedTailLines.Builder(arena, null);
+        for (int i = 0; i < 50; i++) {
+            builder.add("line " + i, i);
+        }
+        EncodedTailLines lines = builder.build();
+
+        // Execution
+        Assertions.assertTrue(lines.tryRetain());
+        lines.release();
+        long usedWhileRetained = arena.getUsedBytes();
+        lines.release();
+
+        // Assert
+        Assertions.assertEquals(lines.getSizeInBytes(), usedWhileRetained);
+        Assertions.assertEquals(0, arena.getUsedBytes());
+        Assertions.assertFalse(lines.tryRetain());
+        Assertions.assertThrows(IllegalStateException.class, () -> lines.get(0));
+        Assertions.assertThrows(IllegalStateException.class, lines::release);
+
+        // Freed pages are reused instead of allocating another slab
+        EncodedTailLines.Builder discarded = new EncodedTailLines.Builder(arena, null);
+        discarded.add("line", 0);
+        discarded.discard();
+        Assertions.assertEquals(0, arena.getUsedBytes());
+        Assertions.assertEquals(4096, arena.getAllocatedBytes());
+    }
+}
@@ -0,0 +1,218 @@
+package com.cribl.logcollector.services;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * JUnit tests for {@link FairReadScheduler}
+ */
+class FairReadSchedulerTest {
+
+    private static final long CHEAP_READ_MAX_BYTES = 1000;
+
+    @Test
+    void testCheapReadsRunWhileDeepReadsWait() throws Exception {
+        // Setup. Two slots, at most one of them for deep reads
+        try (ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor()) {
+            FairReadScheduler scheduler = new FairReadScheduler(workers, 2, 1, Long.MAX_VALUE, CHEAP_READ_MAX_BYTES, 100, 100);
+            CountDownLatch release = new CountDownLatch(1);
+
+            // Execution
+            List<CompletableFuture<Void>> deepReads = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                deepReads.add(CompletableFuture.runAsync(() -> await(release), scheduler.forRead("deep-client", "big.log", 5_000_000_000L)));
+            }
+            CompletableFuture<Void> cheapRead = CompletableFuture.runAsync(() -> { }, scheduler.forRead("tail-client", "app.log", 100));
+
+            // Assert
+            cheapRead.get(5, TimeUnit.SECONDS);
+            Assertions.assertEquals(1, scheduler.getRunning());
+            Assertions.assertEquals(2, scheduler.getQueued());
+            release.countDown();
+            CompletableFuture.allOf(deepReads.toArray(CompletableFuture[]::new)).get(5, TimeUnit.SECONDS);
+            Assertions.assertEquals(0, scheduler.getQueued());
+            Assertions.assertEquals(0, scheduler.getBytesInFlight());
+        }
+    }
+
+    @Test
+    void testClientsAndTheirFilesTakeTurns() throws Exception {
+        // Setup. A single slot, held until every read is queued
+        try (ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor()) {
+            FairReadScheduler scheduler = new FairReadScheduler(workers, 1, 1, Long.MAX_VALUE, CHEAP_READ_MAX_BYTES, 100, 100);
+            CountDownLatch release = new CountDownLatch(1);
+            List<String> order = Collections.synchronizedList(new ArrayList<>());
+            CompletableFuture<Void> blocker = CompletableFuture.runAsync(() -> await(release), scheduler.forRead("a", "blocker.log", 10));
+
+            // Execution
+            List<CompletableFuture<Void>> reads = new ArrayList<>();
+            for (String read : List.of("a:1.log", "a:1.log", "a:2.log", "b:1.log", "c:1.log")) {
+                String[] clientAndFile = read.split(":");
+                reads.add(CompletableFuture.runAsync(() -> order.add(read), scheduler.forRead(clientAndFile[0], clientAndFile[1], 10)));
+            }
+            release.countDown();
+            blocker.get(5, TimeUnit.SECONDS);
+            CompletableFuture.allOf(reads.toArray(CompletableFuture[]::new)).get(5, TimeUnit.SECONDS);
+
+            // Assert
+            Assertions.assertEquals(List.of("a:1.log", "b:1.log", "c:1.log", "a:2.log", "a:1.log"), order);
+        }
+    }
+
+    @Test
+    void testDeepReadsShareTheBytesInFlight() throws Exception {
+        // Setup. Room for two deep reads, but only enough bytes for one at a time
+        try (ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor()) {
+            FairReadScheduler scheduler = new FairReadScheduler(workers, 4, 2, 10_000, CHEAP_READ_MAX_BYTES, 100, 100);
+            AtomicInteger running = new AtomicInteger();
+            AtomicInteger maxRunning = new AtomicInteger();
+
+            // Execution
+            List<CompletableFuture<Void>> reads = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                reads.add(CompletableFuture.runAsync(() -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    sleep(20);
+                    running.decrementAndGet();
+                }, scheduler.forRead("client-" + i, "big.log", 8_000)));
+            }
+            CompletableFuture.allOf(reads.toArray(CompletableFuture[]::new)).get(5, TimeUnit.SECONDS);
+
+            // Assert
+            Assertions.assertEquals(1, maxRunning.get());
+        }
+    }
+
+    @Test
+    void testBackgroundReadsKeepOutOfTheDeepSlots() throws Exception {
+        // Setup. A single deep slot and a single background slot
+        try (ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor()) {
+            FairReadScheduler scheduler = new FairReadScheduler(workers, 4, 1, 1, 10_000, CHEAP_READ_MAX_BYTES, 100, 100);
+            CountDownLatch release = new CountDownLatch(1);
+            CountDownLatch deepReadStarted = new CountDownLatch(1);
+
+            // Execution. A burst of index catch ups, then a client's deep read
+            List<CompletableFuture<Void>> reads = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                reads.add(CompletableFuture.runAsync(() -> await(release), scheduler.forBackground("file-" + i + ".log", 2_000)));
+            }
+            reads.add(CompletableFuture.runAsync(() -> {
+                deepReadStarted.countDown();
+                await(release);
+            }, scheduler.forRead("client", "big.log", 5_000)));
+
+            // Assert. The deep read runs next to a single catch up, whose bytes count against the budget
+            Assertions.assertTrue(deepReadStarted.await(5, TimeUnit.SECONDS));
+            Assertions.assertEquals(1, scheduler.getRunning());
+            Assertions.assertEquals(1, scheduler.getBackgroundRunning());
+            Assertions.assertEquals(2, scheduler.getQueued());
+            Assertions.assertEquals(7_000, scheduler.getBytesInFlight());
+            release.countDown();
+            CompletableFuture.allOf(reads.toArray(CompletableFuture[]::new)).get(5, TimeUnit.SECONDS);
+            Assertions.assertEquals(0, scheduler.getBytesInFlight());
+        }
+    }
+
+    @Test
+    void testReadsAreShedWithRetryAfter() throws Exception {
+        // Setup. One slot, two reads waiting per client and three per lane
+        try (ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor()) {
+            FairReadScheduler scheduler = new FairReadScheduler(workers, 1, 1, Long.MAX_VALUE, CHEAP_READ_MAX_BYTES, 3, 2);
+            CountDownLatch release = new CountDownLatch(1);
+            List<CompletableFuture<Void>> reads = new ArrayList<>();
+            reads.add(CompletableFuture.runAsync(() -> await(release), scheduler.forRead("a", "app.log", 10)));
+            reads.add(CompletableFuture.runAsync(() -> { }, scheduler.forRead("a", "app.log", 10)));
+            reads.add(CompletableFuture.runAsync(() -> { }, scheduler.forRead("a", "app.log", 10)));
+
+            // Execution / Assert
+            ReadRejectedException clientRejection = Assertions.assertThrows(ReadRejectedException.class,
+                    () -> CompletableFuture.runAsync(() -> { }, scheduler.forRead("a", "app.log", 10)));
+            Assertions.assertEquals(HttpStatus.TOO_MANY_REQUESTS, clientRejection.getStatusCode());
+            Assertions.assertEquals("1", clientRejection.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+
+            reads.add(CompletableFuture.runAsync(() -> { }, scheduler.forRead("b", "app.log", 10)));
+            ReadRejectedException laneRejection = Assertions.assertThrows(ReadRejectedException.class,
+                    () -> CompletableFuture.runAsync(() -> { }, scheduler.forRead("c", "app.log", 10)));
+            Assertions.assertEquals(HttpStatus.SERVICE_UNAVAILABLE, laneRejection.getStatusCode());
+            // Deep reads wait in their own lane, and background reads are never shed
+            reads.add(CompletableFuture.runAsync(() -> { }, scheduler.forRead("c", "big.log", 5_000)));
+            reads.add(CompletableFuture.runAsync(() -> { }, scheduler.forBackground("app.log", 100)));
+
+            release.countDown();
+            CompletableFuture.allOf(reads.toArray(CompletableFuture[]::new)).get(5, TimeUnit.SECONDS);
+            Assertions.assertEquals(0, scheduler.getQueued());
+        }
+    }
+
+    @Test
+    void testSlotIsHandedBackBeforeTheReadCompletes() throws Exception {
+        // Setup
+        try (ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor()) {
+            FairReadScheduler scheduler = new FairReadScheduler(workers, 2, 1, Long.MAX_VALUE, CHEAP_READ_MAX_BYTES, 100, 100);
+            CountDownLatch release = new CountDownLatch(1);
+
+            // Execution. The background read holds a slot throughout, the client read's dependent runs as soon as it completes
+            CompletableFuture<Void> background = CompletableFuture.runAsync(() -> await(release), scheduler.forBackground("app.log", 100));
+            int[] runningOnCompletion = new int[2];
+            FairReadScheduler.supplyAsync(() -> "line", scheduler.forRead("client", "app.log", 100))
+                    .thenAccept(line -> {
+                        runningOnCompletion[0] = scheduler.getRunning();
+                        runningOnCompletion[1] = scheduler.getBackgroundRunning();
+                    })
+                    .get(5, TimeUnit.SECONDS);
+            release.countDown();
+            background.get(5, TimeUnit.SECONDS);
+
+            // Assert
+            Assertions.assertEquals(0, runningOnCompletion[0]);
+            Assertions.assertEquals(1, runningOnCompletion[1]);
+        }
+    }
+
+    @Test
+    void testFailedReadCompletesExceptionally() throws Exception {
+        // Setup
+        try (ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor()) {
+            FairReadScheduler scheduler = new FairReadScheduler(workers, 1, 1, Long.MAX_VALUE, CHEAP_READ_MAX_BYTES, 100, 100);
+
+            // Execution
+            CompletableFuture<String> read = FairReadScheduler.supplyAsync(() -> {
+                throw new IllegalStateException("Broken read");
+            }, scheduler.forRead("client", "app.log", 100));
+            ExecutionException ex = Assertions.assertThrows(ExecutionException.class, () -> read.get(5, TimeUnit.SECONDS));
+
+            // Assert
+            Assertions.assertInstanceOf(IllegalStateException.class, ex.getCause());
+            Assertions.assertEquals(0, scheduler.getRunning());
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
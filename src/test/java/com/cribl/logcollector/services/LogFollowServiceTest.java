@@ -0,0 +1,75 @@
+package com.cribl.logcollector.services;
+
+import com.cribl.logcollector.services.filewatchers.FileFollower;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * JUnit tests for {@link LogFollowService}
+ */
+class LogFollowServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private LogFollowService service;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Files.writeString(tempDir.resolve("app.log"), "line\n");
+        MockEnvironment env = new MockEnvironment()
+                .withProperty("com.cribl.logcollector.filepath", tempDir + "/");
+        service = new LogFollowService();
+        ReflectionTestUtils.setField(service, "envProps", env);
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    void testFollowerIsSharedAndStoppedByItsLastSubscriber() {
+        // Execution
+        SseEmitter first = service.follow("app.log", Optional.empty());
+        SseEmitter second = service.follow("app.log", Optional.of("error"));
+        FileFollower follower = followers().get("app.log");
+        int followersWithBoth = followers().size();
+        ReflectionTestUtils.invokeMethod(service, "unsubscribe", "app.log", first);
+        boolean followedAfterFirstLeft = followers().containsKey("app.log");
+        ReflectionTestUtils.invokeMethod(service, "unsubscribe", "app.log", second);
+
+        // Assert
+        Assertions.assertEquals(1, followersWithBoth);
+        Assertions.assertTrue(followedAfterFirstLeft);
+        Assertions.assertFalse(follower.hasSubscribers());
+        Assertions.assertTrue(followers().isEmpty());
+    }
+
+    @Test
+    void testMissingFileIsNotFollowed() {
+        // Execution
+        ResponseStatusException ex = Assertions.assertThrows(ResponseStatusException.class, () -> service.follow("missing.log", Optional.empty()));
+
+        // Assert
+        Assertions.assertEquals("404 NOT_FOUND", ex.getStatusCode().toString());
+        Assertions.assertTrue(followers().isEmpty());
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, FileFollower> followers() {
+        return (Map<String, FileFollower>) ReflectionTestUtils.getField(service, "followers");
+    }
+}
@@ -0,0 +1,33 @@
+package com.cribl.logcollector.services;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * JUnit tests for {@link LogTimestampParser}
+ */
+class LogTimestampParserTest {
+
+    @Test
+    void testParse() {
+        LogTimestampParser parser = new LogTimestampParser("yyyy-MM-dd HH:mm:ss", ZoneOffset.UTC);
+        long expected = LocalDateTime.of(2024, 1, 2, 3, 4, 5).toInstant(ZoneOffset.UTC).toEpochMilli();
+
+        Assertions.assertEquals(expected, parser.parse("2024-01-02 03:04:05 ERROR Disk full"));
+        Assertions.assertEquals(LogTimestampParser.NO_TIMESTAMP, parser.parse("    at com.cribl.Foo(Foo.java:10)"));
+        Assertions.assertEquals(LogTimestampParser.NO_TIMESTAMP, parser.parse("2024-01-02"));
+        Assertions.assertEquals(LogTimestampParser.NO_TIMESTAMP, parser.parse("2024-13-02 03:04:05 bad month"));
+    }
+
+    @Test
+    void testParseBytes() {
+        LogTimestampParser parser = new LogTimestampParser("yyMMdd HHmmss", ZoneOffset.UTC);
+        byte[] line = "xx081109 203615 148 INFO dfs.DataNode".getBytes(StandardCharsets.UTF_8);
+
+        Assertions.assertEquals(LocalDateTime.of(2008, 11, 9, 20, 36, 15).toInstant(ZoneOffset.UTC).toEpochMilli(), parser.parse(line, 2, line.length - 2));
+    }
+}
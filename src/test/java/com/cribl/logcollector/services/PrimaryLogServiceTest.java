@@ -0,0 +1,180 @@
+package com.cribl.logcollector.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+
+/**
+ * JUnit tests for {@link PrimaryLogService}, against fake peers served by the JDK's HTTP server
+ */
+class PrimaryLogServiceTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final List<HttpServer> peers = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        peers.forEach(peer -> peer.stop(0));
+    }
+
+    @Test
+    void testEntriesAreMergedByTimestamp() throws Exception {
+        // Setup. The stack trace line sorts with the older timestamped line it belongs to
+        String peerA = startPeer(respond(200, tail("2024-01-01 10:00:05 a2", "2024-01-01 10:00:01 a1")));
+        String peerB = startPeer(respond(200, tail("2024-01-01 10:00:04 b2", "\tat com.cribl.Frame", "2024-01-01 10:00:02 b1")));
+        PrimaryLogService service = createService(5000, peerA, peerB);
+
+        // Execution
+        JsonNode merged = tail(service, 4, true, new ByteArrayOutputStream());
+
+        // Assert
+        List<String> entries = new ArrayList<>();
+        List<String> servers = new ArrayList<>();
+        merged.get("logEntries").forEach(entry -> {
+            entries.add(entry.get("entry").asText());
+            servers.add(entry.get("server").asText());
+        });
+        Assertions.assertEquals(List.of("2024-01-01 10:00:05 a2", "2024-01-01 10:00:04 b2", "\tat com.cribl.Frame", "2024-01-01 10:00:02 b1"), entries);
+        Assertions.assertEquals(List.of(peerA, peerB, peerB, peerB), servers);
+        Assertions.assertEquals(Map.of(peerA, "OK", peerB, "OK"), statuses(merged));
+    }
+
+    @Test
+    void testFailedAndSlowPeersAreReportedNextToTheResults() throws Exception {
+        // Setup. One peer answers, one doesn't have the file, one stalls after its first entry and one never answers at all
+        String ok = startPeer(respond(200, tail("ok 2", "ok 1")));
+        String missing = startPeer(respond(404, "{\"detail\":\"File does not exist on server: app.log\"}"));
+        String stalled = startPeer(exchange -> {
+            exchange.sendResponseHeaders(200, 0);
+            exchange.getResponseBody().write("{\"logEntries\":[\"stalled 2\",".getBytes(StandardCharsets.UTF_8));
+            exchange.getResponseBody().flush();
+            sleep(10_000);
+        });
+        String silent = startPeer(exchange -> sleep(10_000));
+        PrimaryLogService service = createService(300, ok, missing, stalled, silent);
+
+        // Execution
+        JsonNode grouped = tail(service, 10, false, new ByteArrayOutputStream());
+
+        // Assert
+        Map<String, JsonNode> byServer = new HashMap<>();
+        grouped.get("servers").forEach(server -> byServer.put(server.get("server").asText(), server));
+        Assertions.assertEquals(Map.of(ok, "OK", missing, "ERROR", stalled, "PARTIAL", silent, "ERROR"), statuses(grouped));
+        Assertions.assertEquals(List.of("ok 2", "ok 1"), entries(byServer.get(ok)));
+        Assertions.assertEquals("HTTP 404: File does not exist on server: app.log", byServer.get(missing).get("error").asText());
+        Assertions.assertEquals(List.of("stalled 2"), entries(byServer.get(stalled)));
+        Assertions.assertEquals("Timed out", byServer.get(stalled).get("error").asText());
+        Assertions.assertEquals("Timed out", byServer.get(silent).get("error").asText());
+    }
+
+    @Test
+    void testPeerReadAfterAnotherGetsItsOwnDeadline() throws Exception {
+        // Setup. Writing to the client is slow, so reading each peer takes most of the timeout, and both together take longer than it
+        String[] entries = Collections.nCopies(40, "x".repeat(1000)).toArray(new String[0]);
+        String peerA = startPeer(respond(200, tail(entries)));
+        String peerB = startPeer(respond(200, tail(entries)));
+        PrimaryLogService service = createService(800, peerA, peerB);
+        OutputStream slowClient = new ByteArrayOutputStream() {
+            @Override
+            public synchronized void write(byte[] b, int off, int len) {
+                sleep(100);
+                super.write(b, off, len);
+            }
+        };
+
+        // Execution
+        JsonNode grouped = tail(service, 40, false, slowClient);
+
+        // Assert
+        Assertions.assertEquals(Map.of(peerA, "OK", peerB, "OK"), statuses(grouped));
+        grouped.get("servers").forEach(server -> Assertions.assertEquals(40, server.get("logEntries").size()));
+    }
+
+    private PrimaryLogService createService(long peerTimeoutMillis, String... peerUrls) {
+        MockEnvironment env = new MockEnvironment()
+                .withProperty("com.cribl.logcollector.cluster.peers", String.join(",", peerUrls))
+                .withProperty("com.cribl.logcollector.cluster.peerTimeoutMillis", Long.toString(peerTimeoutMillis));
+        ClusterPeerRegistry registry = new ClusterPeerRegistry();
+        ReflectionTestUtils.setField(registry, "envProps", env);
+        registry.init();
+
+        PrimaryLogService service = new PrimaryLogService();
+        ReflectionTestUtils.setField(service, "envProps", env);
+        ReflectionTestUtils.setField(service, "peerRegistry", registry);
+        ReflectionTestUtils.setField(service, "objectMapper", MAPPER);
+        service.init();
+        return service;
+    }
+
+    private static JsonNode tail(PrimaryLogService service, int numEntries, boolean merge, OutputStream outputStream) throws IOException {
+        service.tail("app.log", numEntries, Optional.empty(), merge, outputStream);
+        return MAPPER.readTree(((ByteArrayOutputStream) outputStream).toByteArray());
+    }
+
+    /**
+     * @return Base URL of a fake peer answering tail requests with the handler
+     */
+    private String startPeer(HttpHandler handler) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/cribl/log/tail", handler);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+        peers.add(server);
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    private static HttpHandler respond(int status, String body) {
+        return exchange -> {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream responseBody = exchange.getResponseBody()) {
+                responseBody.write(bytes);
+            }
+        };
+    }
+
+    private static String tail(String... entries) throws IOException {
+        return MAPPER.writeValueAsString(Map.of("logEntries", entries));
+    }
+
+    private static Map<String, String> statuses(JsonNode response) {
+        Map<String, String> statuses = new HashMap<>();
+        response.get("servers").forEach(server -> statuses.put(server.get("server").asText(), server.get("status").asText()));
+        return statuses;
+    }
+
+    private static List<String> entries(JsonNode server) {
+        List<String> entries = new ArrayList<>();
+        server.get("logEntries").forEach(entry -> entries.add(entry.asText()));
+        return entries;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
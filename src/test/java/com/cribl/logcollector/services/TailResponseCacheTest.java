@@ -0,0 +1,133 @@
+package com.cribl.logcollector.services;
+
+import com.cribl.logcollector.models.TailApiResponse;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+/**
+ * JUnit tests for {@link TailResponseCache}
+ */
+class TailResponseCacheTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private TailResponseCache responseCache;
+
+    @BeforeEach
+    void setUp() {
+        responseCache = new TailResponseCache();
+        ReflectionTestUtils.setField(responseCache, "envProps", new MockEnvironment());
+        ReflectionTestUtils.setField(responseCache, "objectMapper", objectMapper);
+        responseCache.init();
+    }
+
+    @Test
+    void testEncodedLinesSerializeLikeDecodedLines() throws Exception {
+        // Setup. Quotes, control characters, multi byte characters and a line that isn't valid UTF-8
+        EncodedTailLines.Builder builder = new EncodedTailLines.Builder(new TailLineArena(0, 16), null);
+        builder.add("plain line", 40);
+        builder.add("\"quoted\" \\ back\tslash \u0001", 30);
+        builder.add("ünïcödé ✓ 😀", 20);
+        builder.add(new byte[]{'b', 'a', 'd', (byte) 0xC3, ' ', (byte) 0xFF}, 0, 6, 10);
+        builder.add("not returned", 0);
+        EncodedTailLines lines = builder.build();
+
+        // Execution
+        TailResponseCache.SerializedTail serialized = responseCache.serialize(lines, 4, "error", "cursor");
+        TailResponseCache.SerializedTail unfiltered = responseCache.serialize(lines, 10, null, null);
+
+        // Assert
+        Assertions.assertEquals(4, serialized.entries());
+        Assertions.assertArrayEquals(objectMapper.writeValueAsBytes(new TailApiResponse(lines.subList(0, 4), "error", "cursor")), serialized.body());
+        Assertions.assertEquals(5, unfiltered.entries());
+        Assertions.assertArrayEquals(objectMapper.writeValueAsBytes(new TailApiResponse(lines, null, null)), unfiltered.body());
+    }
+
+    @Test
+    void testEncodedLinesSerializeToCbor() throws Exception {
+        // Setup
+        ObjectMapper cborMapper = new CBORMapper();
+        EncodedTailLines.Builder builder = new EncodedTailLines.Builder(new TailLineArena(0, 16), null);
+        builder.add("plain line", 30);
+        builder.add("ünïcödé \"quoted\" ✓", 20);
+        builder.add(new byte[]{'b', 'a', 'd', (byte) 0xFF}, 0, 4, 10);
+        EncodedTailLines lines = builder.build();
+        TailApiResponse expected = new TailApiResponse(lines, "error", "cursor");
+
+        // Execution
+        TailResponseCache.SerializedTail serialized = responseCache.serialize(lines, 10, "error", "cursor", TailResponseCache.TailFormat.CBOR);
+        TailResponseCache.SerializedTail decoded = responseCache.serialize(expected, TailResponseCache.TailFormat.CBOR);
+        responseCache.put("app.log", serialized);
+
+        // Assert
+        Assertions.assertEquals(TailResponseCache.TailFormat.CBOR, serialized.format());
+        Assertions.assertEquals(3, serialized.entries());
+        Assertions.assertEquals(cborMapper.readTree(decoded.body()), cborMapper.readTree(serialized.body()));
+        Assertions.assertEquals(objectMapper.readTree(objectMapper.writeValueAsBytes(expected)), cborMapper.readTree(serialized.body()));
+        // CBOR doesn't escape anything, so it's smaller than the JSON
+        Assertions.assertTrue(serialized.body().length < objectMapper.writeValueAsBytes(expected).length);
+        Assertions.assertSame(serialized, responseCache.get("app.log", TailResponseCache.TailFormat.CBOR));
+        Assertions.assertNull(responseCache.get("app.log", TailResponseCache.TailFormat.JSON));
+    }
+
+    @Test
+    void testResponsesThatWontBeCachedAreStreamed() throws Exception {
+        // Setup. Cache entries of at most 200 bytes
+        ReflectionTestUtils.setField(responseCache, "envProps", new MockEnvironment().withProperty("com.cribl.logcollector.responseCache.maxEntryBytes", "200"));
+        responseCache.init();
+        TailLineArena arena = new TailLineArena(4096, 64);
+        EncodedTailLines.Builder builder = new EncodedTailLines.Builder(arena, null);
+        for (int i = 0; i < 20; i++) {
+            builder.add("line number " + i, i * 20L);
+        }
+        EncodedTailLines lines = builder.build();
+        List<String> decodedLines = List.copyOf(lines);
+
+        // Execution
+        TailResponseCache.TailBody small = responseCache.toBody(lines, 2, null, "cursor", TailResponseCache.TailFormat.JSON, true);
+        TailResponseCache.TailBody uncacheable = responseCache.toBody(lines, 2, null, "cursor", TailResponseCache.TailFormat.JSON, false);
+        TailResponseCache.TailBody big = responseCache.toBody(lines, 20, null, null, TailResponseCache.TailFormat.JSON, true);
+        TailResponseCache.TailBody decoded = responseCache.toBody(new TailApiResponse(decodedLines, null, null), TailResponseCache.TailFormat.CBOR, true);
+        lines.release();
+        long usedBeforeWriting = arena.getUsedBytes();
+        ByteArrayOutputStream bigBody = new ByteArrayOutputStream();
+        ((TailResponseCache.StreamedTail) big).writer().writeTo(bigBody);
+        ((TailResponseCache.StreamedTail) uncacheable).writer().writeTo(new ByteArrayOutputStream());
+        ByteArrayOutputStream decodedBody = new ByteArrayOutputStream();
+        ((TailResponseCache.StreamedTail) decoded).writer().writeTo(decodedBody);
+
+        // Assert. Streamed bodies hold on to the lines until they're written, and write the same bytes as serialized ones
+        Assertions.assertInstanceOf(TailResponseCache.SerializedTail.class, small);
+        Assertions.assertInstanceOf(TailResponseCache.StreamedTail.class, uncacheable);
+        Assertions.assertEquals(20, big.entries());
+        Assertions.assertTrue(((TailResponseCache.StreamedTail) big).estimatedBytes() > 200);
+        Assertions.assertTrue(usedBeforeWriting > 0);
+        Assertions.assertEquals(0, arena.getUsedBytes());
+        Assertions.assertArrayEquals(objectMapper.writeValueAsBytes(new TailApiResponse(decodedLines, null, null)), bigBody.toByteArray());
+        Assertions.assertEquals(TailResponseCache.TailFormat.CBOR, decoded.format());
+        Assertions.assertEquals(objectMapper.readTree(bigBody.toByteArray()), new CBORMapper().readTree(decodedBody.toByteArray()));
+    }
+
+    @Test
+    void testETags() {
+        // Execution
+        String eTag = TailResponseCache.getETag("app.log\u00005");
+
+        // Assert
+        Assertions.assertEquals(eTag, TailResponseCache.getETag("app.log\u00005"));
+        Assertions.assertNotEquals(eTag, TailResponseCache.getETag("app.log\u00006"));
+        Assertions.assertTrue(eTag.matches("\"[0-9a-f]{32}\""));
+        Assertions.assertTrue(TailResponseCache.matches(eTag, eTag));
+        Assertions.assertTrue(TailResponseCache.matches("\"other\", W/" + eTag, eTag));
+        Assertions.assertTrue(TailResponseCache.matches("*", eTag));
+        Assertions.assertFalse(TailResponseCache.matches("\"other\"", eTag));
+        Assertions.assertFalse(TailResponseCache.matches(null, eTag));
+    }
+}
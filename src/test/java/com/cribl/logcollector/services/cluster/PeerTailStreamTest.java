@@ -0,0 +1,126 @@
+package com.cribl.logcollector.services.cluster;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * JUnit tests for {@link PeerTailStream}
+ */
+class PeerTailStreamTest {
+
+    @Test
+    void testEntriesAreReadWhateverFieldsComeFirst() throws Exception {
+        // Setup
+        PeerTailStream stream = stream("{\"filterUsed\":null,\"other\":{\"nested\":[1,2]},\"logEntries\":[\"b\",\"a\"],\"ignored\":true}");
+
+        // Execution
+        List<String> entries = readAll(stream);
+
+        // Assert
+        Assertions.assertEquals(List.of("b", "a"), entries);
+        Assertions.assertNull(stream.getError());
+        Assertions.assertEquals(2, stream.getEntriesRead());
+    }
+
+    @Test
+    void testBrokenResponsesKeepTheEntriesReadSoFar() throws Exception {
+        // Execution
+        PeerTailStream truncated = stream("{\"logEntries\":[\"b\",\"a\",");
+        List<String> truncatedEntries = readAll(truncated);
+        PeerTailStream noEntries = stream("{\"detail\":\"nope\"}");
+        List<String> noEntriesEntries = readAll(noEntries);
+        PeerTailStream notAnObject = stream("[\"b\"]");
+        readAll(notAnObject);
+
+        // Assert
+        Assertions.assertEquals(List.of("b", "a"), truncatedEntries);
+        Assertions.assertTrue(truncated.getError().startsWith("Error reading response"));
+        Assertions.assertEquals(2, truncated.getEntriesRead());
+        Assertions.assertTrue(noEntriesEntries.isEmpty());
+        Assertions.assertEquals("Response has no log entries", noEntries.getError());
+        Assertions.assertEquals("Unexpected response", notAnObject.getError());
+    }
+
+    @Test
+    void testStalledStreamIsCutOffAtItsDeadline() throws Exception {
+        // Setup. A peer that sent one entry and then stalls
+        PeerTailStream stream = new PeerTailStream("http://peer:8080", new StallingInputStream("{\"logEntries\":[\"first\","), new JsonFactory());
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+        // Execution
+        List<String> entries;
+        try {
+            stream.startDeadline(scheduler, Duration.ofMillis(100));
+            entries = readAll(stream);
+        } finally {
+            scheduler.shutdownNow();
+        }
+
+        // Assert
+        Assertions.assertEquals(List.of("first"), entries);
+        Assertions.assertEquals("Timed out", stream.getError());
+    }
+
+    /**
+     * Body that hands out its bytes, then blocks like a stalled connection until it's closed
+     */
+    private static class StallingInputStream extends InputStream {
+        private final InputStream sent;
+        private final CountDownLatch closed = new CountDownLatch(1);
+
+        private StallingInputStream(String sent) {
+            this.sent = new ByteArrayInputStream(sent.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0];
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (sent.available() > 0) {
+                return sent.read(b, off, len);
+            }
+            try {
+                closed.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw new IOException("Stream closed");
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+    }
+
+    private static PeerTailStream stream(String body) throws IOException {
+        InputStream inputStream = new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+        return new PeerTailStream("http://peer:8080", inputStream, new JsonFactory());
+    }
+
+    private static List<String> readAll(PeerTailStream stream) throws IOException {
+        List<String> entries = new ArrayList<>();
+        try (stream) {
+            for (String entry = stream.next(); entry != null; entry = stream.next()) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,150 @@
+package com.cribl.logcollector.services.filewatchers;
+
+import com.cribl.logcollector.services.matchers.LineMatchers;
+import com.cribl.logcollector.services.matchers.LogQuery;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * JUnit tests for {@link BlockTrigramIndex}
+ */
+class BlockTrigramIndexTest {
+
+    private static final String[] WORDS = {"INFO", "WARN", "DataNode", "block", "blk_", "receiving", "served", "/10.250.19.102", "PacketResponder"};
+
+    @Test
+    void testRareTermSkipsBlocks(@TempDir Path tempDir) throws Exception {
+        // Setup. ~2MB of lines, a long line crossing a block boundary and the term only in two places
+        Path logFile = tempDir.resolve("index.log");
+        StringBuilder log = new StringBuilder();
+        for (int i = 0; i < 40_000; i++) {
+            if (i == 1000) {
+                log.append("Found the NEEDLE early\n");
+            }
+            if (i == 2170) {
+                log.append("long line ").append("x".repeat(BlockTrigramIndex.BLOCK_SIZE)).append(" boundaryterm\n");
+            }
+            log.append("081109 203615 ").append(i).append(" INFO dfs.DataNode$PacketResponder: served block blk_").append(i).append('\n');
+        }
+        Files.writeString(logFile, log);
+        BlockTrigramIndex index = new BlockTrigramIndex(logFile, estimatedBytes -> task -> { }, ignored -> { });
+        index.catchUp();
+        ByteSeekerFileWatcherCallable watcher = new ByteSeekerFileWatcherCallable(logFile.toString(), 5, LineMatchers.containsIgnoreCase("needle"));
+        watcher.setBlockIndex(index, List.of(List.of("needle")));
+        ByteSeekerFileWatcherCallable boundaryWatcher = new ByteSeekerFileWatcherCallable(logFile.toString(), 5, LineMatchers.containsIgnoreCase("BoundaryTerm"));
+        boundaryWatcher.setBlockIndex(index, List.of(List.of("boundaryterm")));
+
+        // Execution
+        List<long[]> regions = index.getCandidateRegions((position, dst, dstOffset, length) -> {
+            try (FileChannel channel = FileChannel.open(logFile)) {
+                channel.read(ByteBuffer.wrap(dst, dstOffset, length), position);
+            }
+        }, Files.readAttributes(logFile, BasicFileAttributes.class).fileKey(), Files.size(logFile), 0, Files.size(logFile),
+                BlockTrigramIndex.getQueryTrigrams(List.of(List.of("needle"))));
+
+        // Assert
+        Assertions.assertEquals(Files.size(logFile), index.getIndexedUpTo());
+        Assertions.assertEquals(List.of("Found the NEEDLE early"), watcher.call());
+        Assertions.assertEquals(1, boundaryWatcher.call().size());
+        long scannedBytes = regions.stream().mapToLong(region -> region[1] - region[0]).sum();
+        Assertions.assertTrue(scannedBytes < Files.size(logFile) / 4, "scanned " + scannedBytes + " bytes");
+    }
+
+    @Test
+    void testHighEntropyBlocksStayCandidates(@TempDir Path tempDir) throws Exception {
+        // Setup. ~512KB of random base64 with the term in it, then ~2MB of repetitive lines
+        Random random = new Random(7);
+        Path logFile = tempDir.resolve("entropy.log");
+        StringBuilder log = new StringBuilder();
+        byte[] bytes = new byte[96];
+        for (int i = 0; i < 4_000; i++) {
+            random.nextBytes(bytes);
+            log.append("token=").append(Base64.getEncoder().encodeToString(bytes)).append(i == 2_000 ? " needle" : "").append('\n');
+        }
+        long randomBytes = log.length();
+        for (int i = 0; i < 30_000; i++) {
+            log.append("081109 203615 ").append(i).append(" INFO dfs.DataNode$PacketResponder: served block blk_").append(i).append('\n');
+        }
+        Files.writeString(logFile, log);
+        BlockTrigramIndex index = new BlockTrigramIndex(logFile, estimatedBytes -> task -> { }, ignored -> { });
+        index.catchUp();
+        ByteSeekerFileWatcherCallable watcher = new ByteSeekerFileWatcherCallable(logFile.toString(), 5, LineMatchers.containsIgnoreCase("needle"));
+        watcher.setBlockIndex(index, List.of(List.of("needle")));
+
+        // Execution
+        List<long[]> regions = index.getCandidateRegions((position, dst, dstOffset, length) -> {
+            try (FileChannel channel = FileChannel.open(logFile)) {
+                channel.read(ByteBuffer.wrap(dst, dstOffset, length), position);
+            }
+        }, Files.readAttributes(logFile, BasicFileAttributes.class).fileKey(), Files.size(logFile), 0, Files.size(logFile),
+                BlockTrigramIndex.getQueryTrigrams(List.of(List.of("needle"))));
+
+        // Assert. The random blocks would saturate any filter so are all scanned, the repetitive ones are mostly skipped
+        Assertions.assertEquals(1, watcher.call().size());
+        // Up to the start of the line crossing into the block shared with the repetitive lines
+        long wholeRandomBlocksEnd = (randomBytes / BlockTrigramIndex.BLOCK_SIZE) * BlockTrigramIndex.BLOCK_SIZE - 1024;
+        Assertions.assertTrue(regions.stream().anyMatch(region -> region[0] == 0 && region[1] >= wholeRandomBlocksEnd),
+                "regions " + regions.stream().map(Arrays::toString).toList());
+        long scannedBytes = regions.stream().mapToLong(region -> region[1] - region[0]).sum();
+        Assertions.assertTrue(scannedBytes < randomBytes + (Files.size(logFile) - randomBytes) / 4, "scanned " + scannedBytes + " bytes");
+    }
+
+    @Test
+    void testIndexedScansMatchFullScans(@TempDir Path tempDir) throws Exception {
+        // Setup
+        Random random = new Random(42);
+        Path logFile = tempDir.resolve("random.log");
+        Files.writeString(logFile, randomLines(random, 20_000));
+        BlockTrigramIndex index = new BlockTrigramIndex(logFile, estimatedBytes -> task -> { }, ignored -> { });
+
+        for (int round = 0; round < 3; round++) {
+            index.catchUp();
+
+            for (String filter : List.of("needle", "datanode", "blk_1234", "19.102", "\"packetresponder served\"", "zzz",
+                    "needle OR blk_777", "received1 NOT needle", "re:/blk_\\d+ served4/", "(needle OR zzz) warn")) {
+                // Execution
+                LogQuery query = LineMatchers.query(filter);
+                ByteSeekerFileWatcherCallable indexed = new ByteSeekerFileWatcherCallable(logFile.toString(), 50, query);
+                indexed.setBlockIndex(index, query.getRequiredLiterals());
+                ByteSeekerFileWatcherCallable fullScan = new ByteSeekerFileWatcherCallable(logFile.toString(), 50, query);
+
+                // Assert
+                Assertions.assertEquals(fullScan.readFileLinesInReverse(), indexed.readFileLinesInReverse(), "filter " + filter + " round " + round);
+            }
+
+            // Appended lines are only partly indexed, then the file is replaced by a shorter one
+            if (round == 0) {
+                Files.writeString(logFile, randomLines(random, 5_000) + "partial needle", StandardOpenOption.APPEND);
+            } else {
+                Files.writeString(logFile, randomLines(random, 3_000), StandardOpenOption.TRUNCATE_EXISTING);
+            }
+        }
+    }
+
+    private static String randomLines(Random random, int count) {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            int words = 1 + random.nextInt(12);
+            for (int w = 0; w < words; w++) {
+                lines.append(WORDS[random.nextInt(WORDS.length)]).append(random.nextInt(100_000)).append(' ');
+            }
+            if (random.nextInt(2_000) == 0) {
+                lines.append("NeEdLe");
+            }
+            lines.append(random.nextInt(10) == 0 ? "\r\n" : "\n");
+        }
+        return lines.toString();
+    }
+}
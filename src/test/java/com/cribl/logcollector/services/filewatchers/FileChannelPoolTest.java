@@ -0,0 +1,133 @@
+package com.cribl.logcollector.services.filewatchers;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * JUnit tests for {@link FileChannelPool}
+ */
+class FileChannelPoolTest {
+
+    @Test
+    void testChannelIsReusedUntilTheFileIsRotated(@TempDir Path tempDir) throws Exception {
+        // Setup
+        Path logFile = tempDir.resolve("app.log");
+        Files.writeString(logFile, "old\n");
+        FileChannelPool pool = new FileChannelPool(10, 60_000);
+
+        // Execution
+        FileChannel first;
+        try (FileChannelPool.Lease lease = pool.acquire(logFile)) {
+            first = lease.channel();
+        }
+        FileChannel second;
+        try (FileChannelPool.Lease lease = pool.acquire(logFile)) {
+            second = lease.channel();
+        }
+        // Rotate, the old file is moved away and a new one created in its place
+        Files.move(logFile, tempDir.resolve("app.log.1"));
+        Files.writeString(logFile, "new\n");
+        String read;
+        FileChannel rotated;
+        try (FileChannelPool.Lease lease = pool.acquire(logFile)) {
+            rotated = lease.channel();
+            read = read(rotated);
+        }
+
+        // Assert
+        Assertions.assertSame(first, second);
+        Assertions.assertNotSame(first, rotated);
+        Assertions.assertFalse(first.isOpen());
+        Assertions.assertEquals("new\n", read);
+        Assertions.assertEquals(1, pool.getOpenFiles());
+        Assertions.assertEquals(2, pool.getOpened());
+    }
+
+    @Test
+    void testClosedChannelIsReopened(@TempDir Path tempDir) throws Exception {
+        // Setup. An interrupted read closes the channel it was reading from
+        Path logFile = tempDir.resolve("app.log");
+        Files.writeString(logFile, "line\n");
+        FileChannelPool pool = new FileChannelPool(10, 60_000);
+        FileChannel interrupted;
+        try (FileChannelPool.Lease lease = pool.acquire(logFile)) {
+            interrupted = lease.channel();
+            Thread.currentThread().interrupt();
+            Assertions.assertThrows(ClosedByInterruptException.class, () -> read(lease.channel()));
+            Thread.interrupted();
+        }
+
+        // Execution
+        String read;
+        FileChannel reopened;
+        try (FileChannelPool.Lease lease = pool.acquire(logFile)) {
+            reopened = lease.channel();
+            read = read(reopened);
+        }
+
+        // Assert
+        Assertions.assertNotSame(interrupted, reopened);
+        Assertions.assertEquals("line\n", read);
+        Assertions.assertEquals(1, pool.getOpenFiles());
+        Assertions.assertEquals(2, pool.getOpened());
+    }
+
+    @Test
+    void testEvictedChannelStaysOpenUntilReleased(@TempDir Path tempDir) throws Exception {
+        // Setup. Room for a single open file
+        Path appLog = tempDir.resolve("app.log");
+        Path otherLog = tempDir.resolve("other.log");
+        Files.writeString(appLog, "app\n");
+        Files.writeString(otherLog, "other\n");
+        FileChannelPool pool = new FileChannelPool(1, 60_000);
+
+        // Execution
+        FileChannelPool.Lease appLease = pool.acquire(appLog);
+        FileChannel otherChannel;
+        try (FileChannelPool.Lease otherLease = pool.acquire(otherLog)) {
+            otherChannel = otherLease.channel();
+        }
+
+        // Assert. The read still using the evicted file can finish it
+        Assertions.assertEquals(1, pool.getOpenFiles());
+        Assertions.assertEquals("app\n", read(appLease.channel()));
+        appLease.close();
+        Assertions.assertFalse(appLease.channel().isOpen());
+        Assertions.assertTrue(otherChannel.isOpen());
+    }
+
+    @Test
+    void testIdleFilesAreClosed(@TempDir Path tempDir) throws Exception {
+        // Setup
+        Path logFile = tempDir.resolve("app.log");
+        Files.writeString(logFile, "app\n");
+        FileChannelPool pool = new FileChannelPool(10, 20);
+        FileChannel channel;
+        try (FileChannelPool.Lease lease = pool.acquire(logFile)) {
+            channel = lease.channel();
+        }
+        Assertions.assertTrue(channel.isOpen());
+        Thread.sleep(50);
+
+        // Execution
+        pool.closeIdle();
+
+        // Assert
+        Assertions.assertEquals(0, pool.getOpenFiles());
+        Assertions.assertFalse(channel.isOpen());
+    }
+
+    private static String read(FileChannel channel) throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+        channel.read(buffer, 0);
+        return new String(buffer.array(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,190 @@
+package com.cribl.logcollector.services.filewatchers;
+
+import com.cribl.logcollector.services.matchers.LineMatchers;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JUnit tests for {@link FileFollower}
+ */
+class FileFollowerTest {
+
+    private ScheduledExecutorService scheduler;
+    private ExecutorService sender;
+
+    /**
+     * Emitter that keeps the lines sent to it, optionally blocking every send until released
+     */
+    private static class RecordingEmitter extends SseEmitter {
+        private final BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+        private final CountDownLatch sendAllowed;
+        private volatile Throwable error;
+
+        private RecordingEmitter(CountDownLatch sendAllowed) {
+            this.sendAllowed = sendAllowed;
+        }
+
+        @Override
+        public void send(Object object) throws IOException {
+            try {
+                sendAllowed.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            lines.add((String) object);
+        }
+
+        @Override
+        public void completeWithError(Throwable ex) {
+            error = ex;
+        }
+
+        private List<String> take(int count) throws InterruptedException {
+            List<String> taken = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                String line = lines.poll(5, TimeUnit.SECONDS);
+                Assertions.assertNotNull(line, "Timed out waiting for line " + (i + 1) + " of " + count + ", got " + taken);
+                taken.add(line);
+            }
+            return taken;
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        scheduler = Executors.newScheduledThreadPool(1);
+        sender = Executors.newVirtualThreadPerTaskExecutor();
+    }
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdownNow();
+        sender.shutdownNow();
+    }
+
+    @Test
+    void testAppendedLinesArePushedToMatchingSubscribers(@TempDir Path tempDir) throws Exception {
+        // Setup. Lines already in the file aren't followed
+        Path logFile = tempDir.resolve("app.log");
+        Files.writeString(logFile, "old line\n");
+        RecordingEmitter all = new RecordingEmitter(new CountDownLatch(0));
+        RecordingEmitter errors = new RecordingEmitter(new CountDownLatch(0));
+        FileFollower follower = new FileFollower(logFile.toString(), scheduler, sender);
+        follower.addSubscriber(new FileFollower.Subscriber(all, null, 100));
+        follower.addSubscriber(new FileFollower.Subscriber(errors, LineMatchers.query("error"), 100));
+        follower.start();
+
+        // Execution. The partial line is only sent once its line return is written
+        append(logFile, "INFO one\nERROR two\nINFO thr");
+        List<String> first = all.take(2);
+        append(logFile, "ee\n");
+        List<String> second = all.take(1);
+        follower.stop();
+
+        // Assert
+        Assertions.assertEquals(List.of("INFO one", "ERROR two"), first);
+        Assertions.assertEquals(List.of("INFO three"), second);
+        Assertions.assertEquals(List.of("ERROR two"), errors.take(1));
+        Assertions.assertTrue(errors.lines.isEmpty());
+    }
+
+    @Test
+    void testTruncatedAndRotatedFilesAreFollowedFromTheirStart(@TempDir Path tempDir) throws Exception {
+        // Setup
+        Path logFile = tempDir.resolve("app.log");
+        Files.writeString(logFile, "a much longer line than what comes after the truncation\n");
+        RecordingEmitter emitter = new RecordingEmitter(new CountDownLatch(0));
+        FileFollower follower = new FileFollower(logFile.toString(), scheduler, sender);
+        follower.addSubscriber(new FileFollower.Subscriber(emitter, null, 100));
+        follower.start();
+
+        // Execution
+        Files.writeString(logFile, "truncated\n");
+        List<String> afterTruncation = emitter.take(1);
+        Files.move(logFile, tempDir.resolve("app.log.1"));
+        Files.writeString(logFile, "rotated 1\nrotated 2\n");
+        List<String> afterRotation = emitter.take(2);
+        follower.stop();
+
+        // Assert
+        Assertions.assertEquals(List.of("truncated"), afterTruncation);
+        Assertions.assertEquals(List.of("rotated 1", "rotated 2"), afterRotation);
+    }
+
+    @Test
+    void testRemovedSubscriberGetsNoMoreLines(@TempDir Path tempDir) throws Exception {
+        // Setup
+        Path logFile = tempDir.resolve("app.log");
+        Files.writeString(logFile, "");
+        RecordingEmitter leaving = new RecordingEmitter(new CountDownLatch(0));
+        RecordingEmitter staying = new RecordingEmitter(new CountDownLatch(0));
+        FileFollower follower = new FileFollower(logFile.toString(), scheduler, sender);
+        follower.addSubscriber(new FileFollower.Subscriber(leaving, null, 100));
+        follower.addSubscriber(new FileFollower.Subscriber(staying, null, 100));
+        follower.start();
+
+        // Execution
+        append(logFile, "one\n");
+        List<String> beforeLeaving = leaving.take(1);
+        staying.take(1);
+        follower.removeSubscriber(leaving);
+        append(logFile, "two\n");
+        List<String> afterLeaving = staying.take(1);
+        follower.removeSubscriber(staying);
+        follower.stop();
+
+        // Assert
+        Assertions.assertEquals(List.of("one"), beforeLeaving);
+        Assertions.assertEquals(List.of("two"), afterLeaving);
+        Assertions.assertTrue(leaving.lines.isEmpty());
+        Assertions.assertFalse(follower.hasSubscribers());
+    }
+
+    @Test
+    void testSlowClientIsDisconnectedWithoutHoldingUpOthers(@TempDir Path tempDir) throws Exception {
+        // Setup. The slow client's sends block until the end of the test and it has room for two queued lines
+        Path logFile = tempDir.resolve("app.log");
+        Files.writeString(logFile, "");
+        CountDownLatch slowSendAllowed = new CountDownLatch(1);
+        RecordingEmitter slow = new RecordingEmitter(slowSendAllowed);
+        RecordingEmitter fast = new RecordingEmitter(new CountDownLatch(0));
+        FileFollower follower = new FileFollower(logFile.toString(), scheduler, sender);
+        follower.addSubscriber(new FileFollower.Subscriber(slow, null, 2));
+        follower.addSubscriber(new FileFollower.Subscriber(fast, null, 100));
+        follower.start();
+
+        // Execution
+        append(logFile, "one\ntwo\nthree\nfour\nfive\n");
+        List<String> fastLines = fast.take(5);
+        slowSendAllowed.countDown();
+        follower.stop();
+
+        // Assert
+        Assertions.assertEquals(List.of("one", "two", "three", "four", "five"), fastLines);
+        Assertions.assertInstanceOf(IOException.class, slow.error);
+        Assertions.assertNull(fast.error);
+        Assertions.assertTrue(follower.hasSubscribers());
+    }
+
+    private static void append(Path file, String text) throws IOException {
+        Files.writeString(file, text, StandardOpenOption.APPEND);
+    }
+}
@@ -0,0 +1,46 @@
+package com.cribl.logcollector.services.filewatchers;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * JUnit tests for {@link MappedFileWatcherCallable}
+ */
+class MappedFileWatcherCallableTest {
+
+    @Test
+    void testTruncationDuringReadFallsBackToChannel(@TempDir Path tempDir) throws Exception {
+        // Setup. Two pages of lines, mapped as one window
+        Path logFile = tempDir.resolve("truncated.log");
+        Files.writeString(logFile, "x".repeat(4095) + "\n" + "y".repeat(4095) + "\n");
+        MappedFileWatcherCallable watcher = new MappedFileWatcherCallable(logFile.toString(), 10, null, 64 * 1024);
+
+        try (FileChannel channel = FileChannel.open(logFile)) {
+            ReverseLineScanner.ChunkReader reader = watcher.getChunkReader(channel);
+            byte[] chunk = new byte[4096];
+            reader.read(4096, chunk, 0, chunk.length);
+            Assertions.assertEquals("y".repeat(4095) + "\n", new String(chunk, StandardCharsets.US_ASCII));
+
+            // Execution. The second page is past the new end of the file
+            try (FileChannel writer = FileChannel.open(logFile, StandardOpenOption.WRITE)) {
+                writer.truncate(4096);
+            }
+            IOException pastEnd = Assertions.assertThrows(IOException.class, () -> reader.read(4096, chunk, 0, chunk.length));
+            reader.read(0, chunk, 0, chunk.length);
+
+            // Assert
+            Assertions.assertEquals("Unexpected end of file", pastEnd.getMessage());
+            Assertions.assertEquals("x".repeat(4095) + "\n", new String(chunk, StandardCharsets.US_ASCII));
+        }
+        Assertions.assertEquals(List.of("x".repeat(4095)), watcher.call());
+    }
+}
@@ -0,0 +1,149 @@
+package com.cribl.logcollector.services.filewatchers;
+
+import com.cribl.logcollector.services.ICriblFileWatcher;
+import com.cribl.logcollector.services.LogTimestampParser;
+import com.cribl.logcollector.services.TailLines;
+import com.cribl.logcollector.services.matchers.LineMatchers;
+import com.cribl.logcollector.services.stats.LogStatsAggregator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * JUnit tests for {@link ParallelReverseScanner}. Parallel reads have to return exactly what a single threaded read does
+ */
+class ParallelReverseScannerTest {
+
+    private static ForkJoinPool pool;
+
+    @BeforeAll
+    static void setUp() {
+        pool = new ForkJoinPool(4);
+    }
+
+    @AfterAll
+    static void tearDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    void testParallelReadsMatchSequentialReads(@TempDir Path tempDir) throws Exception {
+        // Setup. Tiny segments, so reads cross many segments and some lines are longer than a whole segment
+        Random random = new Random(11);
+        Path logFile = tempDir.resolve("app.log");
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            String level = random.nextInt(50) == 0 ? "ERROR" : "INFO";
+            content.append(i).append(' ').append(level).append(" request ").append("x".repeat(random.nextInt(random.nextInt(20) == 0 ? 300 : 40)));
+            content.append(random.nextInt(10) == 0 ? "\r\n\n" : "\n");
+        }
+        content.append("partial line");
+        Files.writeString(logFile, content.toString());
+        ParallelReverseScanner parallelScanner = new ParallelReverseScanner(pool, 128);
+        // Page bounds have to be line starts
+        long pageStart = content.indexOf("\n", 1000) + 1;
+        long pageEnd = content.indexOf("\n", 50_000) + 1;
+
+        for (String filter : new String[]{null, "error", "1 OR 7", "zzz"}) {
+            for (int maxLines : new int[]{1, 7, 100, 5000}) {
+                ByteSeekerFileWatcherCallable sequential = watcher(logFile, maxLines, filter, null);
+                ByteSeekerFileWatcherCallable parallel = watcher(logFile, maxLines, filter, parallelScanner);
+                String message = filter + " / " + maxLines;
+
+                // Execution
+                List<String> expectedTail = sequential.call();
+                List<String> tail = parallel.call();
+                TailLines expectedPage = sequential.readLinesBefore(pageStart, pageEnd, maxLines);
+                TailLines page = parallel.readLinesBefore(pageStart, pageEnd, maxLines);
+                List<String> expectedStream = new ArrayList<>();
+                sequential.streamLinesInReverse(maxLines, expectedStream::add);
+                List<String> stream = new ArrayList<>();
+                parallel.streamLinesInReverse(maxLines, stream::add);
+
+                // Assert
+                Assertions.assertEquals(expectedTail, tail, message);
+                Assertions.assertEquals(expectedPage, page, message);
+                for (int i = 0; i < page.size(); i++) {
+                    Assertions.assertEquals(expectedPage.getFileOffset(i), page.getFileOffset(i), message);
+                }
+                Assertions.assertEquals(expectedStream, stream, message);
+            }
+        }
+    }
+
+    @Test
+    void testAppendsAfterParallelRead(@TempDir Path tempDir) throws Exception {
+        // Setup
+        Path logFile = tempDir.resolve("app.log");
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            content.append("line ").append(i).append(i % 100 == 0 ? " error" : "").append('\n');
+        }
+        Files.writeString(logFile, content + "half");
+        ByteSeekerFileWatcherCallable watcher = watcher(logFile, 5, "error", new ParallelReverseScanner(pool, 64));
+        List<String> firstRead = watcher.call();
+
+        // Execution. Finish the partial line, which the incremental read has to pick up from its start
+        Files.writeString(logFile, content + "half error\n");
+        List<String> secondRead = watcher.call();
+
+        // Assert
+        Assertions.assertEquals(List.of("line 400 error", "line 300 error", "line 200 error", "line 100 error", "line 0 error"), firstRead);
+        Assertions.assertEquals(List.of("half error", "line 400 error", "line 300 error", "line 200 error", "line 100 error"), secondRead);
+    }
+
+    @Test
+    void testParallelAggregationMatchesSequentialAggregation(@TempDir Path tempDir) throws Exception {
+        // Setup. Windows ending within a segment, at a segment boundary and covering the whole file
+        Random random = new Random(5);
+        Path logFile = tempDir.resolve("app.log");
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            String level = random.nextInt(20) == 0 ? "ERROR" : "INFO";
+            content.append(String.format("2024-01-01 10:%02d:%02d %s status=%d %s", i / 60, i % 60, level, 200 + random.nextInt(4), "x".repeat(random.nextInt(100))));
+            content.append(random.nextInt(10) == 0 ? "\r\n" : "\n");
+        }
+        Files.writeString(logFile, content.toString());
+        LogTimestampParser timestampParser = new LogTimestampParser(LogTimestampParser.DEFAULT_PATTERN, ZoneOffset.UTC);
+        ObjectMapper objectMapper = new ObjectMapper();
+        ParallelReverseScanner parallelScanner = new ParallelReverseScanner(pool, 256);
+
+        for (String filter : new String[]{null, "error"}) {
+            for (String field : new String[]{null, "status"}) {
+                for (int maxLines : new int[]{1, 7, 100, 2999, Integer.MAX_VALUE}) {
+                    ByteSeekerFileWatcherCallable sequential = watcher(logFile, maxLines, filter, null);
+                    ByteSeekerFileWatcherCallable parallel = watcher(logFile, maxLines, filter, parallelScanner);
+                    String message = filter + " / " + field + " / " + maxLines;
+
+                    // Execution
+                    LogStatsAggregator expected = sequential.aggregateLinesInReverse(0, ICriblFileWatcher.END_OF_FILE, maxLines,
+                            () -> new LogStatsAggregator(field, 60_000, timestampParser, 100, 100));
+                    LogStatsAggregator aggregated = parallel.aggregateLinesInReverse(0, ICriblFileWatcher.END_OF_FILE, maxLines,
+                            () -> new LogStatsAggregator(field, 60_000, timestampParser, 100, 100));
+
+                    // Assert
+                    Assertions.assertEquals(filter == null ? Math.min(maxLines, 3000) : Math.min(maxLines, expected.getLines()), aggregated.getLines(), message);
+                    Assertions.assertEquals(objectMapper.writeValueAsString(expected.toResponse(filter, false)),
+                            objectMapper.writeValueAsString(aggregated.toResponse(filter, false)), message);
+                }
+            }
+        }
+    }
+
+    private static ByteSeekerFileWatcherCallable watcher(Path logFile, int maxLines, String filter, ParallelReverseScanner parallelScanner) {
+        ByteSeekerFileWatcherCallable watcher = new ByteSeekerFileWatcherCallable(logFile.toString(), maxLines, filter == null ? null : LineMatchers.query(filter));
+        watcher.setParallelScanner(parallelScanner);
+        return watcher;
+    }
+}
@@ -0,0 +1,87 @@
+package com.cribl.logcollector.services.filewatchers;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * JUnit tests for {@link ReverseLineScanner} read ahead and the {@link ByteBufferPool} size classes it reads into
+ */
+class ReverseLineScannerTest {
+
+    private static final int BUFFER_SIZE = 64;
+    private static final int MAX_CHUNK_SIZE = 1024;
+
+    @Test
+    void testReadAheadGrowsFromTheExpectedBytes() throws Exception {
+        // Setup. 500 lines of 10 bytes, and a line longer than the biggest chunk
+        StringBuilder content = new StringBuilder("x".repeat(3000)).append('\n');
+        for (int i = 0; i < 500; i++) {
+            content.append(String.format("line %04d\n", i));
+        }
+        byte[] file = content.toString().getBytes(StandardCharsets.UTF_8);
+        ReverseLineScanner scanner = new ReverseLineScanner(new ByteBufferPool(BUFFER_SIZE, MAX_CHUNK_SIZE, 8, false), MAX_CHUNK_SIZE);
+        ReverseLineScanner fixedScanner = new ReverseLineScanner(new ByteBufferPool(BUFFER_SIZE, 8));
+
+        // Execution
+        List<Integer> tailReads = new ArrayList<>();
+        List<String> tail = scan(scanner, file, 20 * 10, 20, tailReads);
+        List<Integer> deepReads = new ArrayList<>();
+        List<String> all = scan(scanner, file, 0, Integer.MAX_VALUE, deepReads);
+        List<Integer> fixedReads = new ArrayList<>();
+        List<String> fixedAll = scan(fixedScanner, file, 0, Integer.MAX_VALUE, fixedReads);
+
+        // Assert. A tail sized right takes one read, a deep scan doubles its reads up to the max chunk
+        Assertions.assertEquals(List.of(256), tailReads);
+        Assertions.assertEquals("line 0499", tail.get(0));
+        Assertions.assertEquals("line 0480", tail.get(19));
+        // Less the partial line carried over in front of each chunk
+        for (int i = 0; i < 5; i++) {
+            int chunkSize = BUFFER_SIZE << i;
+            Assertions.assertTrue(deepReads.get(i) > chunkSize - 10 && deepReads.get(i) <= chunkSize, "Read " + i + ": " + deepReads);
+        }
+        Assertions.assertEquals(fixedAll, all);
+        Assertions.assertEquals(501, all.size());
+        Assertions.assertEquals("x".repeat(3000), all.get(500));
+        Assertions.assertTrue(fixedReads.size() > 2 * deepReads.size());
+    }
+
+    @Test
+    void testPoolRoundsUpToSizeClasses() {
+        // Setup
+        ByteBufferPool pool = new ByteBufferPool(BUFFER_SIZE, MAX_CHUNK_SIZE, 4, true);
+
+        // Execution
+        ByteBuffer small = pool.acquire(1);
+        ByteBuffer rounded = pool.acquire(BUFFER_SIZE * 2 + 1);
+        ByteBuffer oversized = pool.acquire(MAX_CHUNK_SIZE + 1);
+        pool.release(rounded);
+
+        // Assert
+        Assertions.assertTrue(small.isDirect());
+        Assertions.assertEquals(BUFFER_SIZE, small.capacity());
+        Assertions.assertEquals(BUFFER_SIZE * 4, rounded.capacity());
+        Assertions.assertEquals(MAX_CHUNK_SIZE + 1, oversized.capacity());
+        Assertions.assertSame(rounded, pool.acquire(BUFFER_SIZE * 3));
+    }
+
+    private static List<String> scan(ReverseLineScanner scanner, byte[] file, long expectedBytes, int maxLines, List<Integer> reads)
+            throws Exception {
+        List<String> lines = new ArrayList<>();
+        scanner.scan((position, dst, dstOffset, length) -> {
+            reads.add(length);
+            System.arraycopy(file, (int) position, dst, dstOffset, length);
+        }, 0, file.length, expectedBytes, (bytes, offset, length, fileOffset) -> {
+            // Skip the empty "line" after the final line return, like watchers do
+            if (length > 0) {
+                lines.add(new String(bytes, offset, length, StandardCharsets.UTF_8));
+            }
+            return lines.size() < maxLines;
+        });
+        return lines;
+    }
+}
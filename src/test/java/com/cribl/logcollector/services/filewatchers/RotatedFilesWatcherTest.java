@@ -0,0 +1,174 @@
+package com.cribl.logcollector.services.filewatchers;
+
+import com.cribl.logcollector.services.EncodedTailLines;
+import com.cribl.logcollector.services.ICriblFileWatcher;
+import com.cribl.logcollector.services.TailLineArena;
+import com.cribl.logcollector.services.TailLines;
+import com.cribl.logcollector.services.matchers.LineMatchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * JUnit tests for {@link RotatedFilesWatcher} and {@link GzipSpool}
+ */
+class RotatedFilesWatcherTest {
+
+    @Test
+    void testReadsCarryOnIntoRotatedFiles(@TempDir Path tempDir) throws Exception {
+        // Setup. The live file, a plain and two compressed rotated files, and one past a gap in the numbering that's never read
+        Path logFile = tempDir.resolve("app.log");
+        Files.writeString(logFile, "live 1\nlive 2\n");
+        Files.writeString(tempDir.resolve("app.log.1"), "one 1\none 2\n");
+        writeGzip(tempDir.resolve("app.log.2.gz"), "two 1\ntwo 2\ntwo 3\n");
+        writeGzip(tempDir.resolve("app.log.3.gz"), "three 1\n");
+        Files.writeString(tempDir.resolve("app.log.5"), "five 1\n");
+        GzipSpool gzipSpool = new GzipSpool(tempDir.resolve("spool"), 1024 * 1024);
+
+        // Execution
+        RotatedFilesWatcher watcher = rotatedFilesWatcher(logFile, 100, null, gzipSpool);
+        TailLines tail = watcher.call();
+        EncodedTailLines encodedTail = watcher.callEncoded(TailLineArena.HEAP);
+        watcher.setMaxLines(5);
+        TailLines shortTail = watcher.call();
+        TailLines filtered = rotatedFilesWatcher(logFile, 100, "re:/ [13]$/", gzipSpool).call();
+        TailLines page = watcher.readLinesBefore(0, tail.getFileOffset(0), 3);
+        List<String> streamed = new ArrayList<>();
+        watcher.streamLinesInReverse(4, streamed::add);
+
+        // Assert
+        Assertions.assertEquals(List.of("live 2", "live 1", "one 2", "one 1", "two 3", "two 2", "two 1", "three 1"), tail);
+        Assertions.assertEquals(List.of("live 2", "live 1", "one 2", "one 1", "two 3"), shortTail);
+        Assertions.assertEquals(List.of("live 1", "one 1", "two 3", "two 1", "three 1"), filtered);
+        Assertions.assertEquals(List.of("live 1", "one 2", "one 1"), page);
+        Assertions.assertEquals(List.of("live 2", "live 1", "one 2", "one 1"), streamed);
+        // Only the live file's lines have offsets a cursor can point at
+        Assertions.assertEquals(TailLines.UNKNOWN_OFFSET, tail.getFileOffset(2));
+        Assertions.assertEquals(tail, encodedTail);
+        Assertions.assertEquals(tail.getFileOffset(1), encodedTail.getFileOffset(1));
+        Assertions.assertEquals(TailLines.UNKNOWN_OFFSET, encodedTail.getFileOffset(2));
+        encodedTail.release();
+    }
+
+    @Test
+    void testNextRotationIsPickedUp(@TempDir Path tempDir) throws Exception {
+        // Setup
+        Path logFile = tempDir.resolve("app.log");
+        Files.writeString(logFile, "b 1\n");
+        writeGzip(tempDir.resolve("app.log.1.gz"), "a 1\na 2\n");
+        GzipSpool gzipSpool = new GzipSpool(tempDir.resolve("spool"), 1024 * 1024);
+        RotatedFilesWatcher watcher = rotatedFilesWatcher(logFile, 10, null, gzipSpool);
+        TailLines beforeRotation = watcher.call();
+
+        // Execution. Rotate the way logrotate does, renaming the archive and moving the live file aside
+        Files.move(tempDir.resolve("app.log.1.gz"), tempDir.resolve("app.log.2.gz"));
+        Files.move(logFile, tempDir.resolve("app.log.1"));
+        Files.writeString(logFile, "c 1\n");
+        TailLines afterRotation = watcher.call();
+
+        // Assert
+        Assertions.assertEquals(List.of("b 1", "a 2", "a 1"), beforeRotation);
+        Assertions.assertEquals(List.of("c 1", "b 1", "a 2", "a 1"), afterRotation);
+        // The renamed archive's spool file was reused rather than decompressed again
+        try (Stream<Path> spoolFiles = Files.list(gzipSpool.getSpoolDir())) {
+            Assertions.assertEquals(1, spoolFiles.count());
+        }
+    }
+
+    @Test
+    void testSpoolFilesOverBudgetAreSharedAndDeletedOnceClosed(@TempDir Path tempDir) throws Exception {
+        // Setup
+        Path archive = tempDir.resolve("big.log.1.gz");
+        writeGzip(archive, "x".repeat(10_000) + "\n");
+        GzipSpool gzipSpool = new GzipSpool(tempDir.resolve("spool"), 1000);
+
+        // Execution. The second read starts while the first still has the copy open
+        GzipSpool.SpooledFile first = gzipSpool.open(archive);
+        GzipSpool.SpooledFile second = gzipSpool.open(archive);
+        Path spoolFile = first.getPath();
+        long spoolFileSize = Files.size(spoolFile);
+        first.close();
+        boolean existsWhileSecondIsOpen = Files.exists(spoolFile);
+        second.close();
+
+        // Assert
+        Assertions.assertSame(first, second);
+        Assertions.assertEquals(10_001, spoolFileSize);
+        Assertions.assertTrue(existsWhileSecondIsOpen);
+        Assertions.assertFalse(Files.exists(spoolFile));
+        // Decompressed again by the next read
+        try (GzipSpool.SpooledFile third = gzipSpool.open(archive)) {
+            Assertions.assertNotEquals(spoolFile, third.getPath());
+            Assertions.assertEquals(10_001, Files.size(third.getPath()));
+        }
+    }
+
+    @Test
+    void testEachSpoolHasItsOwnDir(@TempDir Path tempDir) throws Exception {
+        // Setup. A spool dir left behind by a process that's gone, and an archive spooled by a running instance
+        Path spoolDir = tempDir.resolve("spool");
+        Path staleDir = Files.createDirectories(spoolDir.resolve("spool-" + Integer.MAX_VALUE + "-1"));
+        Files.writeString(staleDir.resolve("rotated1.spool"), "stale");
+        Path archive = tempDir.resolve("app.log.1.gz");
+        writeGzip(archive, "a 1\n");
+        GzipSpool running = new GzipSpool(spoolDir, 1024 * 1024);
+        Path runningFile;
+        try (GzipSpool.SpooledFile spooledFile = running.open(archive)) {
+            runningFile = spooledFile.getPath();
+        }
+
+        // Execution
+        GzipSpool started = new GzipSpool(spoolDir, 1024 * 1024);
+        boolean runningFileKept = Files.exists(runningFile);
+        running.close();
+
+        // Assert
+        Assertions.assertFalse(Files.exists(staleDir));
+        Assertions.assertTrue(runningFileKept);
+        Assertions.assertNotEquals(running.getSpoolDir(), started.getSpoolDir());
+        Assertions.assertFalse(Files.exists(running.getSpoolDir()));
+        Assertions.assertTrue(Files.exists(started.getSpoolDir()));
+    }
+
+    @Test
+    void testKeptRotatedLinesAreWeighedAndReleased(@TempDir Path tempDir) throws Exception {
+        // Setup
+        Path logFile = tempDir.resolve("app.log");
+        Files.writeString(logFile, "live 1\n");
+        Files.writeString(tempDir.resolve("app.log.1"), "one 1\none 2\n");
+        RotatedFilesWatcher watcher = rotatedFilesWatcher(logFile, 10, null, new GzipSpool(tempDir.resolve("spool"), 1024 * 1024));
+
+        // Execution
+        TailLines tail = watcher.call();
+        long keptBytes = watcher.getKeptBytes();
+        watcher.releaseCachedLines();
+        long releasedBytes = watcher.getKeptBytes();
+        TailLines tailAfterRelease = watcher.call();
+
+        // Assert
+        Assertions.assertTrue(keptBytes >= "one 1".length() + "one 2".length(), "Kept " + keptBytes);
+        Assertions.assertEquals(0, releasedBytes);
+        Assertions.assertEquals(List.of("live 1", "one 2", "one 1"), tail);
+        Assertions.assertEquals(tail, tailAfterRelease);
+    }
+
+    private static RotatedFilesWatcher rotatedFilesWatcher(Path logFile, int maxLines, String filter, GzipSpool gzipSpool) {
+        ICriblFileWatcher liveFileWatcher = new ByteSeekerFileWatcherCallable(logFile.toString(), maxLines, filter == null ? null : LineMatchers.query(filter));
+        return new RotatedFilesWatcher(liveFileWatcher, logFile.toString(), filter == null ? null : LineMatchers.query(filter), 10, gzipSpool);
+    }
+
+    private static void writeGzip(Path file, String content) throws IOException {
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file))) {
+            out.write(content.getBytes());
+        }
+    }
+}
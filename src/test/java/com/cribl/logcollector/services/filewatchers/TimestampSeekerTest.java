@@ -0,0 +1,91 @@
+package com.cribl.logcollector.services.filewatchers;
+
+import com.cribl.logcollector.services.ICriblFileWatcher;
+import com.cribl.logcollector.services.LogTimestampParser;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * JUnit tests for {@link TimestampSeeker}
+ */
+class TimestampSeekerTest {
+
+    private static final LogTimestampParser PARSER = new LogTimestampParser(LogTimestampParser.DEFAULT_PATTERN, ZoneOffset.UTC);
+
+    private static final LocalDateTime START = LocalDateTime.of(2024, 1, 15, 2, 0, 0);
+
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern(LogTimestampParser.DEFAULT_PATTERN);
+
+    @Test
+    void testFindFirstLineAtOrAfterMatchesLinearScan() throws Exception {
+        // Setup. One line every other second, with an untimestamped stack trace line after every 7th and a partial line at the end
+        StringBuilder log = new StringBuilder();
+        List<Long> lineStarts = new ArrayList<>();
+        List<Long> lineTimestamps = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            LocalDateTime time = START.plusSeconds(i * 2L);
+            lineStarts.add((long) log.toString().getBytes(StandardCharsets.UTF_8).length);
+            lineTimestamps.add(time.toInstant(ZoneOffset.UTC).toEpochMilli());
+            log.append(FORMATTER.format(time)).append(" INFO request ").append(i).append(" ✓\n");
+            if (i % 7 == 0) {
+                log.append("    at com.cribl.Foo.bar(Foo.java:").append(i).append(")\n");
+            }
+        }
+        log.append("2024-01-15 03");
+        byte[] bytes = log.toString().getBytes(StandardCharsets.UTF_8);
+        ReverseLineScanner.ChunkReader reader = (position, dst, dstOffset, length) -> System.arraycopy(bytes, (int) position, dst, dstOffset, length);
+        TimestampSeeker seeker = new TimestampSeeker(reader, bytes.length, PARSER);
+
+        for (int second = -5; second < 1010; second++) {
+            // Execution
+            long target = START.plusSeconds(second).toInstant(ZoneOffset.UTC).toEpochMilli();
+            long offset = seeker.findFirstLineAtOrAfter(target);
+
+            // Assert
+            long expected = bytes.length;
+            for (int i = 0; i < lineTimestamps.size(); i++) {
+                if (lineTimestamps.get(i) >= target) {
+                    expected = lineStarts.get(i);
+                    break;
+                }
+            }
+            Assertions.assertEquals(expected, offset, "second " + second);
+        }
+    }
+
+    @Test
+    void testReadTimeRange(@TempDir Path tempDir) throws Exception {
+        // Setup
+        Path logFile = tempDir.resolve("range.log");
+        Files.writeString(logFile, """
+                2024-01-15 02:09:59 INFO before
+                2024-01-15 02:10:00 ERROR first
+                    at com.cribl.Foo.bar(Foo.java:10)
+                2024-01-15 02:12:30 INFO middle
+                2024-01-15 02:15:00 INFO after
+                """);
+        ByteSeekerFileWatcherCallable watcher = new ByteSeekerFileWatcherCallable(logFile.toString(), 10);
+        long since = LocalDateTime.of(2024, 1, 15, 2, 10).toInstant(ZoneOffset.UTC).toEpochMilli();
+        long until = LocalDateTime.of(2024, 1, 15, 2, 15).toInstant(ZoneOffset.UTC).toEpochMilli();
+
+        // Execution
+        long startOffset = watcher.findTimestampOffset(since, PARSER);
+        long endOffset = watcher.findTimestampOffset(until, PARSER);
+        List<String> logLines = watcher.readLinesBefore(startOffset, endOffset, 10);
+        long pastEnd = watcher.findTimestampOffset(until + 60_000, PARSER);
+
+        // Assert
+        Assertions.assertEquals(List.of("2024-01-15 02:12:30 INFO middle", "    at com.cribl.Foo.bar(Foo.java:10)", "2024-01-15 02:10:00 ERROR first"), logLines);
+        Assertions.assertEquals(ICriblFileWatcher.END_OF_FILE, pastEnd);
+    }
+}
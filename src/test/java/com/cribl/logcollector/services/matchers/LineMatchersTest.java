@@ -0,0 +1,40 @@
+package com.cribl.logcollector.services.matchers;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * JUnit tests for {@link LineMatchers}
+ */
+class LineMatchersTest {
+
+    @Test
+    void testAsciiContainsIgnoreCase() {
+        ILineMatcher matcher = LineMatchers.containsIgnoreCase("Error");
+
+        Assertions.assertTrue(matcher.matches("2024-01-01 ERROR Disk full"));
+        Assertions.assertTrue(matcher.matches("error"));
+        Assertions.assertTrue(matcher.matches("some eRrOr"));
+        Assertions.assertFalse(matcher.matches("2024-01-01 INFO Erro r"));
+        Assertions.assertFalse(matcher.matches("Err"));
+        Assertions.assertTrue(matcher.matches("Zürich ERROR ünïcode"));
+    }
+
+    @Test
+    void testMatchesByteRange() {
+        ILineMatcher matcher = LineMatchers.containsIgnoreCase("abc");
+        byte[] bytes = "abc|xyz|ABC".getBytes();
+
+        Assertions.assertTrue(matcher.matches(bytes, 8, 3));
+        Assertions.assertFalse(matcher.matches(bytes, 3, 5));
+        Assertions.assertFalse(matcher.matches(bytes, 1, 5));
+    }
+
+    @Test
+    void testNonAsciiContainsIgnoreCase() {
+        ILineMatcher matcher = LineMatchers.containsIgnoreCase("ÉCHEC");
+
+        Assertions.assertTrue(matcher.matches("connexion échec"));
+        Assertions.assertFalse(matcher.matches("connexion echec"));
+    }
+}
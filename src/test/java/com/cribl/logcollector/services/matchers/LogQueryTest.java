@@ -0,0 +1,169 @@
+package com.cribl.logcollector.services.matchers;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * JUnit tests for {@link LogQuery} and {@link AsciiAhoCorasick}
+ */
+class LogQueryTest {
+
+    @Test
+    void testBooleanQueries() {
+        // Setup
+        String error = "2024-01-01 ERROR [worker-1] Request timeout after 30s";
+        String warn = "2024-01-01 WARN [worker-2] Slow request";
+        String info = "2024-01-01 INFO [worker-1] Request served";
+
+        // Execution
+        LogQuery implicitAnd = LogQuery.parse("request Worker-1");
+        LogQuery or = LogQuery.parse("error OR warn");
+        LogQuery not = LogQuery.parse("request NOT (error OR warn)");
+        LogQuery phrase = LogQuery.parse("\"slow request\"");
+        LogQuery nested = LogQuery.parse("(timeout AND worker-1) OR (slow AND NOT worker-1)");
+
+        // Assert
+        Assertions.assertTrue(implicitAnd.matches(error));
+        Assertions.assertTrue(implicitAnd.matches(info));
+        Assertions.assertFalse(implicitAnd.matches(warn));
+        Assertions.assertTrue(or.matches(error));
+        Assertions.assertTrue(or.matches(warn));
+        Assertions.assertFalse(or.matches(info));
+        Assertions.assertEquals(List.of(false, false, true), List.of(not.matches(error), not.matches(warn), not.matches(info)));
+        Assertions.assertEquals(List.of(false, true, false), List.of(phrase.matches(error), phrase.matches(warn), phrase.matches(info)));
+        Assertions.assertEquals(List.of(true, true, false), List.of(nested.matches(error), nested.matches(warn), nested.matches(info)));
+        // Lower case operators are plain terms
+        Assertions.assertFalse(LogQuery.parse("error or warn").matches(error));
+        Assertions.assertTrue(LogQuery.parse("").matches(info));
+        Assertions.assertTrue(LogQuery.parse("ÉCHEC OR zzz").matches("connexion échec"));
+    }
+
+    @Test
+    void testRegexQueries() {
+        // Setup
+        String line = "GET /api/users/1234 took 250ms status=500";
+
+        // Execution
+        LogQuery slashes = LogQuery.parse("re:/\\/api\\/users\\/\\d+ / get");
+        LogQuery bare = LogQuery.parse("re:status=5\\d\\d NOT re:took\\s\\d{4}ms");
+
+        // Assert
+        Assertions.assertTrue(slashes.matches(line));
+        Assertions.assertTrue(bare.matches(line));
+        Assertions.assertFalse(bare.matches("status=200 took 250ms"));
+        Assertions.assertFalse(LogQuery.parse("re:/users\\/\\d{5}/").matches(line));
+        Assertions.assertTrue(LogQuery.parse("re:/STATUS=(404|500)/").matches(line));
+    }
+
+    @Test
+    void testRegexLiterals() {
+        Assertions.assertEquals(List.of("/api/users/", " took "), LogQuery.getRegexLiterals("/api/users/\\d+ took \\d+ms"));
+        Assertions.assertEquals(List.of("status=", " timeout"), LogQuery.getRegexLiterals("^Status=[45]\\d\\d.*(?:retry)? timeouts?"));
+        Assertions.assertEquals(List.of("abc"), LogQuery.getRegexLiterals("abcd?e*f{2}(gh|ij)"));
+        Assertions.assertEquals(List.of("ver", "1.2"), LogQuery.getRegexLiterals("ver+1\\.2"));
+        // Alternation, back references and comments mode can't promise any literal
+        Assertions.assertEquals(List.of(), LogQuery.getRegexLiterals("error|warn"));
+        Assertions.assertEquals(List.of(), LogQuery.getRegexLiterals("(\\w+) said \\1"));
+        Assertions.assertEquals(List.of(), LogQuery.getRegexLiterals("(?x) timeout # comment"));
+    }
+
+    @Test
+    void testRequiredLiterals() {
+        Assertions.assertEquals(List.of(List.of("error", "disk")), LogQuery.parse("ERROR disk").getRequiredLiterals());
+        Assertions.assertEquals(List.of(List.of("disk", "error"), List.of("disk", "warn")), LogQuery.parse("disk (error OR warn)").getRequiredLiterals());
+        Assertions.assertEquals(List.of(List.of("disk")), LogQuery.parse("disk NOT error").getRequiredLiterals());
+        Assertions.assertEquals(List.of(List.of("took ")), LogQuery.parse("re:/took \\d+/").getRequiredLiterals());
+        Assertions.assertNull(LogQuery.parse("NOT error").getRequiredLiterals());
+        Assertions.assertNull(LogQuery.parse("error OR re:/e.r/").getRequiredLiterals());
+        Assertions.assertEquals(LogQuery.parse("(Disk AND error)").toString(), LogQuery.parse("disk   ERROR").toString());
+    }
+
+    @Test
+    void testInvalidQueries() {
+        for (String query : List.of("(error", "error)", "error OR", "NOT", "\"unterminated", "re:/unterminated", "re:/[a-/", "AND error")) {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> LogQuery.parse(query), query);
+        }
+    }
+
+    @Test
+    void testEmptyQueriesMatchEveryLine() {
+        for (String query : List.of("", " ", "\t \n")) {
+            // Execution
+            LogQuery empty = LogQuery.parse(query);
+
+            // Assert
+            Assertions.assertTrue(empty.matches("2024-01-01 ERROR [worker-1] Request timeout"), '"' + query + '"');
+            Assertions.assertTrue(empty.matches("x"), '"' + query + '"');
+            Assertions.assertNull(empty.getRequiredLiterals(), '"' + query + '"');
+        }
+        Assertions.assertTrue(LineMatchers.query("   ").matches("any line"));
+    }
+
+    @Test
+    void testRegexesThatCanBacktrackForeverAreRejected() {
+        // Setup
+        String tooLong = "re:/" + "a".repeat(LogQuery.MAX_REGEX_LENGTH + 1) + "/";
+
+        // Execution
+        List<String> nested = List.of("re:/(a+)+b/", "re:/(\\w*\\s?)*$/", "re:/((ab)*c)+/", "re:/(x{2,})*/", "re:/([a-z]+.)+x/");
+        List<String> allowed = List.of("re:/(ab)+c/", "re:/(a|b)*c/", "re:/[(]a+[)]+/", "re:/\\(a+\\)+/", "re:/(a{2,5})+/", "re:/(\\d+)-(\\d+)/");
+
+        // Assert
+        Assertions.assertThrows(IllegalArgumentException.class, () -> LogQuery.parse(tooLong));
+        for (String query : nested) {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> LogQuery.parse(query), query);
+        }
+        for (String query : allowed) {
+            Assertions.assertDoesNotThrow(() -> LogQuery.parse(query), query);
+        }
+    }
+
+    @Test
+    void testSlowRegexMatchTimesOut() {
+        // Setup. Adjacent repetitions get past the nested repetition check, but still try every way of splitting the a's between them
+        LogQuery query = LogQuery.parse("re:/a*a*a*a*a*a*b/");
+        String line = "a".repeat(2000);
+
+        // Execution
+        long start = System.nanoTime();
+        Assertions.assertThrows(RegexTimeoutException.class, () -> query.matches(line));
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        // Assert
+        Assertions.assertTrue(elapsedMillis < 5_000, "Took " + elapsedMillis + " milliseconds");
+        Assertions.assertTrue(query.matches("aaab"));
+    }
+
+    @Test
+    void testAhoCorasickMatchesIndexOf() {
+        // Setup. A small alphabet so patterns overlap and share prefixes and suffixes
+        Random random = new Random(7);
+        List<String> patterns = List.of("ab", "bab", "abba", "b", "Aab", "baa", "abab");
+        AsciiAhoCorasick search = new AsciiAhoCorasick(patterns);
+
+        for (int round = 0; round < 1000; round++) {
+            StringBuilder text = new StringBuilder();
+            for (int i = random.nextInt(12); i > 0; i--) {
+                text.append("aAbB\u00e9".charAt(random.nextInt(5)));
+            }
+            byte[] bytes = ("x" + text + "x").getBytes(StandardCharsets.UTF_8);
+
+            // Execution
+            long found = search.search(bytes, 1, bytes.length - 2);
+
+            // Assert
+            long expected = 0;
+            for (int p = 0; p < patterns.size(); p++) {
+                if (text.toString().toLowerCase(Locale.ROOT).contains(patterns.get(p).toLowerCase(Locale.ROOT))) {
+                    expected |= 1L << p;
+                }
+            }
+            Assertions.assertEquals(expected, found, text.toString());
+        }
+    }
+}
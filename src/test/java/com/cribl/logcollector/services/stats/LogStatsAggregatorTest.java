@@ -0,0 +1,129 @@
+package com.cribl.logcollector.services.stats;
+
+import com.cribl.logcollector.models.LogStatsApiResponse;
+import com.cribl.logcollector.services.LogTimestampParser;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * JUnit tests for {@link LogStatsAggregator} and the level and field lookups it counts with
+ */
+class LogStatsAggregatorTest {
+
+    private static final LogTimestampParser TIMESTAMP_PARSER = new LogTimestampParser(LogTimestampParser.DEFAULT_PATTERN, ZoneOffset.UTC);
+
+    @Test
+    void testLevelsAndFieldsAreFoundInBytes() {
+        // Execution / Assert
+        Assertions.assertEquals("INFO", level("081109 203615 148 INFO dfs.DataNode$PacketResponder: ERROR in message"));
+        Assertions.assertEquals("ERROR", level("[ERROR] Connection reset"));
+        Assertions.assertEquals("WARNING", level("2024-01-01 10:00:00 WARNING disk at 91%"));
+        Assertions.assertNull(level("INFORMATION about Errors, not an error level"));
+        Assertions.assertNull(level("\tat com.cribl.Trace.line(Trace.java:10)"));
+
+        Assertions.assertEquals("200", field("status", "GET /index status=200 took=5ms"));
+        Assertions.assertEquals("not found", field("msg", "status=404 msg=\"not found\" x=1"));
+        Assertions.assertEquals("db-1", field("host", "{\"ts\": 1, \"host\" : \"db-1\", \"hostname\": \"other\"}"));
+        Assertions.assertEquals("503", field("status", "{\"status\":503}"));
+        Assertions.assertEquals("2", field("status", "http_status=1 status=2"));
+        Assertions.assertNull(field("status", "status= empty and the status is unknown"));
+    }
+
+    @Test
+    void testCountsPerGroupAndBucket() {
+        // Setup
+        LogStatsAggregator aggregator = new LogStatsAggregator(null, 60_000, TIMESTAMP_PARSER, 100, 10);
+        List<String> lines = List.of(
+                "2024-01-01 10:02:10 ERROR b",
+                "\tat Trace.line",
+                "2024-01-01 10:01:30 INFO a",
+                "2024-01-01 10:01:30 ERROR a",
+                "2024-01-01 10:00:59 INFO a",
+                "no timestamp WARN");
+
+        // Execution
+        for (String line : lines) {
+            accept(aggregator, line);
+        }
+        LogStatsApiResponse stats = aggregator.toResponse("error OR info OR warn", false);
+
+        // Assert
+        Assertions.assertEquals("level", stats.getGroupBy());
+        Assertions.assertEquals(6, stats.getLines());
+        Assertions.assertEquals(List.of("ERROR", "INFO", "WARN"), List.copyOf(stats.getCounts().keySet()));
+        Assertions.assertEquals(Map.of("ERROR", 2L, "INFO", 2L, "WARN", 1L), stats.getCounts());
+        Assertions.assertFalse(stats.isTruncated());
+
+        Assertions.assertEquals(3, stats.getBuckets().size());
+        LogStatsApiResponse.Bucket newest = stats.getBuckets().get(0);
+        Assertions.assertEquals(1704103320000L, newest.getStart());
+        Assertions.assertEquals(1, newest.getLines());
+        Assertions.assertEquals(Map.of("ERROR", 1L), newest.getCounts());
+        Assertions.assertEquals(Map.of("ERROR", 1L, "INFO", 1L), stats.getBuckets().get(1).getCounts());
+        Assertions.assertEquals(1704103200000L, stats.getBuckets().get(2).getStart());
+    }
+
+    @Test
+    void testMergedSegmentsMatchOneAggregator() {
+        // Setup. Segments with their own field value ids, and more values and buckets than are counted
+        StringBuilder log = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            log.append(String.format("2024-01-01 10:%02d:%02d status=%d\n", 59 - i / 60 % 60, 59 - i % 60, 200 + i % 7));
+        }
+        List<String> lines = log.toString().lines().toList();
+        LogStatsAggregator whole = new LogStatsAggregator("status", 60_000, TIMESTAMP_PARSER, 5, 3);
+        LogStatsAggregator merged = new LogStatsAggregator("status", 60_000, TIMESTAMP_PARSER, 5, 3);
+
+        // Execution
+        for (String line : lines) {
+            accept(whole, line);
+        }
+        for (int start = 0; start < lines.size(); start += 70) {
+            LogStatsAggregator segment = new LogStatsAggregator("status", 60_000, TIMESTAMP_PARSER, 5, 3);
+            for (String line : lines.subList(start, Math.min(start + 70, lines.size()))) {
+                accept(segment, line);
+            }
+            merged.merge(segment);
+        }
+        LogStatsApiResponse wholeStats = whole.toResponse(null, false);
+        LogStatsApiResponse mergedStats = merged.toResponse(null, false);
+
+        // Assert
+        Assertions.assertEquals(300, mergedStats.getLines());
+        Assertions.assertEquals(wholeStats.getCounts(), mergedStats.getCounts());
+        Assertions.assertEquals(5, mergedStats.getCounts().size());
+        Assertions.assertTrue(mergedStats.isTruncated());
+        Assertions.assertEquals(3, mergedStats.getBuckets().size());
+        for (int i = 0; i < 3; i++) {
+            Assertions.assertEquals(wholeStats.getBuckets().get(i).getStart(), mergedStats.getBuckets().get(i).getStart());
+            Assertions.assertEquals(60, mergedStats.getBuckets().get(i).getLines());
+            Assertions.assertEquals(wholeStats.getBuckets().get(i).getCounts(), mergedStats.getBuckets().get(i).getCounts());
+        }
+    }
+
+    private static void accept(LogStatsAggregator aggregator, String line) {
+        // Lines sit in the middle of a bigger buffer, like they do in the scanner's read buffer
+        byte[] bytes = ("xx" + line + "yy").getBytes(StandardCharsets.UTF_8);
+        aggregator.accept(bytes, 2, bytes.length - 4);
+    }
+
+    private static String level(String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        int level = LogLevels.find(bytes, 0, bytes.length);
+        return level >= 0 ? LogLevels.getName(level) : null;
+    }
+
+    private static String field(String name, String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        long value = new FieldExtractor(name).find(bytes, 0, bytes.length);
+        if (value == FieldExtractor.NOT_FOUND) {
+            return null;
+        }
+        return new String(bytes, FieldExtractor.getValueOffset(value), FieldExtractor.getValueLength(value), StandardCharsets.UTF_8);
+    }
+}